@@ -0,0 +1,207 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_TIMEOUT_CEILING;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_TIMEOUT_FACTOR;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_TIMEOUT_FLOOR;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_TIMEOUT_INITIAL;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_TIMEOUT_PERCENTILE;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_TIMEOUT_WINDOW;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.persistance.connections.CassandraConfig;
+import com.airvana.loadtool.persistance.connections.PersistenceContext;
+import com.airvana.loadtool.persistance.metrics.LatencyWindow;
+
+/**
+ * Maintains per {@link OperationType} timeouts derived from the latencies
+ * recently observed on Cassandra.
+ *
+ * <p>
+ * The timeout of an operation is the configured percentile (99.9 by default)
+ * of its latest latencies multiplied by a factor and limited by a floor and a
+ * ceiling. Till enough latencies are recorded the initial timeout is used.
+ * </p>
+ *
+ * <p>
+ * The keys used from persistence config are
+ * {@code cassandra.timeout.percentile}, {@code cassandra.timeout.factor},
+ * {@code cassandra.timeout.floor.ms}, {@code cassandra.timeout.ceiling.ms},
+ * {@code cassandra.timeout.initial.ms} and {@code cassandra.timeout.window}.
+ * </p>
+ *
+ * <pre>
+ * AdaptiveTimeouts timeouts = AdaptiveTimeouts.getAdaptiveTimeouts();
+ * long timeout = timeouts.getTimeoutMillis(OperationType.POINT_READ);
+ * </pre>
+ *
+ * @author akballappagari
+ *
+ */
+public final class AdaptiveTimeouts {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(AdaptiveTimeouts.class);
+
+	/**
+	 * Timeouts are re-computed once per these many recorded latencies.
+	 */
+	private static final int RECOMPUTE_INTERVAL = 64;
+
+	/**
+	 * Latest latencies per operation.
+	 */
+	private final Map<OperationType, LatencyWindow> latencies = new EnumMap<OperationType, LatencyWindow>(
+			OperationType.class);
+
+	/**
+	 * Current timeouts per operation in milliseconds.
+	 */
+	private final Map<OperationType, Long> timeouts = Collections
+			.synchronizedMap(new EnumMap<OperationType, Long>(
+					OperationType.class));
+
+	private final double percentile;
+
+	private final double factor;
+
+	private final long floorMillis;
+
+	private final long ceilingMillis;
+
+	/**
+	 * Min no. of latencies to be recorded before the initial timeout is
+	 * replaced.
+	 */
+	private final int minSamples;
+
+	/**
+	 * Restricting the initialization
+	 */
+	private AdaptiveTimeouts(CassandraConfig config) {
+		percentile = config.getDouble(CASSANDRA_TIMEOUT_PERCENTILE, 99.9);
+		factor = config.getDouble(CASSANDRA_TIMEOUT_FACTOR, 2.0);
+		floorMillis = config.getLong(CASSANDRA_TIMEOUT_FLOOR, 20L);
+		ceilingMillis = Math.max(floorMillis,
+				config.getLong(CASSANDRA_TIMEOUT_CEILING, 10000L));
+		int window = config.getInt(CASSANDRA_TIMEOUT_WINDOW, 1024);
+		minSamples = Math.max(1, Math.min(window, 100));
+		long initial = clamp(config.getLong(CASSANDRA_TIMEOUT_INITIAL, 1000L));
+		for (OperationType type : OperationType.values()) {
+			latencies.put(type, new LatencyWindow(window));
+			timeouts.put(type, initial);
+		}
+		LOG.info("Adaptive timeouts initialized with p" + percentile + " x "
+				+ factor + " limited to [" + floorMillis + ", "
+				+ ceilingMillis + "] ms, initial timeout " + initial + " ms");
+	}
+
+	/**
+	 * Returns the AdaptiveTimeouts instance, creating it from the persistence
+	 * config of the current job if not created.
+	 *
+	 * @return AdaptiveTimeouts instance
+	 */
+	public static AdaptiveTimeouts getAdaptiveTimeouts() {
+		PersistenceContext context = PersistenceContext.current();
+		synchronized (context) {
+			AdaptiveTimeouts adaptiveTimeouts = context
+					.getComponent(AdaptiveTimeouts.class);
+			if (adaptiveTimeouts == null) {
+				adaptiveTimeouts = new AdaptiveTimeouts(context.getConfig());
+				context.putComponent(AdaptiveTimeouts.class, adaptiveTimeouts);
+			}
+			return adaptiveTimeouts;
+		}
+	}
+
+	/**
+	 * Records the latency of a completed operation.
+	 *
+	 * @param type
+	 *            of the operation
+	 * @param latencyNanos
+	 *            latency in nano seconds.
+	 */
+	public void record(OperationType type, long latencyNanos) {
+		LatencyWindow window = latencies.get(type);
+		window.record(latencyNanos);
+		long count = window.getRecordedCount();
+		if (count >= minSamples && count % RECOMPUTE_INTERVAL == 0) {
+			recompute(type, window);
+		}
+	}
+
+	/**
+	 * Records an operation which has timed out. The elapsed timeout is
+	 * recorded as latency so that timeouts grow when the cluster slows down.
+	 *
+	 * @param type
+	 *            of the operation
+	 * @param elapsedNanos
+	 *            time waited before giving up in nano seconds.
+	 */
+	public void recordTimeout(OperationType type, long elapsedNanos) {
+		record(type, elapsedNanos);
+	}
+
+	/**
+	 * @param type
+	 *            of the operation
+	 * @return current timeout of the operation in milliseconds.
+	 */
+	public long getTimeoutMillis(OperationType type) {
+		return timeouts.get(type);
+	}
+
+	/**
+	 * Returns the current timeouts of all operations in milliseconds, which is
+	 * useful to verify the limits under load.
+	 *
+	 * @return unmodifiable copy of current timeouts.
+	 */
+	public Map<OperationType, Long> getCurrentTimeouts() {
+		synchronized (timeouts) {
+			return Collections.unmodifiableMap(new EnumMap<OperationType, Long>(
+					timeouts));
+		}
+	}
+
+	/**
+	 * @param type
+	 *            of the operation
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return latency percentile of the operation in micro seconds.
+	 */
+	public long getLatencyMicros(OperationType type, double percentile) {
+		return latencies.get(type).percentile(percentile);
+	}
+
+	/**
+	 * Re-computes the timeout of the given operation from its latencies.
+	 */
+	private void recompute(OperationType type, LatencyWindow window) {
+		long percentileMicros = window.percentile(percentile);
+		timeouts.put(type,
+				clamp((long) Math.ceil(percentileMicros * factor / 1000.0)));
+	}
+
+	/**
+	 * Limits the given timeout to floor and ceiling.
+	 */
+	private long clamp(long timeoutMillis) {
+		return Math.max(floorMillis, Math.min(ceilingMillis, timeoutMillis));
+	}
+
+	@Override
+	public String toString() {
+		return "AdaptiveTimeouts" + getCurrentTimeouts();
+	}
+}
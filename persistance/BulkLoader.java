@@ -0,0 +1,431 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.airvana.loadtool.commons.CommonUtility;
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+import com.airvana.loadtool.persistance.connections.CassandraSessionManager;
+import com.airvana.loadtool.persistance.format.SyntheticModels;
+import com.datastax.driver.core.ResultSetFuture;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Writes a stream of device models with parallel workers, for provisioning
+ * the devices of a run.
+ *
+ * <p>
+ * The models are queued per shard, see {@link ShardRouter}, so that a slow
+ * shard does not hold back the others, and every shard is written by its own
+ * workers each keeping a number of upserts in flight. Every model is written
+ * by the prepared upsert of {@link SimpleCassandraConnection}, which is routed
+ * to a replica of the device by the token aware policy. The models are not
+ * batched together, as every model is a partition of its own and a batch of
+ * partitions only moves the fan out to the coordinator; the upsert itself is
+ * a single partition batch. The writes are paced by the write rate of
+ * {@link ThroughputGovernor}.
+ * </p>
+ *
+ * <p>
+ * The progress is logged every 10 seconds. A model which can't be written is
+ * appended to the failed file, in the same format as the models file, so
+ * that the failed models are loaded again by giving the failed file as models
+ * file. As the upsert replaces the whole model, loading a model again is
+ * harmless, and an interrupted load is resumed by loading the same file
+ * again.
+ * </p>
+ *
+ * <p>
+ * Every line of a models file is a serialno and the JSON object of its
+ * model, separated by a tab.
+ * </p>
+ *
+ * <pre>
+ * java com.airvana.loadtool.persistance.BulkLoader conf/persistence/cassandra.properties models.txt|--generate=devices[:parameters] [threads] [in flight per thread] [failed file]
+ * </pre>
+ *
+ * @author akballappagari
+ *
+ */
+public final class BulkLoader {
+
+	private static final JobLogger LOG = JobLogger.getLogger(BulkLoader.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final long REPORT_MILLIS = 10000L;
+
+	/**
+	 * end of the models, one per worker.
+	 */
+	private static final Map.Entry<String, Map<String, String>> END = new AbstractMap.SimpleImmutableEntry<String, Map<String, String>>(
+			"", null);
+
+	private static final Type MODEL_TYPE = new TypeToken<Map<String, String>>() {
+	}.getType();
+
+	private final SimpleCassandraConnection connection;
+
+	private final ShardRouter router;
+
+	private final int threads;
+
+	private final int inFlight;
+
+	private final File failedFile;
+
+	private final Gson gson = new Gson();
+
+	private final AtomicLong loaded = new AtomicLong();
+
+	private final AtomicLong failed = new AtomicLong();
+
+	private Writer failedWriter;
+
+	/**
+	 * @param threads
+	 *            no. of workers, at least one per shard.
+	 * @param inFlight
+	 *            max. no. of upserts in flight per worker.
+	 * @param failedFile
+	 *            to which the models not written are appended.
+	 */
+	public BulkLoader(int threads, int inFlight, File failedFile) {
+		this.connection = SimpleCassandraConnection.getConnection();
+		this.router = ShardRouter.getShardRouter();
+		this.threads = Math.max(threads, router.getShards().size());
+		this.inFlight = Math.max(1, inFlight);
+		this.failedFile = failedFile;
+	}
+
+	/**
+	 * Writes the given models and waits till every write is done.
+	 *
+	 * @param models
+	 *            serialno and model of every device
+	 * @return no. of models written.
+	 * @throws CassandraException
+	 *             if the models can't be read or the failed file can't be
+	 *             opened. The models read till then are still written.
+	 */
+	public long load(Iterator<Map.Entry<String, Map<String, String>>> models)
+			throws CassandraException {
+		List<String> shards = router.getShards();
+		Map<String, BlockingQueue<Map.Entry<String, Map<String, String>>>> queues = Maps
+				.newHashMap();
+		int perShard = (threads + shards.size() - 1) / shards.size();
+		ExecutorService executor = Executors.newFixedThreadPool(perShard
+				* shards.size());
+		List<Future<Void>> futures = Lists.newArrayList();
+		long start = System.currentTimeMillis();
+		long read = 0;
+		RuntimeException readFailure = null;
+		try {
+			failedWriter = new OutputStreamWriter(new FileOutputStream(
+					failedFile, true), UTF8);
+			for (String shard : shards) {
+				BlockingQueue<Map.Entry<String, Map<String, String>>> queue = new ArrayBlockingQueue<Map.Entry<String, Map<String, String>>>(
+						perShard * inFlight * 2);
+				queues.put(shard, queue);
+				for (int i = 0; i < perShard; i++) {
+					futures.add(executor.submit(worker(queue)));
+				}
+			}
+			long reported = start;
+			try {
+				while (models.hasNext()) {
+					Map.Entry<String, Map<String, String>> model = models
+							.next();
+					queues.get(router.route(model.getKey())).put(model);
+					read++;
+					if (System.currentTimeMillis() - reported >= REPORT_MILLIS) {
+						reported = System.currentTimeMillis();
+						report(read, start);
+					}
+				}
+			} catch (RuntimeException re) {
+				// the models read so far are still written.
+				readFailure = re;
+			}
+			for (BlockingQueue<Map.Entry<String, Map<String, String>>> queue : queues
+					.values()) {
+				for (int i = 0; i < perShard; i++) {
+					queue.put(END);
+				}
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (IOException ioe) {
+			throw new CassandraException(ioe);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new CassandraException("Interrupted while loading", ie);
+		} catch (ExecutionException ee) {
+			throw new CassandraException(ee.getCause());
+		} finally {
+			executor.shutdownNow();
+			close();
+		}
+		report(read, start);
+		if (readFailure != null) {
+			throw new CassandraException("Unable to read the models after "
+					+ read + " models", readFailure);
+		}
+		return loaded.get();
+	}
+
+	/**
+	 * @return no. of models written so far.
+	 */
+	public long getLoaded() {
+		return loaded.get();
+	}
+
+	/**
+	 * @return no. of models which could not be written so far.
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return worker writing the models of the given queue till {@link #END}.
+	 */
+	private Callable<Void> worker(
+			final BlockingQueue<Map.Entry<String, Map<String, String>>> queue) {
+		return new Callable<Void>() {
+			@Override
+			public Void call() throws InterruptedException {
+				final Semaphore permits = new Semaphore(inFlight);
+				Map.Entry<String, Map<String, String>> model;
+				while ((model = queue.take()) != END) {
+					permits.acquire();
+					final String serialno = model.getKey();
+					final Map<String, String> values = model.getValue();
+					final ResultSetFuture future;
+					try {
+						future = connection.executeAsync(serialno, values);
+					} catch (CassandraException ce) {
+						permits.release();
+						fail(serialno, values, ce);
+						continue;
+					} catch (RuntimeException re) {
+						// e.g. a shard unknown to the router or a driver
+						// failure, which must not stop the worker.
+						permits.release();
+						fail(serialno, values, re);
+						continue;
+					}
+					future.addListener(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								future.getUninterruptibly();
+								loaded.incrementAndGet();
+							} catch (RuntimeException re) {
+								fail(serialno, values, re);
+							} finally {
+								permits.release();
+							}
+						}
+					}, MoreExecutors.sameThreadExecutor());
+				}
+				// waits for the writes in flight.
+				permits.acquire(inFlight);
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * Records the given model as failed in the failed file.
+	 */
+	private void fail(String serialno, Map<String, String> model,
+			Exception cause) {
+		if (failed.incrementAndGet() == 1) {
+			LOG.error("Unable to write the model of " + serialno + ": "
+					+ cause);
+			LOG.info("Models not written are recorded in " + failedFile);
+		}
+		String line = serialno + "\t" + gson.toJson(model) + "\n";
+		try {
+			synchronized (this) {
+				// null if the load has been interrupted meanwhile.
+				if (failedWriter != null) {
+					failedWriter.write(line);
+					failedWriter.flush();
+				}
+			}
+		} catch (IOException ioe) {
+			LOG.error(ioe);
+			LOG.info("Unable to record the failed model of " + serialno);
+		}
+	}
+
+	private void report(long read, long start) {
+		long elapsed = Math.max(1L, System.currentTimeMillis() - start);
+		LOG.info("Read " + read + " models, written " + loaded.get()
+				+ ", failed " + failed.get() + ", "
+				+ (loaded.get() * 1000L / elapsed) + " models/s");
+	}
+
+	private synchronized void close() {
+		if (failedWriter != null) {
+			try {
+				failedWriter.close();
+			} catch (IOException ioe) {
+				LOG.error(ioe);
+			}
+			failedWriter = null;
+		}
+	}
+
+	/**
+	 * Reads the models of the given models file lazily. The reader is closed
+	 * once every model is read.
+	 *
+	 * @param reader
+	 *            of the models file
+	 * @return serialno and model of every line.
+	 */
+	public static Iterator<Map.Entry<String, Map<String, String>>> read(
+			final BufferedReader reader) {
+		final Gson gson = new Gson();
+		return new AbstractIterator<Map.Entry<String, Map<String, String>>>() {
+			private long lineNo;
+
+			@Override
+			protected Map.Entry<String, Map<String, String>> computeNext() {
+				String line;
+				try {
+					do {
+						line = reader.readLine();
+						lineNo++;
+					} while (line != null && line.trim().isEmpty());
+					if (line == null) {
+						reader.close();
+						return endOfData();
+					}
+				} catch (IOException ioe) {
+					throw new IllegalStateException(ioe);
+				}
+				int tab = line.indexOf('\t');
+				if (tab <= 0) {
+					throw new IllegalArgumentException("Line " + lineNo
+							+ " has no serialno");
+				}
+				Map<String, String> model = gson.fromJson(
+						line.substring(tab + 1), MODEL_TYPE);
+				return new AbstractMap.SimpleImmutableEntry<String, Map<String, String>>(
+						line.substring(0, tab), model);
+			}
+		};
+	}
+
+	/**
+	 * Generates the models of the given no. of devices lazily, see
+	 * {@link SyntheticModels}.
+	 *
+	 * @param devices
+	 *            no. of devices
+	 * @param parameters
+	 *            no. of parameters per device
+	 * @return serialno and model of every device.
+	 */
+	public static Iterator<Map.Entry<String, Map<String, String>>> generate(
+			final int devices, final int parameters) {
+		final Random random = new Random(42);
+		return new AbstractIterator<Map.Entry<String, Map<String, String>>>() {
+			private int device;
+
+			@Override
+			protected Map.Entry<String, Map<String, String>> computeNext() {
+				if (device >= devices) {
+					return endOfData();
+				}
+				Map.Entry<String, Map<String, String>> model = new AbstractMap.SimpleImmutableEntry<String, Map<String, String>>(
+						"SN" + device, SyntheticModels.generate(device,
+								parameters, random));
+				device++;
+				return model;
+			}
+		};
+	}
+
+	/**
+	 * Entry point of the tool.
+	 *
+	 * @param args
+	 *            persistence config file, models file or
+	 *            --generate=devices[:parameters], optional no. of threads (16), writes in
+	 *            flight per thread (32) and failed file (failed-models.txt).
+	 * @throws Exception
+	 *             if loading fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out
+					.println("Usage: BulkLoader <persistence config> <models file>|--generate=<devices>[:<parameters>] [threads] [in flight per thread] [failed file]");
+			return;
+		}
+		Map<String, String> info = Maps.fromProperties(CommonUtility
+				.loadProperties(args[0]));
+		CassandraSessionManager.initSessionManager(info);
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+		int inFlight = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+		File failedFile = new File(args.length > 4 ? args[4]
+				: "failed-models.txt");
+		Iterator<Map.Entry<String, Map<String, String>>> models;
+		if (args[1].startsWith("--generate=")) {
+			String[] spec = args[1].substring("--generate=".length()).split(
+					":");
+			models = generate(Integer.parseInt(spec[0]),
+					spec.length > 1 ? Integer.parseInt(spec[1]) : 200);
+		} else {
+			models = read(new BufferedReader(new InputStreamReader(
+					new FileInputStream(args[1]), UTF8)));
+		}
+		BulkLoader loader = new BulkLoader(threads, inFlight, failedFile);
+		try {
+			loader.load(models);
+			LOG.info("Models written: " + loader.getLoaded() + ", failed: "
+					+ loader.getFailed()
+					+ (loader.getFailed() > 0 ? ", recorded in " + failedFile
+							: ""));
+		} finally {
+			CassandraSessionManager.getSessionManager().shutdown();
+		}
+	}
+}
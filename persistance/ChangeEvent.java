@@ -0,0 +1,78 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A persisted change of a device model, published by {@link ChangeFeed}.
+ *
+ * @author akballappagari
+ *
+ */
+public final class ChangeEvent {
+
+	private final String serialno;
+
+	private final OperationType operation;
+
+	private final Map<String, String> parameters;
+
+	private final long timestamp;
+
+	/**
+	 * @param serialno
+	 *            of the device changed
+	 * @param operation
+	 *            {@link OperationType#WRITE} or {@link OperationType#RESET}
+	 * @param parameters
+	 *            parameters written, {@code null} for a reset.
+	 * @param timestamp
+	 *            time of the change in milliseconds.
+	 */
+	public ChangeEvent(String serialno, OperationType operation,
+			Map<String, String> parameters, long timestamp) {
+		this.serialno = serialno;
+		this.operation = operation;
+		this.parameters = parameters == null ? Collections
+				.<String, String> emptyMap() : Collections
+				.unmodifiableMap(parameters);
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * @return serialno of the device changed.
+	 */
+	public String getSerialno() {
+		return serialno;
+	}
+
+	/**
+	 * @return {@link OperationType#WRITE} or {@link OperationType#RESET}.
+	 */
+	public OperationType getOperation() {
+		return operation;
+	}
+
+	/**
+	 * @return read only parameters written, empty for a reset.
+	 */
+	public Map<String, String> getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * @return time of the change in milliseconds.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return operation + " " + serialno + " at " + timestamp + " ("
+				+ parameters.size() + " parameters)";
+	}
+}
@@ -0,0 +1,469 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_FEED_BUCKET;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_FEED_BUFFER;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_FEED_ENABLED;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_FEED_PERSIST;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_FEED_SUB_BUCKETS;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_FEED_TTL;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+import com.airvana.loadtool.persistance.connections.CassandraConfig;
+import com.airvana.loadtool.persistance.connections.CassandraSession;
+import com.airvana.loadtool.persistance.connections.PersistenceContext;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * In process feed of the device models persisted by {@link DevicePersistence},
+ * so that the other components of the load tool learn about the changes
+ * without scanning the model table.
+ *
+ * <p>
+ * A {@link ChangeEvent} is published once a write or reset has succeeded,
+ * including the writes persisted in background by {@link WriteBehindQueue}.
+ * Every {@link Subscription} has its own bounded buffer of
+ * {@code cassandra.feed.buffer} events (10000 by default) and takes the
+ * events at its own pace by {@link Subscription#poll(int, long, TimeUnit)}.
+ * Publishing never blocks the writers: an event which does not fit in the
+ * buffer of a slow subscriber is dropped for it and counted in
+ * {@link Subscription#getDropped()}, after which the subscriber should
+ * re-read the models it is interested in. Without a subscriber nothing but a
+ * check of the subscriber list is done per write. The feed is enabled by
+ * {@code cassandra.feed.enabled}.
+ * </p>
+ *
+ * <p>
+ * With {@code cassandra.feed.persist=true} the events are also written in
+ * background to {@code model_feed} table of the shard of the device, in
+ * buckets of {@code cassandra.feed.bucket.ms} (one minute by default)
+ * expiring after {@code cassandra.feed.ttl} seconds (one day by default), so
+ * that the load tool processes can follow each other by
+ * {@link #readPersisted(long)}. As in {@link ModelChangeLog}, every bucket is
+ * split in {@code cassandra.feed.sub.buckets} partitions (16 by default) by
+ * the hash of the serialno, and a bucket is read from all of them. The
+ * writer borrows the sessions of the shards for every round of events and
+ * is stopped when the {@link PersistenceContext} of the job is closed. The
+ * table has to be created on every shard as below, or by
+ * {@code cassandra.schema.mode=create}. A table created with the bucket
+ * alone as partition key has to be dropped and created again.
+ * </p>
+ *
+ * <pre>
+ * CREATE TABLE model_feed (
+ * 	bucket bigint,
+ * 	sub_bucket int,
+ * 	changed bigint,
+ * 	serialno text,
+ * 	operation text,
+ * 	parameters map&lt;text, text&gt;,
+ * 	PRIMARY KEY ((bucket, sub_bucket), changed, serialno)
+ * ) WITH compaction = {'class': 'TimeWindowCompactionStrategy',
+ * 	'compaction_window_unit': 'HOURS', 'compaction_window_size': 1};
+ * </pre>
+ *
+ * @author akballappagari
+ *
+ */
+public final class ChangeFeed implements Closeable {
+
+	private static final JobLogger LOG = JobLogger.getLogger(ChangeFeed.class);
+
+	/**
+	 * max. no. of events persisted in a round.
+	 */
+	private static final int PERSIST_BATCH = 256;
+
+	private final boolean enabled;
+
+	private final int buffer;
+
+	private final long bucketMillis;
+
+	private final long ttlSeconds;
+
+	private final int subBuckets;
+
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+	private final PersistenceContext context;
+
+	/**
+	 * writes the events to {@code model_feed} table, {@code null} if they are
+	 * not persisted.
+	 */
+	private Thread writer;
+
+	/**
+	 * Restricting the initialization
+	 */
+	private ChangeFeed(PersistenceContext context, CassandraConfig config) {
+		this.context = context;
+		enabled = config.getBoolean(CASSANDRA_FEED_ENABLED, false);
+		buffer = Math.max(1, config.getInt(CASSANDRA_FEED_BUFFER, 10000));
+		bucketMillis = Math.max(1L, config.getLong(CASSANDRA_FEED_BUCKET,
+				TimeUnit.MINUTES.toMillis(1)));
+		ttlSeconds = config.getLong(CASSANDRA_FEED_TTL,
+				TimeUnit.DAYS.toSeconds(1));
+		subBuckets = Math.max(1, config.getInt(CASSANDRA_FEED_SUB_BUCKETS, 16));
+		if (enabled && config.getBoolean(CASSANDRA_FEED_PERSIST, false)) {
+			startPersisting();
+		}
+	}
+
+	/**
+	 * Returns the ChangeFeed of the job, creating it from the persistence
+	 * config if not created.
+	 *
+	 * @return ChangeFeed instance
+	 */
+	public static ChangeFeed getChangeFeed() {
+		PersistenceContext context = PersistenceContext.current();
+		synchronized (context) {
+			ChangeFeed changeFeed = context.getComponent(ChangeFeed.class);
+			if (changeFeed == null) {
+				changeFeed = new ChangeFeed(context, context.getConfig());
+				context.putComponent(ChangeFeed.class, changeFeed);
+			}
+			return changeFeed;
+		}
+	}
+
+	/**
+	 * @return true if the changes are published.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Subscribes to the changes published from now on.
+	 *
+	 * @param name
+	 *            of the subscriber, used in the logs.
+	 * @return subscription, to be closed once not needed.
+	 * @throws CassandraException
+	 *             if the feed is not enabled.
+	 */
+	public Subscription subscribe(String name) throws CassandraException {
+		if (!enabled) {
+			throw new CassandraException(
+					"Subscribing to the changes needs cassandra.feed.enabled=true",
+					null);
+		}
+		Subscription subscription = new Subscription(name, buffer);
+		subscriptions.add(subscription);
+		LOG.info("Subscriber " + name + " added to the change feed");
+		return subscription;
+	}
+
+	/**
+	 * Publishes a change which has been persisted.
+	 *
+	 * @param serialno
+	 *            of the device changed
+	 * @param operation
+	 *            {@link OperationType#WRITE} or {@link OperationType#RESET}
+	 * @param parameters
+	 *            parameters written, {@code null} for a reset.
+	 */
+	public void publish(String serialno, OperationType operation,
+			Map<String, String> parameters) {
+		if (subscriptions.isEmpty()) {
+			return;
+		}
+		ChangeEvent event = new ChangeEvent(serialno, operation, parameters,
+				System.currentTimeMillis());
+		for (Subscription subscription : subscriptions) {
+			subscription.offer(event);
+		}
+	}
+
+	/**
+	 * Publishes the given change once its execution has succeeded.
+	 *
+	 * @param futureSet
+	 *            of the execution, {@code null} if queued in write-behind
+	 *            mode, where the change is published by the writers.
+	 * @param serialno
+	 *            of the device changed
+	 * @param operation
+	 *            {@link OperationType#WRITE} or {@link OperationType#RESET}
+	 * @param parameters
+	 *            parameters written, {@code null} for a reset.
+	 */
+	public void publishOnSuccess(final ResultSetFuture futureSet,
+			final String serialno, final OperationType operation,
+			final Map<String, String> parameters) {
+		if (futureSet == null || subscriptions.isEmpty()) {
+			return;
+		}
+		futureSet.addListener(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					futureSet.getUninterruptibly();
+				} catch (RuntimeException re) {
+					return;
+				}
+				publish(serialno, operation, parameters);
+			}
+		}, MoreExecutors.sameThreadExecutor());
+	}
+
+	/**
+	 * Reads the changes persisted in {@code model_feed} table of every shard
+	 * after the given time, by any load tool process. The changes older than
+	 * {@code cassandra.feed.ttl} have expired, so the buckets before it are
+	 * not read.
+	 *
+	 * @param sinceMillis
+	 *            time after which the changes are needed.
+	 * @return changes in the order they were made.
+	 * @throws CassandraException
+	 *             if any exception occurs while cassandra operation.
+	 */
+	public List<ChangeEvent> readPersisted(long sinceMillis)
+			throws CassandraException {
+		List<ChangeEvent> events = Lists.newArrayList();
+		long now = System.currentTimeMillis();
+		long first = (ttlSeconds > 0 ? Math.max(sinceMillis, now
+				- TimeUnit.SECONDS.toMillis(ttlSeconds)) : sinceMillis)
+				/ bucketMillis;
+		long last = now / bucketMillis;
+		for (String shard : ShardRouter.getShardRouter(context).getShards()) {
+			CassandraSession session = CassandraSession.open(context, shard);
+			try {
+				for (long bucket = first; bucket <= last; bucket++) {
+					for (int sub = 0; sub < subBuckets; sub++) {
+						readPersisted(session, bucket, sub, sinceMillis,
+								events);
+					}
+				}
+			} catch (RuntimeException re) {
+				throw new CassandraException(re);
+			} finally {
+				session.close();
+			}
+		}
+		Collections.sort(events, new Comparator<ChangeEvent>() {
+			@Override
+			public int compare(ChangeEvent first, ChangeEvent second) {
+				return first.getTimestamp() < second.getTimestamp() ? -1
+						: (first.getTimestamp() == second.getTimestamp() ? 0
+								: 1);
+			}
+		});
+		return events;
+	}
+
+	/**
+	 * Reads the changes of the given sub-bucket after the given time.
+	 */
+	private static void readPersisted(CassandraSession session, long bucket,
+			int subBucket, long sinceMillis, List<ChangeEvent> events) {
+		for (Row row : session.execute(
+				"SELECT changed, serialno, operation, parameters FROM model_feed WHERE bucket = ? AND sub_bucket = ? AND changed > ?",
+				bucket, subBucket, sinceMillis)) {
+			OperationType operation = OperationType.valueOf(row.getString(2));
+			events.add(new ChangeEvent(row.getString(1), operation,
+					operation == OperationType.RESET ? null : row.getMap(3,
+							String.class, String.class), row.getLong(0)));
+		}
+	}
+
+	/**
+	 * Writes the published events to {@code model_feed} table in background.
+	 */
+	private void startPersisting() {
+		final Subscription subscription = new Subscription("model_feed",
+				buffer);
+		subscriptions.add(subscription);
+		writer = new Thread(context.wrap(new Runnable() {
+			@Override
+			public void run() {
+				// prepared on the cluster of the shard, which outlives the
+				// sessions borrowed.
+				Map<String, PreparedStatement> inserts = Maps.newHashMap();
+				ShardRouter router = ShardRouter.getShardRouter(context);
+				try {
+					while (true) {
+						List<ChangeEvent> events = subscription.poll(
+								PERSIST_BATCH, 1, TimeUnit.SECONDS);
+						if (events.isEmpty()) {
+							continue;
+						}
+						long failed = persist(events, router, inserts);
+						if (failed > 0) {
+							LOG.info(failed
+									+ " changes could not be written to model_feed");
+						}
+					}
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}), "cassandra-change-feed-" + context.getName());
+		writer.setDaemon(true);
+		writer.start();
+		LOG.info("Model changes are written to model_feed in buckets of "
+				+ bucketMillis + " ms for " + ttlSeconds + " s");
+	}
+
+	/**
+	 * Writes a round of events to {@code model_feed} table. The sessions of
+	 * the shards are borrowed for the round only, so that the writer never
+	 * holds a session of the pool while waiting for events.
+	 *
+	 * @return no. of events which could not be written.
+	 */
+	private long persist(List<ChangeEvent> events, ShardRouter router,
+			Map<String, PreparedStatement> inserts) {
+		Map<String, CassandraSession> sessions = Maps.newHashMap();
+		List<ResultSetFuture> futures = Lists.newArrayList();
+		long failed = 0;
+		try {
+			for (ChangeEvent event : events) {
+				String shard = router.route(event.getSerialno());
+				try {
+					CassandraSession session = sessions.get(shard);
+					if (session == null) {
+						session = CassandraSession.open(context, shard);
+						sessions.put(shard, session);
+					}
+					PreparedStatement insert = inserts.get(shard);
+					if (insert == null) {
+						insert = session
+								.prepare("INSERT INTO model_feed(bucket, sub_bucket, changed, serialno, operation, parameters) VALUES (?, ?, ?, ?, ?, ?) USING TTL ?");
+						inserts.put(shard, insert);
+					}
+					futures.add(session.executeAsync(insert.bind(
+							event.getTimestamp() / bucketMillis,
+							ModelChangeLog.subBucketOf(event.getSerialno(),
+									subBuckets), event.getTimestamp(),
+							event.getSerialno(), event.getOperation().name(),
+							event.getParameters(), (int) ttlSeconds)));
+				} catch (CassandraException ce) {
+					failed++;
+				} catch (RuntimeException re) {
+					failed++;
+				}
+			}
+			for (ResultSetFuture future : futures) {
+				try {
+					future.getUninterruptibly();
+				} catch (RuntimeException re) {
+					failed++;
+				}
+			}
+		} finally {
+			for (CassandraSession session : sessions.values()) {
+				session.close();
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Stops writing the events to {@code model_feed} table. Called when the
+	 * context of the job is closed.
+	 */
+	@Override
+	public void close() {
+		if (writer != null) {
+			writer.interrupt();
+		}
+	}
+
+	/**
+	 * Subscription to the changes, with a bounded buffer of its own.
+	 */
+	public final class Subscription {
+
+		private final String name;
+
+		private final BlockingQueue<ChangeEvent> events;
+
+		private final AtomicLong dropped = new AtomicLong();
+
+		private Subscription(String name, int buffer) {
+			this.name = name;
+			this.events = new ArrayBlockingQueue<ChangeEvent>(buffer);
+		}
+
+		/**
+		 * Takes the next changes, waiting for the first one up to the given
+		 * timeout.
+		 *
+		 * @param max
+		 *            max. no. of changes taken.
+		 * @param timeout
+		 *            max. time to wait for a change.
+		 * @param unit
+		 *            of timeout
+		 * @return changes in the order they were published, empty if none
+		 *         is published within the timeout.
+		 * @throws InterruptedException
+		 *             if interrupted while waiting.
+		 */
+		public List<ChangeEvent> poll(int max, long timeout, TimeUnit unit)
+				throws InterruptedException {
+			List<ChangeEvent> taken = Lists.newArrayList();
+			ChangeEvent first = events.poll(timeout, unit);
+			if (first != null) {
+				taken.add(first);
+				events.drainTo(taken, max - 1);
+			}
+			return taken;
+		}
+
+		/**
+		 * @return no. of changes published and not taken yet.
+		 */
+		public int getBacklog() {
+			return events.size();
+		}
+
+		/**
+		 * @return no. of changes dropped as the buffer was full.
+		 */
+		public long getDropped() {
+			return dropped.get();
+		}
+
+		/**
+		 * Stops the subscription. The changes not taken are discarded.
+		 */
+		public void close() {
+			subscriptions.remove(this);
+			events.clear();
+			LOG.info("Subscriber " + name + " removed from the change feed");
+		}
+
+		private void offer(ChangeEvent event) {
+			if (!events.offer(event) && dropped.incrementAndGet() == 1) {
+				LOG.info("Subscriber " + name
+						+ " is not keeping up with the change feed. So, dropping changes.");
+			}
+		}
+	}
+}
@@ -0,0 +1,352 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_BREAKER_ENABLED;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_BREAKER_FAILURE_RATE;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_BREAKER_MIN_CALLS;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_BREAKER_OPEN;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_BREAKER_PROBES;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_BREAKER_SLOW_CALL;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_BREAKER_SLOW_CALL_RATE;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_BREAKER_WINDOW;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.persistance.connections.CassandraConfig;
+import com.airvana.loadtool.persistance.connections.PersistenceContext;
+
+/**
+ * Circuit breaker of a shard, which stops contacting Cassandra while it is
+ * failing so that the callers fail fast instead of waiting for driver
+ * timeouts.
+ *
+ * <p>
+ * The outcome of the latest {@code cassandra.breaker.window} (100) executions
+ * is kept. Once at least {@code cassandra.breaker.min.calls} (20) executions
+ * are recorded, the breaker opens if {@code cassandra.breaker.failure.rate}
+ * (50) percent of them failed or {@code cassandra.breaker.slow.call.rate}
+ * (80) percent of them took longer than {@code cassandra.breaker.slow.call.ms}
+ * (2000). After {@code cassandra.breaker.open.ms} (5000) the breaker is half
+ * open and lets {@code cassandra.breaker.probes} (3) executions through. If
+ * all of them succeed, the breaker closes, otherwise it opens again.
+ * </p>
+ *
+ * <pre>
+ * CircuitBreaker breaker = CircuitBreaker.forShard(shard);
+ * if (!breaker.allowRequest()) {
+ * 	throw new CircuitOpenException(shard);
+ * }
+ * long start = System.nanoTime();
+ * try {
+ * 	session.execute(query);
+ * 	breaker.onSuccess(System.nanoTime() - start);
+ * } catch (DriverException e) {
+ * 	breaker.onFailure(System.nanoTime() - start);
+ * }
+ * </pre>
+ *
+ * Every call of {@link #allowRequest()} which returned true has to be
+ * followed by either {@link #onSuccess(long)} or {@link #onFailure(long)}.
+ *
+ * @author akballappagari
+ *
+ */
+public final class CircuitBreaker {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(CircuitBreaker.class);
+
+	/**
+	 * States of the breaker.
+	 */
+	public enum State {
+		/**
+		 * executions are sent to Cassandra.
+		 */
+		CLOSED,
+		/**
+		 * executions fail fast.
+		 */
+		OPEN,
+		/**
+		 * few probing executions are sent to Cassandra.
+		 */
+		HALF_OPEN
+	}
+
+	/**
+	 * Breakers of every shard used so far by a job, stored in its
+	 * {@link PersistenceContext}.
+	 */
+	private static final class Breakers {
+
+		private final ConcurrentMap<String, CircuitBreaker> shards = new ConcurrentHashMap<String, CircuitBreaker>();
+	}
+
+	private final String shard;
+
+	private final boolean enabled;
+
+	private final int minCalls;
+
+	private final double failureRate;
+
+	private final long slowCallNanos;
+
+	private final double slowCallRate;
+
+	private final long openNanos;
+
+	private final int probes;
+
+	/**
+	 * Outcomes of the latest executions, as a ring.
+	 */
+	private final boolean[] failures;
+
+	private final boolean[] slowCalls;
+
+	private int next;
+
+	private int calls;
+
+	private int failureCount;
+
+	private int slowCallCount;
+
+	private State state = State.CLOSED;
+
+	private long openedAt;
+
+	private int probesInFlight;
+
+	private int probesSucceeded;
+
+	private long timesOpened;
+
+	private long rejected;
+
+	/**
+	 * @param shard
+	 *            name of the shard.
+	 * @param config
+	 *            persistence config.
+	 */
+	CircuitBreaker(String shard, CassandraConfig config) {
+		this.shard = shard;
+		this.enabled = config.getBoolean(CASSANDRA_BREAKER_ENABLED, true);
+		int window = Math.max(1, config.getInt(CASSANDRA_BREAKER_WINDOW, 100));
+		this.failures = new boolean[window];
+		this.slowCalls = new boolean[window];
+		this.minCalls = Math.min(window,
+				Math.max(1, config.getInt(CASSANDRA_BREAKER_MIN_CALLS, 20)));
+		this.failureRate = config.getDouble(CASSANDRA_BREAKER_FAILURE_RATE,
+				50.0);
+		this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong(
+				CASSANDRA_BREAKER_SLOW_CALL, 2000L));
+		this.slowCallRate = config.getDouble(CASSANDRA_BREAKER_SLOW_CALL_RATE,
+				80.0);
+		this.openNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong(
+				CASSANDRA_BREAKER_OPEN, 5000L));
+		this.probes = Math.max(1, config.getInt(CASSANDRA_BREAKER_PROBES, 3));
+	}
+
+	/**
+	 * @param shard
+	 *            name of the shard
+	 * @return breaker of the shard for the job of the current thread, created
+	 *         if not available.
+	 */
+	public static CircuitBreaker forShard(String shard) {
+		return forShard(PersistenceContext.current(), shard);
+	}
+
+	/**
+	 * @param context
+	 *            of the job
+	 * @param shard
+	 *            name of the shard
+	 * @return breaker of the shard for the given job, created if not
+	 *         available.
+	 */
+	public static CircuitBreaker forShard(PersistenceContext context,
+			String shard) {
+		Breakers breakers;
+		synchronized (context) {
+			breakers = context.getComponent(Breakers.class);
+			if (breakers == null) {
+				breakers = new Breakers();
+				context.putComponent(Breakers.class, breakers);
+			}
+		}
+		CircuitBreaker breaker = breakers.shards.get(shard);
+		if (breaker == null) {
+			CircuitBreaker created = new CircuitBreaker(shard,
+					context.getConfig());
+			breaker = breakers.shards.putIfAbsent(shard, created);
+			if (breaker == null) {
+				breaker = created;
+			}
+		}
+		return breaker;
+	}
+
+	/**
+	 * Returns true if an execution may be sent to Cassandra. While half open
+	 * only the probing executions are allowed.
+	 *
+	 * @return true if allowed, false if the caller has to fail fast.
+	 */
+	public synchronized boolean allowRequest() {
+		if (!enabled) {
+			return true;
+		}
+		switch (state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (System.nanoTime() - openedAt < openNanos) {
+				rejected++;
+				return false;
+			}
+			transition(State.HALF_OPEN);
+			probesInFlight = 0;
+			probesSucceeded = 0;
+			// falls through to allow the first probe.
+		default:
+			if (probesInFlight + probesSucceeded >= probes) {
+				rejected++;
+				return false;
+			}
+			probesInFlight++;
+			return true;
+		}
+	}
+
+	/**
+	 * Records a successful execution.
+	 *
+	 * @param latencyNanos
+	 *            of the execution.
+	 */
+	public synchronized void onSuccess(long latencyNanos) {
+		if (!enabled) {
+			return;
+		}
+		if (state == State.HALF_OPEN) {
+			probesInFlight = Math.max(0, probesInFlight - 1);
+			if (latencyNanos >= slowCallNanos) {
+				open();
+			} else if (++probesSucceeded >= probes) {
+				clearWindow();
+				transition(State.CLOSED);
+			}
+			return;
+		}
+		add(false, latencyNanos >= slowCallNanos);
+	}
+
+	/**
+	 * Records a failed execution, either an error reaching Cassandra or a
+	 * timeout.
+	 *
+	 * @param latencyNanos
+	 *            of the execution.
+	 */
+	public synchronized void onFailure(long latencyNanos) {
+		if (!enabled) {
+			return;
+		}
+		if (state == State.HALF_OPEN) {
+			probesInFlight = Math.max(0, probesInFlight - 1);
+			open();
+			return;
+		}
+		add(true, latencyNanos >= slowCallNanos);
+	}
+
+	/**
+	 * @return current state of the breaker.
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return name of the shard of the breaker.
+	 */
+	public String getShard() {
+		return shard;
+	}
+
+	/**
+	 * @return no. of times the breaker has opened.
+	 */
+	public synchronized long getTimesOpened() {
+		return timesOpened;
+	}
+
+	/**
+	 * @return no. of executions rejected while open.
+	 */
+	public synchronized long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * Adds an outcome to the window and opens the breaker if the thresholds
+	 * are crossed.
+	 */
+	private void add(boolean failed, boolean slow) {
+		if (state == State.OPEN) {
+			// outcome of an execution sent before the breaker opened.
+			return;
+		}
+		if (calls == failures.length) {
+			failureCount -= failures[next] ? 1 : 0;
+			slowCallCount -= slowCalls[next] ? 1 : 0;
+		} else {
+			calls++;
+		}
+		failures[next] = failed;
+		slowCalls[next] = slow;
+		failureCount += failed ? 1 : 0;
+		slowCallCount += slow ? 1 : 0;
+		next = (next + 1) % failures.length;
+		if (calls >= minCalls
+				&& (failureCount * 100.0 / calls >= failureRate || slowCallCount
+						* 100.0 / calls >= slowCallRate)) {
+			LOG.info("Circuit breaker of shard " + shard + ": " + failureCount
+					+ " failed and " + slowCallCount + " slow of last " + calls
+					+ " executions");
+			open();
+		}
+	}
+
+	private void open() {
+		openedAt = System.nanoTime();
+		timesOpened++;
+		clearWindow();
+		transition(State.OPEN);
+	}
+
+	private void clearWindow() {
+		calls = 0;
+		next = 0;
+		failureCount = 0;
+		slowCallCount = 0;
+	}
+
+	private void transition(State newState) {
+		if (state != newState) {
+			LOG.info("Circuit breaker of shard " + shard + " changed from "
+					+ state + " to " + newState);
+			state = newState;
+		}
+	}
+}
@@ -0,0 +1,41 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+
+/**
+ * Thrown when an operation is not sent to Cassandra because the
+ * {@link CircuitBreaker} of its shard is open. Writes rejected this way are
+ * already stored in {@link FaultExecutionsCache}.
+ *
+ * @author akballappagari
+ *
+ */
+public class CircuitOpenException extends CassandraException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * shard whose circuit breaker is open.
+	 */
+	private final String shard;
+
+	/**
+	 * @param shard
+	 *            whose circuit breaker is open.
+	 */
+	public CircuitOpenException(String shard) {
+		super("Circuit breaker of shard " + shard
+				+ " is open, Cassandra is not contacted", null);
+		this.shard = shard;
+	}
+
+	/**
+	 * @return shard whose circuit breaker is open.
+	 */
+	public String getShard() {
+		return shard;
+	}
+}
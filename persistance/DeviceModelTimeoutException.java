@@ -0,0 +1,59 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+
+/**
+ * Thrown when a device model could not be retrieved within the timeout of the
+ * operation. This is different from an empty model, which means the device is
+ * not persisted at all.
+ *
+ * @author akballappagari
+ *
+ */
+public class DeviceModelTimeoutException extends CassandraException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * serialno for which the retrieval timed out.
+	 */
+	private final String serialno;
+
+	/**
+	 * timeout which has been elapsed in milliseconds.
+	 */
+	private final long timeoutMillis;
+
+	/**
+	 * @param serialno
+	 *            for which the retrieval timed out.
+	 * @param timeoutMillis
+	 *            timeout which has been elapsed.
+	 * @param cause
+	 *            of the timeout.
+	 */
+	public DeviceModelTimeoutException(String serialno, long timeoutMillis,
+			Throwable cause) {
+		super("Unable to retrieve the data for: " + serialno + " within "
+				+ timeoutMillis + " ms", cause);
+		this.serialno = serialno;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * @return serialno for which the retrieval timed out.
+	 */
+	public String getSerialno() {
+		return serialno;
+	}
+
+	/**
+	 * @return timeout which has been elapsed in milliseconds.
+	 */
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+}
@@ -0,0 +1,249 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.airvana.loadtool.client.DeviceParameter;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Read only model of a device, as returned by
+ * {@link DevicePersistence#getDeviceModel(String)}.
+ *
+ * <p>
+ * The parameter names and values are kept in an open addressing table of
+ * arrays, the names being interned in a pool shared by every model, and a
+ * {@link DeviceParameter} is created only when the parameter is first read.
+ * So a caller reading a few parameters does not pay for the whole model, and
+ * millions of models loaded at once share a single copy of every name.
+ * </p>
+ *
+ * <p>
+ * The view is safe to be read by several threads. Every modification throws
+ * {@link UnsupportedOperationException}; copy the model to a {@code HashMap}
+ * to modify it.
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class DeviceModelView extends AbstractMap<String, DeviceParameter> {
+
+	/**
+	 * pool of the parameter names, shared by every model.
+	 */
+	private static final Interner<String> NAMES = Interners.newWeakInterner();
+
+	private static final DeviceModelView EMPTY = new DeviceModelView(
+			new String[0], new String[0], 0);
+
+	/**
+	 * names by slot, {@code null} for a free slot.
+	 */
+	private final String[] names;
+
+	private final String[] values;
+
+	/**
+	 * parameters created so far by slot.
+	 */
+	private final AtomicReferenceArray<DeviceParameter> parameters;
+
+	private final int size;
+
+	private Set<Map.Entry<String, DeviceParameter>> entrySet;
+
+	/**
+	 * Restricting the initialization
+	 */
+	private DeviceModelView(String[] names, String[] values, int size) {
+		this.names = names;
+		this.values = values;
+		this.parameters = new AtomicReferenceArray<DeviceParameter>(
+				names.length);
+		this.size = size;
+	}
+
+	/**
+	 * Creates the view of the given parameter values.
+	 *
+	 * @param model
+	 *            parameter values by name, not retained by the view.
+	 * @return read only model.
+	 */
+	public static DeviceModelView of(Map<String, String> model) {
+		if (model.isEmpty()) {
+			return EMPTY;
+		}
+		String[] modelNames = new String[model.size()];
+		String[] modelValues = new String[model.size()];
+		int i = 0;
+		for (Map.Entry<String, String> entry : model.entrySet()) {
+			modelNames[i] = entry.getKey();
+			modelValues[i++] = entry.getValue();
+		}
+		return of(modelNames, modelValues, i);
+	}
+
+	/**
+	 * Creates the view of the given parameter values. A name repeated
+	 * takes the last of its values.
+	 *
+	 * @param modelNames
+	 *            parameter names, not {@code null}
+	 * @param modelValues
+	 *            value of every name
+	 * @param count
+	 *            no. of parameters in the arrays
+	 * @return read only model.
+	 */
+	public static DeviceModelView of(String[] modelNames,
+			String[] modelValues, int count) {
+		if (count == 0) {
+			return EMPTY;
+		}
+		int capacity = 2;
+		while (capacity < count * 2) {
+			capacity <<= 1;
+		}
+		String[] slots = new String[capacity];
+		String[] slotValues = new String[capacity];
+		int size = 0;
+		for (int i = 0; i < count; i++) {
+			String name = intern(modelNames[i]);
+			int slot = slotOf(slots, name);
+			if (slots[slot] == null) {
+				slots[slot] = name;
+				size++;
+			}
+			slotValues[slot] = modelValues[i];
+		}
+		return new DeviceModelView(slots, slotValues, size);
+	}
+
+	/**
+	 * @param name
+	 *            parameter name
+	 * @return the shared instance of the given name.
+	 */
+	public static String intern(String name) {
+		return NAMES.intern(name);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return key instanceof String && names.length > 0
+				&& names[slotOf(names, (String) key)] != null;
+	}
+
+	@Override
+	public DeviceParameter get(Object key) {
+		if (!(key instanceof String) || names.length == 0) {
+			return null;
+		}
+		int slot = slotOf(names, (String) key);
+		return names[slot] == null ? null : parameter(slot);
+	}
+
+	@Override
+	public Set<Map.Entry<String, DeviceParameter>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new AbstractSet<Map.Entry<String, DeviceParameter>>() {
+				@Override
+				public Iterator<Map.Entry<String, DeviceParameter>> iterator() {
+					return new EntryIterator();
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+		}
+		return entrySet;
+	}
+
+	/**
+	 * @return the parameter of the given slot, creating it on first read.
+	 */
+	private DeviceParameter parameter(int slot) {
+		DeviceParameter parameter = parameters.get(slot);
+		if (parameter == null) {
+			parameter = new DeviceParameter(names[slot], values[slot]);
+			if (!parameters.compareAndSet(slot, null, parameter)) {
+				parameter = parameters.get(slot);
+			}
+		}
+		return parameter;
+	}
+
+	/**
+	 * @return slot of the given name, or the free slot where it would be.
+	 */
+	private static int slotOf(String[] slots, String name) {
+		int mask = slots.length - 1;
+		int hash = name.hashCode();
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (slots[slot] != null && slots[slot] != name
+				&& !slots[slot].equals(name)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Iterates the occupied slots.
+	 */
+	private final class EntryIterator implements
+			Iterator<Map.Entry<String, DeviceParameter>> {
+
+		private int next = advance(0);
+
+		private int advance(int slot) {
+			while (slot < names.length && names[slot] == null) {
+				slot++;
+			}
+			return slot;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < names.length;
+		}
+
+		@Override
+		public Map.Entry<String, DeviceParameter> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			int slot = next;
+			next = advance(slot + 1);
+			return new AbstractMap.SimpleImmutableEntry<String, DeviceParameter>(
+					names[slot], parameter(slot));
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_ORDERED_THREADS;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+import com.airvana.loadtool.persistance.connections.PersistenceContext;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Executes the asynchronous operations of a device strictly in the order they
+ * are submitted, while the operations of different devices run in parallel.
+ *
+ * <p>
+ * Every device with an operation pending has a tail, the result of its last
+ * operation submitted. An operation submitted for a device without a tail is
+ * started right away by the caller; else it is started once the tail is
+ * completed, by one of the {@code cassandra.ordered.threads} dispatchers (8
+ * by default), so that the driver threads never wait for the throughput
+ * governor. The tail is swapped atomically, so the submission takes no lock,
+ * and it is removed once completed, so only the devices with an operation in
+ * flight are held. An operation is started even if the one before it failed,
+ * as a caller of the synchronous API would continue after an exception.
+ * The dispatchers run the operations with the {@link PersistenceContext} of
+ * the job bound, and are stopped when the context is closed.
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class DeviceOrderedExecutor implements Closeable {
+
+	/**
+	 * An operation of a device, started once the operations submitted before
+	 * it for the same device are completed.
+	 */
+	public interface Operation {
+
+		/**
+		 * Starts the operation.
+		 *
+		 * @return future of the execution, {@code null} if nothing has been
+		 *         executed, e.g. in write-behind mode.
+		 * @throws CassandraException
+		 *             if the operation can't be started.
+		 */
+		ResultSetFuture start() throws CassandraException;
+	}
+
+	/**
+	 * result of the last operation submitted per device.
+	 */
+	private final ConcurrentMap<String, SettableFuture<ResultSet>> tails = new ConcurrentHashMap<String, SettableFuture<ResultSet>>();
+
+	/**
+	 * starts the operations which waited for an earlier one.
+	 */
+	private final ExecutorService dispatcher;
+
+	private final PersistenceContext context;
+
+	/**
+	 * Restricting the initialization
+	 */
+	private DeviceOrderedExecutor(PersistenceContext context, int threads) {
+		this.context = context;
+		final AtomicInteger count = new AtomicInteger();
+		dispatcher = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable,
+						"cassandra-ordered-dispatcher-"
+								+ count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Returns the DeviceOrderedExecutor of the job, creating it from the
+	 * persistence config if not created.
+	 *
+	 * @return DeviceOrderedExecutor instance
+	 */
+	public static DeviceOrderedExecutor getDeviceOrderedExecutor() {
+		PersistenceContext context = PersistenceContext.current();
+		synchronized (context) {
+			DeviceOrderedExecutor orderedExecutor = context
+					.getComponent(DeviceOrderedExecutor.class);
+			if (orderedExecutor == null) {
+				orderedExecutor = new DeviceOrderedExecutor(context,
+						Math.max(1, context.getConfig().getInt(
+								CASSANDRA_ORDERED_THREADS, 8)));
+				context.putComponent(DeviceOrderedExecutor.class,
+						orderedExecutor);
+			}
+			return orderedExecutor;
+		}
+	}
+
+	/**
+	 * Submits the given operation of the given device.
+	 *
+	 * @param serialno
+	 *            of the device
+	 * @param operation
+	 *            to be started after the earlier operations of the device.
+	 * @return future of the result of the operation, failed with the
+	 *         exception of the operation if it fails.
+	 */
+	public ListenableFuture<ResultSet> submit(final String serialno,
+			final Operation operation) {
+		final SettableFuture<ResultSet> result = SettableFuture.create();
+		SettableFuture<ResultSet> previous = tails.put(serialno, result);
+		result.addListener(new Runnable() {
+			@Override
+			public void run() {
+				// removed only if no later operation has been submitted.
+				tails.remove(serialno, result);
+			}
+		}, MoreExecutors.sameThreadExecutor());
+		if (previous == null || previous.isDone()) {
+			start(operation, result);
+		} else {
+			previous.addListener(context.wrap(new Runnable() {
+				@Override
+				public void run() {
+					start(operation, result);
+				}
+			}), dispatcher);
+		}
+		return result;
+	}
+
+	/**
+	 * @return no. of devices having an operation in flight or waiting.
+	 */
+	public int getPendingDevices() {
+		return tails.size();
+	}
+
+	/**
+	 * Stops the dispatchers. Called when the context of the job is closed.
+	 */
+	@Override
+	public void close() {
+		dispatcher.shutdown();
+	}
+
+	/**
+	 * Starts the given operation and completes the given result with its
+	 * outcome.
+	 */
+	private static void start(Operation operation,
+			final SettableFuture<ResultSet> result) {
+		final ResultSetFuture futureSet;
+		try {
+			futureSet = operation.start();
+		} catch (CassandraException ce) {
+			result.setException(ce);
+			return;
+		} catch (RuntimeException re) {
+			result.setException(re);
+			return;
+		}
+		if (futureSet == null) {
+			result.set(null);
+			return;
+		}
+		futureSet.addListener(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					result.set(futureSet.getUninterruptibly());
+				} catch (RuntimeException re) {
+					result.setException(re);
+				}
+			}
+		}, MoreExecutors.sameThreadExecutor());
+	}
+}
@@ -3,8 +3,13 @@
  */
 package com.airvana.loadtool.persistance;
 
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_WRITEBEHIND_ENABLED;
+
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.Lock;
@@ -17,11 +22,19 @@ import com.airvana.loadtool.commons.Tuple;
 import com.airvana.loadtool.commons.exceptions.CassandraException;
 import com.airvana.loadtool.persistance.connections.CassandraSession;
 import com.airvana.loadtool.persistance.connections.CassandraSessionManager;
+import com.airvana.loadtool.persistance.connections.PersistenceContext;
+import com.airvana.loadtool.persistance.format.ModelFormat;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.exceptions.QueryValidationException;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
@@ -57,6 +70,55 @@ import com.google.gson.GsonBuilder;
  * </p>
  * 
  * <p>
+ * When {@code cassandra.writebehind.enabled} is true, inserts, updates and
+ * resets are queued to {@link WriteBehindQueue} and persisted in background.
+ * They return {@code null} instead of the result of the execution and fail
+ * only if the write can't be queued. {@link #getDeviceModel(String)} and
+ * {@link #getDeviceModelAsync(String)} see the pending writes. Use
+ * {@link #flush()} or {@link #awaitDurable(long, TimeUnit)} where the writes
+ * have to be persisted, e.g. on a checkpoint.
+ * </p>
+ * 
+ * <p>
+ * When {@code cassandra.reset.mode} is generation, a reset overwrites the
+ * generation of the model instead of deleting it and {@link #resetAll()}
+ * resets every device at once, without writing tombstones. See
+ * {@link ModelGenerations}. The rows returned by the scans then include the
+ * models reset, which are to be skipped by {@link #isLive(Row)}.
+ * </p>
+ * 
+ * <p>
+ * When {@code cassandra.lanes.enabled} is true, the device reads and writes
+ * are admitted ahead of the scans and fault replays, see
+ * {@link LaneScheduler}.
+ * </p>
+ * 
+ * <p>
+ * The {@code *Async} writes of a device may be applied in any order. Use
+ * {@link #insertOrdered(String, Map)}, {@link #updateOrdered(String, Map)}
+ * and {@link #resetOrdered(String)} where the writes of a device have to be
+ * applied in the order they are made, as the synchronous ones are.
+ * </p>
+ * 
+ * <p>
+ * When {@code cassandra.suppress.enabled} is true, an insert or update
+ * storing the same model as the last write persisted of the device, with no
+ * other write of the device in flight, is skipped and returns {@code null},
+ * see {@link WriteDigests}.
+ * </p>
+ * 
+ * <p>
+ * When {@code cassandra.feed.enabled} is true, every write and reset
+ * persisted is published to the subscribers of {@link ChangeFeed} once it
+ * has succeeded.
+ * </p>
+ * 
+ * <p>
+ * {@link GracefulShutdown} stops the operations, waits for the asynchronous
+ * ones in flight and replays or spills the fault backlog at the end of a job.
+ * </p>
+ * 
+ * <p>
  * Once the {@link DevicePersistence#end()} has been called, this class will not
  * be able to make contact with {@link CassandraSession}. Should create a new
  * PersistDevice again to get the behavior.
@@ -72,12 +134,16 @@ public final class DevicePersistence {
 			.getLogger(DevicePersistence.class);
 
 	/**
-	 * A local copy of CassandraSession which has initialized on
-	 * {@link DevicePersistence} creation. On successful end of
-	 * {@link DevicePersistence} this session will be returned to
-	 * {@link CassandraSessionManager}
+	 * Local copies of CassandraSession per shard which are initialized on
+	 * first use of the shard. On successful end of {@link DevicePersistence}
+	 * these sessions will be returned to {@link CassandraSessionManager}
+	 */
+	private final Map<String, CassandraSession> sessions = new ConcurrentHashMap<String, CassandraSession>();
+
+	/**
+	 * Routes every serialno to its shard. See {@link ShardRouter}
 	 */
-	private CassandraSession session;
+	private ShardRouter router;
 
 	private boolean isSessionClosed;
 
@@ -91,13 +157,123 @@ public final class DevicePersistence {
 	 */
 	private FaultExecutionsCache faultCache;
 
+	/**
+	 * local instance of {@link AdaptiveTimeouts} which records the latencies
+	 * and provides the timeouts per operation.
+	 */
+	private AdaptiveTimeouts timeouts;
+
+	/**
+	 * local instance of {@link ExecutionProfiles} which provides the execution
+	 * settings per operation.
+	 */
+	private ExecutionProfiles profiles;
+
+	/**
+	 * local instance of {@link ThroughputGovernor} which caps the operations
+	 * per second sent to Cassandra.
+	 */
+	private ThroughputGovernor governor;
+
+	/**
+	 * pending writes of write-behind mode, {@code null} if writes are
+	 * persisted immediately.
+	 */
+	private WriteBehindQueue writeBehind;
+
+	/**
+	 * local instance of {@link ModelChangeLog} which records the changed
+	 * serialno's.
+	 */
+	private ModelChangeLog changeLog;
+
+	/**
+	 * local instance of {@link ModelFormat} in which the models are stored.
+	 */
+	private ModelFormat format;
+
+	/**
+	 * local instance of {@link ModelGenerations} by which the models are
+	 * reset.
+	 */
+	private ModelGenerations generations;
+
+	/**
+	 * local instance of {@link SerialNoIndex} of the devices having a model.
+	 */
+	private SerialNoIndex serialNoIndex;
+
+	/**
+	 * local instance of {@link LaneScheduler} admitting the operations.
+	 */
+	private LaneScheduler lanes;
+
+	/**
+	 * local instance of {@link DeviceOrderedExecutor} ordering the writes of
+	 * a device.
+	 */
+	private DeviceOrderedExecutor ordered;
+
+	/**
+	 * local instance of {@link ChangeFeed} to which the persisted changes are
+	 * published.
+	 */
+	private ChangeFeed feed;
+
+	/**
+	 * local instance of {@link WriteDigests} by which the writes without a
+	 * change are skipped.
+	 */
+	private WriteDigests digests;
+
+	/**
+	 * local instance of {@link GracefulShutdown} which admits the operations
+	 * and tracks the asynchronous ones.
+	 */
+	private GracefulShutdown shutdown;
+
+	/**
+	 * context of the job which created this DevicePersistence, whose
+	 * sessions and breakers are used by the threads executing its operations.
+	 */
+	private final PersistenceContext context;
+
 	/**
 	 * Initializes the DevicePeristence and FaultExecutionsCache which stores
 	 * the fault executions incase of failures. <b>See</b>
 	 * {@link FaultExecutionsCache} for more info about faults.
 	 */
 	public DevicePersistence() {
+		this(true);
+	}
+
+	/**
+	 * @param writeBehind
+	 *            false to persist the writes immediately even if write-behind
+	 *            mode is configured. Used by the writers of
+	 *            {@link WriteBehindQueue}.
+	 */
+	DevicePersistence(boolean writeBehind) {
+		context = PersistenceContext.current();
+		if (writeBehind
+				&& context.getConfig().getBoolean(
+						CASSANDRA_WRITEBEHIND_ENABLED, false)) {
+			this.writeBehind = WriteBehindQueue.getWriteBehindQueue();
+		}
 		faultCache = FaultExecutionsCache.getFaultExecutionCache();
+		timeouts = AdaptiveTimeouts.getAdaptiveTimeouts();
+		profiles = ExecutionProfiles.getExecutionProfiles();
+		router = ShardRouter.getShardRouter();
+		governor = ThroughputGovernor.getThroughputGovernor();
+		changeLog = ModelChangeLog.getModelChangeLog();
+		format = ModelFormat.getModelFormat();
+		generations = ModelGenerations.getModelGenerations();
+		serialNoIndex = SerialNoIndex.getSerialNoIndex();
+		lanes = LaneScheduler.getLaneScheduler();
+		ordered = DeviceOrderedExecutor.getDeviceOrderedExecutor();
+		feed = ChangeFeed.getChangeFeed();
+		digests = WriteDigests.getWriteDigests();
+		shutdown = GracefulShutdown.getGracefulShutdown();
 	}
 
 	/**
@@ -111,20 +287,16 @@ public final class DevicePersistence {
 	private Lock jsonLock = new ReentrantLock(false);
 
 	/**
-	 * Polls the Session from CassandraSessionManager
+	 * Initializes the MapToJSON converter. Sessions are polled per shard on
+	 * first use, see {@link #session(String)}.
 	 * 
 	 * @throws CassandraException
-	 *             if any exception occurs while trying to poll the session.
+	 *             if any exception occurs while initializing or the
+	 *             persistence is being shut down, see {@link GracefulShutdown}.
 	 */
 	private void init() throws CassandraException {
+		shutdown.checkAdmission();
 		if (!isSessionClosed) {
-			if (session == null) {
-				sessionLock.lock();
-				if (session == null) {
-					session = CassandraSession.open();
-				}
-				sessionLock.unlock();
-			}
 			if (mapToJSONConvertor == null) {
 				jsonLock.lock();
 				if (mapToJSONConvertor == null) {
@@ -135,6 +307,140 @@ public final class DevicePersistence {
 		}
 	}
 
+	/**
+	 * Polls the Session of the given shard from CassandraSessionManager, if
+	 * not already polled.
+	 * 
+	 * @param shard
+	 *            name of the shard
+	 * @return CassandraSession of the shard.
+	 * @throws CassandraException
+	 *             if any exception occurs while trying to poll the session.
+	 */
+	private CassandraSession session(String shard) throws CassandraException {
+		CassandraSession shardSession = sessions.get(shard);
+		if (shardSession == null) {
+			sessionLock.lock();
+			try {
+				if (isSessionClosed) {
+					throw new CassandraException(
+							"DevicePersistence has already been ended", null);
+				}
+				shardSession = sessions.get(shard);
+				if (shardSession == null) {
+					shardSession = CassandraSession.open(context, shard);
+					sessions.put(shard, shardSession);
+				}
+			} finally {
+				sessionLock.unlock();
+			}
+		}
+		return shardSession;
+	}
+
+	/**
+	 * Returns the only shard, on which the scans returning a single result
+	 * are performed. With several shards such a scan would silently miss the
+	 * devices of the other shards, so it fails instead.
+	 * 
+	 * @param allShards
+	 *            name of the scan of all shards to be used instead.
+	 * @return name of the only shard.
+	 * @throws CassandraException
+	 *             if sharding is configured.
+	 */
+	private String singleShard(String allShards) throws CassandraException {
+		List<String> shards = router.getShards();
+		if (shards.size() > 1) {
+			throw new CassandraException("The scan would miss the devices of "
+					+ (shards.size() - 1) + " of " + shards.size()
+					+ " shards, use " + allShards + " instead", null);
+		}
+		return shards.get(0);
+	}
+
+	/**
+	 * Records the latency of an execution on the given shard. Invalid queries
+	 * are not counted as failures by the {@link CircuitBreaker}, as Cassandra
+	 * has been reached.
+	 * 
+	 * @param type
+	 *            of the operation
+	 * @param shard
+	 *            on which operation has been executed.
+	 * @param latencyNanos
+	 *            of the operation
+	 * @param error
+	 *            due to which the execution has failed, {@code null} if
+	 *            successful.
+	 */
+	private void record(OperationType type, String shard, long latencyNanos,
+			Throwable error) {
+		if (error == null) {
+			timeouts.record(type, latencyNanos);
+		}
+		if (error == null || error instanceof QueryValidationException) {
+			CircuitBreaker.forShard(context, shard).onSuccess(latencyNanos);
+		} else {
+			CircuitBreaker.forShard(context, shard).onFailure(latencyNanos);
+		}
+		router.metricsOf(shard).record(latencyNanos, error != null);
+	}
+
+	/**
+	 * Fails fast if the {@link CircuitBreaker} of the shard is open. Rejected
+	 * writes are stored in {@link FaultExecutionsCache}, so that they are
+	 * replayed with the next execution on the {@code serialno}.
+	 * 
+	 * @param type
+	 *            of the operation
+	 * @param shard
+	 *            on which operation has to be executed.
+	 * @param serialno
+	 *            of the operation, {@code null} for scans.
+	 * @param query
+	 *            to be executed.
+	 * @throws CircuitOpenException
+	 *             if the breaker is open.
+	 */
+	private void checkBreaker(OperationType type, String shard,
+			String serialno, String query) throws CircuitOpenException {
+		if (CircuitBreaker.forShard(context, shard).allowRequest()) {
+			return;
+		}
+		if (serialno != null && type.isWrite()) {
+			faultCache.put(serialno, query);
+			LOG.info("Circuit breaker of shard " + shard
+					+ " is open. So, will perform the query " + query
+					+ " on next execution.");
+		}
+		throw new CircuitOpenException(shard);
+	}
+
+	/**
+	 * Admits an execution in the given lane and then asks the
+	 * {@link CircuitBreaker} of the shard, see
+	 * {@link #checkBreaker(OperationType, String, String, String)}. The
+	 * breaker is asked last, so that nothing can fail between a request it
+	 * allows and the execution, whose outcome is then told to it by
+	 * {@link #record(OperationType, String, long, Throwable)}.
+	 * 
+	 * @return admission time, to be released to {@link LaneScheduler}.
+	 * @throws CircuitOpenException
+	 *             if the breaker is open, the lane is released then.
+	 */
+	private long admit(OperationType type, Lane lane, String shard,
+			String serialno, String query) throws CircuitOpenException {
+		long start = lanes.acquire(lane);
+		try {
+			checkBreaker(type, shard, serialno, query);
+		} catch (CircuitOpenException coe) {
+			lanes.release(lane, start);
+			throw coe;
+		}
+		return start;
+	}
+
 	/**
 	 * Performs SELECT query on give {@code serialno} and converts the retrieved
 	 * values to Map of String and {@link DeviceParameter} in async.
@@ -144,17 +450,28 @@ public final class DevicePersistence {
 	 * information.
 	 * </p>
 	 * 
+	 * <p>
+	 * The wait for the result is limited by the current
+	 * {@link OperationType#POINT_READ} timeout of {@link AdaptiveTimeouts}.
+	 * </p>
+	 * 
 	 * @param serialno
 	 *            for which SELECT query has to be performed.
-	 * @return model object
+	 * @return read only model object, see {@link DeviceModelView}
+	 * @throws DeviceModelTimeoutException
+	 *             if the model is not retrieved within the timeout.
 	 * @throws CassandraException
 	 *             if any exception occurs while cassandra operation.
 	 */
 	public Map<String, DeviceParameter> getDeviceModelAsync(String serialno)
 			throws CassandraException {
 		init();
-		return convertToModelObj(serialno,
-				session.executeAsync(getModelQuery(serialno)));
+		Map<String, DeviceParameter> pending = getPendingModel(serialno);
+		if (pending != null) {
+			return pending;
+		}
+		return convertToModelObj(pointRead(serialno, getModelQuery(serialno),
+				true));
 	}
 
 	/**
@@ -163,14 +480,19 @@ public final class DevicePersistence {
 	 * 
 	 * @param serialno
 	 *            for which SELECT query has to be performed.
-	 * @return model object
+	 * @return read only model object, see {@link DeviceModelView}
 	 * @throws CassandraException
 	 *             if any exception occurs while cassandra operation.
 	 */
 	public Map<String, DeviceParameter> getDeviceModel(String serialno)
 			throws CassandraException {
 		init();
-		return convertToModelObj(session.execute(getModelQuery(serialno)));
+		Map<String, DeviceParameter> pending = getPendingModel(serialno);
+		if (pending != null) {
+			return pending;
+		}
+		return convertToModelObj(pointRead(serialno, getModelQuery(serialno),
+				false));
 	}
 
 	/**
@@ -178,22 +500,22 @@ public final class DevicePersistence {
 	 * {@link Tuple} which contains the Boolean(batch execution is true, else
 	 * false) as value1 and String(query to be executed) as value2.
 	 * 
-	 * @param serialno
-	 *            for which query is being created.
+	 * @param failedQueries
+	 *            pending fault queries of the device, replayed first.
 	 * @param additionalQuery
 	 *            the query which has to be added to batch or to be executed
 	 *            alone
 	 * @return {@link Tuple<Boolean, String>}
 	 */
-	private Tuple<Boolean, String> createQuery(String serialno,
+	private Tuple<Boolean, String> createQuery(List<String> failedQueries,
 			String additionalQuery) {
-		List<String> failedQueries = faultCache.getValues(serialno);
 		String query = null;
 		boolean batch = false;
 		if (failedQueries.size() > 0) {
 			batch = true;
-			failedQueries.add(additionalQuery);
-			query = getBatchQuery(failedQueries);
+			List<String> queries = Lists.newArrayList(failedQueries);
+			queries.add(additionalQuery);
+			query = getBatchQuery(queries);
 		} else {
 			query = additionalQuery;
 		}
@@ -204,81 +526,157 @@ public final class DevicePersistence {
 	 * Executes the given query and returns a {@link ResultSet} which contains
 	 * the information about the execution.
 	 * 
+	 * @param type
+	 *            of the operation being executed
 	 * @param serialno
 	 *            for which execution has to be taken
 	 * @param additionalQuery
 	 *            query to be executed
 	 * @return ResultSet of the execution
+	 * @throws CircuitOpenException
+	 *             if the {@link CircuitBreaker} of the shard is open.
 	 * @throws CassandraException
 	 *             if any exception occurred while trying to execute.
 	 */
-	private ResultSet execute(String serialno, String additionalQuery)
-			throws CassandraException {
-		Tuple<Boolean, String> queryTuple = createQuery(serialno,
+	ResultSet execute(OperationType type, String serialno,
+			String additionalQuery) throws CassandraException {
+		String shard = router.route(serialno);
+		CassandraSession shardSession = session(shard);
+		List<String> replayed = faultCache.getValues(serialno);
+		Tuple<Boolean, String> queryTuple = createQuery(replayed,
 				additionalQuery);
 		String query = queryTuple.getValue2();
 		boolean batch = queryTuple.getValue1();
+		// pending fault queries are replayed along with the given query.
+		OperationType executedType = batch ? OperationType.FAULT_REPLAY : type;
+		governor.acquire(executedType, shard);
 		ResultSet resultSet = null;
+		// the pending fault queries ride in the lane of the caller.
+		long start = admit(type, Lane.of(type), shard, serialno,
+				additionalQuery);
+		markChanged(executedType, shardSession, serialno);
 		try {
-			resultSet = session.execute(query);
+			resultSet = shardSession.execute(profiles.statement(executedType,
+					query));
+			record(executedType, shard, System.nanoTime() - start, null);
 		} catch (QueryValidationException qve) {
+			record(executedType, shard, System.nanoTime() - start, qve);
 			LOG.info("The Query trying to execute is not valid. Please verify..."
 					+ query);
 			LOG.error(qve);
 			throw new CassandraException(qve);
 		} catch (Exception e) {
-			if (batch) {
-				faultCache.put(serialno, parseBatch(query));
-			} else {
-				faultCache.put(serialno, query);
-			}
+			record(executedType, shard, System.nanoTime() - start, e);
+			// the pending fault queries are still in the cache.
+			faultCache.put(serialno, additionalQuery);
 			LOG.error("Error executing the query " + query
 					+ ". So, will perform a query on next execution.");
 			e.printStackTrace();
 			throw new CassandraException(e);
+		} finally {
+			lanes.release(Lane.of(type), start);
 		}
-		// if execution is successful, remove the values from batch...
+		// if execution is successful, remove the values replayed in the
+		// batch, the ones stored meanwhile are still pending.
 		if (batch) {
-			faultCache.remove(serialno);
+			faultCache.removeAll(serialno, replayed);
 		}
 		return resultSet;
 	}
 
 	/**
-	 * Performs DELETE query on give {@code serialno}.
+	 * Performs DELETE query on give {@code serialno}. With
+	 * {@code cassandra.reset.mode=generation} the generation of the model is
+	 * overwritten instead, see {@link ModelGenerations}.
 	 * 
 	 * @param serialno
 	 *            for which DELETE query has to be performed.
-	 * @return {@link ResultSet} containing the result of the execution
+	 * @return {@link ResultSet} containing the result of the execution,
+	 *         {@code null} in write-behind mode.
 	 * @throws CassandraException
 	 *             if any exception occurs while cassandra operation.
 	 */
 	public ResultSet reset(String serialno) throws CassandraException {
 		init();
-		return execute(serialno, getDeleteQuery(serialno));
+		String query = getResetQuery(serialno);
+		serialNoIndex.remove(serialno);
+		digests.forget(serialno);
+		if (writeBehind != null) {
+			enqueue(OperationType.RESET, serialno, query, null);
+			return null;
+		}
+		ResultSet resultSet = execute(OperationType.RESET, serialno, query);
+		feed.publish(serialno, OperationType.RESET, null);
+		return resultSet;
 	}
 
 	/**
-	 * Performs DELETE query on give {@code serialno} in async way.
+	 * Performs DELETE query on give {@code serialno} in async way. See
+	 * {@link #reset(String)}.
 	 * 
 	 * @param serialno
 	 *            for which DELETE query has to be performed.
 	 * @return {@link ResultSetFuture} containing the result of the execution
 	 *         which can be accessed once the execution is done. Refer to
-	 *         {@link CassandraSession#executeAsync(String)} for more info
+	 *         {@link CassandraSession#executeAsync(String)} for more info,
+	 *         {@code null} in write-behind mode.
 	 * @throws CassandraException
 	 *             if any exception occurs while cassandra operation.
 	 */
 	public ResultSetFuture resetAsync(String serialno)
 			throws CassandraException {
 		init();
-		String query = getDeleteQuery(serialno);
+		String query = getResetQuery(serialno);
+		serialNoIndex.remove(serialno);
+		digests.forget(serialno);
+		if (writeBehind != null) {
+			enqueue(OperationType.RESET, serialno, query, null);
+			return null;
+		}
 		ResultSetFuture futureSet = null;
-		futureSet = session.executeAsync(query);
+		futureSet = executeAsync(OperationType.RESET, serialno,
+				router.route(serialno), query);
+		feed.publishOnSuccess(futureSet, serialno, OperationType.RESET, null);
 		// TODO : implement listeners to handle the Async executions.
 		return futureSet;
 	}
 
+	/**
+	 * Resets the models of every device by advancing the model generation,
+	 * see {@link ModelGenerations}. The pending writes of write-behind mode
+	 * are persisted first, so that they are reset as well.
+	 * 
+	 * @return new generation.
+	 * @throws CassandraException
+	 *             if the models are not reset by generation or the generation
+	 *             can't be advanced.
+	 */
+	public long resetAll() throws CassandraException {
+		init();
+		if (!generations.isEnabled()) {
+			throw new CassandraException(
+					"Resetting every model needs cassandra.reset.mode=generation",
+					null);
+		}
+		awaitDurable(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		long generation = generations.advance();
+		serialNoIndex.clear();
+		digests.clear();
+		return generation;
+	}
+
+	/**
+	 * Returns true if the model of the given row of a scan is to be read,
+	 * i.e. it has not been reset. See {@link ModelGenerations#isLive(Row)}.
+	 * 
+	 * @param row
+	 *            of {@code model} table
+	 * @return true if the model has not been reset.
+	 */
+	public boolean isLive(Row row) {
+		return generations.isLive(row);
+	}
+
 	/**
 	 * Performs UPDATE query on give {@code serialno}.
 	 * 
@@ -286,7 +684,8 @@ public final class DevicePersistence {
 	 *            for which UPDATE query has to be performed.
 	 * @param updatedValues
 	 *            which needs to be updated.
-	 * @return {@link ResultSet} of execution
+	 * @return {@link ResultSet} of execution, {@code null} in write-behind
+	 *         mode or if suppressed.
 	 * @throws CassandraException
 	 *             if any exception occurs while cassandra operation.
 	 */
@@ -294,8 +693,19 @@ public final class DevicePersistence {
 			Map<String, DeviceParameter> updatedValues)
 			throws CassandraException {
 		init();
-		return execute(serialno,
-				getUpdateQuery(serialno, convertModelObject(updatedValues)));
+		Map<String, String> model = convertModelObject(updatedValues);
+		String query = getUpdateQuery(serialno, model);
+		serialNoIndex.add(serialno);
+		if (digests.suppress(serialno, false, model, query)) {
+			return null;
+		}
+		if (writeBehind != null) {
+			enqueue(OperationType.WRITE, serialno, query, model);
+			return null;
+		}
+		ResultSet resultSet = executeWrite(serialno, query);
+		feed.publish(serialno, OperationType.WRITE, model);
+		return resultSet;
 	}
 
 	/**
@@ -305,7 +715,8 @@ public final class DevicePersistence {
 	 *            for which UPDATE query has to be performed.
 	 * @param updatedValues
 	 *            which needs to be updated
-	 * @return {@link ResultSetFuture} of execution.
+	 * @return {@link ResultSetFuture} of execution, {@code null} in
+	 *         write-behind mode or if suppressed.
 	 * @throws CassandraException
 	 *             if any exception occurs while cassandra operation.
 	 */
@@ -313,8 +724,19 @@ public final class DevicePersistence {
 			Map<String, DeviceParameter> updatedValues)
 			throws CassandraException {
 		init();
-		return session.executeAsync(getUpdateQuery(serialno,
-				convertModelObject(updatedValues)));
+		Map<String, String> model = convertModelObject(updatedValues);
+		String query = getUpdateQuery(serialno, model);
+		serialNoIndex.add(serialno);
+		if (digests.suppress(serialno, false, model, query)) {
+			return null;
+		}
+		if (writeBehind != null) {
+			enqueue(OperationType.WRITE, serialno, query, model);
+			return null;
+		}
+		ResultSetFuture futureSet = executeWriteAsync(serialno, query);
+		feed.publishOnSuccess(futureSet, serialno, OperationType.WRITE, model);
+		return futureSet;
 	}
 
 	/**
@@ -324,15 +746,27 @@ public final class DevicePersistence {
 	 *            for which insert query has to be performed.
 	 * @param values
 	 *            which has to be persisted
-	 * @return {@link ResultSet}
+	 * @return {@link ResultSet}, {@code null} in write-behind mode or if
+	 *         suppressed.
 	 * @throws CassandraException
 	 *             if any exception occurs while cassandra operation.
 	 */
 	public ResultSet insert(String serialno, Map<String, DeviceParameter> values)
 			throws CassandraException {
 		init();
-		return execute(serialno,
-				getInsertQuery(serialno, convertModelObject(values)));
+		Map<String, String> model = convertModelObject(values);
+		String query = getInsertQuery(serialno, model);
+		serialNoIndex.add(serialno);
+		if (digests.suppress(serialno, true, model, query)) {
+			return null;
+		}
+		if (writeBehind != null) {
+			enqueue(OperationType.WRITE, serialno, query, model);
+			return null;
+		}
+		ResultSet resultSet = executeWrite(serialno, query);
+		feed.publish(serialno, OperationType.WRITE, model);
+		return resultSet;
 	}
 
 	/**
@@ -342,15 +776,101 @@ public final class DevicePersistence {
 	 *            for which insert query has to be performed.
 	 * @param values
 	 *            which has to be persisted.
-	 * @return {@link ResultSetFuture} of execution.
+	 * @return {@link ResultSetFuture} of execution, {@code null} in
+	 *         write-behind mode or if suppressed.
 	 * @throws CassandraException
 	 *             if any exception occurs while cassandra operation.
 	 */
 	public ResultSetFuture insertAsync(String serialno,
 			Map<String, DeviceParameter> values) throws CassandraException {
 		init();
-		return session.executeAsync(getInsertQuery(serialno,
-				convertModelObject(values)));
+		Map<String, String> model = convertModelObject(values);
+		String query = getInsertQuery(serialno, model);
+		serialNoIndex.add(serialno);
+		if (digests.suppress(serialno, true, model, query)) {
+			return null;
+		}
+		if (writeBehind != null) {
+			enqueue(OperationType.WRITE, serialno, query, model);
+			return null;
+		}
+		ResultSetFuture futureSet = executeWriteAsync(serialno, query);
+		feed.publishOnSuccess(futureSet, serialno, OperationType.WRITE, model);
+		return futureSet;
+	}
+
+	/**
+	 * Performs INSERT query on give {@code serialno} in async way, after the
+	 * operations submitted earlier in order for the same {@code serialno}.
+	 * See {@link DeviceOrderedExecutor}.
+	 * 
+	 * @param serialno
+	 *            for which insert query has to be performed.
+	 * @param values
+	 *            which has to be persisted, read on submission.
+	 * @return future of the result of the execution, {@code null} result in
+	 *         write-behind mode or if suppressed.
+	 * @throws CassandraException
+	 *             if the query can't be constructed.
+	 */
+	public ListenableFuture<ResultSet> insertOrdered(String serialno,
+			Map<String, DeviceParameter> values) throws CassandraException {
+		init();
+		Map<String, String> model = convertModelObject(values);
+		String query = getInsertQuery(serialno, model);
+		serialNoIndex.add(serialno);
+		if (digests.suppress(serialno, true, model, query)) {
+			return Futures.<ResultSet> immediateFuture(null);
+		}
+		return submitOrdered(OperationType.WRITE, serialno, query, model);
+	}
+
+	/**
+	 * Performs UPDATE query on give {@code serialno} in async way, after the
+	 * operations submitted earlier in order for the same {@code serialno}.
+	 * See {@link DeviceOrderedExecutor}.
+	 * 
+	 * @param serialno
+	 *            for which UPDATE query has to be performed.
+	 * @param updatedValues
+	 *            which needs to be updated, read on submission.
+	 * @return future of the result of the execution, {@code null} result in
+	 *         write-behind mode or if suppressed.
+	 * @throws CassandraException
+	 *             if the query can't be constructed.
+	 */
+	public ListenableFuture<ResultSet> updateOrdered(String serialno,
+			Map<String, DeviceParameter> updatedValues)
+			throws CassandraException {
+		init();
+		Map<String, String> model = convertModelObject(updatedValues);
+		String query = getUpdateQuery(serialno, model);
+		serialNoIndex.add(serialno);
+		if (digests.suppress(serialno, false, model, query)) {
+			return Futures.<ResultSet> immediateFuture(null);
+		}
+		return submitOrdered(OperationType.WRITE, serialno, query, model);
+	}
+
+	/**
+	 * Performs DELETE query on give {@code serialno} in async way, after the
+	 * operations submitted earlier in order for the same {@code serialno}.
+	 * See {@link #reset(String)} and {@link DeviceOrderedExecutor}.
+	 * 
+	 * @param serialno
+	 *            for which DELETE query has to be performed.
+	 * @return future of the result of the execution, {@code null} result in
+	 *         write-behind mode.
+	 * @throws CassandraException
+	 *             if the query can't be constructed.
+	 */
+	public ListenableFuture<ResultSet> resetOrdered(String serialno)
+			throws CassandraException {
+		init();
+		serialNoIndex.remove(serialno);
+		digests.forget(serialno);
+		return submitOrdered(OperationType.RESET, serialno,
+				getResetQuery(serialno), null);
 	}
 
 	/**
@@ -364,7 +884,8 @@ public final class DevicePersistence {
 	 */
 	public ResultSet select(String serialno) throws CassandraException {
 		init();
-		return execute(serialno, getSelectQuery(serialno));
+		return execute(OperationType.POINT_READ, serialno,
+				getSelectQuery(serialno));
 	}
 
 	/**
@@ -379,7 +900,8 @@ public final class DevicePersistence {
 	public ResultSetFuture selectAsync(String serialno)
 			throws CassandraException {
 		init();
-		return session.executeAsync(getSelectQuery(serialno));
+		return executeAsync(OperationType.POINT_READ, serialno,
+				router.route(serialno), getSelectQuery(serialno));
 	}
 
 	/**
@@ -387,12 +909,16 @@ public final class DevicePersistence {
 	 * 
 	 * @return {@link ResultSetFuture} of execution
 	 * @throws CassandraException
-	 *             if any exception occurs while cassandra operation.
+	 *             if sharding is configured, see
+	 *             {@link #getAllAvailableSerialNosOfAllShards()}, or any
+	 *             exception occurs while cassandra operation.
 	 */
 	public ResultSetFuture getAllAvailableSerialNosAsync()
 			throws CassandraException {
 		init();
-		return session.executeAsync(getSerialSelectQuery());
+		return executeAsync(OperationType.SCAN, null,
+				singleShard("getAllAvailableSerialNosOfAllShards()"),
+				getSerialSelectQuery());
 	}
 
 	/**
@@ -400,17 +926,14 @@ public final class DevicePersistence {
 	 * 
 	 * @return {@link ResultSet} of execution
 	 * @throws CassandraException
-	 *             if any exception occurs while cassandra operation.
+	 *             if sharding is configured, see
+	 *             {@link #getAllAvailableSerialNosOfAllShards()}, or any
+	 *             exception occurs while cassandra operation.
 	 */
 	public ResultSet getAllAvailableSerialNosNow() throws CassandraException {
 		init();
-		ResultSet resultSet = null;
-		try {
-			resultSet = session.execute(getSerialSelectQuery());
-		} catch (Exception e) {
-			throw new CassandraException(e);
-		}
-		return resultSet;
+		return scan(singleShard("getAllAvailableSerialNosOfAllShards()"),
+				getSerialSelectQuery());
 	}
 
 	/**
@@ -418,34 +941,123 @@ public final class DevicePersistence {
 	 * 
 	 * @return {@link ResultSet} of execution
 	 * @throws CassandraException
-	 *             if any exception occurs while cassandra operation.
+	 *             if sharding is configured, see
+	 *             {@link #simpleSelectOfAllShards()}, or any exception occurs
+	 *             while cassandra operation.
 	 */
 	public ResultSet simpleSelect() throws CassandraException {
 		init();
+		return scan(singleShard("simpleSelectOfAllShards()"),
+				getSimpleSelectQuery());
+	}
+
+	/**
+	 * Performs a SELECT query to get all the available data in async.
+	 * 
+	 * @return {@link ResultSetFuture} of execution
+	 * @throws CassandraException
+	 *             if sharding is configured, see
+	 *             {@link #simpleSelectOfAllShards()}, or any exception occurs
+	 *             while cassandra operation.
+	 */
+	public ResultSetFuture simpleSelectAsync() throws CassandraException {
+		init();
+		return executeAsync(OperationType.SCAN, null,
+				singleShard("simpleSelectOfAllShards()"),
+				getSimpleSelectQuery());
+	}
+
+	/**
+	 * Performs a SELECT query to get all the available serialno's on every
+	 * shard. The shards are queried in parallel.
+	 * 
+	 * @return {@link ResultSet} of every shard, in order of
+	 *         {@link ShardRouter#getShards()}
+	 * @throws CassandraException
+	 *             if any exception occurs while cassandra operation.
+	 */
+	public List<ResultSet> getAllAvailableSerialNosOfAllShards()
+			throws CassandraException {
+		init();
+		return scanAllShards(getSerialSelectQuery());
+	}
+
+	/**
+	 * Performs a SELECT query to get all the available data on every shard.
+	 * The shards are queried in parallel.
+	 * 
+	 * @return {@link ResultSet} of every shard, in order of
+	 *         {@link ShardRouter#getShards()}
+	 * @throws CassandraException
+	 *             if any exception occurs while cassandra operation.
+	 */
+	public List<ResultSet> simpleSelectOfAllShards() throws CassandraException {
+		init();
+		return scanAllShards(getSimpleSelectQuery());
+	}
+
+	/**
+	 * Performs the given scan query on the given shard.
+	 * 
+	 * @param shard
+	 *            to be scanned
+	 * @param query
+	 *            scan query
+	 * @return {@link ResultSet} of execution
+	 * @throws CassandraException
+	 *             if any exception occurs while cassandra operation.
+	 */
+	private ResultSet scan(String shard, String query)
+			throws CassandraException {
+		CassandraSession shardSession = session(shard);
+		governor.acquire(OperationType.SCAN, shard);
 		ResultSet resultSet = null;
+		long start = admit(OperationType.SCAN, Lane.BACKGROUND, shard, null,
+				query);
 		try {
-			resultSet = session.execute(getSimpleSelectQuery());
+			resultSet = shardSession.execute(profiles.statement(
+					OperationType.SCAN, query));
+			record(OperationType.SCAN, shard, System.nanoTime() - start, null);
 		} catch (Exception e) {
+			record(OperationType.SCAN, shard, System.nanoTime() - start, e);
 			throw new CassandraException(e);
+		} finally {
+			lanes.release(Lane.BACKGROUND, start);
 		}
 		return resultSet;
 	}
 
 	/**
-	 * Performs a SELECT query to get all the available data in async.
+	 * Performs the given scan query on all the shards in parallel.
 	 * 
-	 * @return {@link ResultSetFuture} of execution
+	 * @param query
+	 *            scan query
+	 * @return {@link ResultSet} of every shard
 	 * @throws CassandraException
 	 *             if any exception occurs while cassandra operation.
 	 */
-	public ResultSetFuture simpleSelectAsync() throws CassandraException {
-		init();
-		return session.executeAsync(getSimpleSelectQuery());
+	private List<ResultSet> scanAllShards(String query)
+			throws CassandraException {
+		List<ResultSetFuture> futures = Lists.newArrayList();
+		for (String shard : router.getShards()) {
+			futures.add(executeAsync(OperationType.SCAN, null, shard, query));
+		}
+		List<ResultSet> resultSets = Lists.newArrayList();
+		try {
+			for (ResultSetFuture future : futures) {
+				resultSets.add(future.getUninterruptibly());
+			}
+		} catch (Exception e) {
+			throw new CassandraException(e);
+		}
+		return resultSets;
 	}
 
 	/**
 	 * Returns true if for given {@code serialno} if any model object is
-	 * persisted, else returns false
+	 * persisted, else returns false. A serialno unknown to
+	 * {@link SerialNoIndex} is answered without a query, else only the key of
+	 * the model is read.
 	 * 
 	 * @param serialno
 	 *            for which model object needs to be verified
@@ -453,7 +1065,8 @@ public final class DevicePersistence {
 	 */
 	public boolean isModelObjAvailable(String serialno) {
 		try {
-			return getDeviceModel(serialno).size() > 0 ? true : false;
+			return serialNoIndex.mightContain(serialno)
+					&& exists(serialno, false);
 		} catch (CassandraException ccne) {
 			ccne.printStackTrace();
 			LOG.info("There was a problem while connecting to Cassandra. So, returning false assuming that no data is available.");
@@ -464,15 +1077,23 @@ public final class DevicePersistence {
 	/**
 	 * Returns true if for given {@code serialno} if any model object is
 	 * persisted, else returns false. This process happens in async way. See
-	 * {@link DevicePersistence#getDeviceModelAsync(String)} for more details.
+	 * {@link DevicePersistence#getDeviceModelAsync(String)} and
+	 * {@link #isModelObjAvailable(String)} for more details.
 	 * 
 	 * @param serialno
 	 *            for which model object needs to be verified
 	 * @return true if model object is persisted for given serialno else false.
+	 * @throws DeviceModelTimeoutException
+	 *             if the model could not be verified within the timeout, which
+	 *             does not tell whether it is persisted.
 	 */
-	public boolean isModelObjAvailableAsync(String serialno) {
+	public boolean isModelObjAvailableAsync(String serialno)
+			throws DeviceModelTimeoutException {
 		try {
-			return getDeviceModelAsync(serialno).size() > 0 ? true : false;
+			return serialNoIndex.mightContain(serialno)
+					&& exists(serialno, true);
+		} catch (DeviceModelTimeoutException dmte) {
+			throw dmte;
 		} catch (CassandraException ccne) {
 			ccne.printStackTrace();
 			LOG.info("There was a problem while connecting to Cassandra. So, returning false assuming that no data is available.");
@@ -480,6 +1101,113 @@ public final class DevicePersistence {
 		return false;
 	}
 
+	/**
+	 * Returns the serialno's changed since the given time on any shard, as
+	 * recorded in {@link ModelChangeLog}.
+	 * 
+	 * @param sinceMillis
+	 *            time from which the changes are needed.
+	 * @return changed serialno's
+	 * @throws CassandraException
+	 *             if the changes are not recorded or any exception occurs
+	 *             while cassandra operation.
+	 */
+	public Set<String> getChangedSerialNosSince(long sinceMillis)
+			throws CassandraException {
+		init();
+		if (!changeLog.isEnabled()) {
+			throw new CassandraException(
+					"Model changes are not recorded, enable cassandra.changes.enabled",
+					null);
+		}
+		Set<String> changed = Sets.newHashSet();
+		for (String shard : router.getShards()) {
+			for (String query : changeLog.getChangesQueries(sinceMillis)) {
+				logQuery(query);
+				for (Row row : scan(shard, query)) {
+					if (row.getLong(1) >= sinceMillis) {
+						changed.add(row.getString(0));
+					}
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Records the change of the given {@code serialno} in
+	 * {@link ModelChangeLog} along with a write. If it can't be recorded, it
+	 * is stored in {@link FaultExecutionsCache} to be replayed with the next
+	 * execution.
+	 * 
+	 * @param type
+	 *            of the operation
+	 * @param shardSession
+	 *            on which the write is executed
+	 * @param serialno
+	 *            of the write, {@code null} for scans.
+	 */
+	private void markChanged(OperationType type, CassandraSession shardSession,
+			final String serialno) {
+		if (!changeLog.isEnabled() || serialno == null || !type.isWrite()) {
+			return;
+		}
+		final String query = changeLog.getMarkQuery(serialno);
+		final ResultSetFuture futureSet;
+		try {
+			futureSet = shardSession.executeAsync(profiles.statement(
+					OperationType.WRITE, query));
+		} catch (RuntimeException re) {
+			faultCache.put(serialno, query);
+			return;
+		}
+		futureSet.addListener(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					futureSet.getUninterruptibly();
+				} catch (Exception e) {
+					faultCache.put(serialno, query);
+				}
+			}
+		}, MoreExecutors.sameThreadExecutor());
+	}
+
+	/**
+	 * Asks the write-behind writers to persist the pending writes without
+	 * waiting for their batches to fill. Does nothing if write-behind mode is
+	 * not enabled.
+	 */
+	public void flush() {
+		if (writeBehind != null) {
+			writeBehind.flush();
+		}
+	}
+
+	/**
+	 * Waits till the writes made so far are persisted or stored in
+	 * {@link FaultExecutionsCache}. Returns immediately if write-behind mode
+	 * is not enabled.
+	 * 
+	 * @param timeout
+	 *            max. time to wait
+	 * @param unit
+	 *            of timeout
+	 * @return true if the writes are done, false on timeout.
+	 */
+	public boolean awaitDurable(long timeout, TimeUnit unit) {
+		return writeBehind == null || writeBehind.awaitDurable(timeout, unit);
+	}
+
+	/**
+	 * @return the model of the latest pending write of the given
+	 *         {@code serialno}, {@code null} if there is none.
+	 */
+	private Map<String, DeviceParameter> getPendingModel(String serialno) {
+		return writeBehind == null ? null : writeBehind
+				.getPendingModel(serialno);
+	}
+
 	/**
 	 * This marks the end of {@link DevicePersistence}. Once end has been
 	 * called, {@link DevicePersistence} is no longer available to perform
@@ -488,11 +1216,19 @@ public final class DevicePersistence {
 	 * @return true, if able to close, else false.
 	 */
 	public boolean end() {
+		sessionLock.lock();
 		try {
-			isSessionClosed = session.close();
+			boolean closed = true;
+			for (CassandraSession shardSession : sessions.values()) {
+				closed &= shardSession.close();
+			}
+			sessions.clear();
+			isSessionClosed = closed;
 		} catch (Exception e) {
 			LOG.error(e);
 			LOG.info("Session not available to close");
+		} finally {
+			sessionLock.unlock();
 		}
 		return isSessionClosed;
 	}
@@ -526,7 +1262,9 @@ public final class DevicePersistence {
 	 * @return constructed select query.
 	 */
 	private String getSerialSelectQuery() {
-		String query = "SELECT serialno from model ;";
+		String query = generations.isEnabled() ? "SELECT serialno, "
+				+ ModelGenerations.COLUMN + " from model ;"
+				: "SELECT serialno from model ;";
 		logQuery(query);
 		return query;
 	}
@@ -555,27 +1293,52 @@ public final class DevicePersistence {
 	 * @param values
 	 *            to be inserted as modelobj
 	 * @return constructed insert query.
+	 * @throws CassandraException
+	 *             if the model can't be encoded.
 	 */
-	private String getInsertQuery(String serialno, Map<String, String> values) {
+	private String getInsertQuery(String serialno, Map<String, String> values)
+			throws CassandraException {
 		StringBuilder query = new StringBuilder();
-		query.append("INSERT INTO model(serialno, modelobj) VALUES(");
+		query.append("INSERT INTO model(serialno, ").append(format.getColumn());
+		if (format.isBlob()) {
+			// the map left by an earlier write in map format is removed.
+			query.append(", ").append(ModelFormat.MAP_COLUMN);
+		}
+		if (generations.isEnabled()) {
+			query.append(", ").append(ModelGenerations.COLUMN);
+		}
+		query.append(") VALUES(");
 		query.append("'").append(serialno).append("',");
-		query.append(mapToJSONConvertor.toJson(values).replaceAll("\"", "\'"))
-				.append(") ;");
+		query.append(toLiteral(values));
+		if (format.isBlob()) {
+			query.append(", null");
+		}
+		if (generations.isEnabled()) {
+			query.append(", ").append(generations.getGeneration());
+		}
+		query.append(") ;");
 		logQuery(query.toString());
 		return query.toString();
 	}
 
 	/**
 	 * Constructs and returns a DELETE CQL query to delete modelobj from the
-	 * given {@code serialno}
+	 * given {@code serialno}, or an UPDATE CQL query overwriting its generation
+	 * if the models are reset by generation.
 	 * 
 	 * @param serialno
 	 *            for which modelobj has to be deleted.
-	 * @return constructed update query
+	 * @return constructed delete or update query
 	 */
-	private String getDeleteQuery(String serialno) {
-		String query = "DELETE FROM model WHERE serialno='" + serialno + "' ;";
+	private String getResetQuery(String serialno) {
+		String query;
+		if (generations.isEnabled()) {
+			query = "UPDATE model SET " + ModelGenerations.COLUMN + "="
+					+ ModelGenerations.RESET_GENERATION + " WHERE serialno='"
+					+ serialno + "' ;";
+		} else {
+			query = "DELETE FROM model WHERE serialno='" + serialno + "' ;";
+		}
 		logQuery(query);
 		return query;
 	}
@@ -589,13 +1352,22 @@ public final class DevicePersistence {
 	 * @param updatedValues
 	 *            updated values of the modelobj.
 	 * @return constructed update query
+	 * @throws CassandraException
+	 *             if the model can't be encoded.
 	 */
 	private String getUpdateQuery(String serialno,
-			Map<String, String> updatedValues) {
+			Map<String, String> updatedValues) throws CassandraException {
 		StringBuilder query = new StringBuilder();
-		query.append("UPDATE model SET modelobj=");
-		query.append(mapToJSONConvertor.toJson(updatedValues).replaceAll("\"",
-				"\'"));
+		query.append("UPDATE model SET ").append(format.getColumn())
+				.append("=");
+		query.append(toLiteral(updatedValues));
+		if (format.isBlob()) {
+			query.append(", ").append(ModelFormat.MAP_COLUMN).append("=null");
+		}
+		if (generations.isEnabled()) {
+			query.append(", ").append(ModelGenerations.COLUMN).append("=")
+					.append(generations.getGeneration());
+		}
 		query.append(" WHERE serialno='").append(serialno).append("' ;");
 		logQuery(query.toString());
 		return query.toString();
@@ -610,60 +1382,317 @@ public final class DevicePersistence {
 	 * @return constructed select query
 	 */
 	private String getModelQuery(String serialno) {
-		String query = "SELECT modelobj FROM model WHERE serialno = '"
-				+ serialno + "';";
+		String query = "SELECT " + format.getSelectColumns()
+				+ (generations.isEnabled() ? ", " + ModelGenerations.COLUMN : "")
+				+ " FROM model WHERE serialno = '" + serialno + "';";
 		logQuery(query);
 		return query;
 	}
 
+	/**
+	 * Constructs and returns the CQL literal of the given model in the
+	 * configured {@link ModelFormat}.
+	 * 
+	 * @param values
+	 *            of the model
+	 * @return map or blob literal.
+	 * @throws CassandraException
+	 *             if the model can't be encoded.
+	 */
+	private String toLiteral(Map<String, String> values)
+			throws CassandraException {
+		if (format.isBlob()) {
+			return format.toBlobLiteral(values);
+		}
+		return mapToJSONConvertor.toJson(values).replaceAll("\"", "\'");
+	}
+
 	/**
 	 * Retrieves the {@link DeviceModel#getObjectModel()} from give {@code set}.
 	 * 
 	 * @param set
 	 *            from which data has to be retrieved.
-	 * @return Map of String and DeviceParameter
-	 */
-	private Map<String, DeviceParameter> convertToModelObj(ResultSet set) {
-		Map<String, DeviceParameter> modelObj = Maps.newHashMap();
-		if (!set.isExhausted()) {
-			for (Map.Entry<String, String> modelEntry : set.one()
-					.getMap(0, String.class, String.class).entrySet()) {
-				modelObj.put(modelEntry.getKey(), new DeviceParameter(
-						modelEntry.getKey(), modelEntry.getValue()));
+	 * @return read only {@link DeviceModelView} of the model
+	 * @throws CassandraException
+	 *             if the model can't be decoded.
+	 */
+	private Map<String, DeviceParameter> convertToModelObj(ResultSet set)
+			throws CassandraException {
+		Row row = set.one();
+		if (row == null || !generations.isLive(row)) {
+			return DeviceModelView.of(Collections.<String, String> emptyMap());
+		}
+		return DeviceModelView.of(format.read(row));
+	}
+
+	/**
+	 * Performs the given SELECT query on the shard of the given
+	 * {@code serialno}, accounting it as a {@link OperationType#POINT_READ}.
+	 * 
+	 * @param serialno
+	 *            for which the query has to be performed.
+	 * @param query
+	 *            to be performed
+	 * @param async
+	 *            true to wait for the result only till the
+	 *            {@link OperationType#POINT_READ} timeout.
+	 * @return {@link ResultSet} of the query
+	 * @throws DeviceModelTimeoutException
+	 *             if {@code async} and data is not retrieved within the
+	 *             timeout.
+	 * @throws CassandraException
+	 *             if any exception occurs while cassandra operation.
+	 */
+	private ResultSet pointRead(String serialno, String query, boolean async)
+			throws CassandraException {
+		String shard = router.route(serialno);
+		CassandraSession shardSession = session(shard);
+		governor.acquire(OperationType.POINT_READ, shard);
+		Statement statement = profiles.statement(OperationType.POINT_READ,
+				query);
+		long start = admit(OperationType.POINT_READ, Lane.INTERACTIVE, shard,
+				serialno, null);
+		if (!async) {
+			ResultSet set;
+			try {
+				set = shardSession.execute(statement);
+			} catch (RuntimeException re) {
+				record(OperationType.POINT_READ, shard, System.nanoTime()
+						- start, re);
+				throw re;
+			} finally {
+				lanes.release(Lane.INTERACTIVE, start);
+			}
+			record(OperationType.POINT_READ, shard, System.nanoTime() - start,
+					null);
+			return set;
+		}
+		long timeout = timeouts.getTimeoutMillis(OperationType.POINT_READ);
+		try {
+			ResultSetFuture futureSet;
+			try {
+				futureSet = shardSession.executeAsync(statement);
+			} catch (RuntimeException re) {
+				lanes.release(Lane.INTERACTIVE, start);
+				throw re;
 			}
+			// released on completion, even after the timeout.
+			lanes.releaseOnCompletion(Lane.INTERACTIVE, start, futureSet);
+			long remaining = TimeUnit.MILLISECONDS.toNanos(timeout)
+					- (System.nanoTime() - start);
+			ResultSet set = futureSet.getUninterruptibly(
+					Math.max(0L, remaining), TimeUnit.NANOSECONDS);
+			record(OperationType.POINT_READ, shard, System.nanoTime() - start,
+					null);
+			return set;
+		} catch (RuntimeException re) {
+			record(OperationType.POINT_READ, shard, System.nanoTime() - start,
+					re);
+			throw re;
+		} catch (TimeoutException e) {
+			timeouts.recordTimeout(OperationType.POINT_READ, System.nanoTime()
+					- start);
+			router.metricsOf(shard).record(System.nanoTime() - start,
+					true);
+			CircuitBreaker.forShard(context, shard).onFailure(
+					System.nanoTime() - start);
+			LOG.info("Unable to retrieve the data for: " + serialno
+					+ " within " + timeout + " ms");
+			throw new DeviceModelTimeoutException(serialno, timeout, e);
 		}
-		return modelObj;
 	}
 
 	/**
-	 * Retrieves the {@link DeviceModel#getObjectModel()} from given
-	 * {@code futureSet}.
+	 * Returns true if a model, pending or persisted, which has not been reset
+	 * exists for the given {@code serialno}. Only the key of the persisted
+	 * model is read.
 	 * 
 	 * @param serialno
-	 *            for which object model has to be retrieved.
-	 * @param futureSet
-	 *            from which data has to be retrieved.
-	 * @return Map of String and DeviceParameter
+	 *            of the device
+	 * @param async
+	 *            see {@link #pointRead(String, String, boolean)}
+	 * @return true if the model exists.
+	 * @throws CassandraException
+	 *             if any exception occurs while cassandra operation.
+	 */
+	private boolean exists(String serialno, boolean async)
+			throws CassandraException {
+		init();
+		Map<String, DeviceParameter> pending = getPendingModel(serialno);
+		if (pending != null) {
+			return !pending.isEmpty();
+		}
+		String query = "SELECT serialno"
+				+ (generations.isEnabled() ? ", " + ModelGenerations.COLUMN : "")
+				+ " FROM model WHERE serialno = '" + serialno + "';";
+		logQuery(query);
+		Row row = pointRead(serialno, query, async).one();
+		return row != null && generations.isLive(row);
+	}
+
+	/**
+	 * Executes the given query asynchronously on the shard of the given
+	 * {@code serialno}. See {@link #executeAsync(OperationType, String,
+	 * String, String)}.
+	 * 
+	 * @param type
+	 *            of the operation
+	 * @param serialno
+	 *            of the operation
+	 * @param query
+	 *            to be executed
+	 * @return {@link ResultSetFuture} of the execution
+	 * @throws CassandraException
+	 *             if session of the shard is not available.
+	 */
+	ResultSetFuture executeAsync(OperationType type, String serialno,
+			String query) throws CassandraException {
+		return executeAsync(type, serialno, router.route(serialno), query);
+	}
+
+	/**
+	 * Executes the given query asynchronously with the
+	 * {@link ExecutionProfile} of the operation, once the
+	 * {@link ThroughputGovernor} permits it, and records its latency in
+	 * {@link AdaptiveTimeouts} once it is completed.
+	 * 
+	 * @param type
+	 *            of the operation
+	 * @param serialno
+	 *            of the operation, {@code null} for scans.
+	 * @param shard
+	 *            on which query has to be executed
+	 * @param query
+	 *            to be executed
+	 * @return {@link ResultSetFuture} of the execution
+	 * @throws CircuitOpenException
+	 *             if the {@link CircuitBreaker} of the shard is open.
+	 * @throws CassandraException
+	 *             if session of the shard is not available.
 	 */
-	private Map<String, DeviceParameter> convertToModelObj(String serialno,
-			ResultSetFuture futureSet) {
-		Map<String, DeviceParameter> modelObj = Maps.newHashMap();
+	private ResultSetFuture executeAsync(final OperationType type,
+			final String serialno, final String shard, String query)
+			throws CassandraException {
+		CassandraSession shardSession = session(shard);
+		governor.acquire(type, shard);
+		final long start = admit(type, Lane.of(type), shard, serialno, query);
+		markChanged(type, shardSession, serialno);
+		final ResultSetFuture futureSet;
 		try {
-			ResultSet set = futureSet.getUninterruptibly(1000,
-					TimeUnit.MILLISECONDS);
-			if (!set.isExhausted()) {
-				for (Map.Entry<String, String> modelEntry : set.one()
-						.getMap(0, String.class, String.class).entrySet()) {
-					modelObj.put(modelEntry.getKey(), new DeviceParameter(
-							modelEntry.getKey(), modelEntry.getValue()));
+			futureSet = shardSession.executeAsync(profiles.statement(type,
+					query));
+		} catch (RuntimeException re) {
+			lanes.release(Lane.of(type), start);
+			record(type, shard, System.nanoTime() - start, re);
+			throw re;
+		}
+		lanes.releaseOnCompletion(Lane.of(type), start, futureSet);
+		shutdown.track(futureSet);
+		futureSet.addListener(new Runnable() {
+			@Override
+			public void run() {
+				Throwable error = null;
+				try {
+					futureSet.getUninterruptibly();
+				} catch (Exception e) {
+					error = e;
 				}
+				record(type, shard, System.nanoTime() - start, error);
 			}
-		} catch (TimeoutException e) {
-			LOG.error(e);
-			LOG.info("Unable to retrieve the data for: " + serialno);
-			return modelObj;
+		}, MoreExecutors.sameThreadExecutor());
+		return futureSet;
+	}
+
+	/**
+	 * Executes the given write accepted by {@link WriteDigests}, telling it
+	 * the outcome.
+	 */
+	private ResultSet executeWrite(String serialno, String query)
+			throws CassandraException {
+		boolean persisted = false;
+		try {
+			ResultSet resultSet = execute(OperationType.WRITE, serialno, query);
+			persisted = true;
+			return resultSet;
+		} finally {
+			digests.completed(serialno, persisted);
 		}
-		return modelObj;
+	}
+
+	/**
+	 * Executes the given write accepted by {@link WriteDigests} in async
+	 * way, telling it the outcome once the write completes.
+	 */
+	private ResultSetFuture executeWriteAsync(final String serialno,
+			String query) throws CassandraException {
+		boolean submitted = false;
+		final ResultSetFuture futureSet;
+		try {
+			futureSet = executeAsync(OperationType.WRITE, serialno, query);
+			submitted = true;
+		} finally {
+			if (!submitted) {
+				digests.completed(serialno, false);
+			}
+		}
+		futureSet.addListener(new Runnable() {
+			@Override
+			public void run() {
+				boolean persisted;
+				try {
+					futureSet.getUninterruptibly();
+					persisted = true;
+				} catch (RuntimeException re) {
+					persisted = false;
+				}
+				digests.completed(serialno, persisted);
+			}
+		}, MoreExecutors.sameThreadExecutor());
+		return futureSet;
+	}
+
+	/**
+	 * Queues the given write in write-behind mode. A write accepted by
+	 * {@link WriteDigests} is told to it by {@link WriteBehindQueue} once
+	 * persisted, or here if it can't be queued, e.g. when the queue is full.
+	 */
+	private void enqueue(OperationType type, String serialno, String query,
+			Map<String, String> model) throws CassandraException {
+		boolean queued = false;
+		try {
+			writeBehind.enqueue(type, serialno, query, model);
+			queued = true;
+		} finally {
+			if (!queued && type == OperationType.WRITE) {
+				digests.completed(serialno, false);
+			}
+		}
+	}
+
+	/**
+	 * Submits the given write of {@code serialno} to
+	 * {@link DeviceOrderedExecutor}, queuing it in write-behind mode.
+	 */
+	private ListenableFuture<ResultSet> submitOrdered(
+			final OperationType type, final String serialno,
+			final String query, final Map<String, String> model) {
+		return ordered.submit(serialno, new DeviceOrderedExecutor.Operation() {
+			@Override
+			public ResultSetFuture start() throws CassandraException {
+				if (writeBehind != null) {
+					enqueue(type, serialno, query, model);
+					return null;
+				}
+				ResultSetFuture futureSet;
+				if (type == OperationType.WRITE) {
+					futureSet = executeWriteAsync(serialno, query);
+				} else {
+					futureSet = executeAsync(type, serialno, query);
+				}
+				feed.publishOnSuccess(futureSet, serialno, type, model);
+				return futureSet;
+			}
+		});
 	}
 
 	/**
@@ -703,24 +1732,6 @@ public final class DevicePersistence {
 		return batchQ;
 	}
 
-	/**
-	 * Split's the given batch statement to single execution statements. This is
-	 * used to support fault cache.
-	 * 
-	 * @param query
-	 *            to be split
-	 * @return list of queries from batch query
-	 */
-	private List<String> parseBatch(String query) {
-		List<String> queries = Lists.newLinkedList();
-		query = query.replaceFirst("BEGIN BATCH ", "").replaceFirst(
-				"APPLY BATCH;", "");
-		for (String parsedQuery : query.split(";")) {
-			queries.add(parsedQuery.trim());
-		}
-		return queries;
-	}
-
 	/**
 	 * LOG the query
 	 * 
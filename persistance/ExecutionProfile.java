@@ -0,0 +1,194 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_PROFILE_CONSISTENCY;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_PROFILE_FETCH_SIZE;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_PROFILE_IDEMPOTENT;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_PROFILE_PREFIX;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_PROFILE_READ_TIMEOUT;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_PROFILE_RETRY;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_PROFILE_SERIAL_CONSISTENCY;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.persistance.connections.CassandraConfig;
+import com.airvana.loadtool.persistance.connections.CassandraPolicies;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.policies.RetryPolicy;
+
+/**
+ * A named set of execution settings applied on a {@link Statement} before it
+ * is executed. Settings which are not configured are left to the defaults of
+ * the Cluster.
+ *
+ * <p>
+ * A profile named {@code write} is configured in persistence config as
+ *
+ * <pre>
+ * cassandra.profile.write.consistency=LOCAL_QUORUM
+ * cassandra.profile.write.serial.consistency=LOCAL_SERIAL
+ * cassandra.profile.write.read.timeout.ms=2000
+ * cassandra.profile.write.fetch.size=0
+ * cassandra.profile.write.retry=logging-default
+ * cassandra.profile.write.idempotent=true
+ * </pre>
+ *
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class ExecutionProfile {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(ExecutionProfile.class);
+
+	private final String name;
+
+	private final ConsistencyLevel consistency;
+
+	private final ConsistencyLevel serialConsistency;
+
+	/**
+	 * read timeout in milliseconds, 0 or less means Cluster default.
+	 */
+	private final int readTimeoutMillis;
+
+	/**
+	 * fetch size, 0 or less means Cluster default.
+	 */
+	private final int fetchSize;
+
+	private final RetryPolicy retryPolicy;
+
+	/**
+	 * {@code null} means the statement is left as it is.
+	 */
+	private final Boolean idempotent;
+
+	/**
+	 * Creates the profile with given settings. {@code null} values are left
+	 * to the Cluster defaults.
+	 */
+	ExecutionProfile(String name, ConsistencyLevel consistency,
+			ConsistencyLevel serialConsistency, int readTimeoutMillis,
+			int fetchSize, RetryPolicy retryPolicy, Boolean idempotent) {
+		this.name = name;
+		this.consistency = consistency;
+		this.serialConsistency = serialConsistency;
+		this.readTimeoutMillis = readTimeoutMillis;
+		this.fetchSize = fetchSize;
+		this.retryPolicy = retryPolicy;
+		this.idempotent = idempotent;
+	}
+
+	/**
+	 * Loads the profile {@code name} from the given config. Settings not
+	 * configured are taken from the given {@code defaults}.
+	 *
+	 * @param name
+	 *            of the profile
+	 * @param config
+	 *            persistence config
+	 * @param defaults
+	 *            profile supplying the settings not configured.
+	 * @return loaded profile.
+	 */
+	static ExecutionProfile load(String name, CassandraConfig config,
+			ExecutionProfile defaults) {
+		String prefix = CASSANDRA_PROFILE_PREFIX + name;
+		return new ExecutionProfile(name, parseConsistency(
+				config.getString(prefix + CASSANDRA_PROFILE_CONSISTENCY, null),
+				defaults.consistency), parseConsistency(config.getString(
+				prefix + CASSANDRA_PROFILE_SERIAL_CONSISTENCY, null),
+				defaults.serialConsistency), config.getInt(prefix
+				+ CASSANDRA_PROFILE_READ_TIMEOUT, defaults.readTimeoutMillis),
+				config.getInt(prefix + CASSANDRA_PROFILE_FETCH_SIZE,
+						defaults.fetchSize), CassandraPolicies.parseRetryPolicy(
+						config.getString(prefix + CASSANDRA_PROFILE_RETRY,
+								null), defaults.retryPolicy),
+				config.contains(prefix + CASSANDRA_PROFILE_IDEMPOTENT) ? Boolean
+						.valueOf(config.getBoolean(prefix
+								+ CASSANDRA_PROFILE_IDEMPOTENT, false))
+						: defaults.idempotent);
+	}
+
+	/**
+	 * Applies the settings of this profile on the given {@code statement}.
+	 *
+	 * @param statement
+	 *            on which settings are applied.
+	 * @return the given statement.
+	 */
+	public <T extends Statement> T apply(T statement) {
+		if (consistency != null) {
+			statement.setConsistencyLevel(consistency);
+		}
+		if (serialConsistency != null) {
+			statement.setSerialConsistencyLevel(serialConsistency);
+		}
+		if (readTimeoutMillis > 0) {
+			statement.setReadTimeoutMillis(readTimeoutMillis);
+		}
+		if (fetchSize > 0) {
+			statement.setFetchSize(fetchSize);
+		}
+		if (retryPolicy != null) {
+			statement.setRetryPolicy(retryPolicy);
+		}
+		if (idempotent != null) {
+			statement.setIdempotent(idempotent);
+		}
+		return statement;
+	}
+
+	/**
+	 * @return name of the profile.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return consistency level, {@code null} if Cluster default.
+	 */
+	public ConsistencyLevel getConsistency() {
+		return consistency;
+	}
+
+	/**
+	 * @return true if statements of this profile are safe to be retried,
+	 *         {@code null} if left to the statement.
+	 */
+	public Boolean isIdempotent() {
+		return idempotent;
+	}
+
+	/**
+	 * Parses the consistency level, returns {@code defaultLevel} if invalid.
+	 */
+	private static ConsistencyLevel parseConsistency(String level,
+			ConsistencyLevel defaultLevel) {
+		if (level == null) {
+			return defaultLevel;
+		}
+		try {
+			return ConsistencyLevel.valueOf(level.toUpperCase());
+		} catch (IllegalArgumentException iae) {
+			LOG.info("Invalid consistency level " + level
+					+ ". So, using the default " + defaultLevel);
+			return defaultLevel;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ExecutionProfile[" + name + ": consistency=" + consistency
+				+ ", serialConsistency=" + serialConsistency
+				+ ", readTimeoutMillis=" + readTimeoutMillis + ", fetchSize="
+				+ fetchSize + ", retryPolicy=" + retryPolicy + ", idempotent="
+				+ idempotent + "]";
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_OPERATION_PREFIX;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_OPERATION_PROFILE;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.persistance.connections.CassandraConfig;
+import com.airvana.loadtool.persistance.connections.PersistenceContext;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.google.common.collect.Maps;
+
+/**
+ * Resolves the {@link ExecutionProfile} of every {@link OperationType}.
+ *
+ * <p>
+ * Below are the built in profiles and the operations using them. Each of
+ * them can be changed through persistence config, see
+ * {@link ExecutionProfile}, and each operation can be pointed to any other
+ * profile with {@code cassandra.operation.<operation>.profile}, e.g.
+ * {@code cassandra.operation.scan.profile=read}.
+ * <ul>
+ * <li>read (POINT_READ)</li>
+ * <li>write (WRITE)</li>
+ * <li>reset (RESET)</li>
+ * <li>scan (SCAN): fetch size 5000</li>
+ * <li>replay (FAULT_REPLAY)</li>
+ * </ul>
+ * The consistency and the idempotence of the built in profiles are left to
+ * the Cluster defaults, so that a config without {@code cassandra.profile.*}
+ * keys behaves as before. As all the model queries overwrite the whole model
+ * object, they can be marked idempotent, e.g.
+ * {@code cassandra.profile.write.idempotent=true}.
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class ExecutionProfiles {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(ExecutionProfiles.class);
+
+	/**
+	 * Profiles resolved per operation.
+	 */
+	private final Map<OperationType, ExecutionProfile> profiles = new EnumMap<OperationType, ExecutionProfile>(
+			OperationType.class);
+
+	/**
+	 * Restricting the initialization
+	 */
+	private ExecutionProfiles(CassandraConfig config) {
+		Map<String, ExecutionProfile> builtIn = Maps.newHashMap();
+		builtIn.put("read", new ExecutionProfile("read", null, null, 0, 0,
+				null, null));
+		builtIn.put("write", new ExecutionProfile("write", null, null, 0, 0,
+				null, null));
+		builtIn.put("reset", new ExecutionProfile("reset", null, null, 0, 0,
+				null, null));
+		builtIn.put("scan", new ExecutionProfile("scan", null, null, 0, 5000,
+				null, null));
+		builtIn.put("replay", new ExecutionProfile("replay", null, null, 0,
+				0, null, null));
+
+		for (OperationType type : OperationType.values()) {
+			String name = config.getString(CASSANDRA_OPERATION_PREFIX
+					+ type.name().toLowerCase() + CASSANDRA_OPERATION_PROFILE,
+					defaultProfileName(type));
+			ExecutionProfile defaults = builtIn.containsKey(name) ? builtIn
+					.get(name) : new ExecutionProfile(name, null, null, 0, 0,
+					null, null);
+			ExecutionProfile profile = ExecutionProfile.load(name, config,
+					defaults);
+			profiles.put(type, profile);
+			LOG.info("Operation " + type + " is using " + profile);
+		}
+	}
+
+	/**
+	 * Returns the ExecutionProfiles instance, creating it from the persistence
+	 * config of the current job if not created.
+	 *
+	 * @return ExecutionProfiles instance
+	 */
+	public static ExecutionProfiles getExecutionProfiles() {
+		PersistenceContext context = PersistenceContext.current();
+		synchronized (context) {
+			ExecutionProfiles executionProfiles = context
+					.getComponent(ExecutionProfiles.class);
+			if (executionProfiles == null) {
+				executionProfiles = new ExecutionProfiles(context.getConfig());
+				context.putComponent(ExecutionProfiles.class,
+						executionProfiles);
+			}
+			return executionProfiles;
+		}
+	}
+
+	/**
+	 * @param type
+	 *            of the operation.
+	 * @return profile of the operation.
+	 */
+	public ExecutionProfile getProfile(OperationType type) {
+		return profiles.get(type);
+	}
+
+	/**
+	 * Creates a {@link Statement} for the given {@code query} with the
+	 * profile of the operation applied.
+	 *
+	 * @param type
+	 *            of the operation
+	 * @param query
+	 *            CQL query
+	 * @return statement to be executed.
+	 */
+	public Statement statement(OperationType type, String query) {
+		return profiles.get(type).apply(new SimpleStatement(query));
+	}
+
+	/**
+	 * @return name of the built in profile of the given operation.
+	 */
+	private static String defaultProfileName(OperationType type) {
+		switch (type) {
+		case POINT_READ:
+			return "read";
+		case WRITE:
+			return "write";
+		case RESET:
+			return "reset";
+		case SCAN:
+			return "scan";
+		default:
+			return "replay";
+		}
+	}
+}
@@ -4,9 +4,14 @@
 package com.airvana.loadtool.persistance;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.persistance.connections.PersistenceContext;
 import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 
 /**
@@ -24,6 +29,12 @@ import com.google.common.collect.Multimap;
  * 
  * </p>
  * 
+ * <p>
+ * Every job has its own cache, stored in its {@link PersistenceContext}. The
+ * cache is shared by the threads of the job, so every access holds the lock
+ * of the cache and {@link #getValues(String)} returns a copy.
+ * </p>
+ * 
  * @author akballappagari
  * 
  */
@@ -31,35 +42,46 @@ public class FaultExecutionsCache {
 
 	/**
 	 * A {@link Multimap} which stores the {@code serialno} and its failed queries.
+	 * Guarded by this.
 	 */
 	private final LinkedListMultimap<String, String> failedExecutionsCache = LinkedListMultimap
 			.<String, String> create();
 	
 	private static final JobLogger LOG = JobLogger.getLogger(FaultExecutionsCache.class);
 
-	/**
-	 * instance of {@link FaultExecutionsCache}
-	 */
-	private static FaultExecutionsCache faultCache;
-
 	/**
 	 * Restricting the initialization
 	 */
 	private FaultExecutionsCache() {
 	}
 
-	// initializing FaultExecutionsCache
-	static {
-		faultCache = new FaultExecutionsCache();
+	/**
+	 * Returns the FaultExecutionsCache of the job of the current thread.
+	 * 
+	 * @return FaultExectionsCache instance
+	 */
+	public static final FaultExecutionsCache getFaultExecutionCache() {
+		return getFaultExecutionCache(PersistenceContext.current());
 	}
 
 	/**
-	 * Returns the already created FaultExecutionsCache instance.
+	 * Returns the FaultExecutionsCache of the given job.
 	 * 
+	 * @param context
+	 *            of the job
 	 * @return FaultExectionsCache instance
 	 */
-	public static final FaultExecutionsCache getFaultExecutionCache() {
-		return faultCache;
+	public static final FaultExecutionsCache getFaultExecutionCache(
+			PersistenceContext context) {
+		synchronized (context) {
+			FaultExecutionsCache faultCache = context
+					.getComponent(FaultExecutionsCache.class);
+			if (faultCache == null) {
+				faultCache = new FaultExecutionsCache();
+				context.putComponent(FaultExecutionsCache.class, faultCache);
+			}
+			return faultCache;
+		}
 	}
 
 	/**
@@ -70,7 +92,7 @@ public class FaultExecutionsCache {
 	 * @param value
 	 *            value to be stored
 	 */
-	public void put(String key, String value) {
+	public synchronized void put(String key, String value) {
 		failedExecutionsCache.put(key, value);
 	}
 
@@ -82,7 +104,7 @@ public class FaultExecutionsCache {
 	 * @param values
 	 *            values to be stored
 	 */
-	public void put(String key, List<String> values) {
+	public synchronized void put(String key, List<String> values) {
 		putAll(key, values);
 	}
 
@@ -91,10 +113,10 @@ public class FaultExecutionsCache {
 	 * 
 	 * @param key
 	 *            for which values needs to be fetched.
-	 * @return list of values for the given {@code key}
+	 * @return copy of the values for the given {@code key}
 	 */
-	public List<String> getValues(String key) {
-		return failedExecutionsCache.get(key);
+	public synchronized List<String> getValues(String key) {
+		return Lists.newArrayList(failedExecutionsCache.get(key));
 	}
 
 	/**
@@ -103,10 +125,26 @@ public class FaultExecutionsCache {
 	 * @param key
 	 *            for which values to be removed.
 	 */
-	public void remove(String key) {
+	public synchronized void remove(String key) {
 		failedExecutionsCache.removeAll(key);
 	}
 
+	/**
+	 * Removes the given values of the given {@code key}, an occurrence per
+	 * value, e.g. once they are replayed. The values stored for the key
+	 * after they were read are kept.
+	 * 
+	 * @param key
+	 *            for which values to be removed.
+	 * @param values
+	 *            to be removed.
+	 */
+	public synchronized void removeAll(String key, List<String> values) {
+		for (String value : values) {
+			failedExecutionsCache.remove(key, value);
+		}
+	}
+
 	/**
 	 * Store key and values to fault cache.
 	 * 
@@ -115,25 +153,36 @@ public class FaultExecutionsCache {
 	 * @param values
 	 *            to be stored.
 	 */
-	public void putAll(String key, List<String> values) {
+	public synchronized void putAll(String key, List<String> values) {
 		failedExecutionsCache.putAll(key, values);
 	}
 	
 	/**
-	 * Flush the cache.
+	 * Removes and returns the values of every key, in the order the keys were
+	 * stored.
+	 * 
+	 * @return values per key.
 	 */
-	private void flushCache() {
-		Multimap<String, String> tmp = failedExecutionsCache;
-		for (String key : tmp.keySet()) {
-			LOG.info("Failed executions for "+key+" is being flushed... The flushed executions are: "+failedExecutionsCache.removeAll(key).toString());
+	public synchronized Map<String, List<String>> drain() {
+		Map<String, List<String>> drained = Maps.newLinkedHashMap();
+		for (String key : Lists.newArrayList(failedExecutionsCache.keySet())) {
+			drained.put(key, failedExecutionsCache.removeAll(key));
 		}
+		return drained;
 	}
-	
+
 	/**
-	 * Flush the cache.
+	 * Flush the cache. The queries are replayed and the ones not replayed
+	 * within {@code cassandra.shutdown.timeout.s} are spilled by
+	 * {@link GracefulShutdown}, so that the next job replays them.
 	 */
 	public static void flush() {
-		faultCache.flushCache();
+		if (PersistenceContext.find() == null) {
+			LOG.info("No persistence is open. So, no failed executions to flush.");
+			return;
+		}
+		GracefulShutdown shutdown = GracefulShutdown.getGracefulShutdown();
+		shutdown.flushFaults(shutdown.getTimeoutSeconds(), TimeUnit.SECONDS);
 	}
 
 }
@@ -0,0 +1,591 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SHUTDOWN_REPLAY_RATE;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SHUTDOWN_REPLAY_THREADS;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SHUTDOWN_SPILL_FILE;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SHUTDOWN_TIMEOUT;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+import com.airvana.loadtool.persistance.connections.CassandraConfig;
+import com.airvana.loadtool.persistance.connections.CassandraSession;
+import com.airvana.loadtool.persistance.connections.CassandraSessionManager;
+import com.airvana.loadtool.persistance.connections.PersistenceContext;
+import com.datastax.driver.core.ResultSetFuture;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Shuts down the persistence of a job without losing the writes in flight or
+ * waiting in {@link FaultExecutionsCache}.
+ *
+ * <p>
+ * {@link #shutdown(long, TimeUnit)} goes through the below steps within the
+ * given time:
+ * <ol>
+ * <li>stops the admission, so that the operations of {@link DevicePersistence}
+ * and {@link SimpleCassandraConnection} fail fast,</li>
+ * <li>shuts down {@link WriteBehindQueue} and waits for the asynchronous
+ * operations in flight and the ordered ones waiting,</li>
+ * <li>replays the queries of {@link FaultExecutionsCache} with
+ * {@code cassandra.shutdown.replay.threads} threads (4 by default), at most
+ * {@code cassandra.shutdown.replay.rate} queries per second (200 by default),
+ * the queries of a device in order,</li>
+ * <li>writes the queries not replayed to {@code cassandra.shutdown.spill.file}
+ * (fault-backlog.txt by default), one {@code serialno<TAB>query} per line,
+ * and</li>
+ * <li>shuts down the {@link CassandraSessionManager} of the job, closing its
+ * {@link PersistenceContext}.</li>
+ * </ol>
+ * The spilled queries are put back in {@link FaultExecutionsCache} when the
+ * next job creates its persistence, so that they are replayed with the next
+ * execution on their devices as usual. The counts of every step are returned
+ * in a {@link Report} and logged.
+ * </p>
+ *
+ * <p>
+ * A job which only shuts down its {@link CassandraSessionManager} goes
+ * through the same steps within {@code cassandra.shutdown.timeout.s} seconds
+ * (30 by default), as the GracefulShutdown of the job is the drainer of its
+ * {@link PersistenceContext}. {@link FaultExecutionsCache#flush()} replays
+ * and spills the fault backlog the same way instead of dropping it.
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class GracefulShutdown implements Closeable {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(GracefulShutdown.class);
+
+	/**
+	 * time after which the operations in flight are checked again while
+	 * draining.
+	 */
+	private static final long RECHECK_MILLIS = 10L;
+
+	private final int replayThreads;
+
+	private final double replayRate;
+
+	private final File spillFile;
+
+	private volatile boolean stopping;
+
+	/**
+	 * true once the job has been drained, guarded by this.
+	 */
+	private boolean drained;
+
+	private final long timeoutSeconds;
+
+	private final PersistenceContext context;
+
+	/**
+	 * asynchronous operations in flight.
+	 */
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	/**
+	 * asynchronous operations completed.
+	 */
+	private final AtomicLong completed = new AtomicLong();
+
+	/**
+	 * Counts of a shut down.
+	 */
+	public static final class Report {
+
+		private final long drained;
+
+		private final int replayed;
+
+		private final int spilled;
+
+		private final int abandoned;
+
+		private Report(long drained, int replayed, int spilled, int abandoned) {
+			this.drained = drained;
+			this.replayed = replayed;
+			this.spilled = spilled;
+			this.abandoned = abandoned;
+		}
+
+		/**
+		 * @return no. of asynchronous operations completed while draining.
+		 */
+		public long getDrained() {
+			return drained;
+		}
+
+		/**
+		 * @return no. of queries of the fault backlog replayed.
+		 */
+		public int getReplayed() {
+			return replayed;
+		}
+
+		/**
+		 * @return no. of queries of the fault backlog written to the spill
+		 *         file.
+		 */
+		public int getSpilled() {
+			return spilled;
+		}
+
+		/**
+		 * @return no. of asynchronous operations still in flight at the
+		 *         deadline, whose outcome is not known.
+		 */
+		public int getAbandoned() {
+			return abandoned;
+		}
+
+		@Override
+		public String toString() {
+			return "drained " + drained + ", replayed " + replayed
+					+ ", spilled " + spilled + ", abandoned in flight "
+					+ abandoned;
+		}
+	}
+
+	/**
+	 * Restricting the initialization
+	 */
+	private GracefulShutdown(PersistenceContext context,
+			CassandraConfig config) {
+		this.context = context;
+		replayThreads = Math.max(1,
+				config.getInt(CASSANDRA_SHUTDOWN_REPLAY_THREADS, 4));
+		replayRate = config.getDouble(CASSANDRA_SHUTDOWN_REPLAY_RATE, 200.0);
+		spillFile = new File(config.getString(CASSANDRA_SHUTDOWN_SPILL_FILE,
+				"fault-backlog.txt"));
+		timeoutSeconds = config.getLong(CASSANDRA_SHUTDOWN_TIMEOUT, 30L);
+	}
+
+	/**
+	 * Returns the GracefulShutdown of the job, creating it from the
+	 * persistence config and restoring the spilled queries if not created.
+	 *
+	 * @return GracefulShutdown instance
+	 */
+	public static GracefulShutdown getGracefulShutdown() {
+		PersistenceContext context = PersistenceContext.current();
+		synchronized (context) {
+			GracefulShutdown gracefulShutdown = context
+					.getComponent(GracefulShutdown.class);
+			if (gracefulShutdown == null) {
+				gracefulShutdown = new GracefulShutdown(context,
+						context.getConfig());
+				gracefulShutdown.restore();
+				context.putComponent(GracefulShutdown.class, gracefulShutdown);
+				context.setDrainer(gracefulShutdown);
+			}
+			return gracefulShutdown;
+		}
+	}
+
+	/**
+	 * Fails if the persistence is being shut down.
+	 *
+	 * @throws CassandraException
+	 *             if the admission is stopped.
+	 */
+	void checkAdmission() throws CassandraException {
+		if (stopping) {
+			throw new CassandraException(
+					"Persistence is shutting down. So, operation is not admitted.",
+					null);
+		}
+	}
+
+	/**
+	 * Tracks the given asynchronous operation till it is completed, so that
+	 * it is waited for on shut down.
+	 *
+	 * @param futureSet
+	 *            of the operation
+	 */
+	void track(ResultSetFuture futureSet) {
+		inFlight.incrementAndGet();
+		futureSet.addListener(new Runnable() {
+			@Override
+			public void run() {
+				completed.incrementAndGet();
+				inFlight.decrementAndGet();
+			}
+		}, MoreExecutors.sameThreadExecutor());
+	}
+
+	/**
+	 * @return no. of asynchronous operations in flight.
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return max. time in seconds to drain the job when its session manager
+	 *         is shut down.
+	 */
+	long getTimeoutSeconds() {
+		return timeoutSeconds;
+	}
+
+	/**
+	 * @return true while shutting down.
+	 */
+	public boolean isStopping() {
+		return stopping;
+	}
+
+	/**
+	 * Shuts down the persistence of the job as described in
+	 * {@link GracefulShutdown}.
+	 *
+	 * @param timeout
+	 *            max. time to drain and replay, the spill is done after.
+	 * @param unit
+	 *            of timeout
+	 * @return counts of the shut down, {@code null} if the job has already
+	 *         been drained.
+	 */
+	public Report shutdown(long timeout, TimeUnit unit) {
+		try {
+			return drain(timeout, unit);
+		} finally {
+			context.getSessionManager().shutdown();
+		}
+	}
+
+	/**
+	 * Drains the job within {@code cassandra.shutdown.timeout.s} seconds (30
+	 * by default) if it has not been drained yet. Run by the
+	 * {@link PersistenceContext} of the job when its
+	 * {@link CassandraSessionManager} is shut down, before the sessions are
+	 * released.
+	 */
+	@Override
+	public void close() {
+		drain(timeoutSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Replays the queries of {@link FaultExecutionsCache} now, within the
+	 * given time, and spills the ones not replayed, without stopping the
+	 * admission. Used by {@link FaultExecutionsCache#flush()}.
+	 *
+	 * @param timeout
+	 *            max. time to replay, the spill is done after.
+	 * @param unit
+	 *            of timeout
+	 * @return counts of the flush.
+	 */
+	synchronized Report flushFaults(long timeout, TimeUnit unit) {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		Report report = replayAndSpill(0L, 0, deadline);
+		LOG.info("Fault backlog flushed: " + report);
+		return report;
+	}
+
+	/**
+	 * Stops the admission and drains the job, steps 1 to 4 of
+	 * {@link GracefulShutdown}. Does nothing if already drained.
+	 *
+	 * @return counts of the drain, {@code null} if already drained.
+	 */
+	private synchronized Report drain(long timeout, TimeUnit unit) {
+		if (drained) {
+			return null;
+		}
+		drained = true;
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		stopping = true;
+		LOG.info("Shutting down the persistence. No more operations are admitted.");
+		long completedBefore = completed.get();
+		WriteBehindQueue writeBehind = WriteBehindQueue
+				.getCreatedWriteBehindQueue(context);
+		if (writeBehind != null) {
+			writeBehind.shutdown(remainingNanos(deadline),
+					TimeUnit.NANOSECONDS);
+		}
+		DeviceOrderedExecutor ordered = context
+				.getComponent(DeviceOrderedExecutor.class);
+		while ((inFlight.get() > 0 || (ordered != null && ordered
+				.getPendingDevices() > 0))
+				&& remainingNanos(deadline) > 0) {
+			try {
+				Thread.sleep(RECHECK_MILLIS);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		long drainedCount = completed.get() - completedBefore;
+		int abandoned = inFlight.get();
+		if (abandoned > 0) {
+			LOG.info(abandoned
+					+ " operations are still in flight at the deadline. Failed ones will be spilled if stored as faults in time.");
+		}
+		Report report = replayAndSpill(drainedCount, abandoned, deadline);
+		LOG.info("Persistence shut down: " + report);
+		return report;
+	}
+
+	/**
+	 * Replays the queries of {@link FaultExecutionsCache} till the deadline
+	 * and spills the ones not replayed.
+	 *
+	 * @return report of the replay with the given drain counts.
+	 */
+	private Report replayAndSpill(long drainedCount, int abandoned,
+			long deadline) {
+		Map<String, List<String>> backlog = FaultExecutionsCache
+				.getFaultExecutionCache(context).drain();
+		ConcurrentMap<String, List<String>> leftover = Maps.newConcurrentMap();
+		int replayed = replay(backlog, leftover, deadline);
+		// faults stored by the operations completed while replaying.
+		for (Map.Entry<String, List<String>> entry : FaultExecutionsCache
+				.getFaultExecutionCache(context).drain().entrySet()) {
+			append(leftover, entry.getKey(), entry.getValue());
+		}
+		int spilled = spill(leftover);
+		return new Report(drainedCount, replayed, spilled, abandoned);
+	}
+
+	/**
+	 * Replays the given backlog with the replay threads till the deadline,
+	 * storing the queries not replayed in {@code leftover}.
+	 *
+	 * @return no. of queries replayed.
+	 */
+	private int replay(Map<String, List<String>> backlog,
+			final ConcurrentMap<String, List<String>> leftover,
+			final long deadline) {
+		if (backlog.isEmpty()) {
+			return 0;
+		}
+		LOG.info("Replaying the fault backlog of " + backlog.size()
+				+ " devices at " + replayRate + " queries per second");
+		final ConcurrentLinkedQueue<Map.Entry<String, List<String>>> devices = new ConcurrentLinkedQueue<Map.Entry<String, List<String>>>(
+				backlog.entrySet());
+		final TokenBucket pacer = new TokenBucket(replayRate, replayThreads);
+		final ShardRouter router = ShardRouter.getShardRouter(context);
+		final AtomicInteger replayed = new AtomicInteger();
+		List<Thread> workers = Lists.newArrayList();
+		for (int i = 0; i < replayThreads; i++) {
+			Thread worker = new Thread(context.wrap(new Runnable() {
+				@Override
+				public void run() {
+					Map.Entry<String, List<String>> device;
+					while ((device = devices.poll()) != null) {
+						String serialno = device.getKey();
+						List<String> queries = device.getValue();
+						int done = 0;
+						try {
+							CassandraSession session = CassandraSession
+									.open(context, router.route(serialno));
+							try {
+								for (String query : queries) {
+									long remaining = remainingNanos(deadline);
+									if (remaining <= 0
+											|| !pacer.tryAcquire(1, remaining,
+													TimeUnit.NANOSECONDS)) {
+										break;
+									}
+									session.execute(query);
+									done++;
+								}
+							} finally {
+								session.close();
+							}
+						} catch (CassandraException ce) {
+							LOG.error(ce);
+						} catch (RuntimeException re) {
+							LOG.info("Replay of the fault backlog of "
+									+ serialno + " failed: " + re.getMessage());
+						}
+						replayed.addAndGet(done);
+						if (done < queries.size()) {
+							append(leftover, serialno,
+									queries.subList(done, queries.size()));
+						}
+					}
+				}
+			}), "cassandra-fault-replay-" + i);
+			worker.setDaemon(true);
+			worker.start();
+			workers.add(worker);
+		}
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return replayed.get();
+	}
+
+	/**
+	 * Writes the given queries to the spill file, putting them back in
+	 * {@link FaultExecutionsCache} if it can't be written.
+	 *
+	 * @return no. of queries spilled.
+	 */
+	private int spill(Map<String, List<String>> leftover) {
+		if (leftover.isEmpty()) {
+			return 0;
+		}
+		int spilled = 0;
+		BufferedWriter writer = null;
+		try {
+			writer = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(spillFile, true), Charsets.UTF_8));
+			for (Map.Entry<String, List<String>> entry : leftover.entrySet()) {
+				for (String query : entry.getValue()) {
+					writer.write(entry.getKey());
+					writer.write('\t');
+					writer.write(escape(query));
+					writer.newLine();
+					spilled++;
+				}
+			}
+			writer.flush();
+			LOG.info(spilled + " queries of the fault backlog are spilled to "
+					+ spillFile.getAbsolutePath());
+			return spilled;
+		} catch (IOException ioe) {
+			LOG.error(ioe);
+			LOG.info("Unable to spill the fault backlog to "
+					+ spillFile.getAbsolutePath()
+					+ ". So, keeping it in the fault cache.");
+			FaultExecutionsCache faultCache = FaultExecutionsCache
+					.getFaultExecutionCache(context);
+			for (Map.Entry<String, List<String>> entry : leftover.entrySet()) {
+				faultCache.putAll(entry.getKey(), entry.getValue());
+			}
+			return 0;
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException ioe) {
+					LOG.error(ioe);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Puts the queries of the spill file back in {@link FaultExecutionsCache}
+	 * and deletes the file.
+	 */
+	private void restore() {
+		if (!spillFile.isFile()) {
+			return;
+		}
+		FaultExecutionsCache faultCache = FaultExecutionsCache
+				.getFaultExecutionCache(context);
+		int restored = 0;
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(spillFile), Charsets.UTF_8));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				if (tab > 0) {
+					faultCache.put(line.substring(0, tab),
+							unescape(line.substring(tab + 1)));
+					restored++;
+				}
+			}
+		} catch (IOException ioe) {
+			LOG.error(ioe);
+			LOG.info("Unable to restore the fault backlog from "
+					+ spillFile.getAbsolutePath());
+			return;
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException ioe) {
+					LOG.error(ioe);
+				}
+			}
+		}
+		if (!spillFile.delete()) {
+			LOG.info("Unable to delete " + spillFile.getAbsolutePath()
+					+ ". Its queries may be replayed again.");
+		}
+		LOG.info(restored + " spilled queries are restored from "
+				+ spillFile.getAbsolutePath()
+				+ " and will be replayed with the next execution on their devices.");
+	}
+
+	private static void append(ConcurrentMap<String, List<String>> leftover,
+			String serialno, List<String> queries) {
+		List<String> pending = leftover.get(serialno);
+		if (pending == null) {
+			List<String> created = Lists.newArrayList();
+			pending = leftover.putIfAbsent(serialno, created);
+			if (pending == null) {
+				pending = created;
+			}
+		}
+		synchronized (pending) {
+			pending.addAll(queries);
+		}
+	}
+
+	private static long remainingNanos(long deadline) {
+		return Math.max(0L, deadline - System.nanoTime());
+	}
+
+	/**
+	 * @return query on a single line.
+	 */
+	private static String escape(String query) {
+		return query.replace("\\", "\\\\").replace("\n", "\\n")
+				.replace("\r", "\\r");
+	}
+
+	private static String unescape(String line) {
+		StringBuilder query = new StringBuilder(line.length());
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '\\' && i + 1 < line.length()) {
+				char next = line.charAt(++i);
+				query.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+			} else {
+				query.append(c);
+			}
+		}
+		return query.toString();
+	}
+}
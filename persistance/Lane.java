@@ -0,0 +1,44 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+/**
+ * Priority lanes of {@link LaneScheduler}, highest priority first.
+ *
+ * @author akballappagari
+ *
+ */
+public enum Lane {
+
+	/**
+	 * reads and writes of single devices, on which the simulated devices
+	 * wait.
+	 */
+	INTERACTIVE,
+
+	/**
+	 * scans and fault replays, which can wait for the interactive traffic.
+	 */
+	BACKGROUND,
+
+	/**
+	 * provisioning and offline tools, e.g. {@link BulkLoader}.
+	 */
+	BULK;
+
+	/**
+	 * @param type
+	 *            of the operation.
+	 * @return lane of the operation of {@link DevicePersistence}.
+	 */
+	public static Lane of(OperationType type) {
+		switch (type) {
+		case SCAN:
+		case FAULT_REPLAY:
+			return BACKGROUND;
+		default:
+			return INTERACTIVE;
+		}
+	}
+}
@@ -0,0 +1,406 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_LANES_ENABLED;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_LANES_MAX_INFLIGHT;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_LANES_PREFIX;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.persistance.connections.CassandraConfig;
+import com.airvana.loadtool.persistance.connections.PersistenceContext;
+import com.airvana.loadtool.persistance.metrics.LatencyWindow;
+import com.datastax.driver.core.ResultSetFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Admits the operations sent to the sessions in priority {@link Lane}s, so
+ * that scans, fault replays and bulk loads don't queue the device reads and
+ * writes behind them in the driver.
+ *
+ * <p>
+ * At most {@code cassandra.lanes.max.inflight} operations (512 by default)
+ * are in flight, of which every lane is guaranteed its share,
+ * {@code cassandra.lanes.<lane>.share}: 0.6 for interactive, 0.3 for
+ * background and 0.1 for bulk by default. Beyond its share a lane borrows
+ * only the capacity which is neither reserved by the idle share of a higher
+ * lane nor wanted by an operation waiting in a higher lane. So background and
+ * bulk work only uses the capacity the interactive lane isn't using, while
+ * the interactive lane can use the whole capacity when the others are idle.
+ * As the shares are guarantees, the total in flight may briefly exceed the
+ * max. by the shares of the lower lanes.
+ * </p>
+ *
+ * <p>
+ * The lanes are used with {@code cassandra.lanes.enabled=true}. The queue
+ * depth, in flight and latencies of every lane are registered in the
+ * platform MBean server as
+ * {@code com.airvana.loadtool.persistance:type=LaneScheduler,job=<context>}
+ * and unregistered when the {@link PersistenceContext} of the job is closed.
+ * </p>
+ *
+ * <pre>
+ * long admitted = scheduler.acquire(Lane.BACKGROUND);
+ * try {
+ * 	session.execute(statement);
+ * } finally {
+ * 	scheduler.release(Lane.BACKGROUND, admitted);
+ * }
+ * </pre>
+ *
+ * @author akballappagari
+ *
+ */
+public final class LaneScheduler implements LaneSchedulerMBean, Closeable {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(LaneScheduler.class);
+
+	/**
+	 * time after which a waiting operation checks its admission again, in
+	 * case a signal has been missed.
+	 */
+	private static final long RECHECK_MILLIS = 100L;
+
+	/**
+	 * name of the context of the job, used in the JMX name.
+	 */
+	private final String job;
+
+	private final boolean enabled;
+
+	private final int maxInFlight;
+
+	private final Lane[] lanes = Lane.values();
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Map<Lane, Condition> admissions = new EnumMap<Lane, Condition>(
+			Lane.class);
+
+	/**
+	 * guaranteed in flight per lane, guarded by {@link #lock}.
+	 */
+	private final int[] reserved = new int[lanes.length];
+
+	/**
+	 * in flight per lane, guarded by {@link #lock}.
+	 */
+	private final int[] inFlight = new int[lanes.length];
+
+	/**
+	 * waiting per lane, guarded by {@link #lock}.
+	 */
+	private final int[] waiting = new int[lanes.length];
+
+	private int totalInFlight;
+
+	private final Map<Lane, LatencyWindow> waits = new EnumMap<Lane, LatencyWindow>(
+			Lane.class);
+
+	private final Map<Lane, LatencyWindow> latencies = new EnumMap<Lane, LatencyWindow>(
+			Lane.class);
+
+	/**
+	 * Restricting the initialization
+	 */
+	private LaneScheduler(String job, CassandraConfig config) {
+		this.job = job;
+		enabled = config.getBoolean(CASSANDRA_LANES_ENABLED, false);
+		maxInFlight = Math.max(lanes.length,
+				config.getInt(CASSANDRA_LANES_MAX_INFLIGHT, 512));
+		double[] defaults = { 0.6, 0.3, 0.1 };
+		for (Lane lane : lanes) {
+			admissions.put(lane, lock.newCondition());
+			waits.put(lane, new LatencyWindow(1024));
+			latencies.put(lane, new LatencyWindow(1024));
+			setReserved(lane, config.getDouble(CASSANDRA_LANES_PREFIX
+					+ lane.name().toLowerCase() + ".share",
+					defaults[lane.ordinal()]));
+		}
+		if (enabled) {
+			LOG.info("Operations are admitted in lanes, max. in flight "
+					+ maxInFlight + ", guaranteed " + reservedSummary());
+			register();
+		}
+	}
+
+	/**
+	 * Returns the LaneScheduler of the job, creating it from the persistence
+	 * config if not created.
+	 *
+	 * @return LaneScheduler instance
+	 */
+	public static LaneScheduler getLaneScheduler() {
+		PersistenceContext context = PersistenceContext.current();
+		synchronized (context) {
+			LaneScheduler laneScheduler = context
+					.getComponent(LaneScheduler.class);
+			if (laneScheduler == null) {
+				laneScheduler = new LaneScheduler(context.getName(),
+						context.getConfig());
+				context.putComponent(LaneScheduler.class, laneScheduler);
+			}
+			return laneScheduler;
+		}
+	}
+
+	/**
+	 * @return true if the operations are admitted in lanes.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Waits till an operation of the given lane can be admitted. Every
+	 * admission should be followed by a {@link #release(Lane, long)} once
+	 * the operation is completed.
+	 *
+	 * @param lane
+	 *            of the operation
+	 * @return time of admission, to be given to {@link #release(Lane, long)}.
+	 */
+	public long acquire(Lane lane) {
+		long start = System.nanoTime();
+		if (!enabled) {
+			return start;
+		}
+		int index = lane.ordinal();
+		boolean interrupted = false;
+		lock.lock();
+		try {
+			if (!canAdmit(index)) {
+				waiting[index]++;
+				try {
+					do {
+						try {
+							admissions.get(lane).await(RECHECK_MILLIS,
+									TimeUnit.MILLISECONDS);
+						} catch (InterruptedException ie) {
+							// admission is waited for like the governor does.
+							interrupted = true;
+						}
+					} while (!canAdmit(index));
+				} finally {
+					waiting[index]--;
+				}
+			}
+			inFlight[index]++;
+			totalInFlight++;
+			if (waiting[index] > 0 && canAdmit(index)) {
+				admissions.get(lane).signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		long admitted = System.nanoTime();
+		waits.get(lane).record(admitted - start);
+		return admitted;
+	}
+
+	/**
+	 * Releases the admission of a completed operation.
+	 *
+	 * @param lane
+	 *            of the operation
+	 * @param admitted
+	 *            time returned by {@link #acquire(Lane)}.
+	 */
+	public void release(Lane lane, long admitted) {
+		if (!enabled) {
+			return;
+		}
+		latencies.get(lane).record(System.nanoTime() - admitted);
+		lock.lock();
+		try {
+			inFlight[lane.ordinal()]--;
+			totalInFlight--;
+			// a higher lane waiting holds back the lower ones in canAdmit.
+			for (Lane waitingLane : lanes) {
+				int index = waitingLane.ordinal();
+				if (waiting[index] > 0 && canAdmit(index)) {
+					admissions.get(waitingLane).signal();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Releases the admission of the given operation once it is completed.
+	 *
+	 * @param lane
+	 *            of the operation
+	 * @param admitted
+	 *            time returned by {@link #acquire(Lane)}.
+	 * @param futureSet
+	 *            of the operation
+	 */
+	public void releaseOnCompletion(final Lane lane, final long admitted,
+			ResultSetFuture futureSet) {
+		if (!enabled) {
+			return;
+		}
+		futureSet.addListener(new Runnable() {
+			@Override
+			public void run() {
+				release(lane, admitted);
+			}
+		}, MoreExecutors.sameThreadExecutor());
+	}
+
+	/**
+	 * Returns true if an operation of the lane of the given index can be
+	 * admitted. Called holding {@link #lock}.
+	 */
+	private boolean canAdmit(int index) {
+		if (inFlight[index] < reserved[index]) {
+			return true;
+		}
+		int free = maxInFlight - totalInFlight;
+		for (int higher = 0; higher < index; higher++) {
+			if (waiting[higher] > 0) {
+				return false;
+			}
+			free -= Math.max(0, reserved[higher] - inFlight[higher]);
+		}
+		return free > 0;
+	}
+
+	private void setReserved(Lane lane, double share) {
+		reserved[lane.ordinal()] = Math.max(1,
+				(int) (Math.max(0.0, Math.min(1.0, share)) * maxInFlight));
+	}
+
+	@Override
+	public int getQueueDepth(String lane) {
+		lock.lock();
+		try {
+			return waiting[Lane.valueOf(lane.toUpperCase()).ordinal()];
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int getInFlight(String lane) {
+		lock.lock();
+		try {
+			return inFlight[Lane.valueOf(lane.toUpperCase()).ordinal()];
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getWaitP99Micros(String lane) {
+		return waits.get(Lane.valueOf(lane.toUpperCase())).percentile(99);
+	}
+
+	@Override
+	public long getLatencyP99Micros(String lane) {
+		return latencies.get(Lane.valueOf(lane.toUpperCase())).percentile(99);
+	}
+
+	@Override
+	public void setShare(String lane, double share) {
+		lock.lock();
+		try {
+			setReserved(Lane.valueOf(lane.toUpperCase()), share);
+			for (Lane waitingLane : lanes) {
+				admissions.get(waitingLane).signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+		LOG.info("Lane " + lane + " share changed to " + share
+				+ ", guaranteed " + reservedSummary());
+	}
+
+	@Override
+	public String getSummary() {
+		StringBuilder summary = new StringBuilder();
+		for (Lane lane : lanes) {
+			if (summary.length() > 0) {
+				summary.append("; ");
+			}
+			summary.append(lane).append(": queued ")
+					.append(getQueueDepth(lane.name())).append(", in flight ")
+					.append(getInFlight(lane.name())).append(", wait p99 ")
+					.append(getWaitP99Micros(lane.name()))
+					.append(" us, latency p99 ")
+					.append(getLatencyP99Micros(lane.name())).append(" us");
+		}
+		return summary.toString();
+	}
+
+	private String reservedSummary() {
+		StringBuilder summary = new StringBuilder();
+		for (Lane lane : lanes) {
+			summary.append(lane).append('=').append(reserved[lane.ordinal()])
+					.append(' ');
+		}
+		return summary.toString().trim();
+	}
+
+	/**
+	 * Unregisters this scheduler from JMX. Called when the context of the job
+	 * is closed.
+	 */
+	@Override
+	public void close() {
+		if (!enabled) {
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = objectName();
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (Exception e) {
+			LOG.error(e);
+		}
+	}
+
+	private ObjectName objectName() throws Exception {
+		return new ObjectName(
+				"com.airvana.loadtool.persistance:type=LaneScheduler,job="
+						+ ObjectName.quote(job));
+	}
+
+	/**
+	 * Registers this scheduler in the platform MBean server, replacing the
+	 * one registered earlier.
+	 */
+	private void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = objectName();
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+		} catch (Exception e) {
+			LOG.error(e);
+			LOG.info("Unable to register the lane scheduler in JMX. Lanes can't be watched at runtime.");
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+/**
+ * JMX interface of {@link LaneScheduler}, which reports the traffic of every
+ * lane and allows its share to be changed at runtime. Lanes are given by
+ * name, INTERACTIVE, BACKGROUND or BULK.
+ *
+ * @author akballappagari
+ *
+ */
+public interface LaneSchedulerMBean {
+
+	/**
+	 * @param lane
+	 *            name of the lane
+	 * @return no. of operations waiting for admission.
+	 */
+	int getQueueDepth(String lane);
+
+	/**
+	 * @param lane
+	 *            name of the lane
+	 * @return no. of operations admitted and not completed.
+	 */
+	int getInFlight(String lane);
+
+	/**
+	 * @param lane
+	 *            name of the lane
+	 * @return 99th percentile of the recent waits for admission in micro
+	 *         seconds.
+	 */
+	long getWaitP99Micros(String lane);
+
+	/**
+	 * @param lane
+	 *            name of the lane
+	 * @return 99th percentile of the recent latencies after admission in
+	 *         micro seconds.
+	 */
+	long getLatencyP99Micros(String lane);
+
+	/**
+	 * Changes the guaranteed share of the given lane.
+	 *
+	 * @param lane
+	 *            name of the lane
+	 * @param share
+	 *            fraction of max. in flight, between 0 and 1.
+	 */
+	void setShare(String lane, double share);
+
+	/**
+	 * @return queue depth, in flight and latencies of every lane.
+	 */
+	String getSummary();
+}
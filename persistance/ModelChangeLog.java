@@ -0,0 +1,171 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_CHANGES_BUCKET;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_CHANGES_ENABLED;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_CHANGES_SUB_BUCKETS;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_CHANGES_TTL;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.persistance.connections.CassandraConfig;
+import com.airvana.loadtool.persistance.connections.PersistenceContext;
+import com.google.common.collect.Lists;
+
+/**
+ * Builds the queries of {@code model_changes} table, which records the
+ * serialno's changed by {@link DevicePersistence} so that a device snapshot
+ * can be reconciled without reading every model again.
+ *
+ * <p>
+ * The changes are partitioned in buckets of {@code cassandra.changes.bucket.ms}
+ * (one hour by default) and expire after {@code cassandra.changes.ttl}
+ * seconds (7 days by default). A device changed many times in a bucket has a
+ * single row in it. Every bucket is split in
+ * {@code cassandra.changes.sub.buckets} partitions (16 by default) by the hash
+ * of the serialno, so that the changes of a busy hour are spread over the
+ * cluster instead of loading the replicas of a single partition. Reading the
+ * changes of a bucket reads all of its sub-buckets.
+ * </p>
+ *
+ * <p>
+ * Recording is enabled by {@code cassandra.changes.enabled}; the table has to
+ * be created on every shard as below, or by
+ * {@code cassandra.schema.mode=create}. The rows only expire, so they are
+ * compacted by time window. A table created with the bucket alone as
+ * partition key has to be dropped and created again.
+ * </p>
+ *
+ * <pre>
+ * CREATE TABLE model_changes (
+ * 	bucket bigint,
+ * 	sub_bucket int,
+ * 	serialno text,
+ * 	changed bigint,
+ * 	PRIMARY KEY ((bucket, sub_bucket), serialno)
+ * ) WITH compaction = {'class': 'TimeWindowCompactionStrategy',
+ * 	'compaction_window_unit': 'HOURS', 'compaction_window_size': 6};
+ * </pre>
+ *
+ * @author akballappagari
+ *
+ */
+public final class ModelChangeLog {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(ModelChangeLog.class);
+
+	private final boolean enabled;
+
+	private final long bucketMillis;
+
+	private final long ttlSeconds;
+
+	private final int subBuckets;
+
+	/**
+	 * Restricting the initialization
+	 */
+	private ModelChangeLog(CassandraConfig config) {
+		enabled = config.getBoolean(CASSANDRA_CHANGES_ENABLED, false);
+		bucketMillis = Math.max(1L, config.getLong(CASSANDRA_CHANGES_BUCKET,
+				TimeUnit.HOURS.toMillis(1)));
+		ttlSeconds = config.getLong(CASSANDRA_CHANGES_TTL,
+				TimeUnit.DAYS.toSeconds(7));
+		subBuckets = Math.max(1,
+				config.getInt(CASSANDRA_CHANGES_SUB_BUCKETS, 16));
+		if (enabled) {
+			LOG.info("Model changes are recorded in buckets of "
+					+ bucketMillis + " ms split in " + subBuckets
+					+ " sub-buckets for " + ttlSeconds + " s");
+		}
+	}
+
+	/**
+	 * Returns the ModelChangeLog of the job, creating it from the persistence
+	 * config if not created.
+	 *
+	 * @return ModelChangeLog instance
+	 */
+	public static ModelChangeLog getModelChangeLog() {
+		PersistenceContext context = PersistenceContext.current();
+		synchronized (context) {
+			ModelChangeLog modelChangeLog = context
+					.getComponent(ModelChangeLog.class);
+			if (modelChangeLog == null) {
+				modelChangeLog = new ModelChangeLog(context.getConfig());
+				context.putComponent(ModelChangeLog.class, modelChangeLog);
+			}
+			return modelChangeLog;
+		}
+	}
+
+	/**
+	 * @return true if the changes are recorded.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Constructs and returns the INSERT CQL query recording a change of the
+	 * given {@code serialno} now.
+	 *
+	 * @param serialno
+	 *            which is changed.
+	 * @return constructed insert query.
+	 */
+	public String getMarkQuery(String serialno) {
+		long now = System.currentTimeMillis();
+		StringBuilder query = new StringBuilder();
+		query.append("INSERT INTO model_changes(bucket, sub_bucket, serialno, changed) VALUES(");
+		query.append(bucketOf(now)).append(", ")
+				.append(subBucketOf(serialno, subBuckets)).append(", '")
+				.append(serialno)
+				.append("', ").append(now).append(")");
+		if (ttlSeconds > 0) {
+			query.append(" USING TTL ").append(ttlSeconds);
+		}
+		query.append(" ;");
+		return query.toString();
+	}
+
+	/**
+	 * Constructs and returns the SELECT CQL queries of the changes recorded
+	 * since the given time, one per sub-bucket of every bucket.
+	 *
+	 * @param sinceMillis
+	 *            time from which the changes are needed.
+	 * @return constructed select queries.
+	 */
+	public List<String> getChangesQueries(long sinceMillis) {
+		List<String> queries = Lists.newArrayList();
+		long last = bucketOf(System.currentTimeMillis());
+		for (long bucket = bucketOf(sinceMillis); bucket <= last; bucket++) {
+			for (int subBucket = 0; subBucket < subBuckets; subBucket++) {
+				queries.add("SELECT serialno, changed FROM model_changes WHERE bucket = "
+						+ bucket + " AND sub_bucket = " + subBucket + " ;");
+			}
+		}
+		return queries;
+	}
+
+	/**
+	 * @return bucket of the given time.
+	 */
+	private long bucketOf(long millis) {
+		return millis / bucketMillis;
+	}
+
+	/**
+	 * @return sub-bucket of the given serialno, out of the given no. of
+	 *         sub-buckets.
+	 */
+	static int subBucketOf(String serialno, int subBuckets) {
+		return (serialno.hashCode() & Integer.MAX_VALUE) % subBuckets;
+	}
+}
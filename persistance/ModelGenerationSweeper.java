@@ -0,0 +1,173 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SNAPSHOT_CLOCK_SKEW;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.airvana.loadtool.commons.CommonUtility;
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+import com.airvana.loadtool.persistance.connections.CassandraSession;
+import com.airvana.loadtool.persistance.connections.CassandraSessionManager;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Offline tool which deletes the models of older generations, see
+ * {@link ModelGenerations}, so that the tombstones are written in bulk at a
+ * quiet time instead of on every reset.
+ *
+ * <p>
+ * Every shard is scanned and the rows whose generation is older than the
+ * current one, including the devices reset since, are deleted with a
+ * timestamp taken before the scan began. A device written again while the
+ * tool runs is never lost, as its new write is newer than the deletion. The
+ * tool can be run while jobs are writing.
+ * </p>
+ *
+ * <pre>
+ * java com.airvana.loadtool.persistance.ModelGenerationSweeper conf/persistence/cassandra.properties [--dry-run]
+ * </pre>
+ *
+ * @author akballappagari
+ *
+ */
+public final class ModelGenerationSweeper {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(ModelGenerationSweeper.class);
+
+	/**
+	 * Page size used while scanning the shards.
+	 */
+	private static final int SCAN_FETCH_SIZE = 1000;
+
+	/**
+	 * Max. no. of deletes in flight.
+	 */
+	private static final int MAX_IN_FLIGHT = 64;
+
+	private final ModelGenerations generations;
+
+	private final long clockSkewMillis;
+
+	private final boolean dryRun;
+
+	/**
+	 * @param generations
+	 *            providing the current generation.
+	 * @param clockSkewMillis
+	 *            max. clock difference between this host and the Cassandra
+	 *            nodes.
+	 * @param dryRun
+	 *            if true, only counts the models to be deleted.
+	 */
+	public ModelGenerationSweeper(ModelGenerations generations,
+			long clockSkewMillis, boolean dryRun) {
+		this.generations = generations;
+		this.clockSkewMillis = clockSkewMillis;
+		this.dryRun = dryRun;
+	}
+
+	/**
+	 * Deletes the models of older generations of the given shard.
+	 *
+	 * @param shard
+	 *            to be swept
+	 * @return no. of models deleted (or to be deleted in dry run).
+	 * @throws CassandraException
+	 *             if the shard is not available.
+	 */
+	public long sweep(String shard) throws CassandraException {
+		generations.refresh();
+		long current = generations.getGeneration();
+		long timestamp = TimeUnit.MILLISECONDS.toMicros(System
+				.currentTimeMillis() - clockSkewMillis);
+		CassandraSession session = CassandraSession.open(shard);
+		long scanned = 0;
+		long deleted = 0;
+		List<ResultSetFuture> inFlight = Lists.newArrayList();
+		try {
+			PreparedStatement delete = session
+					.prepare("DELETE FROM model USING TIMESTAMP ? WHERE serialno = ?");
+			Statement scan = new SimpleStatement("SELECT serialno, "
+					+ ModelGenerations.COLUMN + " FROM model")
+					.setFetchSize(SCAN_FETCH_SIZE);
+			for (Row row : session.execute(scan)) {
+				scanned++;
+				long rowGeneration = row.isNull(1) ? 0L : row.getLong(1);
+				if (rowGeneration >= current) {
+					continue;
+				}
+				deleted++;
+				if (!dryRun) {
+					inFlight.add(session.executeAsync(delete.bind(timestamp,
+							row.getString(0))));
+					if (inFlight.size() >= MAX_IN_FLIGHT) {
+						await(inFlight);
+					}
+				}
+			}
+			await(inFlight);
+		} catch (RuntimeException re) {
+			throw new CassandraException(re);
+		} finally {
+			session.close();
+		}
+		LOG.info("Shard " + shard + ": scanned " + scanned + " models, "
+				+ (dryRun ? "to be deleted: " : "deleted: ") + deleted
+				+ " older than generation " + current);
+		return deleted;
+	}
+
+	private static void await(List<ResultSetFuture> futures) {
+		for (ResultSetFuture future : futures) {
+			future.getUninterruptibly();
+		}
+		futures.clear();
+	}
+
+	/**
+	 * Entry point of the tool.
+	 *
+	 * @param args
+	 *            persistence config file and optional --dry-run
+	 * @throws Exception
+	 *             if sweeping fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out
+					.println("Usage: ModelGenerationSweeper <persistence config> [--dry-run]");
+			return;
+		}
+		Map<String, String> info = Maps.fromProperties(CommonUtility
+				.loadProperties(args[0]));
+		CassandraSessionManager.initSessionManager(info);
+		boolean dryRun = args.length > 1 && "--dry-run".equals(args[1]);
+		ModelGenerationSweeper sweeper = new ModelGenerationSweeper(
+				ModelGenerations.getModelGenerations(), CassandraSessionManager
+						.getPersistenceConfig().getLong(
+								CASSANDRA_SNAPSHOT_CLOCK_SKEW, 5000L), dryRun);
+		try {
+			long deleted = 0;
+			for (String shard : CassandraSessionManager.getShardNames()) {
+				deleted += sweeper.sweep(shard);
+			}
+			LOG.info((dryRun ? "Models to be deleted: " : "Models deleted: ")
+					+ deleted);
+		} finally {
+			CassandraSessionManager.getSessionManager().shutdown();
+		}
+	}
+}
@@ -0,0 +1,265 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_RESET_GENERATION_REFRESH;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_RESET_MODE;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+import com.airvana.loadtool.persistance.connections.CassandraConfig;
+import com.airvana.loadtool.persistance.connections.CassandraSession;
+import com.airvana.loadtool.persistance.connections.CassandraSessionManager;
+import com.airvana.loadtool.persistance.connections.PersistenceContext;
+import com.datastax.driver.core.Row;
+
+/**
+ * Generations of the models, which let {@link DevicePersistence} reset the
+ * models without writing tombstones.
+ *
+ * <p>
+ * With {@code cassandra.reset.mode=generation} every write stores the current
+ * generation in {@code generation} column of the model, and a model is read
+ * only if its generation is the current one. Resetting a device overwrites its
+ * generation with {@link #RESET_GENERATION} instead of deleting the row, and
+ * resetting every device advances the current generation with a single write,
+ * see {@link DevicePersistence#resetAll()}. As the next write of a device
+ * replaces its whole model, nothing of an older generation is read again. So
+ * reads and scans don't slow down with the reset cycles; the rows of older
+ * generations are removed in bulk by {@link ModelGenerationSweeper}.
+ * </p>
+ *
+ * <p>
+ * The current generation is kept in {@code model_generation} table of the
+ * first shard, and reloaded every
+ * {@code cassandra.reset.generation.refresh.ms} (5 seconds by default) so
+ * that every load tool process follows a reset made by another. A model
+ * written before the mode was enabled has no generation, which is taken as
+ * generation 0, the one before the first reset of every device.
+ * </p>
+ *
+ * <pre>
+ * ALTER TABLE model ADD generation bigint;
+ * CREATE TABLE model_generation (
+ * 	name text PRIMARY KEY,
+ * 	generation bigint,
+ * 	advanced bigint
+ * );
+ * </pre>
+ *
+ * @author akballappagari
+ *
+ */
+public final class ModelGenerations {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(ModelGenerations.class);
+
+	/**
+	 * column of the generation in {@code model} table.
+	 */
+	public static final String COLUMN = "generation";
+
+	/**
+	 * generation of a device which has been reset.
+	 */
+	public static final long RESET_GENERATION = -1;
+
+	/**
+	 * row of the model generation in {@code model_generation} table.
+	 */
+	private static final String NAME = "model";
+
+	private final boolean enabled;
+
+	private final long refreshMillis;
+
+	private final String shard;
+
+	private final PersistenceContext context;
+
+	private volatile long generation;
+
+	/**
+	 * time at which the generation has been advanced last, 0 if never.
+	 */
+	private volatile long advancedMillis;
+
+	private volatile long refreshedMillis;
+
+	private final AtomicBoolean refreshing = new AtomicBoolean();
+
+	/**
+	 * Restricting the initialization
+	 */
+	private ModelGenerations(PersistenceContext context,
+			CassandraConfig config) {
+		this.context = context;
+		enabled = "generation".equalsIgnoreCase(config.getString(
+				CASSANDRA_RESET_MODE, "delete"));
+		refreshMillis = config.getLong(CASSANDRA_RESET_GENERATION_REFRESH,
+				5000L);
+		shard = CassandraSessionManager.getShardNames(config).get(0);
+		if (enabled) {
+			try {
+				refresh();
+			} catch (CassandraException ce) {
+				LOG.error(ce);
+				LOG.info("Unable to load the model generation. So, starting with generation 0.");
+			}
+			LOG.info("Models are reset by generation, current generation "
+					+ generation);
+		}
+	}
+
+	/**
+	 * Returns the ModelGenerations of the job, creating it from the
+	 * persistence config if not created.
+	 *
+	 * @return ModelGenerations instance
+	 */
+	public static ModelGenerations getModelGenerations() {
+		PersistenceContext context = PersistenceContext.current();
+		synchronized (context) {
+			ModelGenerations modelGenerations = context
+					.getComponent(ModelGenerations.class);
+			if (modelGenerations == null) {
+				modelGenerations = new ModelGenerations(context,
+						context.getConfig());
+				context.putComponent(ModelGenerations.class, modelGenerations);
+			}
+			return modelGenerations;
+		}
+	}
+
+	/**
+	 * @return true if the models are reset by generation.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns the current generation, reloading it if not reloaded for
+	 * {@code cassandra.reset.generation.refresh.ms}. Only one caller reloads
+	 * it, the others get the loaded one.
+	 *
+	 * @return current generation.
+	 */
+	public long getGeneration() {
+		if (System.currentTimeMillis() - refreshedMillis >= refreshMillis
+				&& refreshing.compareAndSet(false, true)) {
+			try {
+				refresh();
+			} catch (CassandraException ce) {
+				LOG.error(ce);
+				LOG.info("Unable to reload the model generation. So, using generation "
+						+ generation);
+			} finally {
+				refreshing.set(false);
+			}
+		}
+		return generation;
+	}
+
+	/**
+	 * @return time at which the generation has been advanced last, 0 if never.
+	 */
+	public long getAdvancedMillis() {
+		return advancedMillis;
+	}
+
+	/**
+	 * Returns true if the model of the given row is of the current generation.
+	 * A row without {@code generation} column is taken as current.
+	 *
+	 * @param row
+	 *            of {@code model} table
+	 * @return true if the model is to be read.
+	 */
+	public boolean isLive(Row row) {
+		if (!enabled || !row.getColumnDefinitions().contains(COLUMN)) {
+			return true;
+		}
+		long rowGeneration = row.isNull(COLUMN) ? 0L : row.getLong(COLUMN);
+		return rowGeneration == getGeneration();
+	}
+
+	/**
+	 * Advances the current generation, after which no model written so far is
+	 * read. If another process advances it at the same time, only one of them
+	 * advances it.
+	 *
+	 * @return new generation.
+	 * @throws CassandraException
+	 *             if the generation can't be advanced.
+	 */
+	public long advance() throws CassandraException {
+		CassandraSession session = CassandraSession.open(context, shard);
+		try {
+			load(session);
+			long current = generation;
+			long now = System.currentTimeMillis();
+			Row row;
+			if (current == 0L) {
+				row = session.execute(
+						"INSERT INTO model_generation(name, generation, advanced) VALUES(?, ?, ?) IF NOT EXISTS",
+						NAME, 1L, now).one();
+			} else {
+				row = session.execute(
+						"UPDATE model_generation SET generation = ?, advanced = ? WHERE name = ? IF generation = ?",
+						current + 1, now, NAME, current).one();
+			}
+			if (row.getBool("[applied]")) {
+				generation = current + 1;
+				advancedMillis = now;
+				LOG.info("Model generation advanced to " + generation);
+			} else {
+				// advanced by another process at the same time.
+				load(session);
+				LOG.info("Model generation has been advanced by another process to "
+						+ generation);
+			}
+			return generation;
+		} catch (RuntimeException re) {
+			throw new CassandraException(re);
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Reloads the current generation.
+	 *
+	 * @throws CassandraException
+	 *             if the generation can't be read.
+	 */
+	public void refresh() throws CassandraException {
+		CassandraSession session = CassandraSession.open(context, shard);
+		try {
+			load(session);
+		} catch (RuntimeException re) {
+			throw new CassandraException(re);
+		} finally {
+			session.close();
+		}
+	}
+
+	private void load(CassandraSession session) {
+		Row row = session.execute(
+				"SELECT generation, advanced FROM model_generation WHERE name = ?",
+				NAME).one();
+		if (row != null) {
+			long loaded = row.isNull(0) ? 0L : row.getLong(0);
+			if (loaded != generation) {
+				LOG.info("Model generation is " + loaded);
+			}
+			generation = loaded;
+			advancedMillis = row.isNull(1) ? 0L : row.getLong(1);
+		}
+		refreshedMillis = System.currentTimeMillis();
+	}
+}
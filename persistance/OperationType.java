@@ -0,0 +1,47 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+/**
+ * Types of operations performed by {@link DevicePersistence} on Cassandra.
+ * Timeouts, latencies and execution settings are tracked per operation type
+ * as each of them has a different cost on Cassandra.
+ *
+ * @author akballappagari
+ *
+ */
+public enum OperationType {
+
+	/**
+	 * SELECT of a single device model.
+	 */
+	POINT_READ,
+
+	/**
+	 * INSERT or UPDATE of a device model.
+	 */
+	WRITE,
+
+	/**
+	 * DELETE of a device model.
+	 */
+	RESET,
+
+	/**
+	 * SELECT over the whole model table.
+	 */
+	SCAN,
+
+	/**
+	 * Re-execution of queries stored in {@link FaultExecutionsCache}.
+	 */
+	FAULT_REPLAY;
+
+	/**
+	 * @return true if the operation modifies the persisted models.
+	 */
+	public boolean isWrite() {
+		return this == WRITE || this == RESET || this == FAULT_REPLAY;
+	}
+}
@@ -0,0 +1,359 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SERIALINDEX_ENABLED;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SERIALINDEX_EXACT_MAX;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SERIALINDEX_FPP;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+import com.airvana.loadtool.persistance.connections.CassandraConfig;
+import com.airvana.loadtool.persistance.connections.PersistenceContext;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Index of the serialno's having a model, which answers
+ * {@link DevicePersistence#isModelObjAvailable(String)} for an unknown device
+ * without a round trip to Cassandra.
+ *
+ * <p>
+ * The index is built in background from a scan of every shard when it is
+ * created, and kept current by the writes and resets of
+ * {@link DevicePersistence}. It is an exact set till it has
+ * {@code cassandra.serialindex.exact.max} serialno's (100000 by default),
+ * and a scalable Bloom filter with a false positive chance of
+ * {@code cassandra.serialindex.fpp} (1% by default) after that. A reset
+ * device stays in the Bloom filter, which only costs a query when it is
+ * checked. Till the index is built every serialno is taken as known.
+ * </p>
+ *
+ * <p>
+ * A device created by another load tool process after the index is built is
+ * not known to it. So the index is enabled by
+ * {@code cassandra.serialindex.enabled} only when the devices checked by a
+ * job are created by the job itself or before it starts.
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class SerialNoIndex {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(SerialNoIndex.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final boolean enabled;
+
+	private final int exactMax;
+
+	private final double fpp;
+
+	/**
+	 * serialno's while the index is exact, {@code null} after.
+	 */
+	private volatile Set<String> exact = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * serialno's once the index is no more exact, {@code null} before.
+	 */
+	private volatile ScalableBloomFilter bloom;
+
+	private volatile boolean ready;
+
+	/**
+	 * Restricting the initialization
+	 */
+	private SerialNoIndex(CassandraConfig config) {
+		enabled = config.getBoolean(CASSANDRA_SERIALINDEX_ENABLED, false);
+		exactMax = config.getInt(CASSANDRA_SERIALINDEX_EXACT_MAX, 100000);
+		fpp = config.getDouble(CASSANDRA_SERIALINDEX_FPP, 0.01);
+	}
+
+	/**
+	 * Returns the SerialNoIndex of the job, creating it from the persistence
+	 * config and starting its build if not created.
+	 *
+	 * @return SerialNoIndex instance
+	 */
+	public static SerialNoIndex getSerialNoIndex() {
+		PersistenceContext context = PersistenceContext.current();
+		synchronized (context) {
+			SerialNoIndex serialNoIndex = context
+					.getComponent(SerialNoIndex.class);
+			if (serialNoIndex == null) {
+				serialNoIndex = new SerialNoIndex(context.getConfig());
+				if (serialNoIndex.enabled) {
+					serialNoIndex.startBuild(context);
+				}
+				context.putComponent(SerialNoIndex.class, serialNoIndex);
+			}
+			return serialNoIndex;
+		}
+	}
+
+	/**
+	 * @return true if the index is used.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return true once the index has been built.
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * Returns false only if the given serialno surely has no model.
+	 *
+	 * @param serialno
+	 *            of the device
+	 * @return false if the device is not known, true if it may be.
+	 */
+	public boolean mightContain(String serialno) {
+		if (!enabled || !ready) {
+			return true;
+		}
+		Set<String> serialnos = exact;
+		if (serialnos != null) {
+			return serialnos.contains(serialno);
+		}
+		// null if cleared meanwhile.
+		ScalableBloomFilter filter = bloom;
+		return filter == null || filter.mightContain(serialno);
+	}
+
+	/**
+	 * Adds the given serialno, on a write of its model.
+	 *
+	 * @param serialno
+	 *            of the device
+	 */
+	public void add(String serialno) {
+		if (!enabled) {
+			return;
+		}
+		ScalableBloomFilter filter = bloom;
+		if (filter != null) {
+			filter.add(serialno);
+			return;
+		}
+		synchronized (this) {
+			if (exact == null) {
+				bloom.add(serialno);
+			} else {
+				exact.add(serialno);
+				if (exact.size() > exactMax) {
+					toBloomFilter();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the given serialno, on a reset of its model. A Bloom filter
+	 * can't remove it, so it stays known.
+	 *
+	 * @param serialno
+	 *            of the device
+	 */
+	public void remove(String serialno) {
+		Set<String> serialnos = exact;
+		if (enabled && serialnos != null) {
+			serialnos.remove(serialno);
+		}
+	}
+
+	/**
+	 * Removes every serialno, on a reset of every model.
+	 */
+	public synchronized void clear() {
+		if (enabled) {
+			exact = Collections
+					.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			bloom = null;
+		}
+	}
+
+	/**
+	 * Replaces the exact set by a Bloom filter having the same serialno's.
+	 * Called holding the lock of the index.
+	 */
+	private void toBloomFilter() {
+		ScalableBloomFilter filter = new ScalableBloomFilter(exactMax * 2,
+				fpp);
+		for (String serialno : exact) {
+			filter.add(serialno);
+		}
+		bloom = filter;
+		exact = null;
+		LOG.info("Serialno index has more than " + exactMax
+				+ " devices. So, using a Bloom filter.");
+	}
+
+	/**
+	 * Scans the serialno's of every shard in background.
+	 */
+	private void startBuild(PersistenceContext context) {
+		Thread builder = new Thread(context.wrap(new Runnable() {
+			@Override
+			public void run() {
+				long start = System.nanoTime();
+				DevicePersistence persistence = new DevicePersistence(false);
+				try {
+					long scanned = 0;
+					for (ResultSet set : persistence
+							.getAllAvailableSerialNosOfAllShards()) {
+						for (Row row : set) {
+							if (persistence.isLive(row)) {
+								add(row.getString(0));
+								scanned++;
+							}
+						}
+					}
+					ready = true;
+					LOG.info("Serialno index built with " + scanned
+							+ " devices in " + (System.nanoTime() - start)
+							/ 1000000 + " ms");
+				} catch (CassandraException ce) {
+					LOG.error(ce);
+					LOG.info("Unable to build the serialno index. So, every device is checked in Cassandra.");
+				} catch (RuntimeException re) {
+					LOG.error(re);
+					LOG.info("Unable to build the serialno index. So, every device is checked in Cassandra.");
+				} finally {
+					persistence.end();
+				}
+			}
+		}), "cassandra-serialno-index-" + context.getName());
+		builder.setDaemon(true);
+		builder.start();
+	}
+
+	/**
+	 * Bloom filter which grows by adding filters of twice the capacity and
+	 * half the false positive chance, so that the overall chance stays below
+	 * the given one however many serialno's are added.
+	 */
+	private static final class ScalableBloomFilter {
+
+		private final HashFunction hashFunction = Hashing.murmur3_128();
+
+		private final List<BloomFilter> filters = new CopyOnWriteArrayList<BloomFilter>();
+
+		private final double fpp;
+
+		ScalableBloomFilter(int capacity, double fpp) {
+			this.fpp = fpp;
+			filters.add(new BloomFilter(capacity, fpp / 2));
+		}
+
+		boolean mightContain(String serialno) {
+			long[] hash = hash(serialno);
+			for (BloomFilter filter : filters) {
+				if (filter.mightContain(hash[0], hash[1])) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		void add(String serialno) {
+			long[] hash = hash(serialno);
+			BloomFilter last;
+			synchronized (this) {
+				last = filters.get(filters.size() - 1);
+				if (last.isFull()) {
+					last = new BloomFilter(last.capacity * 2, fpp
+							/ (2L << filters.size()));
+					filters.add(last);
+				}
+			}
+			last.add(hash[0], hash[1]);
+		}
+
+		private long[] hash(String serialno) {
+			ByteBuffer bytes = ByteBuffer.wrap(hashFunction.hashString(
+					serialno, UTF8).asBytes());
+			return new long[] { bytes.getLong(), bytes.getLong() };
+		}
+	}
+
+	/**
+	 * Bloom filter of a fixed capacity, hashed by double hashing.
+	 */
+	private static final class BloomFilter {
+
+		private final AtomicLongArray bits;
+
+		private final long size;
+
+		private final int hashes;
+
+		private final int capacity;
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		BloomFilter(int capacity, double fpp) {
+			this.capacity = capacity;
+			long m = (long) Math.ceil(-capacity * Math.log(fpp)
+					/ (Math.log(2) * Math.log(2)));
+			this.bits = new AtomicLongArray((int) ((m + 63) / 64));
+			this.size = bits.length() * 64L;
+			this.hashes = Math.max(1,
+					(int) Math.round((double) size / capacity * Math.log(2)));
+		}
+
+		boolean isFull() {
+			return count.get() >= capacity;
+		}
+
+		void add(long hash1, long hash2) {
+			long combined = hash1;
+			for (int i = 0; i < hashes; i++) {
+				long bit = (combined & Long.MAX_VALUE) % size;
+				int word = (int) (bit >>> 6);
+				long mask = 1L << bit;
+				long current;
+				do {
+					current = bits.get(word);
+				} while ((current & mask) == 0
+						&& !bits.compareAndSet(word, current, current | mask));
+				combined += hash2;
+			}
+			count.incrementAndGet();
+		}
+
+		boolean mightContain(long hash1, long hash2) {
+			long combined = hash1;
+			for (int i = 0; i < hashes; i++) {
+				long bit = (combined & Long.MAX_VALUE) % size;
+				if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+					return false;
+				}
+				combined += hash2;
+			}
+			return true;
+		}
+	}
+}
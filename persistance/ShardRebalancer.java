@@ -0,0 +1,235 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SHARD_VNODES;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.airvana.loadtool.commons.CommonUtility;
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+import com.airvana.loadtool.persistance.connections.CassandraConfig;
+import com.airvana.loadtool.persistance.connections.CassandraSession;
+import com.airvana.loadtool.persistance.connections.CassandraSessionManager;
+import com.airvana.loadtool.persistance.format.ModelFormat;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.google.common.collect.Maps;
+
+/**
+ * Offline tool which moves the device models to their new shards after the
+ * shard list has been changed. This should be run when no job is using the
+ * shards.
+ *
+ * <p>
+ * The given persistence config should have the new shard list in
+ * {@code cassandra.shards} and the connection information of every old and
+ * new shard. Every old shard is scanned and the models which are routed to a
+ * different shard by the new list are written to it and then deleted from
+ * the old one.
+ * </p>
+ *
+ * <pre>
+ * java com.airvana.loadtool.persistance.ShardRebalancer conf/persistence/shards.properties east,west [--dry-run]
+ * </pre>
+ *
+ * @author akballappagari
+ *
+ */
+public final class ShardRebalancer {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(ShardRebalancer.class);
+
+	/**
+	 * Page size used while scanning the old shards.
+	 */
+	private static final int SCAN_FETCH_SIZE = 1000;
+
+	private final ShardRouter oldRouter;
+
+	private final ShardRouter newRouter;
+
+	private final boolean dryRun;
+
+	/**
+	 * Sessions of the shards opened so far.
+	 */
+	private final Map<String, CassandraSession> sessions = Maps.newHashMap();
+
+	/**
+	 * Prepared INSERT per target shard and model column.
+	 */
+	private final Map<String, PreparedStatement> inserts = Maps.newHashMap();
+
+	/**
+	 * model columns copied, see {@link ModelFormat}.
+	 */
+	private final String columns = ModelFormat.getModelFormat()
+			.getSelectColumns();
+
+	/**
+	 * generations of the models, the models reset are not moved.
+	 */
+	private final ModelGenerations generations = ModelGenerations
+			.getModelGenerations();
+
+	/**
+	 * @param oldRouter
+	 *            routing before the change.
+	 * @param newRouter
+	 *            routing after the change.
+	 * @param dryRun
+	 *            if true, only counts the models to be moved.
+	 */
+	public ShardRebalancer(ShardRouter oldRouter, ShardRouter newRouter,
+			boolean dryRun) {
+		this.oldRouter = oldRouter;
+		this.newRouter = newRouter;
+		this.dryRun = dryRun;
+	}
+
+	/**
+	 * Moves all the models which changed their shard.
+	 *
+	 * @return no. of models moved (or to be moved in dry run) per
+	 *         "source -> target" pair.
+	 * @throws CassandraException
+	 *             if any shard is not available.
+	 */
+	public Map<String, Long> rebalance() throws CassandraException {
+		Map<String, Long> moved = Maps.newTreeMap();
+		try {
+			for (String source : oldRouter.getShards()) {
+				long scanned = 0;
+				CassandraSession sourceSession = session(source);
+				PreparedStatement delete = sourceSession
+						.prepare("DELETE FROM model WHERE serialno = ?");
+				Statement scan = new SimpleStatement("SELECT serialno, "
+						+ columns
+						+ (generations.isEnabled() ? ", "
+								+ ModelGenerations.COLUMN : "") + " FROM model")
+						.setFetchSize(SCAN_FETCH_SIZE);
+				for (Row row : sourceSession.execute(scan)) {
+					scanned++;
+					String serialno = row.getString(0);
+					String target = newRouter.route(serialno);
+					if (target.equals(source) || !generations.isLive(row)) {
+						continue;
+					}
+					if (!dryRun) {
+						// the model is copied as stored, without decoding.
+						if (row.getColumnDefinitions().contains(
+								ModelFormat.BLOB_COLUMN)
+								&& !row.isNull(ModelFormat.BLOB_COLUMN)) {
+							session(target).execute(
+									bind(insert(target, ModelFormat.BLOB_COLUMN),
+											serialno,
+											row.getBytes(ModelFormat.BLOB_COLUMN)));
+						} else {
+							session(target).execute(
+									bind(insert(target, ModelFormat.MAP_COLUMN),
+											serialno,
+											row.getMap(ModelFormat.MAP_COLUMN,
+													String.class, String.class)));
+						}
+						sourceSession.execute(delete.bind(serialno));
+					}
+					String pair = source + " -> " + target;
+					Long count = moved.get(pair);
+					moved.put(pair, count == null ? 1L : count + 1);
+				}
+				LOG.info("Scanned " + scanned + " models of shard " + source);
+			}
+		} finally {
+			for (CassandraSession session : sessions.values()) {
+				session.close();
+			}
+			sessions.clear();
+		}
+		LOG.info((dryRun ? "Models to be moved: " : "Models moved: ") + moved);
+		return moved;
+	}
+
+	/**
+	 * @return prepared INSERT of the given shard and model column, prepared
+	 *         if not prepared yet. It writes the current generation too if
+	 *         the models are reset by generation.
+	 */
+	private PreparedStatement insert(String shard, String column)
+			throws CassandraException {
+		PreparedStatement insert = inserts.get(shard + "." + column);
+		if (insert == null) {
+			insert = session(shard).prepare(
+					generations.isEnabled() ? "INSERT INTO model(serialno, "
+							+ column + ", " + ModelGenerations.COLUMN
+							+ ") VALUES (?, ?, ?)" : "INSERT INTO model(serialno, "
+							+ column + ") VALUES (?, ?)");
+			inserts.put(shard + "." + column, insert);
+		}
+		return insert;
+	}
+
+	/**
+	 * @return the given INSERT bound to the model, and to the current
+	 *         generation if the models are reset by generation.
+	 */
+	private BoundStatement bind(PreparedStatement insert, String serialno,
+			Object model) {
+		return generations.isEnabled() ? insert.bind(serialno, model,
+				generations.getGeneration()) : insert.bind(serialno, model);
+	}
+
+	/**
+	 * @return session of the given shard, opened if not opened yet.
+	 */
+	private CassandraSession session(String shard) throws CassandraException {
+		CassandraSession session = sessions.get(shard);
+		if (session == null) {
+			session = CassandraSession.open(shard);
+			sessions.put(shard, session);
+		}
+		return session;
+	}
+
+	/**
+	 * Entry point of the tool.
+	 *
+	 * @param args
+	 *            persistence config file, comma separated old shard list and
+	 *            optional --dry-run
+	 * @throws Exception
+	 *             if rebalance fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out
+					.println("Usage: ShardRebalancer <persistence config> <old shards> [--dry-run]");
+			return;
+		}
+		Map<String, String> info = Maps.fromProperties(CommonUtility
+				.loadProperties(args[0]));
+		CassandraSessionManager.initSessionManager(info);
+		int vnodes = new CassandraConfig(info).getInt(CASSANDRA_SHARD_VNODES,
+				ShardRouter.DEFAULT_VNODES);
+		List<String> oldShards = Arrays.asList(args[1].split(","));
+		ShardRouter oldRouter = new ShardRouter(oldShards, vnodes);
+		ShardRouter newRouter = new ShardRouter(
+				CassandraSessionManager.getShardNames(), vnodes);
+		LOG.info("Rebalancing from " + oldRouter.getOwnership() + " to "
+				+ newRouter.getOwnership());
+		boolean dryRun = args.length > 2 && "--dry-run".equals(args[2]);
+		try {
+			new ShardRebalancer(oldRouter, newRouter, dryRun).rebalance();
+		} finally {
+			CassandraSessionManager.getSessionManager().shutdown();
+		}
+	}
+}
@@ -0,0 +1,224 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SHARD_VNODES;
+
+import java.io.Closeable;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.persistance.connections.CassandraSessionManager;
+import com.airvana.loadtool.persistance.connections.PersistenceContext;
+import com.airvana.loadtool.persistance.metrics.ShardMetrics;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Routes every {@code serialno} to one of the configured shards using
+ * consistent hashing with virtual nodes.
+ *
+ * <p>
+ * Every shard is placed {@code cassandra.shard.vnodes} (128 by default) times
+ * on a hash ring and a {@code serialno} belongs to the first virtual node
+ * following its hash. Adding a shard therefore moves only about
+ * {@code 1 / shards} of the devices, see {@link ShardRebalancer}.
+ * </p>
+ *
+ * <p>
+ * The router of a job also holds the {@link ShardMetrics} of every shard,
+ * registered in JMX while the {@link PersistenceContext} of the job is open.
+ * Their summary is logged when the context is closed.
+ * </p>
+ *
+ * <pre>
+ * String shard = ShardRouter.getShardRouter().route(serialno);
+ * CassandraSession session = CassandraSession.open(shard);
+ * </pre>
+ *
+ * @author akballappagari
+ *
+ */
+public final class ShardRouter implements Closeable {
+
+	private static final JobLogger LOG = JobLogger.getLogger(ShardRouter.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Default no. of virtual nodes per shard.
+	 */
+	public static final int DEFAULT_VNODES = 128;
+
+	private final HashFunction hashFunction = Hashing.murmur3_128();
+
+	/**
+	 * Hash ring of virtual nodes to shard names.
+	 */
+	private final SortedMap<Long, String> ring = new TreeMap<Long, String>();
+
+	private final List<String> shards;
+
+	private final Map<String, ShardMetrics> metrics;
+
+	/**
+	 * name of the job under which the metrics are registered in JMX,
+	 * {@code null} if not registered.
+	 */
+	private volatile String job;
+
+	/**
+	 * Creates the ring for the given shards.
+	 *
+	 * @param shards
+	 *            names of the shards
+	 * @param vnodes
+	 *            no. of virtual nodes per shard
+	 */
+	public ShardRouter(List<String> shards, int vnodes) {
+		if (shards.isEmpty()) {
+			throw new IllegalArgumentException("At least one shard is needed");
+		}
+		this.shards = ImmutableList.copyOf(shards);
+		Map<String, ShardMetrics> created = new TreeMap<String, ShardMetrics>();
+		for (String shard : shards) {
+			created.put(shard, new ShardMetrics(shard));
+		}
+		this.metrics = Collections.unmodifiableMap(created);
+		for (String shard : shards) {
+			for (int vnode = 0; vnode < vnodes; vnode++) {
+				ring.put(hash(shard + "#" + vnode), shard);
+			}
+		}
+	}
+
+	/**
+	 * Returns the ShardRouter of the shards configured for the job of the
+	 * current thread.
+	 *
+	 * @return ShardRouter instance
+	 */
+	public static ShardRouter getShardRouter() {
+		return getShardRouter(PersistenceContext.current());
+	}
+
+	/**
+	 * Returns the ShardRouter of the shards configured for the given job.
+	 *
+	 * @param context
+	 *            of the job
+	 * @return ShardRouter instance
+	 */
+	public static ShardRouter getShardRouter(PersistenceContext context) {
+		synchronized (context) {
+			ShardRouter shardRouter = context.getComponent(ShardRouter.class);
+			if (shardRouter == null) {
+				int vnodes = context.getConfig().getInt(
+						CASSANDRA_SHARD_VNODES, DEFAULT_VNODES);
+				shardRouter = new ShardRouter(
+						CassandraSessionManager.getShardNames(context
+								.getConfig()), Math.max(1, vnodes));
+				LOG.info("Devices are routed over shards " + shardRouter.shards
+						+ " with " + vnodes + " virtual nodes each.");
+				shardRouter.register(context.getName());
+				context.putComponent(ShardRouter.class, shardRouter);
+			}
+			return shardRouter;
+		}
+	}
+
+	/**
+	 * @param serialno
+	 *            of the device
+	 * @return name of the shard owning the {@code serialno}
+	 */
+	public String route(String serialno) {
+		if (shards.size() == 1) {
+			return shards.get(0);
+		}
+		SortedMap<Long, String> tail = ring.tailMap(hash(serialno));
+		return tail.isEmpty() ? ring.get(ring.firstKey()) : tail.get(tail
+				.firstKey());
+	}
+
+	/**
+	 * @return names of all the shards.
+	 */
+	public List<String> getShards() {
+		return shards;
+	}
+
+	/**
+	 * @param shard
+	 *            name of the shard
+	 * @return metrics of the given shard.
+	 * @throws IllegalArgumentException
+	 *             if the shard is not routed by this router.
+	 */
+	public ShardMetrics metricsOf(String shard) {
+		ShardMetrics shardMetrics = metrics.get(shard);
+		if (shardMetrics == null) {
+			throw new IllegalArgumentException("Unknown shard " + shard);
+		}
+		return shardMetrics;
+	}
+
+	/**
+	 * Logs the metrics of every shard and unregisters them from JMX. Called
+	 * when the context of the job is closed.
+	 */
+	@Override
+	public void close() {
+		for (ShardMetrics shardMetrics : metrics.values()) {
+			LOG.info(shardMetrics.toString());
+			if (job != null) {
+				shardMetrics.unregister(job);
+			}
+		}
+	}
+
+	/**
+	 * @return share of the hash ring owned by each shard, between 0 and 1.
+	 */
+	public Map<String, Double> getOwnership() {
+		Map<String, Double> ownership = new TreeMap<String, Double>();
+		long previous = ring.lastKey();
+		for (Map.Entry<Long, String> vnode : ring.entrySet()) {
+			// distance on the ring from the previous virtual node.
+			double range = (double) (vnode.getKey() - previous)
+					/ Math.pow(2, 64);
+			if (range <= 0) {
+				range += 1.0;
+			}
+			Double owned = ownership.get(vnode.getValue());
+			ownership.put(vnode.getValue(), (owned == null ? 0.0 : owned)
+					+ range);
+			previous = vnode.getKey();
+		}
+		return Collections.unmodifiableMap(ownership);
+	}
+
+	/**
+	 * Registers the metrics of every shard in JMX under the given job.
+	 */
+	private void register(String job) {
+		this.job = job;
+		for (ShardMetrics shardMetrics : metrics.values()) {
+			shardMetrics.register(job);
+		}
+	}
+
+	/**
+	 * @return 64 bit hash of the given key.
+	 */
+	private long hash(String key) {
+		return hashFunction.hashString(key, UTF8).asLong();
+	}
+}
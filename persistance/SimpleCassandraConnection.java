@@ -1,81 +1,332 @@
 /**
- * 
+ *
  */
 package com.airvana.loadtool.persistance;
 
+import java.io.Closeable;
+import java.nio.ByteBuffer;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.airvana.loadtool.client.DeviceModel;
 import com.airvana.loadtool.client.DeviceParameter;
-import com.datastax.driver.core.Cluster;
-import com.datastax.driver.core.Cluster.Builder;
-import com.datastax.driver.core.HostDistance;
-import com.datastax.driver.core.PoolingOptions;
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+import com.airvana.loadtool.persistance.connections.CassandraSession;
+import com.airvana.loadtool.persistance.connections.CassandraSessionManager;
+import com.airvana.loadtool.persistance.connections.PersistenceContext;
+import com.airvana.loadtool.persistance.format.ModelFormat;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
-import com.datastax.driver.core.Session;
-import com.datastax.driver.core.policies.ConstantReconnectionPolicy;
-import com.datastax.driver.core.policies.DefaultRetryPolicy;
-import com.datastax.driver.core.policies.LoggingRetryPolicy;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Statement;
 import com.google.common.collect.Maps;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.common.util.concurrent.MoreExecutors;
 
 /**
+ * Persists a whole {@link DeviceModel} with a single prepared upsert.
+ *
+ * <p>
+ * The model is bound as it is stored, see {@link ModelFormat}, and written in
+ * an unlogged batch of the partition of the device together with
+ * {@code isAdminup = false}. The latter is written with the lowest
+ * timestamp, so that it applies only to a device created by this write and
+ * never overwrites a value set before, without reading the device first. A
+ * device created again after a delete reads {@code isAdminup} as
+ * {@code null}, i.e. false.
+ * </p>
+ *
+ * <p>
+ * The sessions are taken from {@link CassandraSessionManager} of the shard of
+ * the device, see {@link ShardRouter}, and kept till {@link #close()}, which
+ * is called when the {@link PersistenceContext} of the job is closed, so that
+ * neither the sessions nor the prepared upserts outlive the session managers.
+ * </p>
+ *
  * @author akballappagari
  *
  */
-public class SimpleCassandraConnection {
-
-	private static Cluster cluster;
-	
-	private static Session session;
-	
-	static {
-		createConnection();
-	}
-	
-	private SimpleCassandraConnection() {
-	}
-	
-	private static void createConnection() {
-		Builder builder = Cluster.builder();
-		builder.addContactPoints("10.193.104.24");
-		PoolingOptions poolOptions = new PoolingOptions();
-		poolOptions.setCoreConnectionsPerHost(HostDistance.REMOTE, 5);
-		builder.withPoolingOptions(poolOptions)
-				.withReconnectionPolicy(new ConstantReconnectionPolicy(100L))
-				.withRetryPolicy(
-						new LoggingRetryPolicy(DefaultRetryPolicy.INSTANCE));
-		cluster = builder.build();
-		session = cluster.connect("simulator");
+public class SimpleCassandraConnection implements Closeable {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(SimpleCassandraConnection.class);
+
+	/**
+	 * sessions per shard, opened on first use.
+	 */
+	private final ConcurrentMap<String, CassandraSession> sessions = new ConcurrentHashMap<String, CassandraSession>();
+
+	/**
+	 * prepared upsert per shard.
+	 */
+	private final ConcurrentMap<String, PreparedStatement> upserts = new ConcurrentHashMap<String, PreparedStatement>();
+
+	private final ShardRouter router;
+
+	private final ModelFormat format;
+
+	private final ModelGenerations generations;
+
+	private final ModelChangeLog changeLog;
+
+	private final ExecutionProfiles profiles;
+
+	private final ThroughputGovernor governor;
+
+	private final SerialNoIndex serialNoIndex;
+
+	private final LaneScheduler lanes;
+
+	private final ChangeFeed feed;
+
+	private final WriteDigests digests;
+
+	private final GracefulShutdown shutdown;
+
+	private final PersistenceContext context;
+
+	/**
+	 * Restricting the initialization
+	 */
+	private SimpleCassandraConnection(PersistenceContext context) {
+		this.context = context;
+		router = ShardRouter.getShardRouter();
+		format = ModelFormat.getModelFormat();
+		generations = ModelGenerations.getModelGenerations();
+		changeLog = ModelChangeLog.getModelChangeLog();
+		profiles = ExecutionProfiles.getExecutionProfiles();
+		governor = ThroughputGovernor.getThroughputGovernor();
+		serialNoIndex = SerialNoIndex.getSerialNoIndex();
+		lanes = LaneScheduler.getLaneScheduler();
+		feed = ChangeFeed.getChangeFeed();
+		digests = WriteDigests.getWriteDigests();
+		shutdown = GracefulShutdown.getGracefulShutdown();
 	}
-	
+
+	/**
+	 * Returns the SimpleCassandraConnection of the job, creating it if not
+	 * created.
+	 *
+	 * @return SimpleCassandraConnection instance
+	 */
 	public static SimpleCassandraConnection getConnection() {
-		return new SimpleCassandraConnection();
+		PersistenceContext context = PersistenceContext.current();
+		synchronized (context) {
+			SimpleCassandraConnection connection = context
+					.getComponent(SimpleCassandraConnection.class);
+			if (connection == null) {
+				connection = new SimpleCassandraConnection(context);
+				context.putComponent(SimpleCassandraConnection.class,
+						connection);
+			}
+			return connection;
+		}
 	}
-	
+
+	/**
+	 * Writes the object model of the given {@code model} in a single round
+	 * trip.
+	 *
+	 * @param model
+	 *            to be persisted
+	 * @return {@link ResultSet} of the execution
+	 * @throws IllegalStateException
+	 *             if the write is not admitted, the shard is not available or
+	 *             the model can't be encoded.
+	 */
 	public ResultSet execute(DeviceModel model) {
-		//session.execute("DELETE FROM model WHERE serialno = '"+model.getSerialNumber()+"'");
+		String serialno = model.getSerialNumber();
+		try {
+			return write(serialno, model);
+		} catch (CassandraException ce) {
+			LOG.error("Unable to persist the model of " + serialno);
+			throw new IllegalStateException(ce);
+		}
+	}
+
+	/**
+	 * Writes the object model of the given {@code model} as
+	 * {@link #execute(DeviceModel)} does. The driver exceptions are thrown as
+	 * they are.
+	 */
+	private ResultSet write(String serialno, DeviceModel model)
+			throws CassandraException {
+		shutdown.checkAdmission();
 		Map<String, String> modelMap = Maps.newHashMap();
-		for (Map.Entry<String, DeviceParameter> entry : model.getObjectModel().entrySet()) {
+		for (Map.Entry<String, DeviceParameter> entry : model.getObjectModel()
+				.entrySet()) {
 			modelMap.put(entry.getKey(), entry.getValue().getStringValue());
 		}
-		Gson gson = new GsonBuilder().create();
-		String modelString = gson.toJson(modelMap);
-		modelString = modelString.replaceAll("\"", "\'");
-		ResultSet result = session.execute("select * from model where serialno = '"+model.getSerialNumber()+"' ;");
-		if (!result.isExhausted()) {
-			result = session.execute("UPDATE model set modelObj="+modelString+" where serialno='" +model.getSerialNumber()+"'");
-		} else {
-			result = session.execute("INSERT INTO model(serialNo, modelObj, isAdminup) values('"+model.getSerialNumber()+"', "+modelString+", false)");
+		String shard = router.route(serialno);
+		CassandraSession session = session(shard);
+		Statement upsert = bind(shard, serialno, modelMap);
+		// written without the digest, the next write is not to be skipped.
+		digests.forget(serialno);
+		governor.acquire(OperationType.WRITE, shard);
+		long admitted = lanes.acquire(Lane.INTERACTIVE);
+		try {
+			ResultSet result = session.execute(upsert);
+			if (changeLog.isEnabled()) {
+				session.executeAsync(changeLog.getMarkQuery(serialno));
+			}
+			serialNoIndex.add(serialno);
+			feed.publish(serialno, OperationType.WRITE, modelMap);
+			return result;
+		} catch (RuntimeException re) {
+			LOG.error("Unable to persist the model of " + serialno);
+			throw re;
+		} finally {
+			lanes.release(Lane.INTERACTIVE, admitted);
+		}
+	}
+
+	/**
+	 * Writes the given model of {@code serialno} in a single round trip,
+	 * without waiting for the write. Meant for provisioning, the write is
+	 * admitted in {@link Lane#BULK}. The change of the device is recorded in
+	 * {@link ModelChangeLog} and published to {@link ChangeFeed} once the
+	 * write succeeds.
+	 *
+	 * @param serialno
+	 *            of the device
+	 * @param model
+	 *            to be persisted
+	 * @return {@link ResultSetFuture} of the execution
+	 * @throws CassandraException
+	 *             if the model can't be encoded or the write can't be
+	 *             submitted.
+	 */
+	public ResultSetFuture executeAsync(final String serialno,
+			Map<String, String> model) throws CassandraException {
+		shutdown.checkAdmission();
+		String shard = router.route(serialno);
+		final CassandraSession session = session(shard);
+		Statement upsert = bind(shard, serialno, model);
+		governor.acquire(OperationType.WRITE, shard);
+		serialNoIndex.add(serialno);
+		digests.forget(serialno);
+		long admitted = lanes.acquire(Lane.BULK);
+		final ResultSetFuture futureSet;
+		try {
+			futureSet = session.executeAsync(upsert);
+		} catch (RuntimeException re) {
+			lanes.release(Lane.BULK, admitted);
+			throw new CassandraException(re);
+		}
+		lanes.releaseOnCompletion(Lane.BULK, admitted, futureSet);
+		shutdown.track(futureSet);
+		feed.publishOnSuccess(futureSet, serialno, OperationType.WRITE, model);
+		if (changeLog.isEnabled()) {
+			futureSet.addListener(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						futureSet.getUninterruptibly();
+					} catch (RuntimeException re) {
+						return;
+					}
+					session.executeAsync(changeLog.getMarkQuery(serialno));
+				}
+			}, MoreExecutors.sameThreadExecutor());
 		}
-		return result;
+		return futureSet;
 	}
-	
+
+	/**
+	 * Executes the given query on the first shard.
+	 *
+	 * @param executeSt
+	 *            query to be executed
+	 * @return {@link ResultSet} of the execution
+	 * @throws IllegalStateException
+	 *             if the shard is not available.
+	 */
 	public ResultSet execute(String executeSt) {
-		if (session == null) {
-			createConnection();
+		CassandraSession session;
+		try {
+			session = session(router.getShards().get(0));
+		} catch (CassandraException ce) {
+			throw new IllegalStateException(ce);
 		}
 		return session.execute(executeSt);
 	}
+
+	/**
+	 * Returns the sessions to {@link CassandraSessionManager} and discards the
+	 * upserts prepared on them. Called when the context of the job is
+	 * closed. The connection opens them again on next use.
+	 */
+	@Override
+	public void close() {
+		for (String shard : sessions.keySet()) {
+			CassandraSession session = sessions.remove(shard);
+			if (session != null) {
+				session.close();
+			}
+		}
+		upserts.clear();
+	}
+
+	/**
+	 * @return prepared upsert of the given shard bound to the given model as
+	 *         it is stored, with the write profile applied.
+	 */
+	private Statement bind(String shard, String serialno,
+			Map<String, String> model) throws CassandraException {
+		Object value = format.isBlob() ? ByteBuffer.wrap(format.getCodec()
+				.encode(model)) : model;
+		BoundStatement upsert = generations.isEnabled() ? upsert(shard).bind(
+				serialno, serialno, value, generations.getGeneration())
+				: upsert(shard).bind(serialno, serialno, value);
+		return profiles.getProfile(OperationType.WRITE).apply(upsert);
+	}
+
+	/**
+	 * @return session of the given shard, opened if not opened yet.
+	 */
+	private CassandraSession session(String shard) throws CassandraException {
+		CassandraSession session = sessions.get(shard);
+		if (session == null) {
+			synchronized (sessions) {
+				session = sessions.get(shard);
+				if (session == null) {
+					session = CassandraSession.open(context, shard);
+					sessions.put(shard, session);
+				}
+			}
+		}
+		return session;
+	}
+
+	/**
+	 * @return prepared upsert of the given shard, prepared if not prepared
+	 *         yet.
+	 */
+	private PreparedStatement upsert(String shard) throws CassandraException {
+		PreparedStatement upsert = upserts.get(shard);
+		if (upsert == null) {
+			StringBuilder query = new StringBuilder("BEGIN UNLOGGED BATCH ");
+			query.append("INSERT INTO model(serialno, isAdminup) VALUES (?, false) USING TIMESTAMP 0; ");
+			query.append("INSERT INTO model(serialno, ").append(
+					format.getColumn());
+			if (format.isBlob()) {
+				// the map left by an earlier write in map format is removed.
+				query.append(", ").append(ModelFormat.MAP_COLUMN);
+			}
+			if (generations.isEnabled()) {
+				query.append(", ").append(ModelGenerations.COLUMN);
+			}
+			query.append(") VALUES (?, ?");
+			if (format.isBlob()) {
+				query.append(", null");
+			}
+			query.append(generations.isEnabled() ? ", ?); " : "); ");
+			query.append("APPLY BATCH");
+			upsert = session(shard).prepare(query.toString());
+			upserts.putIfAbsent(shard, upsert);
+		}
+		return upsert;
+	}
 }
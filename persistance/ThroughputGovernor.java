@@ -0,0 +1,421 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_GOVERNOR_BURST;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_GOVERNOR_CLUSTER_CLIENTS;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_GOVERNOR_CLUSTER_PREFIX;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_GOVERNOR_PREFIX;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_GOVERNOR_RATE;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.persistance.connections.CassandraConfig;
+import com.airvana.loadtool.persistance.connections.CassandraSessionManager;
+import com.airvana.loadtool.persistance.connections.ClusterRegistry;
+import com.airvana.loadtool.persistance.connections.PersistenceContext;
+
+/**
+ * Caps the operations per second sent to Cassandra by
+ * {@link DevicePersistence}, so that a job ramping too fast does not
+ * overwhelm a shared cluster.
+ *
+ * <p>
+ * Reads, writes and scans have separate {@link TokenBucket}s. Every operation
+ * has to pass the budget of the job and the budget of the cluster of its
+ * shard. The budget of a cluster is shared by all the jobs of this process
+ * using it, is kept by {@link ClusterRegistry} as long as the cluster is open
+ * and is divided by {@code cassandra.governor.cluster.clients}, the no. of
+ * load tool processes using the cluster. It is created from the config of
+ * the first job using the cluster, a later job configuring another budget is
+ * told so in its log. Below is an example which allows the job 2000 writes
+ * per second with bursts of 200, while 4 load tool processes share 20000
+ * writes per second of the cluster.
+ *
+ * <pre>
+ * cassandra.governor.write.rate=2000
+ * cassandra.governor.write.burst=200
+ * cassandra.governor.cluster.write.rate=20000
+ * cassandra.governor.cluster.clients=4
+ * </pre>
+ *
+ * A rate which is not configured is unlimited. Both governors are registered
+ * in the platform MBean server, the one of a job as
+ * {@code com.airvana.loadtool.persistance:type=ThroughputGovernor,scope=job,job=<context>}
+ * and the one of a cluster with {@code scope=cluster,cluster=<key>}, so the
+ * rates can be changed and ramped at runtime. The governor of a job is
+ * unregistered when its {@link PersistenceContext} is closed, the one of a
+ * cluster when the cluster is closed.
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class ThroughputGovernor implements ThroughputGovernorMBean,
+		Closeable {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(ThroughputGovernor.class);
+
+	/**
+	 * Kinds of traffic with their own budgets.
+	 */
+	public enum Traffic {
+		READ, WRITE, SCAN;
+
+		/**
+		 * @param type
+		 *            of the operation.
+		 * @return traffic of the operation.
+		 */
+		public static Traffic of(OperationType type) {
+			switch (type) {
+			case POINT_READ:
+				return READ;
+			case SCAN:
+				return SCAN;
+			default:
+				return WRITE;
+			}
+		}
+	}
+
+	private final String scope;
+
+	/**
+	 * name of the context of the job, or key of the cluster.
+	 */
+	private final String name;
+
+	/**
+	 * rates and bursts configured, to tell the jobs sharing a cluster
+	 * governor with another budget.
+	 */
+	private final String budget;
+
+	/**
+	 * context of the job, {@code null} for cluster governor.
+	 */
+	private final PersistenceContext context;
+
+	private final Map<Traffic, TokenBucket> buckets = new EnumMap<Traffic, TokenBucket>(
+			Traffic.class);
+
+	/**
+	 * Governors of the clusters of the shards which the operations have to
+	 * pass after this one, resolved on first use and empty for cluster
+	 * governor.
+	 */
+	private final ConcurrentMap<String, ThroughputGovernor> parents = new ConcurrentHashMap<String, ThroughputGovernor>();
+
+	private final AtomicLong throttledNanos = new AtomicLong();
+
+	/**
+	 * Restricting the initialization
+	 */
+	private ThroughputGovernor(String scope, String name,
+			CassandraConfig config, String prefix, int share,
+			PersistenceContext context) {
+		this.scope = scope;
+		this.name = name;
+		this.context = context;
+		this.budget = budget(config, prefix, share);
+		for (Traffic traffic : Traffic.values()) {
+			double rate = rate(config, prefix, traffic, share);
+			double burst = burst(config, prefix, traffic, rate);
+			buckets.put(traffic, new TokenBucket(rate, burst));
+			LOG.info("Throughput governor " + scope + " " + traffic + ": "
+					+ (rate > 0 ? rate + " ops/s, burst " + burst
+							: "unlimited"));
+		}
+		register();
+	}
+
+	/**
+	 * Returns the ThroughputGovernor of the job of the current thread,
+	 * creating it from the persistence config of the job if not created.
+	 *
+	 * @return ThroughputGovernor instance
+	 */
+	public static ThroughputGovernor getThroughputGovernor() {
+		PersistenceContext context = PersistenceContext.current();
+		synchronized (context) {
+			ThroughputGovernor governor = context
+					.getComponent(ThroughputGovernor.class);
+			if (governor == null) {
+				governor = new ThroughputGovernor("job", context.getName(),
+						context.getConfig(), CASSANDRA_GOVERNOR_PREFIX, 1,
+						context);
+				context.putComponent(ThroughputGovernor.class, governor);
+			}
+			return governor;
+		}
+	}
+
+	/**
+	 * Returns the governor of the cluster of the given manager, creating it
+	 * from the config of its shard if no job using the cluster created it.
+	 */
+	private static ThroughputGovernor getClusterGovernor(
+			CassandraSessionManager manager) {
+		CassandraConfig config = manager.getConfig();
+		int share = Math.max(1,
+				config.getInt(CASSANDRA_GOVERNOR_CLUSTER_CLIENTS, 1));
+		synchronized (ThroughputGovernor.class) {
+			ThroughputGovernor governor = manager
+					.getClusterComponent(ThroughputGovernor.class);
+			if (governor == null) {
+				governor = new ThroughputGovernor("cluster",
+						manager.getClusterKey(), config,
+						CASSANDRA_GOVERNOR_CLUSTER_PREFIX, share, null);
+				manager.putClusterComponent(ThroughputGovernor.class,
+						governor);
+			} else if (!governor.budget.equals(budget(config,
+					CASSANDRA_GOVERNOR_CLUSTER_PREFIX, share))) {
+				LOG.info("WARNING: The cluster budget of shard "
+						+ manager.getShardName() + " is ignored, as the cluster "
+						+ governor.name + " is governed by the budget of the job "
+						+ "which opened it: " + governor.budget
+						+ ". Change it at runtime through JMX if needed.");
+			}
+			return governor;
+		}
+	}
+
+	/**
+	 * @return rates and bursts of every traffic configured with the given
+	 *         prefix.
+	 */
+	private static String budget(CassandraConfig config, String prefix,
+			int share) {
+		Map<Traffic, String> budget = new EnumMap<Traffic, String>(
+				Traffic.class);
+		for (Traffic traffic : Traffic.values()) {
+			double rate = rate(config, prefix, traffic, share);
+			budget.put(traffic, rate > 0 ? rate + " ops/s, burst "
+					+ burst(config, prefix, traffic, rate) : "unlimited");
+		}
+		return budget.toString();
+	}
+
+	/**
+	 * @return rate of the traffic configured with the given prefix divided by
+	 *         the share, 0 if unlimited.
+	 */
+	private static double rate(CassandraConfig config, String prefix,
+			Traffic traffic, int share) {
+		return config.getDouble(prefix + traffic.name().toLowerCase()
+				+ CASSANDRA_GOVERNOR_RATE, 0.0)
+				/ share;
+	}
+
+	/**
+	 * @return burst of the traffic configured with the given prefix, a tenth
+	 *         of the rate by default.
+	 */
+	private static double burst(CassandraConfig config, String prefix,
+			Traffic traffic, double rate) {
+		return config.getDouble(prefix + traffic.name().toLowerCase()
+				+ CASSANDRA_GOVERNOR_BURST, Math.max(1.0, rate / 10.0));
+	}
+
+	/**
+	 * Unregisters the governor from JMX. Called when the context of the job,
+	 * or the cluster, is closed.
+	 */
+	@Override
+	public void close() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = objectName();
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (Exception e) {
+			LOG.error(e);
+		}
+	}
+
+	/**
+	 * Acquires a permit for the given operation on the
+	 * {@link CassandraSessionManager#DEFAULT_SHARD}, waiting as long as
+	 * needed.
+	 *
+	 * @param type
+	 *            of the operation.
+	 */
+	public void acquire(OperationType type) {
+		acquire(type, CassandraSessionManager.DEFAULT_SHARD);
+	}
+
+	/**
+	 * Acquires a permit for the given operation on the given shard, waiting
+	 * as long as needed.
+	 *
+	 * @param type
+	 *            of the operation.
+	 * @param shard
+	 *            on which the operation is executed.
+	 */
+	public void acquire(OperationType type, String shard) {
+		long waited = buckets.get(Traffic.of(type)).acquire(1);
+		throttledNanos.addAndGet(waited);
+		ThroughputGovernor parent = parent(shard);
+		if (parent != null) {
+			parent.acquire(type, shard);
+		}
+	}
+
+	/**
+	 * Acquires a permit for the given operation if it is available within the
+	 * given timeout. If the job budget is available but the one of the
+	 * cluster is not, the job permit is spent anyway.
+	 *
+	 * @param type
+	 *            of the operation
+	 * @param shard
+	 *            on which the operation is executed.
+	 * @param timeout
+	 *            max. time to wait
+	 * @param unit
+	 *            of timeout
+	 * @return true if acquired, else false.
+	 */
+	public boolean tryAcquire(OperationType type, String shard, long timeout,
+			TimeUnit unit) {
+		long start = System.nanoTime();
+		long timeoutNanos = unit.toNanos(timeout);
+		if (!buckets.get(Traffic.of(type)).tryAcquire(1, timeoutNanos,
+				TimeUnit.NANOSECONDS)) {
+			return false;
+		}
+		long waited = System.nanoTime() - start;
+		throttledNanos.addAndGet(waited);
+		ThroughputGovernor parent = parent(shard);
+		return parent == null
+				|| parent.tryAcquire(type, shard, timeoutNanos - waited,
+						TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return governor of the cluster of the given shard of the job,
+	 *         {@code null} for cluster governor.
+	 */
+	private ThroughputGovernor parent(String shard) {
+		if (context == null) {
+			return null;
+		}
+		ThroughputGovernor parent = parents.get(shard);
+		if (parent == null) {
+			parent = getClusterGovernor(CassandraSessionManager
+					.getSessionManager(context, shard));
+			parents.put(shard, parent);
+		}
+		return parent;
+	}
+
+	/**
+	 * @param traffic
+	 *            kind of traffic.
+	 * @return bucket of the traffic.
+	 */
+	public TokenBucket getBucket(Traffic traffic) {
+		return buckets.get(traffic);
+	}
+
+	@Override
+	public double getReadRate() {
+		return buckets.get(Traffic.READ).getRate();
+	}
+
+	@Override
+	public void setReadRate(double rate) {
+		setRate(Traffic.READ, rate);
+	}
+
+	@Override
+	public double getWriteRate() {
+		return buckets.get(Traffic.WRITE).getRate();
+	}
+
+	@Override
+	public void setWriteRate(double rate) {
+		setRate(Traffic.WRITE, rate);
+	}
+
+	@Override
+	public double getScanRate() {
+		return buckets.get(Traffic.SCAN).getRate();
+	}
+
+	@Override
+	public void setScanRate(double rate) {
+		setRate(Traffic.SCAN, rate);
+	}
+
+	@Override
+	public void setBurst(String traffic, double burst) {
+		buckets.get(Traffic.valueOf(traffic.toUpperCase())).setBurst(burst);
+		LOG.info("Throughput governor " + scope + " " + traffic
+				+ " burst changed to " + burst);
+	}
+
+	@Override
+	public void rampTo(String traffic, double rate, long seconds) {
+		buckets.get(Traffic.valueOf(traffic.toUpperCase())).rampTo(rate,
+				seconds, TimeUnit.SECONDS);
+		LOG.info("Throughput governor " + scope + " " + traffic
+				+ " ramping to " + rate + " ops/s in " + seconds + " s");
+	}
+
+	@Override
+	public long getThrottledMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(throttledNanos.get());
+	}
+
+	/**
+	 * Changes the rate of the given traffic immediately.
+	 */
+	private void setRate(Traffic traffic, double rate) {
+		buckets.get(traffic).setRate(rate);
+		LOG.info("Throughput governor " + scope + " " + traffic
+				+ " rate changed to " + rate + " ops/s");
+	}
+
+	private ObjectName objectName() throws Exception {
+		return new ObjectName(
+				"com.airvana.loadtool.persistance:type=ThroughputGovernor,scope="
+						+ scope + "," + scope + "=" + ObjectName.quote(name));
+	}
+
+	/**
+	 * Registers this governor in the platform MBean server, replacing the one
+	 * registered earlier with the same scope.
+	 */
+	private void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = objectName();
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+		} catch (Exception e) {
+			LOG.error(e);
+			LOG.info("Unable to register the throughput governor " + scope
+					+ " in JMX. Rates can't be changed at runtime.");
+		}
+	}
+}
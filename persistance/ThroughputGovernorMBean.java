@@ -0,0 +1,75 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+/**
+ * JMX interface of {@link ThroughputGovernor}, which allows the persistence
+ * traffic to be capped and ramped at runtime. Rates are operations per
+ * second, 0 or less for unlimited.
+ *
+ * @author akballappagari
+ *
+ */
+public interface ThroughputGovernorMBean {
+
+	/**
+	 * @return current read rate.
+	 */
+	double getReadRate();
+
+	/**
+	 * @param rate
+	 *            new read rate.
+	 */
+	void setReadRate(double rate);
+
+	/**
+	 * @return current write rate.
+	 */
+	double getWriteRate();
+
+	/**
+	 * @param rate
+	 *            new write rate.
+	 */
+	void setWriteRate(double rate);
+
+	/**
+	 * @return current scan rate.
+	 */
+	double getScanRate();
+
+	/**
+	 * @param rate
+	 *            new scan rate.
+	 */
+	void setScanRate(double rate);
+
+	/**
+	 * Changes the max. burst of the given traffic.
+	 *
+	 * @param traffic
+	 *            READ, WRITE or SCAN
+	 * @param burst
+	 *            max. operations allowed in a burst.
+	 */
+	void setBurst(String traffic, double burst);
+
+	/**
+	 * Ramps the rate of the given traffic linearly to {@code rate}.
+	 *
+	 * @param traffic
+	 *            READ, WRITE or SCAN
+	 * @param rate
+	 *            target rate
+	 * @param seconds
+	 *            duration of the ramp.
+	 */
+	void rampTo(String traffic, double rate, long seconds);
+
+	/**
+	 * @return total time in milliseconds callers have been throttled.
+	 */
+	long getThrottledMillis();
+}
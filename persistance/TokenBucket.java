@@ -0,0 +1,297 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket which hands out permits at a configured rate per second.
+ *
+ * <p>
+ * Tokens are refilled continuously and up to {@code burst} tokens are kept
+ * while the bucket is idle. A caller which finds the bucket empty takes its
+ * tokens on credit and sleeps till they are refilled, so the callers queue up
+ * behind each other and the rate is never exceeded, however many threads
+ * acquire at the same time. The bucket starts empty, so a fresh job does not
+ * start with a burst.
+ * </p>
+ *
+ * <p>
+ * The rate can be changed at runtime, either immediately with
+ * {@link #setRate(double)} or linearly over a period with
+ * {@link #rampTo(double, long, TimeUnit)}. During a ramp the refill is the
+ * integral of the ramped rate, so a ramp reaches its target without
+ * overshooting it. A rate of 0 or less disables the bucket.
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class TokenBucket {
+
+	private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Tokens available, negative if tokens are taken on credit.
+	 */
+	private double tokens;
+
+	/**
+	 * Max tokens kept while idle.
+	 */
+	private double burst;
+
+	/**
+	 * Time at which tokens have been refilled last.
+	 */
+	private long lastRefillNanos;
+
+	/**
+	 * Rate at the start of the ramp, permits per second.
+	 */
+	private double rampFromRate;
+
+	/**
+	 * Rate at the end of the ramp and after it, permits per second.
+	 */
+	private double targetRate;
+
+	private long rampStartNanos;
+
+	private long rampEndNanos;
+
+	/**
+	 * @param rate
+	 *            permits per second, 0 or less for unlimited.
+	 * @param burst
+	 *            max. permits kept while idle.
+	 */
+	public TokenBucket(double rate, double burst) {
+		long now = System.nanoTime();
+		this.targetRate = rate;
+		this.rampFromRate = rate;
+		this.rampStartNanos = now;
+		this.rampEndNanos = now;
+		this.lastRefillNanos = now;
+		this.burst = Math.max(1.0, burst);
+	}
+
+	/**
+	 * Acquires the given permits, waiting as long as needed.
+	 *
+	 * @param permits
+	 *            to be acquired.
+	 * @return time waited in nano seconds.
+	 */
+	public long acquire(int permits) {
+		long waitNanos;
+		synchronized (this) {
+			waitNanos = reserve(permits, System.nanoTime());
+		}
+		sleep(waitNanos);
+		return waitNanos;
+	}
+
+	/**
+	 * Acquires the given permits if they can be acquired within the given
+	 * timeout, otherwise returns immediately without acquiring any.
+	 *
+	 * @param permits
+	 *            to be acquired.
+	 * @param timeout
+	 *            max. time to wait.
+	 * @param unit
+	 *            of the timeout.
+	 * @return true if acquired, else false.
+	 */
+	public boolean tryAcquire(int permits, long timeout, TimeUnit unit) {
+		long waitNanos;
+		synchronized (this) {
+			long now = System.nanoTime();
+			refill(now);
+			if (!isLimited()) {
+				return true;
+			}
+			double missing = permits - tokens;
+			long expectedWait = missing <= 0 ? 0L : (long) (missing
+					/ currentRate(now) * NANOS_PER_SECOND);
+			if (expectedWait > unit.toNanos(timeout)) {
+				return false;
+			}
+			waitNanos = reserve(permits, now);
+		}
+		sleep(waitNanos);
+		return true;
+	}
+
+	/**
+	 * Changes the rate immediately.
+	 *
+	 * @param rate
+	 *            permits per second, 0 or less for unlimited.
+	 */
+	public synchronized void setRate(double rate) {
+		rampTo(rate, 0L, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Changes the rate linearly from the current rate to {@code rate} over the
+	 * given period.
+	 *
+	 * @param rate
+	 *            target permits per second, 0 or less for unlimited.
+	 * @param period
+	 *            of the ramp
+	 * @param unit
+	 *            of the period
+	 */
+	public synchronized void rampTo(double rate, long period, TimeUnit unit) {
+		long now = System.nanoTime();
+		refill(now);
+		double from = currentRate(now);
+		if (from <= 0 || rate <= 0) {
+			// ramps from or to unlimited are not meaningful.
+			period = 0L;
+			tokens = Math.min(tokens, burst);
+		}
+		rampFromRate = from;
+		targetRate = rate;
+		rampStartNanos = now;
+		rampEndNanos = now + unit.toNanos(Math.max(0L, period));
+	}
+
+	/**
+	 * @param burst
+	 *            max. permits kept while idle.
+	 */
+	public synchronized void setBurst(double burst) {
+		this.burst = Math.max(1.0, burst);
+		tokens = Math.min(tokens, this.burst);
+	}
+
+	/**
+	 * @return max. permits kept while idle.
+	 */
+	public synchronized double getBurst() {
+		return burst;
+	}
+
+	/**
+	 * @return current rate in permits per second, 0 or less if unlimited.
+	 */
+	public synchronized double getRate() {
+		return currentRate(System.nanoTime());
+	}
+
+	/**
+	 * @return rate at the end of the current ramp.
+	 */
+	public synchronized double getTargetRate() {
+		return targetRate;
+	}
+
+	/**
+	 * @return true if the bucket limits the rate.
+	 */
+	private boolean isLimited() {
+		return targetRate > 0;
+	}
+
+	/**
+	 * Takes the permits, on credit if needed.
+	 *
+	 * @return nano seconds to wait till the permits are refilled.
+	 */
+	private long reserve(int permits, long now) {
+		refill(now);
+		if (!isLimited()) {
+			return 0L;
+		}
+		tokens -= permits;
+		if (tokens >= 0) {
+			return 0L;
+		}
+		return (long) (-tokens / currentRate(now) * NANOS_PER_SECOND);
+	}
+
+	/**
+	 * Adds the tokens produced since last refill.
+	 */
+	private void refill(long now) {
+		if (now <= lastRefillNanos) {
+			return;
+		}
+		if (isLimited()) {
+			tokens = Math.min(burst, tokens + produced(lastRefillNanos, now));
+		}
+		lastRefillNanos = now;
+	}
+
+	/**
+	 * @return tokens produced between {@code from} and {@code to}, which is
+	 *         the integral of the (ramped) rate.
+	 */
+	private double produced(long from, long to) {
+		double produced = 0.0;
+		if (from < rampEndNanos) {
+			long end = Math.min(to, rampEndNanos);
+			// trapezoid of the linear ramp between from and end.
+			produced += (rateAt(from) + rateAt(end)) / 2.0 * (end - from)
+					/ NANOS_PER_SECOND;
+			from = end;
+		}
+		if (from < to) {
+			produced += Math.max(0.0, targetRate) * (to - from)
+					/ NANOS_PER_SECOND;
+		}
+		return produced;
+	}
+
+	/**
+	 * @return rate at the given time.
+	 */
+	private double rateAt(long nanos) {
+		if (nanos >= rampEndNanos) {
+			return targetRate;
+		}
+		double progress = (double) (nanos - rampStartNanos)
+				/ (rampEndNanos - rampStartNanos);
+		return rampFromRate + (targetRate - rampFromRate) * progress;
+	}
+
+	/**
+	 * @return rate at the given time, at least a tiny positive rate while
+	 *         limited so that waits stay finite.
+	 */
+	private double currentRate(long now) {
+		double rate = rateAt(now);
+		return isLimited() ? Math.max(rate, 0.001) : rate;
+	}
+
+	/**
+	 * Sleeps without being interrupted, restoring the interrupt flag.
+	 */
+	private static void sleep(long nanos) {
+		if (nanos <= 0) {
+			return;
+		}
+		boolean interrupted = false;
+		long end = System.nanoTime() + nanos;
+		try {
+			long remaining = nanos;
+			while (remaining > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(remaining);
+				} catch (InterruptedException ie) {
+					interrupted = true;
+				}
+				remaining = end - System.nanoTime();
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
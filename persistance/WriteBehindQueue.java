@@ -0,0 +1,587 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_WRITEBEHIND_BATCH_SIZE;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_WRITEBEHIND_FLUSH_INTERVAL;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_WRITEBEHIND_QUEUE_FULL;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_WRITEBEHIND_QUEUE_FULL_TIMEOUT;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_WRITEBEHIND_QUEUE_SIZE;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_WRITEBEHIND_WORKERS;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.airvana.loadtool.client.DeviceParameter;
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+import com.airvana.loadtool.persistance.connections.CassandraConfig;
+import com.airvana.loadtool.persistance.connections.PersistenceContext;
+import com.datastax.driver.core.ResultSetFuture;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Pending writes of the write-behind mode of {@link DevicePersistence}, which
+ * are persisted by background writers.
+ *
+ * <p>
+ * Every write is queued to one of {@code cassandra.writebehind.workers} (2)
+ * writers chosen by its {@code serialno}, so the writes of a device are
+ * persisted in order. A writer collects up to
+ * {@code cassandra.writebehind.batch.size} (100) writes or waits up to
+ * {@code cassandra.writebehind.flush.interval.ms} (50) for them, keeps only
+ * the latest write per device and sends them in parallel. Failed writes are
+ * stored in {@link FaultExecutionsCache} as usual.
+ * </p>
+ *
+ * <p>
+ * At most {@code cassandra.writebehind.queue.size} (10000) writes are pending.
+ * When full, {@code cassandra.writebehind.queue.full} decides whether the
+ * caller blocks (block, the default), for at most
+ * {@code cassandra.writebehind.queue.full.timeout.ms} if configured, or fails
+ * immediately (fail).
+ * </p>
+ *
+ * <p>
+ * The latest pending model of every device is kept in an overlay till it is
+ * persisted, so that the reads of {@link DevicePersistence} see their own
+ * writes.
+ * </p>
+ *
+ * <p>
+ * The writers run with the {@link PersistenceContext} of the job bound and
+ * are stopped when the context is closed, if not shut down before.
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class WriteBehindQueue implements Closeable {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(WriteBehindQueue.class);
+
+	/**
+	 * A write waiting to be persisted.
+	 */
+	static final class PendingWrite {
+
+		private final OperationType type;
+
+		private final String serialno;
+
+		private final String query;
+
+		/**
+		 * model after the write, {@code null} if the model is deleted.
+		 */
+		private final Map<String, String> model;
+
+		PendingWrite(OperationType type, String serialno, String query,
+				Map<String, String> model) {
+			this.type = type;
+			this.serialno = serialno;
+			this.query = query;
+			this.model = model;
+		}
+	}
+
+	/**
+	 * Marker queued to every writer to know when the writes queued before it
+	 * are persisted.
+	 */
+	private static final class Barrier {
+
+		private final CountDownLatch latch;
+
+		Barrier(CountDownLatch latch) {
+			this.latch = latch;
+		}
+	}
+
+	/**
+	 * Latest pending write per serialno.
+	 */
+	private final ConcurrentMap<String, PendingWrite> overlay = new ConcurrentHashMap<String, PendingWrite>();
+
+	private final List<Writer> writers = Lists.newArrayList();
+
+	private final PersistenceContext context;
+
+	/**
+	 * persistence used by the writers, which does not write behind.
+	 */
+	private final DevicePersistence persistence;
+
+	private final FaultExecutionsCache faultCache;
+
+	private final ChangeFeed feed;
+
+	private final WriteDigests digests;
+
+	private final int batchSize;
+
+	private final long flushIntervalNanos;
+
+	private final boolean failWhenFull;
+
+	private final long fullTimeoutMillis;
+
+	private final AtomicLong persisted = new AtomicLong();
+
+	private final AtomicLong failed = new AtomicLong();
+
+	private volatile boolean running = true;
+
+	/**
+	 * true once the writers have to stop, even with writes pending.
+	 */
+	private volatile boolean stopped;
+
+	/**
+	 * no. of writes not persisted by the writers before they stopped, moved
+	 * to {@link FaultExecutionsCache}.
+	 */
+	private final AtomicLong deferred = new AtomicLong();
+
+	/**
+	 * Restricting the initialization
+	 */
+	private WriteBehindQueue(PersistenceContext context,
+			CassandraConfig config) {
+		this.context = context;
+		int workers = Math.max(1,
+				config.getInt(CASSANDRA_WRITEBEHIND_WORKERS, 2));
+		int queueSize = Math.max(workers,
+				config.getInt(CASSANDRA_WRITEBEHIND_QUEUE_SIZE, 10000));
+		batchSize = Math.max(1,
+				config.getInt(CASSANDRA_WRITEBEHIND_BATCH_SIZE, 100));
+		flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L,
+				config.getLong(CASSANDRA_WRITEBEHIND_FLUSH_INTERVAL, 50L)));
+		failWhenFull = "fail".equalsIgnoreCase(config.getString(
+				CASSANDRA_WRITEBEHIND_QUEUE_FULL, "block"));
+		fullTimeoutMillis = config.getLong(
+				CASSANDRA_WRITEBEHIND_QUEUE_FULL_TIMEOUT, 0L);
+		persistence = new DevicePersistence(false);
+		faultCache = FaultExecutionsCache.getFaultExecutionCache(context);
+		feed = ChangeFeed.getChangeFeed();
+		digests = WriteDigests.getWriteDigests();
+		for (int i = 0; i < workers; i++) {
+			Writer writer = new Writer(i, queueSize / workers);
+			writers.add(writer);
+			writer.start();
+		}
+		LOG.info("Write-behind enabled with " + workers + " writers, "
+				+ queueSize + " pending writes, batches of " + batchSize
+				+ " flushed every "
+				+ TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos)
+				+ " ms and " + (failWhenFull ? "fail" : "block")
+				+ " when full.");
+	}
+
+	/**
+	 * Returns the WriteBehindQueue of the job, starting its writers if not
+	 * started.
+	 *
+	 * @return WriteBehindQueue instance
+	 */
+	public static WriteBehindQueue getWriteBehindQueue() {
+		PersistenceContext context = PersistenceContext.current();
+		synchronized (context) {
+			WriteBehindQueue writeBehindQueue = context
+					.getComponent(WriteBehindQueue.class);
+			if (writeBehindQueue == null) {
+				writeBehindQueue = new WriteBehindQueue(context,
+						context.getConfig());
+				context.putComponent(WriteBehindQueue.class, writeBehindQueue);
+			}
+			return writeBehindQueue;
+		}
+	}
+
+	/**
+	 * @param context
+	 *            of the job
+	 * @return WriteBehindQueue of the given job, {@code null} if not created
+	 *         or shut down.
+	 */
+	static WriteBehindQueue getCreatedWriteBehindQueue(
+			PersistenceContext context) {
+		return context.getComponent(WriteBehindQueue.class);
+	}
+
+	/**
+	 * Queues the given write.
+	 *
+	 * @param type
+	 *            {@link OperationType#WRITE} or {@link OperationType#RESET}
+	 * @param serialno
+	 *            of the device
+	 * @param query
+	 *            to be executed
+	 * @param model
+	 *            model after the write, {@code null} if deleted.
+	 * @throws CassandraException
+	 *             if the pending writes are full and the write can't be
+	 *             queued.
+	 */
+	public void enqueue(OperationType type, String serialno, String query,
+			Map<String, String> model) throws CassandraException {
+		if (!running) {
+			throw new CassandraException("Write-behind has been shut down",
+					null);
+		}
+		PendingWrite write = new PendingWrite(type, serialno, query, model);
+		BlockingQueue<Object> queue = writerOf(serialno).queue;
+		// overlay is updated first, so that the write is visible before a
+		// writer can persist and remove it.
+		overlay.put(serialno, write);
+		boolean queued;
+		try {
+			if (failWhenFull) {
+				queued = queue.offer(write);
+			} else if (fullTimeoutMillis > 0) {
+				queued = queue.offer(write, fullTimeoutMillis,
+						TimeUnit.MILLISECONDS);
+			} else {
+				queue.put(write);
+				queued = true;
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			queued = false;
+		}
+		if (!queued) {
+			overlay.remove(serialno, write);
+			throw new CassandraException("Write-behind queue is full, "
+					+ query + " is not persisted", null);
+		}
+		if (stopped && queue.remove(write)) {
+			// queued while the writers stopped, after their queues were
+			// moved to the fault cache.
+			overlay.remove(serialno, write);
+			throw new CassandraException("Write-behind has been shut down",
+					null);
+		}
+	}
+
+	/**
+	 * Returns the pending model of the given device.
+	 *
+	 * @param serialno
+	 *            of the device
+	 * @return {@code null} if no write is pending, an empty map if the model
+	 *         is deleted, else the model after the latest pending write.
+	 */
+	public Map<String, DeviceParameter> getPendingModel(String serialno) {
+		PendingWrite write = overlay.get(serialno);
+		if (write == null) {
+			return null;
+		}
+		return DeviceModelView.of(write.model == null ? Collections
+				.<String, String> emptyMap() : write.model);
+	}
+
+	/**
+	 * Asks the writers to persist the writes queued so far without waiting
+	 * for their batches to fill.
+	 *
+	 * @return latch released once the writes queued so far are persisted or
+	 *         stored in {@link FaultExecutionsCache}.
+	 */
+	public CountDownLatch flush() {
+		CountDownLatch latch = new CountDownLatch(writers.size());
+		for (Writer writer : writers) {
+			try {
+				writer.queue.put(new Barrier(latch));
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return latch;
+	}
+
+	/**
+	 * Waits till the writes queued so far are persisted or stored in
+	 * {@link FaultExecutionsCache}.
+	 *
+	 * @param timeout
+	 *            max. time to wait
+	 * @param unit
+	 *            of timeout
+	 * @return true if the writes are done, false on timeout.
+	 */
+	public boolean awaitDurable(long timeout, TimeUnit unit) {
+		try {
+			return flush().await(timeout, unit);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * @return no. of writes waiting to be persisted.
+	 */
+	public int getPendingCount() {
+		int pending = 0;
+		for (Writer writer : writers) {
+			pending += writer.queue.size();
+		}
+		return pending;
+	}
+
+	/**
+	 * @return no. of writes persisted so far.
+	 */
+	public long getPersistedCount() {
+		return persisted.get();
+	}
+
+	/**
+	 * @return no. of writes which failed and are stored in
+	 *         {@link FaultExecutionsCache}.
+	 */
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	/**
+	 * Persists the pending writes, waiting at most the given time, and stops
+	 * the writers. Writes queued after this are rejected. The writes not
+	 * persisted in time are moved to {@link FaultExecutionsCache} once the
+	 * writers have stopped, so that they are replayed or spilled by
+	 * {@link GracefulShutdown} instead of being lost.
+	 *
+	 * @param timeout
+	 *            max. time to wait for the pending writes
+	 * @param unit
+	 *            of timeout
+	 * @return true if all the pending writes are done.
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) {
+		running = false;
+		boolean durable = awaitDurable(timeout, unit);
+		stopped = true;
+		for (Writer writer : writers) {
+			writer.interrupt();
+		}
+		for (Writer writer : writers) {
+			try {
+				writer.join();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		for (Writer writer : writers) {
+			List<Object> left = Lists.newArrayList();
+			writer.queue.drainTo(left);
+			for (Object next : left) {
+				if (next instanceof Barrier) {
+					((Barrier) next).latch.countDown();
+				} else {
+					defer((PendingWrite) next);
+				}
+			}
+		}
+		if (deferred.get() > 0) {
+			LOG.info(deferred.get()
+					+ " writes were not persisted in time. So, they are moved to the fault cache.");
+		}
+		persistence.end();
+		synchronized (context) {
+			if (context.getComponent(WriteBehindQueue.class) == this) {
+				context.removeComponent(WriteBehindQueue.class);
+			}
+		}
+		LOG.info("Write-behind shut down. Persisted: " + persisted.get()
+				+ ", failed: " + failed.get() + ", moved to the fault cache: "
+				+ deferred.get());
+		return durable;
+	}
+
+	/**
+	 * Stops the writers if the queue has not been shut down. Called when the
+	 * context of the job is closed.
+	 */
+	@Override
+	public void close() {
+		if (running) {
+			shutdown(0L, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Moves the given write, not persisted by the writers, to the fault
+	 * cache.
+	 */
+	private void defer(PendingWrite write) {
+		faultCache.put(write.serialno, write.query);
+		overlay.remove(write.serialno, write);
+		deferred.incrementAndGet();
+		completed(write, false);
+	}
+
+	/**
+	 * Tells {@link WriteDigests} the outcome of the given write, which has
+	 * been accepted by it if it is a {@link OperationType#WRITE}.
+	 */
+	private void completed(PendingWrite write, boolean persisted) {
+		if (write.type == OperationType.WRITE) {
+			digests.completed(write.serialno, persisted);
+		}
+	}
+
+	private Writer writerOf(String serialno) {
+		return writers.get((serialno.hashCode() & Integer.MAX_VALUE)
+				% writers.size());
+	}
+
+	/**
+	 * Persists the given batch, keeping only the latest write of every
+	 * device. Devices with pending faults are written synchronously, so that
+	 * their faults are replayed first. A write replaced by a later one of its
+	 * device completes along with the latter.
+	 */
+	private void persist(List<PendingWrite> batch) {
+		Map<String, PendingWrite> latest = new LinkedHashMap<String, PendingWrite>();
+		for (PendingWrite write : batch) {
+			latest.remove(write.serialno);
+			latest.put(write.serialno, write);
+		}
+		Map<PendingWrite, ResultSetFuture> futures = new LinkedHashMap<PendingWrite, ResultSetFuture>();
+		Set<String> done = Sets.newHashSet();
+		for (PendingWrite write : latest.values()) {
+			try {
+				if (faultCache.getValues(write.serialno).isEmpty()) {
+					futures.put(write, persistence.executeAsync(write.type,
+							write.serialno, write.query));
+				} else {
+					persistence.execute(write.type, write.serialno,
+							write.query);
+					done.add(write.serialno);
+					persisted.incrementAndGet();
+					feed.publish(write.serialno, write.type, write.model);
+				}
+			} catch (CircuitOpenException coe) {
+				// already stored in the fault cache.
+				failed.incrementAndGet();
+			} catch (CassandraException ce) {
+				failed.incrementAndGet();
+				LOG.error(ce);
+			}
+		}
+		for (Map.Entry<PendingWrite, ResultSetFuture> entry : futures
+				.entrySet()) {
+			PendingWrite write = entry.getKey();
+			try {
+				entry.getValue().getUninterruptibly();
+				done.add(write.serialno);
+				persisted.incrementAndGet();
+				feed.publish(write.serialno, write.type, write.model);
+			} catch (Exception e) {
+				failed.incrementAndGet();
+				faultCache.put(write.serialno, write.query);
+				LOG.error("Error executing the query " + write.query
+						+ ". So, will perform a query on next execution.");
+			}
+		}
+		for (PendingWrite write : batch) {
+			overlay.remove(write.serialno, write);
+			completed(write, done.contains(write.serialno));
+		}
+	}
+
+	/**
+	 * Background writer of a share of the devices.
+	 */
+	private final class Writer extends Thread {
+
+		private final BlockingQueue<Object> queue;
+
+		Writer(int index, int capacity) {
+			super("cassandra-write-behind-" + context.getName() + "-" + index);
+			setDaemon(true);
+			queue = new LinkedBlockingQueue<Object>(Math.max(1, capacity));
+		}
+
+		@Override
+		public void run() {
+			context.bind();
+			try {
+				write();
+			} finally {
+				PersistenceContext.unbind();
+			}
+		}
+
+		private void write() {
+			List<PendingWrite> batch = Lists.newArrayList();
+			try {
+				drain(batch);
+			} finally {
+				// taken from the queue but not persisted before stopping.
+				for (PendingWrite write : batch) {
+					defer(write);
+				}
+			}
+		}
+
+		private void drain(List<PendingWrite> batch) {
+			while (!stopped && (running || !queue.isEmpty())) {
+				try {
+					Object next = queue.poll(100, TimeUnit.MILLISECONDS);
+					if (next == null) {
+						continue;
+					}
+					long deadline = System.nanoTime() + flushIntervalNanos;
+					while (next != null) {
+						if (next instanceof Barrier) {
+							persistBatch(batch);
+							((Barrier) next).latch.countDown();
+							break;
+						}
+						batch.add((PendingWrite) next);
+						if (batch.size() >= batchSize) {
+							break;
+						}
+						long remaining = deadline - System.nanoTime();
+						next = remaining > 0 ? queue.poll(remaining,
+								TimeUnit.NANOSECONDS) : queue.poll();
+					}
+					persistBatch(batch);
+				} catch (InterruptedException ie) {
+					if (running) {
+						continue;
+					}
+					// stopped at the deadline, the batch is deferred.
+					break;
+				} catch (RuntimeException re) {
+					LOG.error(re);
+				}
+			}
+		}
+
+		private void persistBatch(List<PendingWrite> batch) {
+			if (!batch.isEmpty()) {
+				persist(batch);
+				batch.clear();
+			}
+		}
+	}
+}
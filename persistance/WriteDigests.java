@@ -0,0 +1,403 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SUPPRESS_ENABLED;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SUPPRESS_MAX_DEVICES;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.persistance.connections.CassandraConfig;
+import com.airvana.loadtool.persistance.connections.PersistenceContext;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Digests of the last write of every device, by which
+ * {@link DevicePersistence} skips a write which would store the same model as
+ * the write before it, e.g. a periodic inform without any change.
+ *
+ * <p>
+ * The digest is a 64 bit hash of the kind of the write, insert or update,
+ * and of its parameters in any order. It is kept against a 64 bit hash of the
+ * serialno in a table of primitive arrays with open addressing, in 64
+ * segments locked on their own, so that a device costs about 30 bytes and no
+ * object.
+ * </p>
+ *
+ * <p>
+ * The digest of a write is pending when the write is accepted and becomes
+ * the one of the last persisted model only once every write of the device
+ * in flight has been told {@link #completed(String, boolean)} successfully.
+ * No write is skipped while a write of the same device is in flight, so a
+ * write identical to one still in flight is executed even if the latter
+ * fails later. A failed write, a reset or a write by another path, see
+ * {@link #forget(String)}, leaves the device without a digest till its next
+ * write succeeds.
+ * </p>
+ *
+ * <p>
+ * A write skipped is counted along with the characters of its query in
+ * {@link #getSuppressed()} and {@link #getBytesSaved()}. At most
+ * {@code cassandra.suppress.max.devices} devices (1000000 by default) are
+ * tracked, the writes of the devices beyond are always executed. The
+ * suppression is enabled by {@code cassandra.suppress.enabled}, only where
+ * no other process writes the models of the devices of the job, as such a
+ * write is not known here.
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class WriteDigests {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(WriteDigests.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int SEGMENT_BITS = 6;
+
+	private final boolean enabled;
+
+	private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+	private final HashFunction hashFunction = Hashing.murmur3_128();
+
+	private final AtomicLong suppressed = new AtomicLong();
+
+	private final AtomicLong bytesSaved = new AtomicLong();
+
+	/**
+	 * Restricting the initialization
+	 */
+	private WriteDigests(CassandraConfig config) {
+		enabled = config.getBoolean(CASSANDRA_SUPPRESS_ENABLED, false);
+		int maxDevices = Math.max(segments.length,
+				config.getInt(CASSANDRA_SUPPRESS_MAX_DEVICES, 1000000));
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = new Segment(maxDevices / segments.length);
+		}
+		if (enabled) {
+			LOG.info("Writes without a change are suppressed for up to "
+					+ maxDevices + " devices");
+		}
+	}
+
+	/**
+	 * Returns the WriteDigests of the job, creating it from the persistence
+	 * config if not created.
+	 *
+	 * @return WriteDigests instance
+	 */
+	public static WriteDigests getWriteDigests() {
+		PersistenceContext context = PersistenceContext.current();
+		synchronized (context) {
+			WriteDigests writeDigests = context
+					.getComponent(WriteDigests.class);
+			if (writeDigests == null) {
+				writeDigests = new WriteDigests(context.getConfig());
+				context.putComponent(WriteDigests.class, writeDigests);
+			}
+			return writeDigests;
+		}
+	}
+
+	/**
+	 * @return true if the writes without a change are suppressed.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns true if the given write of {@code serialno} stores the same
+	 * model as the last write persisted and no write of the device is in
+	 * flight, counting it as suppressed. Else the write is accepted as in
+	 * flight, and its outcome has to be told by
+	 * {@link #completed(String, boolean)}.
+	 *
+	 * @param serialno
+	 *            of the device
+	 * @param insert
+	 *            true for an insert, false for an update.
+	 * @param model
+	 *            parameters written
+	 * @param query
+	 *            of the write, counted in the bytes saved if suppressed.
+	 * @return true if the write is not to be executed.
+	 */
+	public boolean suppress(String serialno, boolean insert,
+			Map<String, String> model, String query) {
+		if (!enabled) {
+			return false;
+		}
+		long key = key(serialno);
+		if (!segment(key).accept(key, digest(insert, model))) {
+			return false;
+		}
+		suppressed.incrementAndGet();
+		bytesSaved.addAndGet(query.length());
+		return true;
+	}
+
+	/**
+	 * Tells the outcome of a write accepted by
+	 * {@link #suppress(String, boolean, Map, String)}. Every accepted write
+	 * has to be told exactly once, else its device is never suppressed
+	 * again.
+	 *
+	 * @param serialno
+	 *            of the device
+	 * @param persisted
+	 *            true if the write has been persisted, false if it failed or
+	 *            was not executed.
+	 */
+	public void completed(String serialno, boolean persisted) {
+		if (!enabled) {
+			return;
+		}
+		long key = key(serialno);
+		segment(key).complete(key, persisted);
+	}
+
+	/**
+	 * Forgets the last write of {@code serialno}, so that its next write is
+	 * executed. Called when the model is changed in any other way than by a
+	 * write accepted here, e.g. reset.
+	 *
+	 * @param serialno
+	 *            of the device
+	 */
+	public void forget(String serialno) {
+		if (!enabled || serialno == null) {
+			return;
+		}
+		long key = key(serialno);
+		segment(key).forget(key);
+	}
+
+	/**
+	 * Forgets the last write of every device, e.g. when all of them are
+	 * reset. The writes in flight are still to be told.
+	 */
+	public void clear() {
+		if (!enabled) {
+			return;
+		}
+		for (Segment segment : segments) {
+			segment.forgetAll();
+		}
+	}
+
+	/**
+	 * @return no. of writes suppressed so far.
+	 */
+	public long getSuppressed() {
+		return suppressed.get();
+	}
+
+	/**
+	 * @return no. of characters of the queries of the suppressed writes.
+	 */
+	public long getBytesSaved() {
+		return bytesSaved.get();
+	}
+
+	/**
+	 * @return no. of devices whose writes are tracked.
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	/**
+	 * @return hash of {@code serialno}, never 0 as it marks an empty slot.
+	 */
+	private long key(String serialno) {
+		long key = hashFunction.hashString(serialno, UTF8).asLong();
+		return key == 0 ? 1 : key;
+	}
+
+	/**
+	 * @return digest of the given write, independent of the order of the
+	 *         parameters.
+	 */
+	private long digest(boolean insert, Map<String, String> model) {
+		long digest = insert ? 1 : 2;
+		for (Map.Entry<String, String> entry : model.entrySet()) {
+			Hasher hasher = hashFunction.newHasher();
+			hasher.putInt(entry.getKey().length()).putString(entry.getKey(),
+					UTF8);
+			if (entry.getValue() != null) {
+				hasher.putString(entry.getValue(), UTF8);
+			}
+			digest += hasher.hash().asLong();
+		}
+		return hashFunction.newHasher().putLong(digest).putInt(model.size())
+				.hash().asLong();
+	}
+
+	private Segment segment(long key) {
+		return segments[(int) (key >>> (64 - SEGMENT_BITS))];
+	}
+
+	/**
+	 * Table of digests by key with linear probing, 0 marking an empty slot.
+	 * The state of a key holds the no. of its writes in flight above the
+	 * flags. A key is never removed, so that a write in flight is always told
+	 * to the key which accepted it.
+	 */
+	private static final class Segment {
+
+		private static final int INITIAL_CAPACITY = 64;
+
+		/**
+		 * the digest is the one of the persisted model.
+		 */
+		private static final int PERSISTED = 1;
+
+		/**
+		 * a write in flight failed or the model changed otherwise, so the
+		 * digest is not to be persisted once the writes in flight complete.
+		 */
+		private static final int STALE = 2;
+
+		private static final int IN_FLIGHT_SHIFT = 2;
+
+		private final int maxSize;
+
+		private long[] keys = new long[INITIAL_CAPACITY];
+
+		private long[] digests = new long[INITIAL_CAPACITY];
+
+		private int[] states = new int[INITIAL_CAPACITY];
+
+		private int size;
+
+		Segment(int maxSize) {
+			this.maxSize = Math.max(1, maxSize);
+		}
+
+		/**
+		 * Returns true if the given digest is the persisted one of the key
+		 * and no write is in flight, else accepts a write in flight with the
+		 * given digest.
+		 */
+		synchronized boolean accept(long key, long digest) {
+			int slot = find(key);
+			if (keys[slot] == key) {
+				int state = states[slot];
+				if (state == PERSISTED && digests[slot] == digest) {
+					return true;
+				}
+				int inFlight = state >>> IN_FLIGHT_SHIFT;
+				digests[slot] = digest;
+				// a stale model is overwritten by the writes accepted after
+				// the last one in flight completes.
+				states[slot] = ((inFlight + 1) << IN_FLIGHT_SHIFT)
+						| (inFlight > 0 ? state & STALE : 0);
+				return false;
+			}
+			if (size >= maxSize) {
+				// not tracked, its writes are never suppressed.
+				return false;
+			}
+			keys[slot] = key;
+			digests[slot] = digest;
+			states[slot] = 1 << IN_FLIGHT_SHIFT;
+			if (++size > keys.length * 3 / 4) {
+				resize();
+			}
+			return false;
+		}
+
+		/**
+		 * Completes a write in flight of the key, persisting its digest once
+		 * the last write in flight has completed and none failed.
+		 */
+		synchronized void complete(long key, boolean persisted) {
+			int slot = find(key);
+			int inFlight = states[slot] >>> IN_FLIGHT_SHIFT;
+			if (keys[slot] != key || inFlight == 0) {
+				return;
+			}
+			int flags = states[slot] & STALE;
+			if (!persisted) {
+				flags = STALE;
+			}
+			if (--inFlight == 0) {
+				states[slot] = flags == 0 ? PERSISTED : 0;
+			} else {
+				states[slot] = (inFlight << IN_FLIGHT_SHIFT) | flags;
+			}
+		}
+
+		/**
+		 * Forgets the persisted digest of the key, also for the writes in
+		 * flight.
+		 */
+		synchronized void forget(long key) {
+			int slot = find(key);
+			if (keys[slot] == key) {
+				forget(slot);
+			}
+		}
+
+		synchronized void forgetAll() {
+			for (int slot = 0; slot < keys.length; slot++) {
+				if (keys[slot] != 0) {
+					forget(slot);
+				}
+			}
+		}
+
+		synchronized int size() {
+			return size;
+		}
+
+		/**
+		 * @return slot of the key, or the empty slot where it is to be put.
+		 */
+		private int find(long key) {
+			int mask = keys.length - 1;
+			int slot = (int) key & mask;
+			while (keys[slot] != 0 && keys[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private void forget(int slot) {
+			int inFlight = states[slot] >>> IN_FLIGHT_SHIFT;
+			states[slot] = inFlight == 0 ? 0
+					: (inFlight << IN_FLIGHT_SHIFT) | STALE;
+		}
+
+		private void resize() {
+			long[] oldKeys = keys;
+			long[] oldDigests = digests;
+			int[] oldStates = states;
+			keys = new long[oldKeys.length * 2];
+			digests = new long[oldKeys.length * 2];
+			states = new int[oldKeys.length * 2];
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != 0) {
+					int slot = find(oldKeys[i]);
+					keys[slot] = oldKeys[i];
+					digests[slot] = oldDigests[i];
+					states[slot] = oldStates[i];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,205 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.connections;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.airvana.loadtool.client.SimuPool;
+import com.airvana.loadtool.commons.JobLogger;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Typed, read only view over the persistence information configured for the
+ * current job from GUI of LoadTool.
+ *
+ * <p>
+ * All tunables of the persistence layer are optional. When a key is missing
+ * or its value can't be parsed the given default is returned, so a job
+ * configured before a tunable existed keeps its old behavior.
+ * </p>
+ *
+ * <pre>
+ * CassandraConfig config = CassandraConfig.current();
+ * int window = config.getInt(&quot;cassandra.timeout.window&quot;, 1024);
+ * </pre>
+ *
+ * @author akballappagari
+ *
+ */
+public final class CassandraConfig {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(CassandraConfig.class);
+
+	/**
+	 * Persistence information on which this view is created.
+	 */
+	private final Map<String, String> info;
+
+	/**
+	 * Creates the view on given {@code info}.
+	 *
+	 * @param info
+	 *            persistence information.
+	 */
+	public CassandraConfig(Map<String, String> info) {
+		this.info = info == null ? Collections.<String, String> emptyMap()
+				: Collections.unmodifiableMap(info);
+	}
+
+	/**
+	 * Returns the view on the persistence information of the current job.
+	 *
+	 * @return CassandraConfig of the current job.
+	 */
+	public static CassandraConfig current() {
+		return new CassandraConfig(SimuPool.getReference().getDeviceInfo()
+				.getPersistenceConfig().getPersistenceInfo());
+	}
+
+	/**
+	 * @return the underlying persistence information.
+	 */
+	public Map<String, String> asMap() {
+		return info;
+	}
+
+	/**
+	 * @param key
+	 *            to be verified.
+	 * @return true if a non empty value is configured for {@code key}.
+	 */
+	public boolean contains(String key) {
+		String value = info.get(key);
+		return value != null && value.trim().length() > 0;
+	}
+
+	/**
+	 * @param key
+	 *            of the value
+	 * @param defaultValue
+	 *            returned if not configured.
+	 * @return configured value or {@code defaultValue}
+	 */
+	public String getString(String key, String defaultValue) {
+		return contains(key) ? info.get(key).trim() : defaultValue;
+	}
+
+	/**
+	 * @param key
+	 *            of the value
+	 * @param defaultValue
+	 *            returned if not configured or invalid.
+	 * @return configured value or {@code defaultValue}
+	 */
+	public int getInt(String key, int defaultValue) {
+		if (contains(key)) {
+			try {
+				return Integer.parseInt(info.get(key).trim());
+			} catch (NumberFormatException nfe) {
+				logInvalid(key, defaultValue);
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * @param key
+	 *            of the value
+	 * @param defaultValue
+	 *            returned if not configured or invalid.
+	 * @return configured value or {@code defaultValue}
+	 */
+	public long getLong(String key, long defaultValue) {
+		if (contains(key)) {
+			try {
+				return Long.parseLong(info.get(key).trim());
+			} catch (NumberFormatException nfe) {
+				logInvalid(key, defaultValue);
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * @param key
+	 *            of the value
+	 * @param defaultValue
+	 *            returned if not configured or invalid.
+	 * @return configured value or {@code defaultValue}
+	 */
+	public double getDouble(String key, double defaultValue) {
+		if (contains(key)) {
+			try {
+				return Double.parseDouble(info.get(key).trim());
+			} catch (NumberFormatException nfe) {
+				logInvalid(key, defaultValue);
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * @param key
+	 *            of the value
+	 * @param defaultValue
+	 *            returned if not configured.
+	 * @return configured value or {@code defaultValue}
+	 */
+	public boolean getBoolean(String key, boolean defaultValue) {
+		return contains(key) ? Boolean.valueOf(info.get(key).trim())
+				: defaultValue;
+	}
+
+	/**
+	 * @param key
+	 *            of the value
+	 * @return comma separated values configured for {@code key}, empty if not
+	 *         configured.
+	 */
+	public List<String> getList(String key) {
+		List<String> values = Lists.newArrayList();
+		if (contains(key)) {
+			for (String value : info.get(key).split(",")) {
+				if (value.trim().length() > 0) {
+					values.add(value.trim());
+				}
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Returns a view in which the keys starting with {@code prefix} override
+	 * the keys named by the rest of them, e.g. with prefix
+	 * {@code cassandra.shard.east.} the value of
+	 * {@code cassandra.shard.east.cassandra.keyspace} is returned for
+	 * {@code cassandra.keyspace}.
+	 * 
+	 * @param prefix
+	 *            of the overriding keys.
+	 * @return overlaid view.
+	 */
+	public CassandraConfig overlay(String prefix) {
+		Map<String, String> overlaid = Maps.newHashMap(info);
+		for (Map.Entry<String, String> entry : info.entrySet()) {
+			if (entry.getKey().startsWith(prefix)) {
+				overlaid.put(entry.getKey().substring(prefix.length()),
+						entry.getValue());
+			}
+		}
+		return new CassandraConfig(overlaid);
+	}
+
+	/**
+	 * LOG the invalid value.
+	 */
+	private void logInvalid(String key, Object defaultValue) {
+		LOG.info("Invalid value " + info.get(key) + " configured for " + key
+				+ ". So, using the default value " + defaultValue);
+	}
+}
@@ -10,8 +10,11 @@ import static com.airvana.loadtool.persistance.connections.constants.CassandraIn
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -22,14 +25,18 @@ import com.datastax.driver.core.CloseFuture;
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.Cluster.Builder;
 import com.datastax.driver.core.Host;
+import com.datastax.driver.core.HostDistance;
 import com.datastax.driver.core.Metadata;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
 import com.datastax.driver.core.policies.DefaultRetryPolicy;
 import com.datastax.driver.core.policies.ExponentialReconnectionPolicy;
+import com.datastax.driver.core.policies.LatencyAwarePolicy;
 import com.datastax.driver.core.policies.LoadBalancingPolicy;
 import com.datastax.driver.core.policies.ReconnectionPolicy;
 import com.datastax.driver.core.policies.RetryPolicy;
-import com.datastax.driver.core.policies.RoundRobinPolicy;
 import com.datastax.driver.core.policies.TokenAwarePolicy;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -66,6 +73,9 @@ import com.google.common.collect.Maps;
  * {@link ExponentialReconnectionPolicy} and {@link ReconnectionPolicy} for more
  * info on reconnection policies in cassandra.
  * </p>
+ * Each of them can be changed from persistence config, e.g. to route with
+ * {@link DCAwareRoundRobinPolicy} or to exclude slow hosts with
+ * {@link LatencyAwarePolicy}. See {@link CassandraPolicies} for the keys.
  * </p>
  * 
  * <p>
@@ -109,6 +119,12 @@ public final class CassandraConnection {
 	 */
 	private final Map<String, String> CASSANDRA_INFO;
 
+	/**
+	 * Sizes the connection pools and sets the transport options of the
+	 * {@link Cluster}.
+	 */
+	private final CassandraTransportTuning tuning;
+
 	/**
 	 * Cassandra nodes to which connection needs to be made.
 	 */
@@ -119,13 +135,35 @@ public final class CassandraConnection {
 	 */
 	private final List<String> CASSANDRA_NODE_KEYS;
 
+	/**
+	 * No. of query plans sampled to log the routing of the load balancing
+	 * policy.
+	 */
+	private static final int ROUTING_SAMPLES = 1000;
+
 	/**
 	 * Initializes all the prerequisites for connection.
 	 */
 	protected CassandraConnection() {
-		CASSANDRA_INFO = loadCassandraConfig();
+		this(null);
+	}
+
+	/**
+	 * Initializes all the prerequisites for connection with the given
+	 * {@code cassandraInfo} instead of the persistence config of the job. This
+	 * is used to connect to the shards and by offline tools.
+	 * 
+	 * @param cassandraInfo
+	 *            information required to create connection, job persistence
+	 *            config is used if {@code null}.
+	 */
+	protected CassandraConnection(Map<String, String> cassandraInfo) {
+		CASSANDRA_INFO = cassandraInfo == null ? loadCassandraConfig()
+				: Collections.unmodifiableMap(cassandraInfo);
 		CASSANDRA_NODE_KEYS = generateNodeKeys();
 		CASSANDRA_NODES = loadCassandraNodes();
+		tuning = new CassandraTransportTuning(new CassandraConfig(
+				CASSANDRA_INFO), CASSANDRA_NODES.size());
 		cluster = initCluster();
 		logConnectionInfo();
 	}
@@ -198,6 +236,7 @@ public final class CassandraConnection {
 	private Cluster initCluster() {
 		Builder builder = Cluster.builder().addContactPoints(CASSANDRA_NODES);
 		loadPolicies(builder);
+		loadTransportOptions(builder);
 		if (isSSLEnabled()) {
 			builder.withSSL();
 		}
@@ -205,19 +244,39 @@ public final class CassandraConnection {
 	}
 
 	/**
-	 * loads the policies to cluster.
+	 * loads the policies to cluster. The policies are configurable through
+	 * persistence config, see {@link CassandraPolicies}.
 	 * 
 	 * @param builder
 	 *            {@link Builder} which builds the {@link Cluster}.
 	 */
 	private void loadPolicies(Builder builder) {
-		builder.withLoadBalancingPolicy(new TokenAwarePolicy(
-				new RoundRobinPolicy()));
+		new CassandraPolicies(new CassandraConfig(CASSANDRA_INFO))
+				.apply(builder);
+	}
 
-		builder.withRetryPolicy(DefaultRetryPolicy.INSTANCE);
+	/**
+	 * loads the pooling, socket and compression options to cluster. See
+	 * {@link CassandraTransportTuning} for how they are sized.
+	 * 
+	 * @param builder
+	 *            {@link Builder} which builds the {@link Cluster}.
+	 */
+	private void loadTransportOptions(Builder builder) {
+		tuning.apply(builder);
+	}
 
-		builder.withReconnectionPolicy(new ExponentialReconnectionPolicy(100,
-				1000));
+	/**
+	 * Sizes the connection pools of the open {@link Cluster} for the given
+	 * no. of sessions held at once, see {@link CassandraTransportTuning}.
+	 * 
+	 * @param sessions
+	 *            max. no. of sessions held at once by the jobs using the
+	 *            cluster.
+	 */
+	protected final void resizePools(int sessions) {
+		tuning.resize(cluster.getConfiguration().getPoolingOptions(),
+				sessions);
 	}
 
 	/**
@@ -244,6 +303,36 @@ public final class CassandraConnection {
 		return cluster.connect(CASSANDRA_INFO.get(CASSANDRA_KEYSPACNE_NAME));
 	}
 
+	/**
+	 * Creates and verifies the keyspace and the tables of the persistence
+	 * layer on the current cluster, as per {@code cassandra.schema.mode}. See
+	 * {@link SchemaManager} for more information.
+	 * 
+	 * @param shard
+	 *            name of the shard of this connection.
+	 * @return drift of the schema from the declared one.
+	 */
+	protected final List<String> manageSchema(String shard) {
+		return new SchemaManager(new CassandraConfig(CASSANDRA_INFO), cluster,
+				CASSANDRA_INFO.get(CASSANDRA_KEYSPACNE_NAME), shard).apply();
+	}
+
+	/**
+	 * Starts the {@link HostMonitor} of the current cluster, which keeps
+	 * watching the hosts logged once by the connection.
+	 *
+	 * @param name
+	 *            of the cluster
+	 * @param sessions
+	 *            created on the cluster
+	 * @return monitor to be closed along with the cluster.
+	 */
+	protected final HostMonitor monitorHosts(String name,
+			Iterable<Session> sessions) {
+		return new HostMonitor(name, cluster, sessions, new CassandraConfig(
+				CASSANDRA_INFO));
+	}
+
 	/**
 	 * Closes the {@link Cluster} which has been opened for Connection.
 	 * 
@@ -258,16 +347,56 @@ public final class CassandraConnection {
 	}
 
 	/**
-	 * Logs the information about the connection made.
+	 * Logs the information about the connection made. Along with every host,
+	 * its {@link HostDistance} and the no. of times it has been the first
+	 * choice of the load balancing policy out of {@link #ROUTING_SAMPLES}
+	 * sampled query plans are logged.
 	 */
 	private void logConnectionInfo() {
 		Metadata metadata = cluster.getMetadata();
+		LoadBalancingPolicy policy = cluster.getConfiguration().getPolicies()
+				.getLoadBalancingPolicy();
+		Map<Host, Integer> routedCounts = sampleRouting(policy);
 		LOG.info("Cassandra Connected Successfully. Below mentioned are the details of connection made.");
 		LOG.info("Connected to cluster: " + metadata.getClusterName());
 		for (Host host : metadata.getAllHosts()) {
+			Integer routed = routedCounts.get(host);
 			LOG.info("Datacenter: " + host.getDatacenter() + "; Host: "
-					+ host.getAddress() + "; Rack: " + host.getRack() + ";");
+					+ host.getAddress() + "; Rack: " + host.getRack()
+					+ "; Distance: " + policy.distance(host) + "; Routed: "
+					+ (routed == null ? 0 : routed) + "/" + ROUTING_SAMPLES
+					+ ";");
 		}
 		LOG.info("===========================END of Connection Info=====================================");
 	}
+
+	/**
+	 * Samples the query plans of the given {@code policy} and counts the no.
+	 * of times each host is the first choice. Every sample is a read of the
+	 * model of a distinct serialno with its routing key set, so that a token
+	 * aware policy routes it to a replica of the serialno as it does for the
+	 * model queries.
+	 * 
+	 * @param policy
+	 *            load balancing policy of the cluster.
+	 * @return first choice counts per host.
+	 */
+	private Map<Host, Integer> sampleRouting(LoadBalancingPolicy policy) {
+		Map<Host, Integer> routedCounts = Maps.newHashMap();
+		for (int i = 0; i < ROUTING_SAMPLES; i++) {
+			String serialno = "routing-sample-" + i;
+			Statement statement = new SimpleStatement(
+					"SELECT serialno FROM model WHERE serialno = '" + serialno
+							+ "'").setRoutingKey(ByteBuffer.wrap(serialno
+					.getBytes(Charset.forName("UTF-8"))));
+			Iterator<Host> plan = policy.newQueryPlan(
+					CASSANDRA_INFO.get(CASSANDRA_KEYSPACNE_NAME), statement);
+			if (plan.hasNext()) {
+				Host host = plan.next();
+				Integer count = routedCounts.get(host);
+				routedCounts.put(host, count == null ? 1 : count + 1);
+			}
+		}
+		return routedCounts;
+	}
 }
@@ -0,0 +1,233 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.connections;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_LB_EXCLUSION_THRESHOLD;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_LB_LATENCY_AWARE;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_LB_LATENCY_SCALE;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_LB_LOCAL_DC;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_LB_MIN_MEASUREMENTS;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_LB_POLICY;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_LB_REMOTE_FOR_LOCAL;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_LB_REMOTE_HOSTS;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_LB_RETRY_PERIOD;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_LB_TOKEN_AWARE;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_LB_UPDATE_RATE;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_RECONNECTION_BASE;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_RECONNECTION_MAX;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_RECONNECTION_POLICY;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_RETRY_POLICY;
+
+import java.util.concurrent.TimeUnit;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.datastax.driver.core.Cluster.Builder;
+import com.datastax.driver.core.policies.ConstantReconnectionPolicy;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
+import com.datastax.driver.core.policies.DefaultRetryPolicy;
+import com.datastax.driver.core.policies.DowngradingConsistencyRetryPolicy;
+import com.datastax.driver.core.policies.ExponentialReconnectionPolicy;
+import com.datastax.driver.core.policies.FallthroughRetryPolicy;
+import com.datastax.driver.core.policies.LatencyAwarePolicy;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.datastax.driver.core.policies.LoggingRetryPolicy;
+import com.datastax.driver.core.policies.ReconnectionPolicy;
+import com.datastax.driver.core.policies.RetryPolicy;
+import com.datastax.driver.core.policies.RoundRobinPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
+
+/**
+ * Builds the load balancing, retry and reconnection policies of the
+ * {@link CassandraConnection} from persistence config.
+ *
+ * <p>
+ * With no configuration the policies are the ones used before they became
+ * configurable, i.e. {@link TokenAwarePolicy} over {@link RoundRobinPolicy},
+ * {@link DefaultRetryPolicy} and {@link ExponentialReconnectionPolicy} of 100
+ * to 1000 ms.
+ * </p>
+ *
+ * <p>
+ * Below is an example for a multi datacenter deployment which keeps requests
+ * in dc1, falls back to 2 hosts of every other datacenter and excludes the
+ * hosts 3 times slower than the fastest one.
+ *
+ * <pre>
+ * cassandra.lb.policy=dcaware
+ * cassandra.lb.localdc=dc1
+ * cassandra.lb.remote.hosts=2
+ * cassandra.lb.latencyaware=true
+ * cassandra.lb.latencyaware.exclusion.threshold=3.0
+ * cassandra.reconnection.policy=exponential
+ * cassandra.reconnection.base.ms=500
+ * cassandra.reconnection.max.ms=30000
+ * cassandra.retry.policy=logging-default
+ * </pre>
+ *
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class CassandraPolicies {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(CassandraPolicies.class);
+
+	/**
+	 * persistence config from which policies are built.
+	 */
+	private final CassandraConfig config;
+
+	/**
+	 * Human readable description of the policy chain built.
+	 */
+	private final StringBuilder description = new StringBuilder();
+
+	/**
+	 * @param config
+	 *            persistence config from which policies are built.
+	 */
+	CassandraPolicies(CassandraConfig config) {
+		this.config = config;
+	}
+
+	/**
+	 * Loads all the policies to the given builder.
+	 *
+	 * @param builder
+	 *            {@link Builder} which builds the Cluster.
+	 */
+	void apply(Builder builder) {
+		LoadBalancingPolicy loadBalancingPolicy = loadBalancingPolicy();
+		RetryPolicy retryPolicy = parseRetryPolicy(
+				config.getString(CASSANDRA_RETRY_POLICY, null),
+				DefaultRetryPolicy.INSTANCE);
+		ReconnectionPolicy reconnectionPolicy = reconnectionPolicy();
+		builder.withLoadBalancingPolicy(loadBalancingPolicy);
+		builder.withRetryPolicy(retryPolicy);
+		builder.withReconnectionPolicy(reconnectionPolicy);
+		description.append("; retry: ").append(
+				config.getString(CASSANDRA_RETRY_POLICY, "default"));
+		LOG.info("Cassandra policies in use: " + description);
+	}
+
+	/**
+	 * @return description of the policy chain built by {@link #apply(Builder)}
+	 */
+	String getDescription() {
+		return description.toString();
+	}
+
+	/**
+	 * Builds the load balancing policy chain.
+	 */
+	private LoadBalancingPolicy loadBalancingPolicy() {
+		LoadBalancingPolicy policy;
+		String chain;
+		if ("dcaware".equalsIgnoreCase(config.getString(CASSANDRA_LB_POLICY,
+				"roundrobin"))) {
+			String localDc = config.getString(CASSANDRA_LB_LOCAL_DC, null);
+			int remoteHosts = config.getInt(CASSANDRA_LB_REMOTE_HOSTS, 0);
+			boolean remoteForLocal = config.getBoolean(
+					CASSANDRA_LB_REMOTE_FOR_LOCAL, false);
+			DCAwareRoundRobinPolicy.Builder dcAware = DCAwareRoundRobinPolicy
+					.builder().withUsedHostsPerRemoteDc(remoteHosts);
+			if (localDc != null) {
+				dcAware.withLocalDc(localDc);
+			}
+			if (remoteForLocal) {
+				dcAware.allowRemoteDCsForLocalConsistencyLevel();
+			}
+			policy = dcAware.build();
+			chain = "DCAwareRoundRobinPolicy[localDc="
+					+ (localDc == null ? "<from contact points>" : localDc)
+					+ ", remoteHostsPerDc=" + remoteHosts
+					+ ", remoteForLocalConsistency=" + remoteForLocal + "]";
+		} else {
+			policy = new RoundRobinPolicy();
+			chain = "RoundRobinPolicy";
+		}
+		if (config.getBoolean(CASSANDRA_LB_LATENCY_AWARE, false)) {
+			double threshold = config.getDouble(
+					CASSANDRA_LB_EXCLUSION_THRESHOLD, 2.0);
+			long scale = config.getLong(CASSANDRA_LB_LATENCY_SCALE, 100L);
+			long retryPeriod = config.getLong(CASSANDRA_LB_RETRY_PERIOD,
+					10000L);
+			long updateRate = config.getLong(CASSANDRA_LB_UPDATE_RATE, 100L);
+			int minMeasurements = config.getInt(CASSANDRA_LB_MIN_MEASUREMENTS,
+					50);
+			policy = LatencyAwarePolicy.builder(policy)
+					.withExclusionThreshold(threshold)
+					.withScale(scale, TimeUnit.MILLISECONDS)
+					.withRetryPeriod(retryPeriod, TimeUnit.MILLISECONDS)
+					.withUpdateRate(updateRate, TimeUnit.MILLISECONDS)
+					.withMininumMeasurements(minMeasurements).build();
+			chain = "LatencyAwarePolicy[exclusionThreshold=" + threshold
+					+ ", scaleMs=" + scale + ", retryPeriodMs=" + retryPeriod
+					+ ", updateRateMs=" + updateRate + ", minMeasurements="
+					+ minMeasurements + "](" + chain + ")";
+		}
+		if (config.getBoolean(CASSANDRA_LB_TOKEN_AWARE, true)) {
+			policy = new TokenAwarePolicy(policy);
+			chain = "TokenAwarePolicy(" + chain + ")";
+		}
+		description.append("load balancing: ").append(chain);
+		return policy;
+	}
+
+	/**
+	 * Builds the reconnection policy.
+	 */
+	private ReconnectionPolicy reconnectionPolicy() {
+		long base = config.getLong(CASSANDRA_RECONNECTION_BASE, 100L);
+		if ("constant".equalsIgnoreCase(config.getString(
+				CASSANDRA_RECONNECTION_POLICY, "exponential"))) {
+			description.append("; reconnection: ConstantReconnectionPolicy[")
+					.append(base).append(" ms]");
+			return new ConstantReconnectionPolicy(base);
+		}
+		long max = Math.max(base,
+				config.getLong(CASSANDRA_RECONNECTION_MAX, 1000L));
+		description.append("; reconnection: ExponentialReconnectionPolicy[")
+				.append(base).append(" - ").append(max).append(" ms]");
+		return new ExponentialReconnectionPolicy(base, max);
+	}
+
+	/**
+	 * Parses the retry policy, which is one of default, downgrading or
+	 * fallthrough optionally prefixed with logging-. Returns
+	 * {@code defaultPolicy} if {@code policy} is null or invalid.
+	 *
+	 * @param policy
+	 *            name of the policy
+	 * @param defaultPolicy
+	 *            returned if not valid
+	 * @return parsed retry policy.
+	 */
+	public static RetryPolicy parseRetryPolicy(String policy,
+			RetryPolicy defaultPolicy) {
+		if (policy == null) {
+			return defaultPolicy;
+		}
+		String name = policy.toLowerCase();
+		boolean logging = name.startsWith("logging-");
+		if (logging) {
+			name = name.substring("logging-".length());
+		}
+		RetryPolicy retryPolicy;
+		if ("default".equals(name)) {
+			retryPolicy = DefaultRetryPolicy.INSTANCE;
+		} else if ("downgrading".equals(name)) {
+			retryPolicy = DowngradingConsistencyRetryPolicy.INSTANCE;
+		} else if ("fallthrough".equals(name)) {
+			retryPolicy = FallthroughRetryPolicy.INSTANCE;
+		} else {
+			LOG.info("Invalid retry policy " + policy
+					+ ". So, using the default " + defaultPolicy);
+			return defaultPolicy;
+		}
+		return logging ? new LoggingRetryPolicy(retryPolicy) : retryPolicy;
+	}
+}
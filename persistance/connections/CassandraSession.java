@@ -12,6 +12,7 @@ import com.datastax.driver.core.RegularStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
 import com.datastax.driver.core.Statement;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -48,6 +49,11 @@ import com.google.common.util.concurrent.ListenableFuture;
  * {@link OutOfMemoryError} or may cause unexpected behavior.
  * </p>
  * 
+ * <p>
+ * When {@code cassandra.trace.enabled} is true, the executions are sampled
+ * for server tracing and the slow ones are logged, see {@link QueryTracer}.
+ * </p>
+ * 
  * @author akballappagari
  * 
  */
@@ -60,19 +66,33 @@ public final class CassandraSession {
 	 */
 	private List<Session> sessionList;
 
+	/**
+	 * CassandraSessionManager from which the session has been polled.
+	 */
+	private final CassandraSessionManager manager;
+
 	/**
 	 * returns true if session is returned to pool, else false
 	 */
 	private boolean isClosed;
+
+	/**
+	 * traces the executions of the session.
+	 */
+	private final QueryTracer tracer;
 	
 	/**
-	 * Private initialization of CassandraSession, which makes it to be
-	 * initialized by only itself.
+	 * Private initialization of CassandraSession on a Session of the given
+	 * manager.
 	 * 
+	 * @param manager
+	 *            to which session has to be returned on close.
 	 * @param session
 	 *            object for which CassandraSession wrapper is created.
 	 */
-	private CassandraSession(Session session) {
+	private CassandraSession(CassandraSessionManager manager, Session session) {
+		this.manager = manager;
+		this.tracer = QueryTracer.getQueryTracer(manager.getContext());
 		this.sessionList = Lists.newArrayList();
 		this.sessionList.add(session);
 	}
@@ -87,8 +107,47 @@ public final class CassandraSession {
 	 */
 	public static CassandraSession open()
 			throws CassandraException {
-		return new CassandraSession(CassandraSessionManager.getSessionManager()
-				.getSession());
+		CassandraSessionManager manager = CassandraSessionManager
+				.getSessionManager();
+		return new CassandraSession(manager, manager.getSession());
+	}
+
+	/**
+	 * This creates a new CassandraSession object on the given shard. See
+	 * {@link CassandraSessionManager#getSessionManager(String)}
+	 * 
+	 * @param shard
+	 *            name of the shard
+	 * @return newly created CassandrSession object.
+	 * @throws CassandraException
+	 *             if any exception occurs while trying to create
+	 *             {@link Session} object.
+	 */
+	public static CassandraSession open(String shard)
+			throws CassandraException {
+		return open(PersistenceContext.current(), shard);
+	}
+
+	/**
+	 * This creates a new CassandraSession object on the given shard of the
+	 * job of the given {@code context}, for the work of a job which may run on
+	 * a thread not bound to it. See
+	 * {@link CassandraSessionManager#getSessionManager(PersistenceContext, String)}
+	 * 
+	 * @param context
+	 *            of the job
+	 * @param shard
+	 *            name of the shard
+	 * @return newly created CassandrSession object.
+	 * @throws CassandraException
+	 *             if any exception occurs while trying to create
+	 *             {@link Session} object.
+	 */
+	public static CassandraSession open(PersistenceContext context,
+			String shard) throws CassandraException {
+		CassandraSessionManager manager = CassandraSessionManager
+				.getSessionManager(context, shard);
+		return new CassandraSession(manager, manager.getSession());
 	}
 
 	/**
@@ -112,6 +171,10 @@ public final class CassandraSession {
 	 * @see ResultSet
 	 */
 	public ResultSet execute(Statement statement) {
+		if (tracer.isEnabled()) {
+			return tracer.executeAsync(getSession(), statement)
+					.getUninterruptibly();
+		}
 		return getSession().execute(statement);
 	}
 
@@ -128,6 +191,9 @@ public final class CassandraSession {
 	 * @see ResultSet
 	 */
 	public ResultSet execute(String query) {
+		if (tracer.isEnabled()) {
+			return execute(new SimpleStatement(query));
+		}
 		return getSession().execute(query);
 	}
 
@@ -142,6 +208,9 @@ public final class CassandraSession {
 	 *         be empty (and will be for any non SELECT query).
 	 */
 	public ResultSet execute(String query, Object... values) {
+		if (tracer.isEnabled()) {
+			return execute(new SimpleStatement(query, values));
+		}
 		return getSession().execute(query, values);
 	}
 
@@ -164,6 +233,9 @@ public final class CassandraSession {
 	 * @return a future on the result of the query.
 	 */
 	public ResultSetFuture executeAsync(Statement statement) {
+		if (tracer.isEnabled()) {
+			return tracer.executeAsync(getSession(), statement);
+		}
 		return getSession().executeAsync(statement);
 	}
 
@@ -176,6 +248,9 @@ public final class CassandraSession {
 	 * @return a future on the result of the query.
 	 */
 	public ResultSetFuture executeAsync(String query) {
+		if (tracer.isEnabled()) {
+			return executeAsync(new SimpleStatement(query));
+		}
 		return getSession().executeAsync(query);
 	}
 
@@ -190,6 +265,9 @@ public final class CassandraSession {
 	 * @return a future on the result of the query.
 	 */
 	public ResultSetFuture executeAsync(String query, Object... values) {
+		if (tracer.isEnabled()) {
+			return executeAsync(new SimpleStatement(query, values));
+		}
 		return getSession().executeAsync(query, values);
 	}
 
@@ -283,8 +361,7 @@ public final class CassandraSession {
 	 */
 	public boolean close() {
 		if (getSession() != null) {
-			isClosed = CassandraSessionManager.getSessionManager().close(
-					this.sessionList.remove(0));
+			isClosed = manager.close(this.sessionList.remove(0));
 		}
 		return isClosed;
 	}
@@ -300,6 +377,13 @@ public final class CassandraSession {
 		return isClosed;
 	}
 
+	/**
+	 * @return name of the shard this session is connected to.
+	 */
+	public String getShardName() {
+		return manager.getShardName();
+	}
+
 	/**
 	 * Returns the Cluster object this session is part of.
 	 * 
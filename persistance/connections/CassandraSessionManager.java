@@ -3,18 +3,25 @@
  */
 package com.airvana.loadtool.persistance.connections;
 
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_JOB_MAX_SESSIONS;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SHARDS;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SHARD_PREFIX;
+
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Semaphore;
 
 import com.airvana.loadtool.client.JobConfiguration;
 import com.airvana.loadtool.commons.JobLogger;
 import com.airvana.loadtool.commons.exceptions.CassandraException;
 import com.airvana.loadtool.commons.exceptions.InvalidCassandraQueryException;
+import com.airvana.loadtool.persistance.connections.ClusterRegistry.SharedCluster;
 import com.airvana.slamd.AbstractFSMJob;
 import com.datastax.driver.core.CloseFuture;
+import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.exceptions.InvalidQueryException;
 import com.datastax.driver.core.exceptions.NoHostAvailableException;
@@ -28,8 +35,20 @@ import com.google.common.collect.Lists;
  * 
  * 
  * <p>
- * The maximum no. of sessions created depends upon the max connection pool
- * defined in conf/jobconfiguration.properties file.
+ * The maximum no. of sessions held at once by a job depends upon the max
+ * connection pool defined in conf/jobconfiguration.properties file, or
+ * {@code cassandra.job.max.sessions} if configured.
+ * </p>
+ * 
+ * <p>
+ * Every job has its own CassandraSessionManager, held by the
+ * {@link PersistenceContext} returned by {@link #initSessionManager()}. The
+ * context is bound to the thread initializing it and has to be bound by the
+ * job to its other threads, see {@link PersistenceContext}. The managers
+ * connecting to the same cluster share its {@link Cluster} and its sessions
+ * through {@link ClusterRegistry}, so that the concurrent jobs of a JVM open
+ * the connections and the driver threads only once. A job only closes the
+ * cluster on {@link #shutdown()} if no other job uses it.
  * </p>
  * 
  * <p>
@@ -37,6 +56,22 @@ import com.google.common.collect.Lists;
  * {@link #getSessionManager()}
  * </p>
  * 
+ * <p>
+ * When {@code cassandra.shards} is configured, one more CassandraSessionManager
+ * is maintained per shard by {@link #getSessionManager(String)}. Every shard
+ * has its own Cluster and Session pool, configured by the usual keys prefixed
+ * with {@code cassandra.shard.<name>.}, e.g.
+ * 
+ * <pre>
+ * cassandra.shards=east,west
+ * cassandra.shard.east.cassandra.node.0=10.0.0.1
+ * cassandra.shard.east.cassandra.keyspace=simulator
+ * cassandra.shard.west.cassandra.node.0=10.1.0.1
+ * cassandra.shard.west.cassandra.keyspace=simulator
+ * </pre>
+ * 
+ * </p>
+ * 
  * 
  * @author akballappagari
  * 
@@ -50,16 +85,37 @@ public final class CassandraSessionManager {
 			.getLogger(CassandraSessionManager.class);
 
 	/**
-	 * local instance of CassandraSessionManager. Only once instance created per
-	 * job.
+	 * Name of the only shard when sharding is not configured.
+	 */
+	public static final String DEFAULT_SHARD = "default";
+
+	/**
+	 * CassandraSessionManager per shard of the job, created on first use.
+	 */
+	private final ConcurrentMap<String, CassandraSessionManager> shardManagers = new ConcurrentHashMap<String, CassandraSessionManager>();
+
+	/**
+	 * context of the job of this manager.
 	 */
-	private static CassandraSessionManager sessionManager;
+	private final PersistenceContext context;
 
 	/**
-	 * CassandraConnection object instance which helps to create the Cassandra
-	 * {@link Session}
+	 * Name of the shard managed, {@link #DEFAULT_SHARD} for the job manager.
 	 */
-	private CassandraConnection connection;
+	private final String shardName;
+
+	/**
+	 * Information to connect to the shard, {@code null} to use the job
+	 * persistence config.
+	 */
+	private final Map<String, String> shardInfo;
+
+	/**
+	 * Cluster shared through {@link ClusterRegistry} which creates the
+	 * Cassandra {@link Session}, {@code null} till connected or after
+	 * {@link #shutdown()}.
+	 */
+	private SharedCluster cluster;
 
 	/**
 	 * Total no. of sessions available per pool.
@@ -71,12 +127,6 @@ public final class CassandraSessionManager {
 	 */
 	private Semaphore sessionAvailablity;
 
-	/**
-	 * A Queue which acts a {@link Session} pool. This maintains the Session
-	 * pool.
-	 */
-	private BlockingQueue<Session> sessionsQueue;
-
 	/**
 	 * Verify the needed variables are initialized or not. {@code initialized}
 	 * will be true if initialized else false.
@@ -85,21 +135,38 @@ public final class CassandraSessionManager {
 
 	private void init() {
 		if (!initialized) {
-			MAX_AVAILABILITY_PER_POOL = JobConfiguration.cassandraMaxPool; // 10;
+			MAX_AVAILABILITY_PER_POOL = resolveMaxSessions(getConfig());
 
 			sessionAvailablity = new Semaphore(MAX_AVAILABILITY_PER_POOL, false);
-
-			sessionsQueue = new LinkedBlockingQueue<Session>(
-					MAX_AVAILABILITY_PER_POOL);
 			initialized = true;
 		}
 	}
 
 	/**
-	 * CassandraSessionManager initialized privately to protect from outside
+	 * CassandraSessionManager of the job of the given context, initialized
+	 * only by {@link PersistenceContext} to protect from outside
 	 * instantiations.
 	 */
-	private CassandraSessionManager() {
+	CassandraSessionManager(PersistenceContext context) {
+		this(context, DEFAULT_SHARD, null);
+	}
+
+	/**
+	 * CassandraSessionManager of a shard.
+	 * 
+	 * @param context
+	 *            of the job
+	 * @param shardName
+	 *            name of the shard
+	 * @param shardInfo
+	 *            information to connect to the shard, {@code null} for the
+	 *            persistence config of the job.
+	 */
+	private CassandraSessionManager(PersistenceContext context,
+			String shardName, Map<String, String> shardInfo) {
+		this.context = context;
+		this.shardName = shardName;
+		this.shardInfo = shardInfo;
 	}
 
 	/**
@@ -107,17 +174,89 @@ public final class CassandraSessionManager {
 	 * called by {@link AbstractFSMJob}. <b>Beware:</b> Calling
 	 * {@code initSessionManager()} other than in {@link AbstractFSMJob}
 	 * initialization, it may result in unexpected behavior of persistence.
+	 * The manager created is used by the calling thread and by the threads to
+	 * which the returned context is bound.
+	 * 
+	 * @return context of the job, to be bound to its threads.
+	 */
+	public static PersistenceContext initSessionManager() {
+		return PersistenceContext.create(null);
+	}
+
+	/**
+	 * Initialize the {@link CassandraSessionManager} with the given
+	 * persistence information instead of the job config. This should only be
+	 * used by offline tools which run outside of a job.
+	 * 
+	 * @param info
+	 *            persistence information.
+	 * @return context of the tool, to be bound to its threads.
+	 */
+	public static PersistenceContext initSessionManager(
+			Map<String, String> info) {
+		return PersistenceContext.create(info);
+	}
+
+	/**
+	 * @return persistence config of the job of the current thread, or the
+	 *         one given to {@link #initSessionManager(Map)}.
+	 */
+	public static CassandraConfig getPersistenceConfig() {
+		return PersistenceContext.current().getConfig();
+	}
+
+	/**
+	 * Returns the names of the configured shards, or only
+	 * {@link #DEFAULT_SHARD} if sharding is not configured.
+	 * 
+	 * @return names of the shards.
+	 */
+	public static List<String> getShardNames() {
+		return getShardNames(getPersistenceConfig());
+	}
+
+	/**
+	 * Returns the names of the shards configured in the given config, or only
+	 * {@link #DEFAULT_SHARD} if sharding is not configured.
+	 * 
+	 * @param config
+	 *            persistence config of a job.
+	 * @return names of the shards.
 	 */
-	public static void initSessionManager() {
-		sessionManager = new CassandraSessionManager();
+	public static List<String> getShardNames(CassandraConfig config) {
+		List<String> shards = config.getList(CASSANDRA_SHARDS);
+		if (shards.isEmpty()) {
+			return Collections.singletonList(DEFAULT_SHARD);
+		}
+		return Collections.unmodifiableList(shards);
 	}
 
 	/**
-	 * Initialize the {@link CassandraConnection} object.
+	 * Returns the max. no. of sessions held at once by the manager of the
+	 * given config, {@code cassandra.job.max.sessions} or the max connection
+	 * pool of the job configuration.
+	 * 
+	 * @param config
+	 *            persistence config of a job or of a shard.
+	 * @return max. no. of sessions.
+	 */
+	static int resolveMaxSessions(CassandraConfig config) {
+		return Math.max(1, config.getInt(CASSANDRA_JOB_MAX_SESSIONS,
+				JobConfiguration.cassandraMaxPool)); // 10;
+	}
+
+	/**
+	 * Acquires the cluster of the shard from {@link ClusterRegistry}, which
+	 * creates the {@link CassandraConnection} and creates or verifies the
+	 * schema as per {@code cassandra.schema.mode} if the cluster is not open.
+	 * Called once {@link #init()} has resolved the max. sessions of the
+	 * manager, by which the pools of the cluster are sized.
 	 */
 	private void initConnection() {
-		if (connection == null) {
-			connection = new CassandraConnection();
+		if (cluster == null) {
+			cluster = ClusterRegistry.acquire(shardInfo != null ? shardInfo
+					: context.getConfig().asMap(), shardName,
+					MAX_AVAILABILITY_PER_POOL);
 		}
 	}
 
@@ -128,26 +267,159 @@ public final class CassandraSessionManager {
 	 * @return CassandraSessionManager object.
 	 */
 	public final static CassandraSessionManager getSessionManager() {
-		sessionManager.initConnection();
-		sessionManager.init();
-		System.out.println("SessionManager reference is " + sessionManager);
-		return sessionManager;
+		return getSessionManager(PersistenceContext.current(), DEFAULT_SHARD);
+	}
+
+	/**
+	 * Creates and returns {@link CassandraSessionManager} of the given shard
+	 * if not created else will return already created manager. The
+	 * {@link #DEFAULT_SHARD} is managed by {@link #getSessionManager()}.
+	 * 
+	 * @param shard
+	 *            name of the shard
+	 * @return CassandraSessionManager object of the shard.
+	 */
+	public static CassandraSessionManager getSessionManager(String shard) {
+		return getSessionManager(PersistenceContext.current(), shard);
+	}
+
+	/**
+	 * Creates and returns {@link CassandraSessionManager} of the given shard
+	 * of the job of the given {@code context}, for the work of a job which
+	 * may run on a thread not bound to it.
+	 * 
+	 * @param context
+	 *            of the job
+	 * @param shard
+	 *            name of the shard, {@code null} for {@link #DEFAULT_SHARD}.
+	 * @return CassandraSessionManager object of the shard.
+	 */
+	public static CassandraSessionManager getSessionManager(
+			PersistenceContext context, String shard) {
+		CassandraSessionManager manager = context.getSessionManager();
+		if (shard != null && !DEFAULT_SHARD.equals(shard)) {
+			return manager.shardManager(shard);
+		}
+		synchronized (manager) {
+			manager.init();
+			manager.initConnection();
+		}
+		System.out.println("SessionManager reference is " + manager);
+		return manager;
+	}
+
+	/**
+	 * @return manager of the given shard of this job manager, created and
+	 *         connected if not created.
+	 */
+	private CassandraSessionManager shardManager(String shard) {
+		CassandraSessionManager shardManager = shardManagers.get(shard);
+		if (shardManager == null) {
+			synchronized (shardManagers) {
+				shardManager = shardManagers.get(shard);
+				if (shardManager == null) {
+					LOG.info("Creating the session manager for shard " + shard);
+					shardManager = new CassandraSessionManager(context,
+							shard, context.getConfig().overlay(
+									CASSANDRA_SHARD_PREFIX + shard + ".")
+									.asMap());
+					shardManagers.put(shard, shardManager);
+				}
+			}
+		}
+		synchronized (shardManager) {
+			shardManager.init();
+			shardManager.initConnection();
+		}
+		return shardManager;
+	}
+
+	/**
+	 * @return context of the job of this manager.
+	 */
+	public PersistenceContext getContext() {
+		return context;
+	}
+
+	/**
+	 * @return name of the shard managed by this manager.
+	 */
+	public String getShardName() {
+		return shardName;
+	}
+
+	/**
+	 * @return persistence config of the shard managed by this manager, the
+	 *         one of the job for {@link #DEFAULT_SHARD}.
+	 */
+	public CassandraConfig getConfig() {
+		return shardInfo != null ? new CassandraConfig(shardInfo) : context
+				.getConfig();
+	}
+
+	/**
+	 * @return key of the cluster of the shard, shared by the managers
+	 *         connecting to the same cluster.
+	 */
+	public String getClusterKey() {
+		return connectedCluster().getKey();
+	}
+
+	/**
+	 * Returns the component of the given type shared by the jobs using the
+	 * cluster of the shard, see {@link ClusterRegistry}. The components are
+	 * created by their own {@code get} methods holding the lock of their
+	 * class.
+	 * 
+	 * @param type
+	 *            of the component
+	 * @return component, {@code null} if not created.
+	 */
+	public <T> T getClusterComponent(Class<T> type) {
+		return ClusterRegistry.getComponent(connectedCluster(), type);
+	}
+
+	/**
+	 * Stores the component of the given type for the jobs using the cluster
+	 * of the shard. It is closed along with the cluster if it is
+	 * {@link java.io.Closeable}.
+	 * 
+	 * @param type
+	 *            of the component
+	 * @param component
+	 *            to be stored
+	 */
+	public <T> void putClusterComponent(Class<T> type, T component) {
+		ClusterRegistry.putComponent(connectedCluster(), type, component);
+	}
+
+	/**
+	 * @return cluster of the shard.
+	 * @throws IllegalStateException
+	 *             if the manager has been shut down.
+	 */
+	private synchronized SharedCluster connectedCluster() {
+		if (cluster == null) {
+			throw new IllegalStateException("Session manager of shard "
+					+ shardName + " of " + context + " is shut down");
+		}
+		return cluster;
 	}
 
 	/**
 	 * Creates and returns {@link Session}.
 	 * <p>
-	 * a) Will return Session from the {@link #sessionsQueue} if any available
+	 * a) Will return an idle Session of the shared cluster if any available
 	 * in the pool.
 	 * </p>
 	 * <p>
 	 * b) Will create and return the session, if not available in pool and max
-	 * sessions are not created.
+	 * sessions are not held by the job.
 	 * </p>
 	 * <p>
-	 * c) If max sessions are created and none are available in pool, will wait
-	 * till session's are available in pool or throws {@link CassandraException}
-	 * if failed to retrieve one.
+	 * c) If max sessions are held by the job, will wait till session's are
+	 * returned by it or throws {@link CassandraException} if failed to
+	 * retrieve one.
 	 * </p>
 	 * 
 	 * @return {@link Session} object from the pool.
@@ -159,20 +431,22 @@ public final class CassandraSessionManager {
 		try {
 			LOG.info("Verifying the CassandraSession availablity........");
 			sessionAvailablity.acquire();
-			LOG.info("Sessions have not reached max pool. So, verifying for available Sessions .........");
-			if (sessionsQueue.peek() == null) {
-				LOG.info("No Session is available, so creating a new one.......");
-				return connection.createSession();
-			}
+		} catch (InterruptedException ie) {
+			LOG.info("Interrupted while waiting for a Session of the pool.");
+			throw new CassandraException("Connection not available", ie);
+		}
+		try {
+			LOG.info("Sessions have not reached max pool. So, returning an available or a new Session .........");
+			return cluster.borrow();
 		} catch (InvalidQueryException iqe) {
+			sessionAvailablity.release();
 			LOG.info("Provided keyspace not valid");
 			throw new InvalidQueryException(iqe.getMessage());
 		} catch (Exception e) {
+			sessionAvailablity.release();
 			LOG.info("There was an error while trying to creating to session. Please see error log for more info");
 			throw new CassandraException("Connection not available", e);
 		}
-		LOG.info("Sessions are available in pool. So, returning an existing Session....");
-		return sessionsQueue.poll();
 	}
 
 	/**
@@ -185,17 +459,24 @@ public final class CassandraSessionManager {
 	protected boolean close(Session session) {
 		LOG.info("Verifying the passed Session is valid..........");
 		sessionAvailablity.release();
-		boolean offered = sessionsQueue.offer(session);
-		if (offered) {
-			LOG.info("Session has been restored to pool.");
-		} else {
+		SharedCluster current = cluster;
+		if (current == null) {
 			LOG.info("Session is not able to be restored to pool.");
+			session.closeAsync();
+			return false;
 		}
-		return offered;
+		current.giveBack(session);
+		LOG.info("Session has been restored to pool.");
+		return true;
 	}
 
 	/**
-	 * Shuts down all sessions in the pool. For more information refer to
+	 * Releases the cluster of the job and of its shards. The sessions in the
+	 * pool and the cluster are shut down if no other job uses them. On the
+	 * job manager, the {@link PersistenceContext} of the job is closed first:
+	 * its drainer completes the writes of the job in flight, then the
+	 * components created for it are closed, while they can still use and
+	 * return their sessions. For more information refer to
 	 * {@link Session#closeAsync()}
 	 * 
 	 * @see Session#closeAsync()
@@ -203,25 +484,29 @@ public final class CassandraSessionManager {
 	 *         information.
 	 */
 	public List<CloseFuture> shutdown() {
-		LOG.info("Closing all the available Sessions in pool.....");
+		if (DEFAULT_SHARD.equals(shardName)) {
+			context.close();
+		}
 		List<CloseFuture> closeFutureList = Lists.newArrayList();
-		while (sessionsQueue.peek() != null) {
-			closeFutureList.add(sessionsQueue.poll().closeAsync());
+		for (CassandraSessionManager shardManager : shardManagers.values()) {
+			closeFutureList.addAll(shardManager.shutdown());
+		}
+		shardManagers.clear();
+		SharedCluster released;
+		synchronized (this) {
+			released = cluster;
+			cluster = null;
+		}
+		if (released != null) {
+			LOG.info("Releasing the Cassandra Cluster of shard " + shardName
+					+ "........");
+			closeFutureList.addAll(ClusterRegistry.release(released,
+					MAX_AVAILABILITY_PER_POOL));
+			LOG.info("Close request has been made for the Sessions and the Cassandra Cluster not used by other jobs........");
 		}
-		LOG.info("Close request has been made for all Sessions available in pool.....");
-		LOG.info("Closing the Cassandra Cluster........");
-		closeFutureList.add(sessionManager.getConnection().closeCluster());
-		LOG.info("Close request has been made to the Cassandra Cluster........");
 		return Collections.unmodifiableList(closeFutureList);
 	}
 
-	/**
-	 * @return current {@link CassandraConnection} object.
-	 */
-	private final CassandraConnection getConnection() {
-		return connection;
-	}
-
 	/**
 	 * Verifies both the given Cassandra Node and keyspace are valid. Returns true if
 	 * valid, else false.
@@ -0,0 +1,234 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.connections;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_COMPRESSION;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_COMPRESSION_THRESHOLD;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_POOL_CORE_LOCAL;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_POOL_CORE_REMOTE;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_POOL_MAX_LOCAL;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_POOL_MAX_REMOTE;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_POOL_MAX_REQUESTS;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SOCKET_CONNECT_TIMEOUT;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SOCKET_KEEP_ALIVE;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SOCKET_READ_TIMEOUT;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SOCKET_TCP_NO_DELAY;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_TUNING_CONCURRENCY;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_TUNING_HOSTS;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_TUNING_PAYLOAD;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.datastax.driver.core.Cluster.Builder;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.PoolingOptions;
+import com.datastax.driver.core.ProtocolOptions.Compression;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SocketOptions;
+
+/**
+ * Sizes the connection pools and sets the transport options of the
+ * {@link CassandraConnection} Cluster.
+ *
+ * <p>
+ * The pools are sized from the expected concurrency of the job, the no. of
+ * hosts and the no. of CPU cores. Every {@link Session} of the
+ * {@link CassandraSessionManager} pool holds its own connections, so the
+ * concurrency is spread over the sessions as well: the max. sessions of the
+ * job, {@code cassandra.job.max.sessions}, when the Cluster is built, and
+ * the total of the jobs sharing it through {@link ClusterRegistry} once
+ * {@link #resize(PoolingOptions, int)} is called on a change of the jobs.
+ * Every computed value can be overridden from persistence config.
+ * </p>
+ *
+ * <p>
+ * In {@code auto} mode, frame compression is enabled when the expected device
+ * model payload, {@code cassandra.tuning.payload.bytes}, is above the
+ * compression threshold. The driver compresses every frame once compression
+ * is enabled and the Cluster is built before any model is read, so the
+ * expected size has to be configured: without it {@code auto} leaves
+ * compression off. LZ4 is preferred over Snappy and is only chosen if it is
+ * available on class path.
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+final class CassandraTransportTuning {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(CassandraTransportTuning.class);
+
+	/**
+	 * Max no. of simultaneous requests per local connection by default of the
+	 * driver on native protocol v3 and above.
+	 */
+	private static final int DEFAULT_MAX_REQUESTS_PER_CONNECTION = 1024;
+
+	private final CassandraConfig config;
+
+	/**
+	 * no. of hosts given in config.
+	 */
+	private final int configuredHosts;
+
+	/**
+	 * @param config
+	 *            persistence config
+	 * @param configuredHosts
+	 *            no. of contact points configured.
+	 */
+	CassandraTransportTuning(CassandraConfig config, int configuredHosts) {
+		this.config = config;
+		this.configuredHosts = configuredHosts;
+	}
+
+	/**
+	 * Applies the pooling, socket and compression options to the given
+	 * builder.
+	 *
+	 * @param builder
+	 *            {@link Builder} which builds the Cluster.
+	 */
+	void apply(Builder builder) {
+		PoolingOptions poolingOptions = new PoolingOptions();
+		resize(poolingOptions,
+				CassandraSessionManager.resolveMaxSessions(config));
+		builder.withPoolingOptions(poolingOptions);
+
+		SocketOptions socketOptions = new SocketOptions();
+		boolean tcpNoDelay = config.getBoolean(CASSANDRA_SOCKET_TCP_NO_DELAY,
+				true);
+		boolean keepAlive = config.getBoolean(CASSANDRA_SOCKET_KEEP_ALIVE,
+				true);
+		int readTimeout = config.getInt(CASSANDRA_SOCKET_READ_TIMEOUT,
+				SocketOptions.DEFAULT_READ_TIMEOUT_MILLIS);
+		int connectTimeout = config.getInt(CASSANDRA_SOCKET_CONNECT_TIMEOUT,
+				SocketOptions.DEFAULT_CONNECT_TIMEOUT_MILLIS);
+		socketOptions.setTcpNoDelay(tcpNoDelay);
+		socketOptions.setKeepAlive(keepAlive);
+		socketOptions.setReadTimeoutMillis(readTimeout);
+		socketOptions.setConnectTimeoutMillis(connectTimeout);
+		builder.withSocketOptions(socketOptions);
+
+		Compression compression = resolveCompression();
+		builder.withCompression(compression);
+
+		LOG.info("Socket: tcpNoDelay=" + tcpNoDelay + ", keepAlive="
+				+ keepAlive + ", readTimeoutMillis=" + readTimeout
+				+ ", connectTimeoutMillis=" + connectTimeout
+				+ "; Compression: " + compression);
+	}
+
+	/**
+	 * Sizes the connection pools for the given no. of sessions held at once.
+	 * Called on the options of a running Cluster, the new sizes are applied
+	 * to the pools of its open sessions by the driver.
+	 *
+	 * @param poolingOptions
+	 *            options of the Cluster
+	 * @param maxSessions
+	 *            max. no. of sessions of the Cluster held at once.
+	 */
+	void resize(PoolingOptions poolingOptions, int maxSessions) {
+		int cores = Runtime.getRuntime().availableProcessors();
+		int hosts = Math.max(1,
+				config.getInt(CASSANDRA_TUNING_HOSTS, configuredHosts));
+		int sessions = Math.max(1, maxSessions);
+		int concurrency = Math.max(1,
+				config.getInt(CASSANDRA_TUNING_CONCURRENCY, cores * 32));
+		int maxRequests = config.getInt(CASSANDRA_POOL_MAX_REQUESTS,
+				DEFAULT_MAX_REQUESTS_PER_CONNECTION);
+
+		int newConnectionThreshold = Math.max(1, maxRequests * 3 / 4);
+
+		int inFlightPerHost = divideRoundUp(concurrency, hosts * sessions);
+		int computedCore = Math.max(1,
+				Math.min(cores, divideRoundUp(inFlightPerHost, maxRequests)));
+		int coreLocal = config.getInt(CASSANDRA_POOL_CORE_LOCAL, computedCore);
+		int maxLocal = Math.max(coreLocal, config.getInt(
+				CASSANDRA_POOL_MAX_LOCAL,
+				Math.max(coreLocal, Math.min(2 * coreLocal, 2 * cores))));
+		int coreRemote = config.getInt(CASSANDRA_POOL_CORE_REMOTE, 1);
+		int maxRemote = Math.max(coreRemote,
+				config.getInt(CASSANDRA_POOL_MAX_REMOTE, 2));
+
+		// core and max are set together, as core can't exceed max whether
+		// the pools grow or shrink.
+		poolingOptions.setConnectionsPerHost(HostDistance.LOCAL, coreLocal,
+				maxLocal);
+		poolingOptions.setConnectionsPerHost(HostDistance.REMOTE, coreRemote,
+				maxRemote);
+		poolingOptions.setMaxRequestsPerConnection(HostDistance.LOCAL,
+				maxRequests);
+		poolingOptions.setMaxRequestsPerConnection(HostDistance.REMOTE,
+				maxRequests);
+		// a connection is added once a connection is 3/4 busy, as the
+		// driver does by default.
+		poolingOptions.setNewConnectionThreshold(HostDistance.LOCAL,
+				newConnectionThreshold);
+		poolingOptions.setNewConnectionThreshold(HostDistance.REMOTE,
+				newConnectionThreshold);
+
+		LOG.info("Cassandra transport tuned for " + concurrency
+				+ " concurrent requests over " + hosts + " hosts, " + sessions
+				+ " sessions and " + cores + " cores.");
+		LOG.info("Pooling: local core/max=" + coreLocal + "/" + maxLocal
+				+ ", remote core/max=" + coreRemote + "/" + maxRemote
+				+ ", max requests per connection=" + maxRequests
+				+ ", new connection threshold=" + newConnectionThreshold);
+	}
+
+	/**
+	 * Resolves the frame compression from config.
+	 *
+	 * @return compression to be used.
+	 */
+	private Compression resolveCompression() {
+		String configured = config.getString(CASSANDRA_COMPRESSION, "auto");
+		if ("lz4".equalsIgnoreCase(configured)) {
+			return Compression.LZ4;
+		} else if ("snappy".equalsIgnoreCase(configured)) {
+			return Compression.SNAPPY;
+		} else if ("none".equalsIgnoreCase(configured)) {
+			return Compression.NONE;
+		}
+		if (!config.contains(CASSANDRA_TUNING_PAYLOAD)) {
+			LOG.info("Compression is auto, but " + CASSANDRA_TUNING_PAYLOAD
+					+ " is not configured. So, frames are not compressed.");
+			return Compression.NONE;
+		}
+		long payload = config.getLong(CASSANDRA_TUNING_PAYLOAD, 0L);
+		long threshold = config.getLong(CASSANDRA_COMPRESSION_THRESHOLD, 4096L);
+		if (payload <= threshold) {
+			return Compression.NONE;
+		}
+		if (isAvailable("net.jpountz.lz4.LZ4Factory")) {
+			return Compression.LZ4;
+		} else if (isAvailable("org.xerial.snappy.Snappy")) {
+			return Compression.SNAPPY;
+		}
+		LOG.info("Expected payload of " + payload
+				+ " bytes is above compression threshold, but neither LZ4 nor Snappy is available on class path.");
+		return Compression.NONE;
+	}
+
+	/**
+	 * @return true if the given class can be loaded.
+	 */
+	private static boolean isAvailable(String className) {
+		try {
+			Class.forName(className);
+			return true;
+		} catch (ClassNotFoundException cnfe) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return {@code value / divisor} rounded up.
+	 */
+	private static int divideRoundUp(int value, int divisor) {
+		return (value + divisor - 1) / divisor;
+	}
+}
@@ -0,0 +1,354 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.connections;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_HOSTS_MONITOR_ENABLED;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_KEYSPACNE_NAME;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_NODE_COUNT;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_NODE_NAME;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SSL;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.datastax.driver.core.CloseFuture;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Session;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Registry of the {@link Cluster}s opened in the JVM, shared by the
+ * {@link CassandraSessionManager}s of the concurrent jobs connecting to the
+ * same cluster.
+ *
+ * <p>
+ * A cluster is keyed by its contact points, keyspace and SSL setting. The
+ * first manager acquiring a key creates its {@link CassandraConnection}, with
+ * the policies and transport options of its job, and manages its schema; the
+ * later ones take a reference to it. The sessions are lent to the managers
+ * from an idle pool of the cluster, so that a session returned by a job is
+ * reused by the others, and a manager only limits how many it holds at once.
+ * The connection pools of the cluster are resized for the total of the max.
+ * sessions of the managers using it whenever one acquires or releases it.
+ * The sessions and the cluster are closed when the last manager releases it.
+ * </p>
+ *
+ * <p>
+ * The components shared by the jobs using a cluster, e.g. its throughput
+ * budget, are kept against it by {@link #putComponent(SharedCluster, Class,
+ * Object)} and live as long as it: the {@link Closeable} ones are closed
+ * along with the cluster once the last manager releases it.
+ * </p>
+ *
+ * <p>
+ * If {@code cassandra.hosts.monitor.enabled} is true, the hosts of every
+ * cluster are watched by a {@link HostMonitor} while it is open.
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class ClusterRegistry {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(ClusterRegistry.class);
+
+	/**
+	 * open clusters by key, guarded by the class.
+	 */
+	private static final Map<String, SharedCluster> clusters = Maps
+			.newHashMap();
+
+	/**
+	 * Restricting the initialization
+	 */
+	private ClusterRegistry() {
+	}
+
+	/**
+	 * Takes a reference to the cluster of the given information, creating it
+	 * and managing its schema if it is not open.
+	 *
+	 * @param info
+	 *            information to connect to the cluster.
+	 * @param shard
+	 *            name of the shard of the manager.
+	 * @param maxSessions
+	 *            max. no. of sessions held at once by the manager.
+	 * @return cluster to be released once not needed.
+	 */
+	static synchronized SharedCluster acquire(Map<String, String> info,
+			String shard, int maxSessions) {
+		String key = key(info);
+		SharedCluster cluster = clusters.get(key);
+		if (cluster == null) {
+			CassandraConnection connection = new CassandraConnection(info);
+			connection.manageSchema(shard);
+			cluster = new SharedCluster(key, connection);
+			if (new CassandraConfig(info).getBoolean(
+					CASSANDRA_HOSTS_MONITOR_ENABLED, false)) {
+				cluster.monitor = connection.monitorHosts(key, cluster.open);
+			}
+			clusters.put(key, cluster);
+			// the pools are sized for the manager when the cluster is built.
+			cluster.maxSessions = maxSessions;
+		} else {
+			LOG.info("Sharing the cluster " + key + " of "
+					+ cluster.references + " session managers with shard "
+					+ shard);
+			cluster.resizePools(cluster.maxSessions + maxSessions);
+		}
+		cluster.references++;
+		return cluster;
+	}
+
+	/**
+	 * Releases a reference taken by {@link #acquire(Map, String, int)},
+	 * closing the cluster if it was the last one.
+	 *
+	 * @param cluster
+	 *            to be released
+	 * @param maxSessions
+	 *            max. no. of sessions held at once by the manager, as
+	 *            acquired.
+	 * @return {@link CloseFuture}s of the sessions and the cluster, empty if
+	 *         the cluster is still referenced.
+	 */
+	static synchronized List<CloseFuture> release(SharedCluster cluster,
+			int maxSessions) {
+		if (--cluster.references > 0) {
+			LOG.info("Cluster " + cluster.key + " is still used by "
+					+ cluster.references + " session managers");
+			cluster.resizePools(cluster.maxSessions - maxSessions);
+			return Collections.emptyList();
+		}
+		clusters.remove(cluster.key);
+		LOG.info("Closing the cluster " + cluster.key
+				+ " as no session manager uses it");
+		return cluster.close();
+	}
+
+	/**
+	 * Returns the component of the given type shared by the jobs using the
+	 * cluster. The components are created holding a lock of their own class
+	 * to be created only once per cluster.
+	 *
+	 * @param cluster
+	 *            acquired by the caller
+	 * @param type
+	 *            of the component
+	 * @return component, {@code null} if not created.
+	 */
+	static synchronized <T> T getComponent(SharedCluster cluster,
+			Class<T> type) {
+		return type.cast(cluster.components.get(type));
+	}
+
+	/**
+	 * Stores the component of the given type for the jobs using the cluster,
+	 * to be closed along with it if it is {@link Closeable}.
+	 *
+	 * @param cluster
+	 *            acquired by the caller
+	 * @param type
+	 *            of the component
+	 * @param component
+	 *            to be stored
+	 */
+	static synchronized <T> void putComponent(SharedCluster cluster,
+			Class<T> type, T component) {
+		cluster.components.put(type, component);
+	}
+
+	/**
+	 * @return no. of clusters open in the JVM.
+	 */
+	public static synchronized int size() {
+		return clusters.size();
+	}
+
+	/**
+	 * @return references and sessions of every open cluster.
+	 */
+	public static synchronized String getSummary() {
+		StringBuilder summary = new StringBuilder();
+		for (SharedCluster cluster : clusters.values()) {
+			if (summary.length() > 0) {
+				summary.append("; ");
+			}
+			summary.append(cluster.key).append(": ")
+					.append(cluster.references).append(" managers, ")
+					.append(cluster.maxSessions).append(" max sessions, ")
+					.append(cluster.sessions.get()).append(" sessions, ")
+					.append(cluster.idle.size()).append(" idle");
+		}
+		return summary.toString();
+	}
+
+	/**
+	 * @return key of the cluster of the given information.
+	 */
+	private static String key(Map<String, String> info) {
+		CassandraConfig config = new CassandraConfig(info);
+		List<String> nodes = Lists.newArrayList();
+		// the node keys are generated as by CassandraConnection.
+		for (int count = config.getInt(CASSANDRA_NODE_COUNT, 0); count > 0;) {
+			nodes.add(config.getString(
+					CASSANDRA_NODE_NAME.replaceFirst("<N>", (--count) + ""), "")
+					.toLowerCase());
+		}
+		Collections.sort(nodes);
+		return nodes + "/" + config.getString(CASSANDRA_KEYSPACNE_NAME, "")
+				+ (config.getBoolean(CASSANDRA_SSL, false) ? "/ssl" : "");
+	}
+
+	/**
+	 * A cluster open in the JVM with the sessions not lent.
+	 */
+	static final class SharedCluster {
+
+		private final String key;
+
+		private final CassandraConnection connection;
+
+		private final BlockingQueue<Session> idle = new LinkedBlockingQueue<Session>();
+
+		/**
+		 * no. of sessions created and not closed.
+		 */
+		private final AtomicInteger sessions = new AtomicInteger();
+
+		/**
+		 * sessions created and not closed, lent or idle.
+		 */
+		private final List<Session> open = new CopyOnWriteArrayList<Session>();
+
+		/**
+		 * components shared by the managers, guarded by
+		 * {@link ClusterRegistry}.
+		 */
+		private final Map<Class<?>, Object> components = Maps.newHashMap();
+
+		/**
+		 * monitor of the hosts, {@code null} if not enabled.
+		 */
+		private HostMonitor monitor;
+
+		/**
+		 * no. of managers using the cluster, guarded by
+		 * {@link ClusterRegistry}.
+		 */
+		private int references;
+
+		/**
+		 * total of the max. sessions of the managers using the cluster, for
+		 * which its pools are sized, guarded by {@link ClusterRegistry}.
+		 */
+		private int maxSessions;
+
+		private volatile boolean closed;
+
+		private SharedCluster(String key, CassandraConnection connection) {
+			this.key = key;
+			this.connection = connection;
+		}
+
+		/**
+		 * @return key of the cluster, its contact points, keyspace and SSL
+		 *         setting.
+		 */
+		String getKey() {
+			return key;
+		}
+
+		/**
+		 * Resizes the connection pools of the cluster for the given total of
+		 * max. sessions, guarded by {@link ClusterRegistry}.
+		 */
+		private void resizePools(int maxSessions) {
+			this.maxSessions = maxSessions;
+			LOG.info("Resizing the connection pools of the cluster " + key
+					+ " for " + maxSessions + " sessions");
+			try {
+				connection.resizePools(maxSessions);
+			} catch (RuntimeException re) {
+				// the pools sized earlier still serve the managers.
+				LOG.error(re);
+			}
+		}
+
+		/**
+		 * @return an idle session, or a new one if none is idle.
+		 */
+		Session borrow() {
+			Session session = idle.poll();
+			if (session == null) {
+				session = connection.createSession();
+				sessions.incrementAndGet();
+				open.add(session);
+			}
+			return session;
+		}
+
+		/**
+		 * Takes back a session lent by {@link #borrow()}, closing it if the
+		 * cluster has been closed.
+		 */
+		void giveBack(Session session) {
+			idle.offer(session);
+			if (closed) {
+				closeIdle(Lists.<CloseFuture> newArrayList());
+			}
+		}
+
+		private List<CloseFuture> close() {
+			closed = true;
+			List<CloseFuture> closeFutures = Lists.newArrayList();
+			closeIdle(closeFutures);
+			if (sessions.get() > 0) {
+				LOG.info(sessions.get() + " sessions of the cluster " + key
+						+ " are not returned. They are closed along with it.");
+			}
+			if (monitor != null) {
+				monitor.close();
+			}
+			for (Object component : components.values()) {
+				if (component instanceof Closeable) {
+					try {
+						((Closeable) component).close();
+					} catch (IOException ioe) {
+						LOG.error(ioe);
+					} catch (RuntimeException re) {
+						// the cluster is closed even if a component fails.
+						LOG.error(re);
+					}
+				}
+			}
+			components.clear();
+			CloseFuture clusterClose = connection.closeCluster();
+			if (clusterClose != null) {
+				closeFutures.add(clusterClose);
+			}
+			return closeFutures;
+		}
+
+		private void closeIdle(List<CloseFuture> closeFutures) {
+			Session session;
+			while ((session = idle.poll()) != null) {
+				sessions.decrementAndGet();
+				open.remove(session);
+				closeFutures.add(session.closeAsync());
+			}
+		}
+	}
+}
@@ -0,0 +1,400 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.connections;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_HOSTS_SUMMARY_INTERVAL;
+
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.persistance.metrics.LatencyWindow;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.LatencyTracker;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.OperationTimedOutException;
+import com.datastax.driver.core.exceptions.QueryTimeoutException;
+
+/**
+ * Traffic and health of every host of a {@link Cluster}, to find the slow or
+ * flapping node which slows down a whole run.
+ *
+ * <p>
+ * The monitor is registered to the cluster as a {@link LatencyTracker}, which
+ * is told the latency and the error of every request per host, and as a
+ * {@link Host.StateListener}, which is told when a host is added, goes up or
+ * down or is removed. Per host it keeps the no. of requests, errors and
+ * timeouts, the latencies of the last 1024 requests and the last 20
+ * transitions with their time. The requests in flight and the connections
+ * open are read from the state of the sessions of the cluster.
+ * </p>
+ *
+ * <p>
+ * Every {@code cassandra.hosts.summary.interval.s} seconds (60 by default)
+ * the request rate of every host is computed and a line per host is logged.
+ * The same is registered in the platform MBean server as
+ * {@code com.airvana.loadtool.persistance:type=HostMonitor,cluster=<name>}.
+ * The monitor is created by {@link ClusterRegistry} for every cluster when
+ * {@code cassandra.hosts.monitor.enabled} is true.
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class HostMonitor implements HostMonitorMBean, LatencyTracker,
+		Host.StateListener {
+
+	private static final JobLogger LOG = JobLogger.getLogger(HostMonitor.class);
+
+	private static final int TRANSITIONS = 20;
+
+	private final String name;
+
+	private final Cluster cluster;
+
+	/**
+	 * sessions created on the cluster.
+	 */
+	private final Iterable<Session> sessions;
+
+	private final long intervalSeconds;
+
+	private final ConcurrentMap<String, HostStats> hosts = new ConcurrentHashMap<String, HostStats>();
+
+	private final ScheduledExecutorService summarizer;
+
+	/**
+	 * Counters of a host.
+	 */
+	private static final class HostStats {
+
+		private final Host host;
+
+		private final AtomicLong requests = new AtomicLong();
+
+		private final AtomicLong errors = new AtomicLong();
+
+		private final AtomicLong timeouts = new AtomicLong();
+
+		private final LatencyWindow latencies = new LatencyWindow(1024);
+
+		/**
+		 * guarded by itself.
+		 */
+		private final Deque<String> transitions = new ArrayDeque<String>();
+
+		private long lastRequests;
+
+		private volatile double rate;
+
+		HostStats(Host host) {
+			this.host = host;
+		}
+	}
+
+	/**
+	 * Creates the monitor of the given cluster and registers it to the
+	 * cluster and in JMX.
+	 *
+	 * @param name
+	 *            of the cluster, used in the logs and the JMX name.
+	 * @param cluster
+	 *            to be monitored
+	 * @param sessions
+	 *            created on the cluster, read for the requests in flight and
+	 *            the connections open.
+	 * @param config
+	 *            persistence config of the cluster
+	 */
+	HostMonitor(String name, Cluster cluster, Iterable<Session> sessions,
+			CassandraConfig config) {
+		this.name = name;
+		this.cluster = cluster;
+		this.sessions = sessions;
+		this.intervalSeconds = Math.max(1L,
+				config.getLong(CASSANDRA_HOSTS_SUMMARY_INTERVAL, 60L));
+		for (Host host : cluster.getMetadata().getAllHosts()) {
+			transition(host, host.isUp() ? "UP" : "DOWN");
+		}
+		cluster.register((LatencyTracker) this);
+		cluster.register((Host.StateListener) this);
+		summarizer = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable,
+								"cassandra-host-monitor");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		summarizer.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				summarize();
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+		register();
+		LOG.info("Monitoring the hosts of cluster " + name + " every "
+				+ intervalSeconds + " s");
+	}
+
+	@Override
+	public void update(Host host, Statement statement, Exception exception,
+			long newLatencyNanos) {
+		HostStats stats = stats(host);
+		stats.requests.incrementAndGet();
+		if (exception == null) {
+			stats.latencies.record(newLatencyNanos);
+		} else if (isTimeout(exception)) {
+			stats.timeouts.incrementAndGet();
+		} else {
+			stats.errors.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void onAdd(Host host) {
+		transition(host, "ADDED");
+	}
+
+	@Override
+	public void onUp(Host host) {
+		transition(host, "UP");
+	}
+
+	@Override
+	public void onDown(Host host) {
+		transition(host, "DOWN");
+	}
+
+	@Override
+	public void onRemove(Host host) {
+		transition(host, "REMOVED");
+	}
+
+	@Override
+	public void onRegister(Cluster cluster) {
+	}
+
+	@Override
+	public void onUnregister(Cluster cluster) {
+	}
+
+	/**
+	 * Stops the summaries and unregisters the monitor from JMX. Called when
+	 * the cluster is closed.
+	 */
+	void close() {
+		summarizer.shutdownNow();
+		cluster.unregister((LatencyTracker) this);
+		cluster.unregister((Host.StateListener) this);
+		summarize();
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = objectName();
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		} catch (Exception e) {
+			LOG.error(e);
+		}
+	}
+
+	@Override
+	public String[] getHosts() {
+		return hosts.keySet().toArray(new String[0]);
+	}
+
+	@Override
+	public double getRequestRate(String host) {
+		HostStats stats = hosts.get(host);
+		return stats == null ? 0.0 : stats.rate;
+	}
+
+	@Override
+	public long getLatencyP50Micros(String host) {
+		HostStats stats = hosts.get(host);
+		return stats == null ? 0L : stats.latencies.percentile(50);
+	}
+
+	@Override
+	public long getLatencyP99Micros(String host) {
+		HostStats stats = hosts.get(host);
+		return stats == null ? 0L : stats.latencies.percentile(99);
+	}
+
+	@Override
+	public int getInFlight(String host) {
+		HostStats stats = hosts.get(host);
+		if (stats == null) {
+			return 0;
+		}
+		int inFlight = 0;
+		for (Session session : sessions) {
+			inFlight += session.getState().getInFlightQueries(stats.host);
+		}
+		return inFlight;
+	}
+
+	@Override
+	public int getOpenConnections(String host) {
+		HostStats stats = hosts.get(host);
+		if (stats == null) {
+			return 0;
+		}
+		int open = 0;
+		for (Session session : sessions) {
+			open += session.getState().getOpenConnections(stats.host);
+		}
+		return open;
+	}
+
+	@Override
+	public long getErrors(String host) {
+		HostStats stats = hosts.get(host);
+		return stats == null ? 0L : stats.errors.get();
+	}
+
+	@Override
+	public long getTimeouts(String host) {
+		HostStats stats = hosts.get(host);
+		return stats == null ? 0L : stats.timeouts.get();
+	}
+
+	@Override
+	public String[] getTransitions(String host) {
+		HostStats stats = hosts.get(host);
+		if (stats == null) {
+			return new String[0];
+		}
+		synchronized (stats.transitions) {
+			return stats.transitions.toArray(new String[0]);
+		}
+	}
+
+	@Override
+	public String getSummary() {
+		StringBuilder summary = new StringBuilder();
+		for (String host : hosts.keySet()) {
+			if (summary.length() > 0) {
+				summary.append("; ");
+			}
+			summary.append(describe(host));
+		}
+		return summary.toString();
+	}
+
+	/**
+	 * @return one line summary of the given host.
+	 */
+	private String describe(String host) {
+		HostStats stats = hosts.get(host);
+		String[] transitions = getTransitions(host);
+		return host + " (" + (stats.host.isUp() ? "up" : "down") + "): "
+				+ String.format("%.1f", stats.rate) + " req/s, p50 "
+				+ getLatencyP50Micros(host) + " us, p99 "
+				+ getLatencyP99Micros(host) + " us, in flight "
+				+ getInFlight(host) + ", connections "
+				+ getOpenConnections(host) + ", errors "
+				+ stats.errors.get() + ", timeouts " + stats.timeouts.get()
+				+ ", last transition "
+				+ (transitions.length == 0 ? "none"
+						: transitions[transitions.length - 1]);
+	}
+
+	/**
+	 * Computes the request rate of every host and logs its summary.
+	 */
+	private void summarize() {
+		try {
+			for (String host : hosts.keySet()) {
+				HostStats stats = hosts.get(host);
+				long requests = stats.requests.get();
+				stats.rate = (requests - stats.lastRequests)
+						/ (double) intervalSeconds;
+				stats.lastRequests = requests;
+				LOG.info("Cluster " + name + " host " + describe(host));
+			}
+		} catch (RuntimeException re) {
+			// a failed summary must not stop the next ones.
+			LOG.error(re);
+		}
+	}
+
+	private HostStats stats(Host host) {
+		String address = host.getAddress().getHostAddress();
+		HostStats stats = hosts.get(address);
+		if (stats == null) {
+			HostStats created = new HostStats(host);
+			stats = hosts.putIfAbsent(address, created);
+			if (stats == null) {
+				stats = created;
+			}
+		}
+		return stats;
+	}
+
+	private void transition(Host host, String state) {
+		HostStats stats = stats(host);
+		String transition = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS")
+				.format(new Date()) + " " + state;
+		synchronized (stats.transitions) {
+			if (stats.transitions.size() == TRANSITIONS) {
+				stats.transitions.removeFirst();
+			}
+			stats.transitions.addLast(transition);
+		}
+		LOG.info("Cluster " + name + " host "
+				+ host.getAddress().getHostAddress() + " is " + state);
+	}
+
+	/**
+	 * @return true if the given exception is a timeout of the server or of
+	 *         the driver.
+	 */
+	private static boolean isTimeout(Exception exception) {
+		return exception instanceof QueryTimeoutException
+				|| exception instanceof OperationTimedOutException;
+	}
+
+	private ObjectName objectName() throws Exception {
+		return new ObjectName(
+				"com.airvana.loadtool.persistance:type=HostMonitor,cluster="
+						+ ObjectName.quote(name));
+	}
+
+	/**
+	 * Registers this monitor in the platform MBean server, replacing the one
+	 * registered earlier for the cluster.
+	 */
+	private void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = objectName();
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(this, objectName);
+		} catch (Exception e) {
+			LOG.error(e);
+			LOG.info("Unable to register the host monitor in JMX. Hosts can't be watched at runtime.");
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.connections;
+
+/**
+ * JMX interface of {@link HostMonitor}, which reports the traffic and the
+ * health of every host of a cluster. Hosts are given by their address, e.g.
+ * 10.0.0.1, as listed by {@link #getHosts()}.
+ *
+ * @author akballappagari
+ *
+ */
+public interface HostMonitorMBean {
+
+	/**
+	 * @return addresses of the hosts seen so far.
+	 */
+	String[] getHosts();
+
+	/**
+	 * @param host
+	 *            address of the host
+	 * @return requests per second completed by the host over the last
+	 *         summary interval.
+	 */
+	double getRequestRate(String host);
+
+	/**
+	 * @param host
+	 *            address of the host
+	 * @return median of the recent latencies of the host in micro seconds.
+	 */
+	long getLatencyP50Micros(String host);
+
+	/**
+	 * @param host
+	 *            address of the host
+	 * @return 99th percentile of the recent latencies of the host in micro
+	 *         seconds.
+	 */
+	long getLatencyP99Micros(String host);
+
+	/**
+	 * @param host
+	 *            address of the host
+	 * @return no. of requests in flight on the host over all the sessions.
+	 */
+	int getInFlight(String host);
+
+	/**
+	 * @param host
+	 *            address of the host
+	 * @return no. of connections open to the host over all the sessions.
+	 */
+	int getOpenConnections(String host);
+
+	/**
+	 * @param host
+	 *            address of the host
+	 * @return no. of requests failed on the host, other than timeouts.
+	 */
+	long getErrors(String host);
+
+	/**
+	 * @param host
+	 *            address of the host
+	 * @return no. of requests timed out on the host.
+	 */
+	long getTimeouts(String host);
+
+	/**
+	 * @param host
+	 *            address of the host
+	 * @return recent up and down transitions of the host with their time.
+	 */
+	String[] getTransitions(String host);
+
+	/**
+	 * @return one line per host with all of the above.
+	 */
+	String getSummary();
+}
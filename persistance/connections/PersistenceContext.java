@@ -0,0 +1,362 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.connections;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.airvana.loadtool.commons.JobLogger;
+
+/**
+ * Handle of the persistence of a job. It holds the persistence config of the
+ * job, its {@link CassandraSessionManager} and the components of the
+ * persistence layer created for it, e.g. the write-behind queue or the
+ * throughput governor, so that the concurrent jobs of a JVM neither share
+ * nor overwrite each other's.
+ *
+ * <p>
+ * A context is created by {@link CassandraSessionManager#initSessionManager()}
+ * and bound to the thread initializing it. The job has to bind it to every
+ * thread of its own which uses the persistence, either with {@link #bind()}
+ * and {@link #unbind()} or by running the work through
+ * {@link #wrap(Runnable)}:
+ *
+ * <pre>
+ * PersistenceContext context = CassandraSessionManager.initSessionManager();
+ * executor.execute(context.wrap(worker));
+ * </pre>
+ *
+ * A thread not bound to any context uses the only job open in the JVM. If
+ * several jobs are open, such a thread fails with
+ * {@link IllegalStateException} instead of using the persistence of another
+ * job.
+ * </p>
+ *
+ * <p>
+ * When the job manager is shut down, see
+ * {@link CassandraSessionManager#shutdown()}, the drainer of the context is
+ * run first, while the components and the sessions are still open, so that
+ * the writes of the job in flight are completed. The components implementing
+ * {@link Closeable} are closed after it, along with the context.
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class PersistenceContext {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(PersistenceContext.class);
+
+	private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+	/**
+	 * context bound to the current thread.
+	 */
+	private static final ThreadLocal<PersistenceContext> bound = new ThreadLocal<PersistenceContext>();
+
+	/**
+	 * contexts of the jobs not shut down.
+	 */
+	private static final Set<PersistenceContext> open = new CopyOnWriteArraySet<PersistenceContext>();
+
+	private final String name;
+
+	/**
+	 * persistence information of the job, read from the job config on first
+	 * use if not given. Guarded by this.
+	 */
+	private Map<String, String> info;
+
+	private final CassandraSessionManager sessionManager;
+
+	private final ConcurrentMap<Class<?>, Object> components = new ConcurrentHashMap<Class<?>, Object>();
+
+	private volatile boolean closed;
+
+	/**
+	 * drains the work of the job on close, {@code null} if not set.
+	 */
+	private volatile Closeable drainer;
+
+	/**
+	 * Restricting the initialization
+	 */
+	private PersistenceContext(Map<String, String> info) {
+		this.name = "job-" + SEQUENCE.incrementAndGet();
+		this.info = info;
+		this.sessionManager = new CassandraSessionManager(this);
+	}
+
+	/**
+	 * Creates the context of a job, binds it to the current thread and opens
+	 * it.
+	 *
+	 * @param info
+	 *            persistence information, {@code null} to read it from the
+	 *            job config.
+	 * @return context created.
+	 */
+	static PersistenceContext create(Map<String, String> info) {
+		PersistenceContext context = new PersistenceContext(info);
+		open.add(context);
+		bound.set(context);
+		LOG.info("Persistence context " + context.name + " opened by thread "
+				+ Thread.currentThread().getName() + ", " + open.size()
+				+ " open in the JVM");
+		return context;
+	}
+
+	/**
+	 * Returns the context bound to the current thread, or the only context
+	 * open if the thread is not bound.
+	 *
+	 * @return context of the job of the current thread.
+	 * @throws IllegalStateException
+	 *             if the thread is not bound and not exactly one context is
+	 *             open.
+	 */
+	public static PersistenceContext current() {
+		PersistenceContext context = bound.get();
+		if (context != null) {
+			return context;
+		}
+		int size = open.size();
+		if (size == 1) {
+			for (PersistenceContext only : open) {
+				return only;
+			}
+		}
+		throw new IllegalStateException("Thread "
+				+ Thread.currentThread().getName()
+				+ (size == 0 ? " uses the persistence before it is initialized"
+						: " is not bound to any of the " + size
+								+ " persistence contexts open")
+				+ ". See PersistenceContext.");
+	}
+
+	/**
+	 * Returns the context of the current thread as {@link #current()} does,
+	 * without failing.
+	 *
+	 * @return context of the job of the current thread, {@code null} if the
+	 *         thread is not bound and not exactly one context is open.
+	 */
+	public static PersistenceContext find() {
+		PersistenceContext context = bound.get();
+		if (context != null) {
+			return context;
+		}
+		for (PersistenceContext only : open) {
+			return open.size() == 1 ? only : null;
+		}
+		return null;
+	}
+
+	/**
+	 * Binds this context to the current thread.
+	 */
+	public void bind() {
+		bound.set(this);
+	}
+
+	/**
+	 * Unbinds the context of the current thread.
+	 */
+	public static void unbind() {
+		bound.remove();
+	}
+
+	/**
+	 * @param task
+	 *            to be run in this context
+	 * @return task which runs the given one with this context bound.
+	 */
+	public Runnable wrap(final Runnable task) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				PersistenceContext previous = bound.get();
+				bound.set(PersistenceContext.this);
+				try {
+					task.run();
+				} finally {
+					restore(previous);
+				}
+			}
+		};
+	}
+
+	/**
+	 * @param task
+	 *            to be run in this context
+	 * @return task which runs the given one with this context bound.
+	 */
+	public <T> Callable<T> wrap(final Callable<T> task) {
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				PersistenceContext previous = bound.get();
+				bound.set(PersistenceContext.this);
+				try {
+					return task.call();
+				} finally {
+					restore(previous);
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return name of the context, unique in the JVM.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return persistence config of the job.
+	 */
+	public synchronized CassandraConfig getConfig() {
+		if (info == null) {
+			info = CassandraConfig.current().asMap();
+		}
+		return new CassandraConfig(info);
+	}
+
+	/**
+	 * @return session manager of the job.
+	 */
+	public CassandraSessionManager getSessionManager() {
+		return sessionManager;
+	}
+
+	/**
+	 * @return true once the job manager has been shut down.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Returns the component of the given type created for the job. The
+	 * components are created by their own {@code get} methods holding the
+	 * lock of the context, e.g.
+	 *
+	 * <pre>
+	 * synchronized (context) {
+	 * 	WriteDigests digests = context.getComponent(WriteDigests.class);
+	 * 	if (digests == null) {
+	 * 		digests = new WriteDigests(context.getConfig());
+	 * 		context.putComponent(WriteDigests.class, digests);
+	 * 	}
+	 * }
+	 * </pre>
+	 *
+	 * @param type
+	 *            of the component
+	 * @return component, {@code null} if not created.
+	 */
+	public <T> T getComponent(Class<T> type) {
+		return type.cast(components.get(type));
+	}
+
+	/**
+	 * Stores the component of the given type for the job.
+	 *
+	 * @param type
+	 *            of the component
+	 * @param component
+	 *            to be stored
+	 */
+	public <T> void putComponent(Class<T> type, T component) {
+		components.put(type, component);
+	}
+
+	/**
+	 * Sets the drainer of the job, which is closed first when the context is
+	 * closed. It must not shut down the job manager again.
+	 *
+	 * @param drainer
+	 *            of the job
+	 */
+	public void setDrainer(Closeable drainer) {
+		this.drainer = drainer;
+	}
+
+	/**
+	 * Discards the component of the given type, so that it is created again
+	 * on next use.
+	 *
+	 * @param type
+	 *            of the component
+	 */
+	public void removeComponent(Class<?> type) {
+		components.remove(type);
+	}
+
+	@Override
+	public String toString() {
+		return "PersistenceContext[" + name + "]";
+	}
+
+	/**
+	 * Runs the drainer, then closes the context along with its
+	 * {@link Closeable} components. Called once the job manager is shut down.
+	 */
+	void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		Closeable draining = drainer;
+		if (draining != null) {
+			try {
+				draining.close();
+			} catch (IOException ioe) {
+				LOG.error(ioe);
+			} catch (RuntimeException re) {
+				// the job is closed even if it could not be drained.
+				LOG.error(re);
+			}
+		}
+		open.remove(this);
+		for (Object component : components.values()) {
+			if (component instanceof Closeable) {
+				try {
+					((Closeable) component).close();
+				} catch (IOException ioe) {
+					LOG.error(ioe);
+				} catch (RuntimeException re) {
+					// a component failing to close must not keep the others
+					// open.
+					LOG.error(re);
+				}
+			}
+		}
+		components.clear();
+		if (bound.get() == this) {
+			bound.remove();
+		}
+		LOG.info("Persistence context " + name + " closed, " + open.size()
+				+ " open in the JVM");
+	}
+
+	private static void restore(PersistenceContext previous) {
+		if (previous == null) {
+			bound.remove();
+		} else {
+			bound.set(previous);
+		}
+	}
+}
@@ -0,0 +1,447 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.connections;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_TRACE_BOOST;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_TRACE_ENABLED;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_TRACE_LOG;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_TRACE_SAMPLE_RATE;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_TRACE_THRESHOLD;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.QueryTrace;
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Traces the operations of {@link CassandraSession} on the server and writes
+ * a summary of the slow ones to a local slow query log, to tell whether the
+ * coordinator, a replica, the tombstones or the network made them slow.
+ *
+ * <p>
+ * One out of {@code 1 / cassandra.trace.sample.rate} operations (0.001 by
+ * default) is executed with server tracing. An operation slower than
+ * {@code cassandra.trace.threshold.ms} (1000 by default) can't be traced
+ * once it is done, so it is logged with what the driver knows, and the next
+ * {@code cassandra.trace.boost} operations (10 by default) are traced, to
+ * catch the condition while it lasts. The trace events are fetched by a
+ * background thread, which appends a line per operation to
+ * {@code cassandra.trace.log} (slow-queries.log by default): the coordinator,
+ * the replicas touched, the tombstone and live cells read and the slowest
+ * steps. At most 1000 operations wait for the collector, the ones beyond are
+ * counted in {@link #getDroppedCount()} and not logged.
+ * </p>
+ *
+ * <p>
+ * The tracing is enabled by {@code cassandra.trace.enabled}. Disabled, the
+ * sessions execute as before after checking {@link #isEnabled()}.
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class QueryTracer implements Closeable {
+
+	private static final JobLogger LOG = JobLogger.getLogger(QueryTracer.class);
+
+	private static final Pattern TOMBSTONES = Pattern
+			.compile("(\\d+) tombstone");
+
+	private static final Pattern LIVE = Pattern.compile("(\\d+) live");
+
+	/**
+	 * no. of the slowest steps of a trace logged.
+	 */
+	private static final int STEPS = 3;
+
+	private static final int MAX_QUERY_LENGTH = 200;
+
+	private static final int MAX_STEP_LENGTH = 80;
+
+	private final boolean enabled;
+
+	/**
+	 * an operation out of these many is traced.
+	 */
+	private final long sampleEvery;
+
+	private final long thresholdNanos;
+
+	private final int boostCount;
+
+	private final String logFile;
+
+	private final AtomicLong operations = new AtomicLong();
+
+	/**
+	 * no. of next operations to be traced after a slow one.
+	 */
+	private final AtomicInteger boost = new AtomicInteger();
+
+	private final AtomicLong traced = new AtomicLong();
+
+	private final AtomicLong slow = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * fetches the traces and writes the log, {@code null} if disabled.
+	 */
+	private final ThreadPoolExecutor collector;
+
+	/**
+	 * slow query log, opened on first write by {@link #collector}.
+	 */
+	private BufferedWriter writer;
+
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat(
+			"yyyy-MM-dd HH:mm:ss.SSS");
+
+	/**
+	 * Restricting the initialization
+	 */
+	private QueryTracer(CassandraConfig config) {
+		enabled = config.getBoolean(CASSANDRA_TRACE_ENABLED, false);
+		double rate = config.getDouble(CASSANDRA_TRACE_SAMPLE_RATE, 0.001);
+		sampleEvery = rate <= 0 ? Long.MAX_VALUE : Math.max(1L,
+				Math.round(1.0 / Math.min(1.0, rate)));
+		thresholdNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong(
+				CASSANDRA_TRACE_THRESHOLD, 1000L));
+		boostCount = Math.max(0, config.getInt(CASSANDRA_TRACE_BOOST, 10));
+		logFile = config.getString(CASSANDRA_TRACE_LOG, "slow-queries.log");
+		if (!enabled) {
+			collector = null;
+			return;
+		}
+		collector = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(1000), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable,
+								"cassandra-trace-collector");
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new RejectedExecutionHandler() {
+					@Override
+					public void rejectedExecution(Runnable runnable,
+							ThreadPoolExecutor executor) {
+						dropped.incrementAndGet();
+					}
+				});
+		LOG.info("Tracing 1 out of " + sampleEvery
+				+ " operations and logging the ones slower than "
+				+ TimeUnit.NANOSECONDS.toMillis(thresholdNanos) + " ms to "
+				+ logFile);
+	}
+
+	/**
+	 * Returns the QueryTracer of the job, creating it from the persistence
+	 * config if not created.
+	 *
+	 * @return QueryTracer instance
+	 */
+	public static QueryTracer getQueryTracer() {
+		return getQueryTracer(PersistenceContext.current());
+	}
+
+	/**
+	 * Returns the QueryTracer of the job of the given context, creating it
+	 * from the persistence config of the job if not created.
+	 *
+	 * @param context
+	 *            of the job
+	 * @return QueryTracer instance
+	 */
+	static QueryTracer getQueryTracer(PersistenceContext context) {
+		synchronized (context) {
+			QueryTracer queryTracer = context.getComponent(QueryTracer.class);
+			if (queryTracer == null) {
+				queryTracer = new QueryTracer(context.getConfig());
+				context.putComponent(QueryTracer.class, queryTracer);
+			}
+			return queryTracer;
+		}
+	}
+
+	/**
+	 * @return true if the operations are traced.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return no. of operations executed with server tracing.
+	 */
+	public long getTracedCount() {
+		return traced.get();
+	}
+
+	/**
+	 * @return no. of operations slower than the threshold.
+	 */
+	public long getSlowCount() {
+		return slow.get();
+	}
+
+	/**
+	 * @return no. of summaries dropped as the collector was behind.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Executes the given statement on the given session, tracing it if
+	 * sampled, and logs it once completed if traced or slow.
+	 *
+	 * @param session
+	 *            on which the statement is executed.
+	 * @param statement
+	 *            to be executed
+	 * @return future of the execution
+	 */
+	ResultSetFuture executeAsync(Session session, final Statement statement) {
+		final boolean sampled = sample();
+		if (sampled) {
+			statement.enableTracing();
+			traced.incrementAndGet();
+		}
+		final long start = System.nanoTime();
+		final ResultSetFuture futureSet = session.executeAsync(statement);
+		futureSet.addListener(new Runnable() {
+			@Override
+			public void run() {
+				final long latencyNanos = System.nanoTime() - start;
+				final boolean isSlow = latencyNanos >= thresholdNanos;
+				if (!sampled && !isSlow) {
+					return;
+				}
+				if (isSlow) {
+					slow.incrementAndGet();
+					if (!sampled) {
+						boost.set(boostCount);
+					}
+				}
+				ExecutionInfo info = null;
+				String error = null;
+				try {
+					info = futureSet.getUninterruptibly().getExecutionInfo();
+				} catch (RuntimeException re) {
+					error = re.getClass().getSimpleName() + ": "
+							+ re.getMessage();
+				}
+				final ExecutionInfo executionInfo = info;
+				final String failure = error;
+				final long finished = System.currentTimeMillis();
+				Runnable collect = new Runnable() {
+					@Override
+					public void run() {
+						write(summary(finished, isSlow, latencyNanos,
+								statement, executionInfo, failure));
+					}
+				};
+				collector.execute(collect);
+			}
+		}, MoreExecutors.sameThreadExecutor());
+		return futureSet;
+	}
+
+	/**
+	 * @return true if the next operation is to be traced.
+	 */
+	private boolean sample() {
+		if (boost.get() > 0 && boost.getAndDecrement() > 0) {
+			return true;
+		}
+		return operations.incrementAndGet() % sampleEvery == 0;
+	}
+
+	/**
+	 * Builds the summary line of an operation, fetching its trace events.
+	 * Called by {@link #collector}.
+	 */
+	private String summary(long finished, boolean isSlow, long latencyNanos,
+			Statement statement, ExecutionInfo info, String failure) {
+		StringBuilder line = new StringBuilder();
+		line.append(dateFormat.format(new Date(finished))).append(' ')
+				.append(isSlow ? "SLOW" : "SAMPLED").append(" latency=")
+				.append(TimeUnit.NANOSECONDS.toMicros(latencyNanos))
+				.append("us");
+		if (failure != null) {
+			line.append(" error=\"").append(failure).append('"');
+		}
+		if (info != null) {
+			line.append(" queried=").append(info.getQueriedHost())
+					.append(" tried=").append(info.getTriedHosts().size());
+			QueryTrace trace = info.getQueryTrace();
+			if (trace != null) {
+				appendTrace(line, trace);
+			}
+		}
+		line.append(" query=\"").append(describe(statement)).append('"');
+		return line.toString();
+	}
+
+	private void appendTrace(StringBuilder line, QueryTrace trace) {
+		line.append(" trace=").append(trace.getTraceId());
+		List<QueryTrace.Event> events;
+		try {
+			events = trace.getEvents();
+		} catch (RuntimeException re) {
+			line.append(" events=unavailable");
+			return;
+		}
+		line.append(" coordinator=").append(trace.getCoordinator())
+				.append(" duration=").append(trace.getDurationMicros())
+				.append("us");
+		Set<String> replicas = new TreeSet<String>();
+		long tombstones = 0;
+		long live = 0;
+		Map<InetAddress, Integer> lastElapsed = Maps.newHashMap();
+		List<Object[]> steps = Lists.newArrayList();
+		for (QueryTrace.Event event : events) {
+			replicas.add(String.valueOf(event.getSource()));
+			String description = event.getDescription();
+			tombstones += sum(TOMBSTONES, description);
+			live += sum(LIVE, description);
+			Integer previous = lastElapsed.get(event.getSource());
+			int elapsed = event.getSourceElapsedMicros();
+			lastElapsed.put(event.getSource(), elapsed);
+			steps.add(new Object[] {
+					elapsed - (previous == null ? 0 : previous),
+					event.getSource() + " " + description });
+		}
+		Collections.sort(steps, new Comparator<Object[]>() {
+			@Override
+			public int compare(Object[] first, Object[] second) {
+				return ((Integer) second[0]).compareTo((Integer) first[0]);
+			}
+		});
+		line.append(" replicas=").append(replicas).append(" tombstones=")
+				.append(tombstones).append(" live=").append(live)
+				.append(" steps=[");
+		for (int i = 0; i < Math.min(STEPS, steps.size()); i++) {
+			if (i > 0) {
+				line.append("; ");
+			}
+			line.append(steps.get(i)[0]).append("us ")
+					.append(truncate((String) steps.get(i)[1], MAX_STEP_LENGTH));
+		}
+		line.append(']');
+	}
+
+	private static long sum(Pattern pattern, String description) {
+		long sum = 0;
+		if (description != null) {
+			Matcher matcher = pattern.matcher(description);
+			while (matcher.find()) {
+				sum += Long.parseLong(matcher.group(1));
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * @return CQL of the given statement, truncated.
+	 */
+	private static String describe(Statement statement) {
+		String query;
+		if (statement instanceof RegularStatement) {
+			query = ((RegularStatement) statement).getQueryString();
+		} else if (statement instanceof BoundStatement) {
+			query = ((BoundStatement) statement).preparedStatement()
+					.getQueryString();
+		} else if (statement instanceof BatchStatement) {
+			query = "BATCH of " + ((BatchStatement) statement).size();
+		} else {
+			query = statement.getClass().getSimpleName();
+		}
+		return truncate(query.replace('"', '\'').replace('\n', ' '),
+				MAX_QUERY_LENGTH);
+	}
+
+	private static String truncate(String text, int length) {
+		return text.length() <= length ? text : text.substring(0, length)
+				+ "...";
+	}
+
+	/**
+	 * Stops collecting the traces and closes the slow query log. Called when
+	 * the job is shut down.
+	 */
+	@Override
+	public void close() {
+		if (collector == null) {
+			return;
+		}
+		collector.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (writer != null) {
+						writer.close();
+					}
+				} catch (IOException ioe) {
+					LOG.error(ioe);
+				}
+			}
+		});
+		collector.shutdown();
+	}
+
+	/**
+	 * Appends the given line to the slow query log. Called by
+	 * {@link #collector}.
+	 */
+	private void write(String line) {
+		try {
+			if (writer == null) {
+				writer = new BufferedWriter(new OutputStreamWriter(
+						new FileOutputStream(logFile, true), Charsets.UTF_8));
+			}
+			writer.write(line);
+			writer.newLine();
+			writer.flush();
+		} catch (IOException ioe) {
+			LOG.error(ioe);
+			LOG.info("Unable to write the slow query log " + logFile
+					+ ". Summary: " + line);
+		}
+	}
+}
@@ -0,0 +1,475 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.connections;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SCHEMA_MODE;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SCHEMA_PREFIX;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SCHEMA_REPLICATION;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ColumnMetadata;
+import com.datastax.driver.core.KeyspaceMetadata;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TableMetadata;
+import com.datastax.driver.core.TableOptionsMetadata;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Creates and verifies the keyspace and the tables used by the persistence
+ * layer, with table options suited to its update heavy, read latest workload.
+ *
+ * <p>
+ * It runs when a {@link CassandraSessionManager} creates its connection, on
+ * every shard, as per {@code cassandra.schema.mode}:
+ * <ul>
+ * <li>off: nothing is done, the default.</li>
+ * <li>verify: a missing keyspace, table or column, and every option differing
+ * from the declared one, is reported as drift.</li>
+ * <li>create: as verify, but the missing keyspace, tables and columns are
+ * created with the declared options.</li>
+ * <li>enforce: as create, but the drifted table options are also altered to
+ * the declared ones. The replication of an existing keyspace is never
+ * altered, as it needs a repair.</li>
+ * </ul>
+ * </p>
+ *
+ * <p>
+ * The declared options of a table can be overridden by
+ * {@code cassandra.schema.<table>.<option>}, with the value as in CQL, e.g.
+ *
+ * <pre>
+ * cassandra.schema.mode=create
+ * cassandra.schema.replication={'class': 'NetworkTopologyStrategy', 'dc1': 3}
+ * cassandra.schema.model.compression={'sstable_compression': 'LZ4Compressor', 'chunk_length_kb': 4}
+ * cassandra.schema.model.gc_grace_seconds=86400
+ * </pre>
+ *
+ * The model table is leveled compacted, as its rows are updated again and
+ * again and every read wants the latest one, so that a read touches few
+ * sstables. Small compression chunks and a low bloom filter false positive
+ * chance keep the point reads cheap. The change tables only receive expiring
+ * inserts, so they are compacted by time window and a whole sstable is
+ * dropped once it expires.
+ * </p>
+ *
+ * <p>
+ * The partition key of an existing table is never altered, as the table has
+ * to be dropped and created again. A table having another partition key than
+ * the declared one is reported as drift and left as it is.
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class SchemaManager {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(SchemaManager.class);
+
+	/**
+	 * modes of the schema manager.
+	 */
+	public enum Mode {
+		OFF, VERIFY, CREATE, ENFORCE
+	}
+
+	private static final String DEFAULT_REPLICATION = "{'class': 'SimpleStrategy', 'replication_factor': 3}";
+
+	private static final String COMPACTION = "compaction";
+
+	private static final String COMPRESSION = "compression";
+
+	private static final String CACHING = "caching";
+
+	private static final String BLOOM_FILTER = "bloom_filter_fp_chance";
+
+	private static final String GC_GRACE = "gc_grace_seconds";
+
+	private static final Pattern MAP_ENTRY = Pattern
+			.compile("'([^']*)'\\s*:\\s*'?([^',}]*)'?");
+
+	/**
+	 * tables of the persistence layer.
+	 */
+	private static final List<Table> TABLES = Collections.unmodifiableList(Lists
+			.newArrayList(
+					new Table("model", "PRIMARY KEY (serialno)")
+							.column("serialno", "text")
+							.column("modelobj", "map<text, text>")
+							.column("modelblob", "blob")
+							.column("generation", "bigint")
+							.option(COMPACTION,
+									"{'class': 'LeveledCompactionStrategy', 'sstable_size_in_mb': 160}")
+							.option(COMPRESSION,
+									"{'sstable_compression': 'LZ4Compressor', 'chunk_length_kb': 16}")
+							.option(CACHING,
+									"{'keys': 'ALL', 'rows_per_partition': 'NONE'}")
+							.option(BLOOM_FILTER, "0.01")
+							.option(GC_GRACE, "864000"),
+					new Table("model_changes",
+							"PRIMARY KEY ((bucket, sub_bucket), serialno)")
+							.column("bucket", "bigint")
+							.column("sub_bucket", "int")
+							.column("serialno", "text")
+							.column("changed", "bigint")
+							.option(COMPACTION,
+									"{'class': 'TimeWindowCompactionStrategy', 'compaction_window_unit': 'HOURS', 'compaction_window_size': 6}")
+							.option(COMPRESSION,
+									"{'sstable_compression': 'LZ4Compressor', 'chunk_length_kb': 64}")
+							.option(CACHING,
+									"{'keys': 'ALL', 'rows_per_partition': 'NONE'}")
+							.option(BLOOM_FILTER, "0.01")
+							// only expiring inserts, nothing to be repaired.
+							.option(GC_GRACE, "3600"),
+					new Table("model_dictionary", "PRIMARY KEY (dictionary, id)")
+							.column("dictionary", "text")
+							.column("id", "int")
+							.column("name", "text")
+							.option(COMPACTION,
+									"{'class': 'LeveledCompactionStrategy'}")
+							.option(CACHING,
+									"{'keys': 'ALL', 'rows_per_partition': 'ALL'}")
+							.option(GC_GRACE, "864000"),
+					new Table("model_generation", "PRIMARY KEY (name)")
+							.column("name", "text")
+							.column("generation", "bigint")
+							.column("advanced", "bigint")
+							.option(CACHING,
+									"{'keys': 'ALL', 'rows_per_partition': 'ALL'}"),
+					new Table("model_feed",
+							"PRIMARY KEY ((bucket, sub_bucket), changed, serialno)")
+							.column("bucket", "bigint")
+							.column("sub_bucket", "int")
+							.column("changed", "bigint")
+							.column("serialno", "text")
+							.column("operation", "text")
+							.column("parameters", "map<text, text>")
+							.option(COMPACTION,
+									"{'class': 'TimeWindowCompactionStrategy', 'compaction_window_unit': 'HOURS', 'compaction_window_size': 1}")
+							.option(COMPRESSION,
+									"{'sstable_compression': 'LZ4Compressor', 'chunk_length_kb': 64}")
+							// only expiring inserts, nothing to be repaired.
+							.option(GC_GRACE, "3600")));
+
+	private final CassandraConfig config;
+
+	private final Cluster cluster;
+
+	private final String keyspace;
+
+	private final String shard;
+
+	private final Mode mode;
+
+	/**
+	 * @param config
+	 *            persistence config of the shard.
+	 * @param cluster
+	 *            of the shard.
+	 * @param keyspace
+	 *            of the shard.
+	 * @param shard
+	 *            name of the shard, for logging.
+	 */
+	public SchemaManager(CassandraConfig config, Cluster cluster,
+			String keyspace, String shard) {
+		this.config = config;
+		this.cluster = cluster;
+		this.keyspace = keyspace;
+		this.shard = shard;
+		this.mode = modeOf(config.getString(CASSANDRA_SCHEMA_MODE, "off"));
+	}
+
+	/**
+	 * Creates and verifies the schema as per the mode. Failures are logged and
+	 * never thrown, so that the job keeps running with the schema it has.
+	 *
+	 * @return drift found, empty if the schema is as declared.
+	 */
+	public List<String> apply() {
+		List<String> drift = Lists.newArrayList();
+		if (mode == Mode.OFF) {
+			return drift;
+		}
+		Session session = null;
+		try {
+			session = cluster.connect();
+			boolean create = mode == Mode.CREATE || mode == Mode.ENFORCE;
+			KeyspaceMetadata keyspaceMeta = cluster.getMetadata().getKeyspace(
+					keyspace);
+			if (keyspaceMeta == null && create) {
+				String replication = config.getString(
+						CASSANDRA_SCHEMA_REPLICATION, DEFAULT_REPLICATION);
+				LOG.info("Creating the keyspace " + keyspace + " on shard "
+						+ shard + " with replication " + replication);
+				session.execute("CREATE KEYSPACE IF NOT EXISTS " + keyspace
+						+ " WITH replication = " + replication);
+				keyspaceMeta = cluster.getMetadata().getKeyspace(keyspace);
+			}
+			if (keyspaceMeta == null) {
+				drift.add("keyspace " + keyspace + " does not exist");
+			} else {
+				verifyReplication(keyspaceMeta, drift);
+				for (Table table : TABLES) {
+					applyTable(session, keyspaceMeta, table, create, drift);
+				}
+			}
+		} catch (RuntimeException re) {
+			LOG.error(re);
+			LOG.info("Unable to " + mode.name().toLowerCase()
+					+ " the schema of shard " + shard
+					+ ". So, running with the schema as it is.");
+			drift.add("schema could not be verified: " + re.getMessage());
+		} finally {
+			if (session != null) {
+				session.closeAsync();
+			}
+		}
+		for (String difference : drift) {
+			LOG.error("Schema drift on shard " + shard + ": " + difference);
+		}
+		if (drift.isEmpty()) {
+			LOG.info("Schema of keyspace " + keyspace + " on shard " + shard
+					+ " is as declared.");
+		}
+		return drift;
+	}
+
+	private void verifyReplication(KeyspaceMetadata keyspaceMeta,
+			List<String> drift) {
+		if (!config.contains(CASSANDRA_SCHEMA_REPLICATION)) {
+			return;
+		}
+		String declared = config.getString(CASSANDRA_SCHEMA_REPLICATION,
+				DEFAULT_REPLICATION);
+		if (!matches(parseMap(declared), keyspaceMeta.getReplication())) {
+			drift.add("keyspace " + keyspace + " has replication "
+					+ keyspaceMeta.getReplication() + ", declared "
+					+ declared);
+		}
+	}
+
+	private void applyTable(Session session, KeyspaceMetadata keyspaceMeta,
+			Table table, boolean create, List<String> drift) {
+		Map<String, String> declared = declaredOptions(table);
+		TableMetadata tableMeta = keyspaceMeta.getTable(table.name);
+		if (tableMeta == null) {
+			if (!create) {
+				drift.add("table " + table.name + " does not exist");
+				return;
+			}
+			LOG.info("Creating the table " + table.name + " on shard "
+					+ shard);
+			session.execute(table.createQuery(keyspace, declared));
+			return;
+		}
+		List<String> partitionKey = Lists.newArrayList();
+		for (ColumnMetadata column : tableMeta.getPartitionKey()) {
+			partitionKey.add(column.getName());
+		}
+		if (!partitionKey.equals(table.partitionKey())) {
+			drift.add("table " + table.name + " has partition key "
+					+ partitionKey + ", declared " + table.partitionKey()
+					+ ". It has to be dropped and created again");
+			return;
+		}
+		for (Map.Entry<String, String> column : table.columns.entrySet()) {
+			if (tableMeta.getColumn(column.getKey()) != null) {
+				continue;
+			}
+			if (create) {
+				LOG.info("Adding the column " + column.getKey() + " to table "
+						+ table.name + " on shard " + shard);
+				session.execute("ALTER TABLE " + keyspace + "." + table.name
+						+ " ADD " + column.getKey() + " " + column.getValue());
+			} else {
+				drift.add("table " + table.name + " has no column "
+						+ column.getKey());
+			}
+		}
+		Map<String, String> drifted = Maps.newLinkedHashMap();
+		for (Map.Entry<String, String> option : declared.entrySet()) {
+			Object actual = actualOption(tableMeta.getOptions(), option.getKey());
+			if (matches(option.getValue(), actual)) {
+				continue;
+			}
+			drifted.put(option.getKey(), option.getValue());
+			if (mode == Mode.ENFORCE) {
+				LOG.info("Altering " + option.getKey() + " of table "
+						+ table.name + " on shard " + shard + " from "
+						+ actual + " to " + option.getValue());
+			} else {
+				drift.add("table " + table.name + " has " + option.getKey()
+						+ " " + actual + ", declared " + option.getValue());
+			}
+		}
+		if (mode == Mode.ENFORCE && !drifted.isEmpty()) {
+			session.execute("ALTER TABLE " + keyspace + "." + table.name
+					+ withClause(drifted));
+		}
+	}
+
+	/**
+	 * @return the declared options of the table, overridden by the config.
+	 */
+	private Map<String, String> declaredOptions(Table table) {
+		Map<String, String> declared = Maps.newLinkedHashMap();
+		for (Map.Entry<String, String> option : table.options.entrySet()) {
+			declared.put(option.getKey(), config.getString(CASSANDRA_SCHEMA_PREFIX
+					+ table.name + "." + option.getKey(), option.getValue()));
+		}
+		return declared;
+	}
+
+	private static Object actualOption(TableOptionsMetadata options,
+			String option) {
+		if (COMPACTION.equals(option)) {
+			return options.getCompaction();
+		} else if (COMPRESSION.equals(option)) {
+			return options.getCompression();
+		} else if (CACHING.equals(option)) {
+			// a map from Cassandra 2.1, a string before.
+			return options.getCaching();
+		} else if (BLOOM_FILTER.equals(option)) {
+			return options.getBloomFilterFalsePositiveChance();
+		} else {
+			return options.getGcGraceInSeconds();
+		}
+	}
+
+	/**
+	 * @return true if the declared CQL value matches the actual one. Only the
+	 *         declared entries of a map are compared, the class names by
+	 *         their simple name.
+	 */
+	@SuppressWarnings("unchecked")
+	private static boolean matches(String declared, Object actual) {
+		if (actual instanceof Map) {
+			return matches(parseMap(declared), (Map<String, String>) actual);
+		}
+		return matchesValue(declared.replace("'", "").trim(),
+				String.valueOf(actual));
+	}
+
+	private static boolean matches(Map<String, String> declared,
+			Map<String, String> actual) {
+		for (Map.Entry<String, String> entry : declared.entrySet()) {
+			String value = actual.get(entry.getKey());
+			if (value == null || !matchesValue(entry.getValue(), value)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean matchesValue(String declared, String actual) {
+		if (declared.equalsIgnoreCase(actual)
+				|| actual.endsWith("." + declared)) {
+			return true;
+		}
+		try {
+			return Math.abs(Double.parseDouble(declared)
+					- Double.parseDouble(actual)) < 1e-9;
+		} catch (NumberFormatException nfe) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return entries of the given CQL map literal, e.g.
+	 *         {@code {'class': 'SimpleStrategy', 'replication_factor': 3}}
+	 */
+	static Map<String, String> parseMap(String literal) {
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		Matcher matcher = MAP_ENTRY.matcher(literal);
+		while (matcher.find()) {
+			entries.put(matcher.group(1), matcher.group(2).trim());
+		}
+		return entries;
+	}
+
+	private static String withClause(Map<String, String> options) {
+		StringBuilder with = new StringBuilder();
+		for (Map.Entry<String, String> option : options.entrySet()) {
+			with.append(with.length() == 0 ? " WITH " : " AND ")
+					.append(option.getKey()).append(" = ")
+					.append(option.getValue());
+		}
+		return with.toString();
+	}
+
+	private static Mode modeOf(String mode) {
+		try {
+			return Mode.valueOf(mode.trim().toUpperCase());
+		} catch (IllegalArgumentException iae) {
+			LOG.info("Invalid schema mode " + mode + ". So, using off");
+			return Mode.OFF;
+		}
+	}
+
+	/**
+	 * Declared table.
+	 */
+	private static final class Table {
+
+		private final String name;
+
+		private final String primaryKey;
+
+		private final Map<String, String> columns = Maps.newLinkedHashMap();
+
+		private final Map<String, String> options = Maps.newLinkedHashMap();
+
+		Table(String name, String primaryKey) {
+			this.name = name;
+			this.primaryKey = primaryKey;
+		}
+
+		Table column(String column, String type) {
+			columns.put(column, type);
+			return this;
+		}
+
+		Table option(String option, String value) {
+			options.put(option, value);
+			return this;
+		}
+
+		/**
+		 * @return columns of the partition key, the first component of the
+		 *         primary key.
+		 */
+		List<String> partitionKey() {
+			String components = primaryKey.substring(
+					primaryKey.indexOf('(') + 1).trim();
+			String key = components.startsWith("(") ? components.substring(1,
+					components.indexOf(')')) : components.split("[,)]")[0];
+			List<String> columns = Lists.newArrayList();
+			for (String column : key.split(",")) {
+				columns.add(column.trim());
+			}
+			return columns;
+		}
+
+		String createQuery(String keyspace, Map<String, String> declared) {
+			StringBuilder query = new StringBuilder("CREATE TABLE IF NOT EXISTS ")
+					.append(keyspace).append(".").append(name).append(" (");
+			for (Map.Entry<String, String> column : columns.entrySet()) {
+				query.append(column.getKey()).append(" ")
+						.append(column.getValue()).append(", ");
+			}
+			return query.append(primaryKey).append(")")
+					.append(withClause(declared)).toString();
+		}
+	}
+}
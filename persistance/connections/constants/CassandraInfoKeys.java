@@ -26,4 +26,465 @@ public final class CassandraInfoKeys {
 	 * ssl key.
 	 */
 	public static final String CASSANDRA_SSL = "cassandra.ssl";
+	/**
+	 * percentile of the latency distribution on which timeouts are based.
+	 */
+	public static final String CASSANDRA_TIMEOUT_PERCENTILE = "cassandra.timeout.percentile";
+	/**
+	 * factor applied on the latency percentile to derive timeout.
+	 */
+	public static final String CASSANDRA_TIMEOUT_FACTOR = "cassandra.timeout.factor";
+	/**
+	 * minimum timeout in milliseconds key.
+	 */
+	public static final String CASSANDRA_TIMEOUT_FLOOR = "cassandra.timeout.floor.ms";
+	/**
+	 * maximum timeout in milliseconds key.
+	 */
+	public static final String CASSANDRA_TIMEOUT_CEILING = "cassandra.timeout.ceiling.ms";
+	/**
+	 * timeout in milliseconds used till enough latencies are recorded.
+	 */
+	public static final String CASSANDRA_TIMEOUT_INITIAL = "cassandra.timeout.initial.ms";
+	/**
+	 * no. of latest latencies retained per operation key.
+	 */
+	public static final String CASSANDRA_TIMEOUT_WINDOW = "cassandra.timeout.window";
+	/**
+	 * Prefix of the execution profile keys. A profile named {@code write} is
+	 * configured through keys like {@code cassandra.profile.write.consistency}
+	 */
+	public static final String CASSANDRA_PROFILE_PREFIX = "cassandra.profile.";
+	/**
+	 * consistency level of the profile, suffixed to the profile prefix.
+	 */
+	public static final String CASSANDRA_PROFILE_CONSISTENCY = ".consistency";
+	/**
+	 * serial consistency level of the profile, suffixed to the profile prefix.
+	 */
+	public static final String CASSANDRA_PROFILE_SERIAL_CONSISTENCY = ".serial.consistency";
+	/**
+	 * read timeout in milliseconds of the profile, suffixed to the profile
+	 * prefix.
+	 */
+	public static final String CASSANDRA_PROFILE_READ_TIMEOUT = ".read.timeout.ms";
+	/**
+	 * fetch size of the profile, suffixed to the profile prefix.
+	 */
+	public static final String CASSANDRA_PROFILE_FETCH_SIZE = ".fetch.size";
+	/**
+	 * retry policy of the profile (default, downgrading, fallthrough
+	 * optionally prefixed with logging-), suffixed to the profile prefix.
+	 */
+	public static final String CASSANDRA_PROFILE_RETRY = ".retry";
+	/**
+	 * idempotence of the profile, suffixed to the profile prefix.
+	 */
+	public static final String CASSANDRA_PROFILE_IDEMPOTENT = ".idempotent";
+	/**
+	 * Prefix of the key which maps an operation to its profile, e.g.
+	 * {@code cassandra.operation.point_read.profile=read}
+	 */
+	public static final String CASSANDRA_OPERATION_PREFIX = "cassandra.operation.";
+	/**
+	 * profile of the operation, suffixed to the operation prefix.
+	 */
+	public static final String CASSANDRA_OPERATION_PROFILE = ".profile";
+	/**
+	 * load balancing policy key, either roundrobin or dcaware.
+	 */
+	public static final String CASSANDRA_LB_POLICY = "cassandra.lb.policy";
+	/**
+	 * local datacenter of the dcaware load balancing policy key.
+	 */
+	public static final String CASSANDRA_LB_LOCAL_DC = "cassandra.lb.localdc";
+	/**
+	 * no. of hosts per remote datacenter used by the dcaware policy key.
+	 */
+	public static final String CASSANDRA_LB_REMOTE_HOSTS = "cassandra.lb.remote.hosts";
+	/**
+	 * allow remote hosts for LOCAL_* consistency levels key.
+	 */
+	public static final String CASSANDRA_LB_REMOTE_FOR_LOCAL = "cassandra.lb.remote.local.consistency";
+	/**
+	 * token aware routing key.
+	 */
+	public static final String CASSANDRA_LB_TOKEN_AWARE = "cassandra.lb.tokenaware";
+	/**
+	 * latency aware exclusion of slow hosts key.
+	 */
+	public static final String CASSANDRA_LB_LATENCY_AWARE = "cassandra.lb.latencyaware";
+	/**
+	 * how many times slower than the fastest host a host gets excluded.
+	 */
+	public static final String CASSANDRA_LB_EXCLUSION_THRESHOLD = "cassandra.lb.latencyaware.exclusion.threshold";
+	/**
+	 * scale in milliseconds of the latency average key.
+	 */
+	public static final String CASSANDRA_LB_LATENCY_SCALE = "cassandra.lb.latencyaware.scale.ms";
+	/**
+	 * time in milliseconds a slow host stays excluded key.
+	 */
+	public static final String CASSANDRA_LB_RETRY_PERIOD = "cassandra.lb.latencyaware.retry.period.ms";
+	/**
+	 * interval in milliseconds of the minimum latency re-computation key.
+	 */
+	public static final String CASSANDRA_LB_UPDATE_RATE = "cassandra.lb.latencyaware.update.rate.ms";
+	/**
+	 * min. no. of measurements before a host is considered key.
+	 */
+	public static final String CASSANDRA_LB_MIN_MEASUREMENTS = "cassandra.lb.latencyaware.min.measurements";
+	/**
+	 * reconnection policy key, either exponential or constant.
+	 */
+	public static final String CASSANDRA_RECONNECTION_POLICY = "cassandra.reconnection.policy";
+	/**
+	 * base (or constant) reconnection delay in milliseconds key.
+	 */
+	public static final String CASSANDRA_RECONNECTION_BASE = "cassandra.reconnection.base.ms";
+	/**
+	 * max. reconnection delay in milliseconds key.
+	 */
+	public static final String CASSANDRA_RECONNECTION_MAX = "cassandra.reconnection.max.ms";
+	/**
+	 * cluster wide retry policy key, (default, downgrading, fallthrough
+	 * optionally prefixed with logging-)
+	 */
+	public static final String CASSANDRA_RETRY_POLICY = "cassandra.retry.policy";
+	/**
+	 * expected no. of hosts used to size the pools, defaults to the node
+	 * count.
+	 */
+	public static final String CASSANDRA_TUNING_HOSTS = "cassandra.tuning.hosts";
+	/**
+	 * expected no. of concurrent requests of the job key.
+	 */
+	public static final String CASSANDRA_TUNING_CONCURRENCY = "cassandra.tuning.concurrency";
+	/**
+	 * core connections per local host key, overrides the computed value.
+	 */
+	public static final String CASSANDRA_POOL_CORE_LOCAL = "cassandra.pool.local.core";
+	/**
+	 * max connections per local host key, overrides the computed value.
+	 */
+	public static final String CASSANDRA_POOL_MAX_LOCAL = "cassandra.pool.local.max";
+	/**
+	 * core connections per remote host key, overrides the computed value.
+	 */
+	public static final String CASSANDRA_POOL_CORE_REMOTE = "cassandra.pool.remote.core";
+	/**
+	 * max connections per remote host key, overrides the computed value.
+	 */
+	public static final String CASSANDRA_POOL_MAX_REMOTE = "cassandra.pool.remote.max";
+	/**
+	 * max simultaneous requests per connection key, 1024 by default.
+	 */
+	public static final String CASSANDRA_POOL_MAX_REQUESTS = "cassandra.pool.max.requests.per.connection";
+	/**
+	 * frame compression key, one of auto, none, lz4 or snappy. auto needs the
+	 * expected payload key.
+	 */
+	public static final String CASSANDRA_COMPRESSION = "cassandra.compression";
+	/**
+	 * payload size in bytes above which auto compression is enabled key.
+	 */
+	public static final String CASSANDRA_COMPRESSION_THRESHOLD = "cassandra.compression.threshold.bytes";
+	/**
+	 * expected size in bytes of a device model on the wire key, required by
+	 * auto compression.
+	 */
+	public static final String CASSANDRA_TUNING_PAYLOAD = "cassandra.tuning.payload.bytes";
+	/**
+	 * TCP no delay key.
+	 */
+	public static final String CASSANDRA_SOCKET_TCP_NO_DELAY = "cassandra.socket.tcpnodelay";
+	/**
+	 * TCP keep alive key.
+	 */
+	public static final String CASSANDRA_SOCKET_KEEP_ALIVE = "cassandra.socket.keepalive";
+	/**
+	 * socket read timeout in milliseconds key.
+	 */
+	public static final String CASSANDRA_SOCKET_READ_TIMEOUT = "cassandra.socket.read.timeout.ms";
+	/**
+	 * socket connect timeout in milliseconds key.
+	 */
+	public static final String CASSANDRA_SOCKET_CONNECT_TIMEOUT = "cassandra.socket.connect.timeout.ms";
+	/**
+	 * comma separated names of the shards key. Each shard is configured with
+	 * the usual keys prefixed by {@link #CASSANDRA_SHARD_PREFIX} and its name,
+	 * e.g. {@code cassandra.shard.east.cassandra.keyspace}
+	 */
+	public static final String CASSANDRA_SHARDS = "cassandra.shards";
+	/**
+	 * Prefix of the shard specific keys.
+	 */
+	public static final String CASSANDRA_SHARD_PREFIX = "cassandra.shard.";
+	/**
+	 * no. of virtual nodes per shard on the consistent hash ring key.
+	 */
+	public static final String CASSANDRA_SHARD_VNODES = "cassandra.shard.vnodes";
+	/**
+	 * Prefix of the per job throughput governor keys, followed by read, write
+	 * or scan and {@link #CASSANDRA_GOVERNOR_RATE} or
+	 * {@link #CASSANDRA_GOVERNOR_BURST}, e.g.
+	 * {@code cassandra.governor.write.rate}
+	 */
+	public static final String CASSANDRA_GOVERNOR_PREFIX = "cassandra.governor.";
+	/**
+	 * Prefix of the cluster wide throughput governor keys, e.g.
+	 * {@code cassandra.governor.cluster.write.rate}
+	 */
+	public static final String CASSANDRA_GOVERNOR_CLUSTER_PREFIX = "cassandra.governor.cluster.";
+	/**
+	 * operations per second, suffixed to the governor prefix and traffic.
+	 */
+	public static final String CASSANDRA_GOVERNOR_RATE = ".rate";
+	/**
+	 * max. operations allowed in a burst, suffixed to the governor prefix and
+	 * traffic.
+	 */
+	public static final String CASSANDRA_GOVERNOR_BURST = ".burst";
+	/**
+	 * no. of load tool processes sharing the cluster wide budget key.
+	 */
+	public static final String CASSANDRA_GOVERNOR_CLUSTER_CLIENTS = "cassandra.governor.cluster.clients";
+	/**
+	 * true to enable the circuit breaker per shard key.
+	 */
+	public static final String CASSANDRA_BREAKER_ENABLED = "cassandra.breaker.enabled";
+	/**
+	 * no. of latest executions on which the circuit breaker decides key.
+	 */
+	public static final String CASSANDRA_BREAKER_WINDOW = "cassandra.breaker.window";
+	/**
+	 * min. no. of executions in the window before the circuit breaker opens
+	 * key.
+	 */
+	public static final String CASSANDRA_BREAKER_MIN_CALLS = "cassandra.breaker.min.calls";
+	/**
+	 * percentage of failed executions which opens the circuit breaker key.
+	 */
+	public static final String CASSANDRA_BREAKER_FAILURE_RATE = "cassandra.breaker.failure.rate";
+	/**
+	 * latency above which an execution is counted as slow key.
+	 */
+	public static final String CASSANDRA_BREAKER_SLOW_CALL = "cassandra.breaker.slow.call.ms";
+	/**
+	 * percentage of slow executions which opens the circuit breaker key.
+	 */
+	public static final String CASSANDRA_BREAKER_SLOW_CALL_RATE = "cassandra.breaker.slow.call.rate";
+	/**
+	 * time for which the circuit breaker stays open before probing key.
+	 */
+	public static final String CASSANDRA_BREAKER_OPEN = "cassandra.breaker.open.ms";
+	/**
+	 * no. of successful probes which close the circuit breaker key.
+	 */
+	public static final String CASSANDRA_BREAKER_PROBES = "cassandra.breaker.probes";
+	/**
+	 * true to persist the writes in background, see write-behind mode of
+	 * DevicePersistence, key.
+	 */
+	public static final String CASSANDRA_WRITEBEHIND_ENABLED = "cassandra.writebehind.enabled";
+	/**
+	 * no. of background writers key.
+	 */
+	public static final String CASSANDRA_WRITEBEHIND_WORKERS = "cassandra.writebehind.workers";
+	/**
+	 * max. no. of pending writes key.
+	 */
+	public static final String CASSANDRA_WRITEBEHIND_QUEUE_SIZE = "cassandra.writebehind.queue.size";
+	/**
+	 * max. no. of writes flushed together key.
+	 */
+	public static final String CASSANDRA_WRITEBEHIND_BATCH_SIZE = "cassandra.writebehind.batch.size";
+	/**
+	 * max. time a write waits for its batch to fill key.
+	 */
+	public static final String CASSANDRA_WRITEBEHIND_FLUSH_INTERVAL = "cassandra.writebehind.flush.interval.ms";
+	/**
+	 * what to do when the pending writes are full, block or fail, key.
+	 */
+	public static final String CASSANDRA_WRITEBEHIND_QUEUE_FULL = "cassandra.writebehind.queue.full";
+	/**
+	 * max. time to block when the pending writes are full, 0 for no limit,
+	 * key.
+	 */
+	public static final String CASSANDRA_WRITEBEHIND_QUEUE_FULL_TIMEOUT = "cassandra.writebehind.queue.full.timeout.ms";
+	/**
+	 * true to record every changed serialno in model_changes table key.
+	 */
+	public static final String CASSANDRA_CHANGES_ENABLED = "cassandra.changes.enabled";
+	/**
+	 * time span of a partition of model_changes table key.
+	 */
+	public static final String CASSANDRA_CHANGES_BUCKET = "cassandra.changes.bucket.ms";
+	/**
+	 * seconds for which the changes are kept in model_changes table key.
+	 */
+	public static final String CASSANDRA_CHANGES_TTL = "cassandra.changes.ttl";
+	/**
+	 * max. clock difference between the load tool hosts, subtracted from the
+	 * snapshot generation while reconciling key.
+	 */
+	public static final String CASSANDRA_SNAPSHOT_CLOCK_SKEW = "cassandra.snapshot.clock.skew.ms";
+	/**
+	 * storage format of the models written, map (modelobj column) or blob
+	 * (dictionary encoded modelblob column), key.
+	 */
+	public static final String CASSANDRA_MODEL_FORMAT = "cassandra.model.format";
+	/**
+	 * compression of the blob format, lz4 or none, key.
+	 */
+	public static final String CASSANDRA_MODEL_COMPRESSION = "cassandra.model.compression";
+	/**
+	 * shard holding the parameter name dictionary of the blob format key.
+	 */
+	public static final String CASSANDRA_DICTIONARY_SHARD = "cassandra.dictionary.shard";
+	/**
+	 * what the schema manager does on initialization of a session manager,
+	 * off, verify, create or enforce, key.
+	 */
+	public static final String CASSANDRA_SCHEMA_MODE = "cassandra.schema.mode";
+	/**
+	 * replication of the keyspace created by the schema manager key.
+	 */
+	public static final String CASSANDRA_SCHEMA_REPLICATION = "cassandra.schema.replication";
+	/**
+	 * prefix of the declared table options of the schema manager, followed by
+	 * {@code <table>.<option>}, e.g. cassandra.schema.model.gc_grace_seconds.
+	 */
+	public static final String CASSANDRA_SCHEMA_PREFIX = "cassandra.schema.";
+	/**
+	 * how a device model is reset, delete or generation (overwrites the
+	 * generation of the model instead of deleting it), key.
+	 */
+	public static final String CASSANDRA_RESET_MODE = "cassandra.reset.mode";
+	/**
+	 * interval at which the current model generation is reloaded key.
+	 */
+	public static final String CASSANDRA_RESET_GENERATION_REFRESH = "cassandra.reset.generation.refresh.ms";
+	/**
+	 * true to keep an index of the serialno's having a model, which answers
+	 * the existence checks of unknown devices without a query, key.
+	 */
+	public static final String CASSANDRA_SERIALINDEX_ENABLED = "cassandra.serialindex.enabled";
+	/**
+	 * max. no. of serialno's kept in an exact set before using a Bloom filter
+	 * key.
+	 */
+	public static final String CASSANDRA_SERIALINDEX_EXACT_MAX = "cassandra.serialindex.exact.max";
+	/**
+	 * false positive chance of the Bloom filter of serialno's key.
+	 */
+	public static final String CASSANDRA_SERIALINDEX_FPP = "cassandra.serialindex.fpp";
+	/**
+	 * true to admit the operations through the priority lanes of
+	 * LaneScheduler key.
+	 */
+	public static final String CASSANDRA_LANES_ENABLED = "cassandra.lanes.enabled";
+	/**
+	 * max. no. of operations in flight over all the lanes key.
+	 */
+	public static final String CASSANDRA_LANES_MAX_INFLIGHT = "cassandra.lanes.max.inflight";
+	/**
+	 * prefix of the lane settings, followed by {@code <lane>.share}, e.g.
+	 * cassandra.lanes.background.share.
+	 */
+	public static final String CASSANDRA_LANES_PREFIX = "cassandra.lanes.";
+	/**
+	 * no. of threads starting the ordered writes of a device which waited for
+	 * an earlier one key.
+	 */
+	public static final String CASSANDRA_ORDERED_THREADS = "cassandra.ordered.threads";
+	/**
+	 * true to publish the persisted changes in ChangeFeed key.
+	 */
+	public static final String CASSANDRA_FEED_ENABLED = "cassandra.feed.enabled";
+	/**
+	 * no. of changes buffered per subscriber of ChangeFeed key.
+	 */
+	public static final String CASSANDRA_FEED_BUFFER = "cassandra.feed.buffer";
+	/**
+	 * true to write the published changes to model_feed table key.
+	 */
+	public static final String CASSANDRA_FEED_PERSIST = "cassandra.feed.persist";
+	/**
+	 * milli seconds of changes per bucket of model_feed table key.
+	 */
+	public static final String CASSANDRA_FEED_BUCKET = "cassandra.feed.bucket.ms";
+	/**
+	 * seconds after which the changes in model_feed table expire key.
+	 */
+	public static final String CASSANDRA_FEED_TTL = "cassandra.feed.ttl";
+	/**
+	 * true to skip the writes storing the same model as the last write of the
+	 * device key.
+	 */
+	public static final String CASSANDRA_SUPPRESS_ENABLED = "cassandra.suppress.enabled";
+	/**
+	 * max. no. of devices whose last write is tracked for the suppression
+	 * key.
+	 */
+	public static final String CASSANDRA_SUPPRESS_MAX_DEVICES = "cassandra.suppress.max.devices";
+	/**
+	 * max. no. of sessions held at once by the session manager of a job key.
+	 */
+	public static final String CASSANDRA_JOB_MAX_SESSIONS = "cassandra.job.max.sessions";
+	/**
+	 * no. of threads replaying the fault backlog on shut down key.
+	 */
+	public static final String CASSANDRA_SHUTDOWN_REPLAY_THREADS = "cassandra.shutdown.replay.threads";
+	/**
+	 * max. queries per second replayed from the fault backlog on shut down
+	 * key.
+	 */
+	public static final String CASSANDRA_SHUTDOWN_REPLAY_RATE = "cassandra.shutdown.replay.rate";
+	/**
+	 * file to which the fault backlog not replayed on shut down is written
+	 * key.
+	 */
+	public static final String CASSANDRA_SHUTDOWN_SPILL_FILE = "cassandra.shutdown.spill.file";
+	/**
+	 * true to trace the sampled operations and log the slow ones key.
+	 */
+	public static final String CASSANDRA_TRACE_ENABLED = "cassandra.trace.enabled";
+	/**
+	 * fraction of the operations executed with server tracing key.
+	 */
+	public static final String CASSANDRA_TRACE_SAMPLE_RATE = "cassandra.trace.sample.rate";
+	/**
+	 * latency in milliseconds above which an operation is logged as slow key.
+	 */
+	public static final String CASSANDRA_TRACE_THRESHOLD = "cassandra.trace.threshold.ms";
+	/**
+	 * no. of operations traced after a slow one which was not traced key.
+	 */
+	public static final String CASSANDRA_TRACE_BOOST = "cassandra.trace.boost";
+	/**
+	 * file of the slow query log key.
+	 */
+	public static final String CASSANDRA_TRACE_LOG = "cassandra.trace.log";
+	/**
+	 * true to monitor the traffic and health of every host key.
+	 */
+	public static final String CASSANDRA_HOSTS_MONITOR_ENABLED = "cassandra.hosts.monitor.enabled";
+	/**
+	 * interval in seconds of the summaries of the hosts key.
+	 */
+	public static final String CASSANDRA_HOSTS_SUMMARY_INTERVAL = "cassandra.hosts.summary.interval.s";
+	/**
+	 * max. time in seconds to drain and replay the writes of a job when its
+	 * session manager is shut down key.
+	 */
+	public static final String CASSANDRA_SHUTDOWN_TIMEOUT = "cassandra.shutdown.timeout.s";
+	/**
+	 * no. of sub-buckets a bucket of model_changes table is split in key.
+	 */
+	public static final String CASSANDRA_CHANGES_SUB_BUCKETS = "cassandra.changes.sub.buckets";
+	/**
+	 * no. of sub-buckets a bucket of model_feed table is split in key.
+	 */
+	public static final String CASSANDRA_FEED_SUB_BUCKETS = "cassandra.feed.sub.buckets";
 }
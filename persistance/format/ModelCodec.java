@@ -0,0 +1,346 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.format;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+import com.google.common.collect.Maps;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * Encodes a device model to the blob format and back.
+ *
+ * <p>
+ * A blob starts with a magic byte, the format version and codec, and the
+ * length of the encoded model. The encoded model, compressed with LZ4 if
+ * enabled, is the no. of parameters followed by every parameter as below.
+ * Every no. is a variable length integer.
+ *
+ * <pre>
+ * name:  id + 1 from {@link ModelDictionary}, or 0 followed by the name
+ * value: tag, followed by the length and UTF-8 bytes for a string or the
+ *        zig-zag encoded no. for an integer
+ * </pre>
+ *
+ * Integer values and booleans, which are most of the TR-069 values, take only
+ * a byte or two.
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class ModelCodec {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static final byte MAGIC = 0x4d;
+
+	static final int VERSION = 1;
+
+	static final int CODEC_NONE = 0;
+
+	static final int CODEC_LZ4 = 1;
+
+	private static final int TAG_NULL = 0;
+
+	private static final int TAG_STRING = 1;
+
+	private static final int TAG_INTEGER = 2;
+
+	private static final int TAG_TRUE = 3;
+
+	private static final int TAG_FALSE = 4;
+
+	private final ModelDictionary dictionary;
+
+	private final boolean compress;
+
+	/**
+	 * @param dictionary
+	 *            of the parameter names.
+	 * @param compress
+	 *            true to compress the blobs with LZ4.
+	 */
+	public ModelCodec(ModelDictionary dictionary, boolean compress) {
+		this.dictionary = dictionary;
+		this.compress = compress && isLz4Available();
+	}
+
+	/**
+	 * @return dictionary of the parameter names.
+	 */
+	public ModelDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * @return true if the blobs are compressed.
+	 */
+	public boolean isCompressed() {
+		return compress;
+	}
+
+	/**
+	 * Encodes the given model.
+	 *
+	 * @param model
+	 *            parameter values by name.
+	 * @return blob of the model.
+	 */
+	public byte[] encode(Map<String, String> model) {
+		Buffer out = new Buffer(64 + model.size() * 16);
+		out.writeVarint(model.size());
+		for (Map.Entry<String, String> parameter : model.entrySet()) {
+			int id = dictionary.idOf(parameter.getKey());
+			out.writeVarint(id + 1);
+			if (id < 0) {
+				out.writeString(parameter.getKey());
+			}
+			writeValue(out, parameter.getValue());
+		}
+		Buffer blob = new Buffer(out.length + 8);
+		blob.writeByte(MAGIC);
+		blob.writeByte(VERSION << 4 | (compress ? CODEC_LZ4 : CODEC_NONE));
+		blob.writeVarint(out.length);
+		if (compress) {
+			blob.ensure(Lz4.maxCompressedLength(out.length));
+			blob.length += Lz4.compress(out.bytes, out.length, blob.bytes,
+					blob.length);
+		} else {
+			blob.writeBytes(out.bytes, 0, out.length);
+		}
+		return Arrays.copyOf(blob.bytes, blob.length);
+	}
+
+	/**
+	 * Decodes the given blob.
+	 *
+	 * @param blob
+	 *            of the model.
+	 * @return parameter values by name.
+	 * @throws CassandraException
+	 *             if the blob is not valid or has an unknown parameter id.
+	 */
+	public Map<String, String> decode(ByteBuffer blob) throws CassandraException {
+		byte[] bytes = new byte[blob.remaining()];
+		blob.duplicate().get(bytes);
+		try {
+			ByteBuffer in = ByteBuffer.wrap(bytes);
+			if (in.get() != MAGIC) {
+				throw new CassandraException("Not a model blob", null);
+			}
+			int header = in.get() & 0xff;
+			if (header >> 4 != VERSION) {
+				throw new CassandraException("Unsupported model blob version "
+						+ (header >> 4), null);
+			}
+			int length = readVarint(in);
+			if ((header & 0x0f) == CODEC_LZ4) {
+				byte[] raw = new byte[length];
+				Lz4.decompress(bytes, in.position(), raw, length);
+				in = ByteBuffer.wrap(raw);
+			}
+			int size = readVarint(in);
+			Map<String, String> model = Maps.newHashMapWithExpectedSize(size);
+			for (int i = 0; i < size; i++) {
+				int id = readVarint(in) - 1;
+				String name = id < 0 ? readString(in) : dictionary.nameOf(id);
+				model.put(name, readValue(in));
+			}
+			return model;
+		} catch (RuntimeException re) {
+			throw new CassandraException("Model blob is corrupted", re);
+		}
+	}
+
+	private static void writeValue(Buffer out, String value) {
+		if (value == null) {
+			out.writeByte(TAG_NULL);
+		} else if ("true".equals(value)) {
+			out.writeByte(TAG_TRUE);
+		} else if ("false".equals(value)) {
+			out.writeByte(TAG_FALSE);
+		} else if (isCanonicalLong(value)) {
+			long number = Long.parseLong(value);
+			out.writeByte(TAG_INTEGER);
+			out.writeVarlong((number << 1) ^ (number >> 63));
+		} else {
+			out.writeByte(TAG_STRING);
+			out.writeString(value);
+		}
+	}
+
+	/**
+	 * @return true if lz4-java is in the class path.
+	 */
+	static boolean isLz4Available() {
+		try {
+			Class.forName("net.jpountz.lz4.LZ4Factory");
+			return true;
+		} catch (ClassNotFoundException cnfe) {
+			return false;
+		}
+	}
+
+	private static String readValue(ByteBuffer in) throws CassandraException {
+		int tag = in.get();
+		switch (tag) {
+		case TAG_NULL:
+			return null;
+		case TAG_TRUE:
+			return "true";
+		case TAG_FALSE:
+			return "false";
+		case TAG_INTEGER:
+			long zigzag = readVarlong(in);
+			return Long.toString((zigzag >>> 1) ^ -(zigzag & 1));
+		case TAG_STRING:
+			return readString(in);
+		default:
+			throw new CassandraException("Unknown value tag " + tag, null);
+		}
+	}
+
+	/**
+	 * @return true if the value is an integer which prints back the same,
+	 *         e.g. not "007", "-0" or "+1".
+	 */
+	private static boolean isCanonicalLong(String value) {
+		int length = value.length();
+		if (length == 0 || length > 20) {
+			return false;
+		}
+		int first = value.charAt(0) == '-' ? 1 : 0;
+		if (first == length) {
+			return false;
+		}
+		for (int i = first; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		if (value.charAt(first) == '0') {
+			return length == 1;
+		}
+		if (length - first < 19) {
+			return true;
+		}
+		try {
+			Long.parseLong(value);
+			return true;
+		} catch (NumberFormatException nfe) {
+			return false;
+		}
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = readVarint(in);
+		String value = new String(in.array(), in.arrayOffset() + in.position(),
+				length, UTF8);
+		in.position(in.position() + length);
+		return value;
+	}
+
+	private static int readVarint(ByteBuffer in) {
+		return (int) readVarlong(in);
+	}
+
+	private static long readVarlong(ByteBuffer in) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in.get();
+			value |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	/**
+	 * Growable byte array.
+	 */
+	private static final class Buffer {
+
+		private byte[] bytes;
+
+		private int length;
+
+		Buffer(int capacity) {
+			bytes = new byte[Math.max(16, capacity)];
+		}
+
+		void ensure(int extra) {
+			if (length + extra > bytes.length) {
+				bytes = Arrays.copyOf(bytes,
+						Math.max(bytes.length * 2, length + extra));
+			}
+		}
+
+		void writeByte(int b) {
+			ensure(1);
+			bytes[length++] = (byte) b;
+		}
+
+		void writeBytes(byte[] source, int offset, int count) {
+			ensure(count);
+			System.arraycopy(source, offset, bytes, length, count);
+			length += count;
+		}
+
+		void writeVarint(int value) {
+			writeVarlong(value & 0xffffffffL);
+		}
+
+		void writeVarlong(long value) {
+			ensure(10);
+			while ((value & ~0x7fL) != 0) {
+				bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			bytes[length++] = (byte) value;
+		}
+
+		void writeString(String value) {
+			byte[] encoded = value.getBytes(UTF8);
+			writeVarint(encoded.length);
+			writeBytes(encoded, 0, encoded.length);
+		}
+	}
+
+	/**
+	 * LZ4 of lz4-java, which is loaded only if the blobs are compressed.
+	 */
+	private static final class Lz4 {
+
+		private static final LZ4Compressor COMPRESSOR = LZ4Factory
+				.fastestInstance().fastCompressor();
+
+		private static final LZ4FastDecompressor DECOMPRESSOR = LZ4Factory
+				.fastestInstance().fastDecompressor();
+
+		static int maxCompressedLength(int length) {
+			return COMPRESSOR.maxCompressedLength(length);
+		}
+
+		static int compress(byte[] source, int length, byte[] target,
+				int offset) {
+			return COMPRESSOR.compress(source, 0, length, target, offset,
+					target.length - offset);
+		}
+
+		static void decompress(byte[] source, int offset, byte[] target,
+				int length) {
+			DECOMPRESSOR.decompress(source, offset, target, 0, length);
+		}
+	}
+}
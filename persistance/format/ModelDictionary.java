@@ -0,0 +1,311 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.format;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+import com.airvana.loadtool.persistance.connections.CassandraSession;
+import com.airvana.loadtool.persistance.connections.PersistenceContext;
+import com.datastax.driver.core.Row;
+
+/**
+ * Dictionary of the parameter names of the blob model format, which assigns a
+ * small id to every name.
+ *
+ * <p>
+ * The dictionary is append only: an id once assigned never changes, and the
+ * version of the dictionary is the no. of names in it. It is persisted in
+ * {@code model_dictionary} table of a single shard, see
+ * {@code cassandra.dictionary.shard}, and the ids are assigned with
+ * lightweight transactions so that every load tool process agrees on them.
+ * </p>
+ *
+ * <pre>
+ * CREATE TABLE model_dictionary (
+ * 	dictionary text,
+ * 	id int,
+ * 	name text,
+ * 	PRIMARY KEY (dictionary, id)
+ * );
+ * </pre>
+ *
+ * <p>
+ * A name not yet in the dictionary is registered in background by
+ * {@link #idOf(String)}, so that writes do not wait for the transaction. Till
+ * then {@link ModelCodec} writes the name itself.
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class ModelDictionary {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(ModelDictionary.class);
+
+	/**
+	 * Partition of the model dictionary in the table.
+	 */
+	private static final String DICTIONARY = "model";
+
+	/**
+	 * shard holding the table, {@code null} if the dictionary is only kept
+	 * in memory.
+	 */
+	private final String shard;
+
+	/**
+	 * names by id.
+	 */
+	private volatile String[] names = new String[0];
+
+	private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * names being registered in background.
+	 */
+	private final Set<String> registering = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final ExecutorService registrar;
+
+	/**
+	 * context of the job whose sessions are used, {@code null} if the
+	 * dictionary is only kept in memory.
+	 */
+	private final PersistenceContext context;
+
+	/**
+	 * Creates a dictionary persisted on the given shard.
+	 *
+	 * @param context
+	 *            of the job whose sessions are used.
+	 * @param shard
+	 *            holding the table.
+	 * @throws CassandraException
+	 *             if the dictionary can't be loaded.
+	 */
+	public ModelDictionary(PersistenceContext context, String shard)
+			throws CassandraException {
+		this.context = context;
+		this.shard = shard;
+		this.registrar = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable,
+						"cassandra-model-dictionary");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		reload();
+		LOG.info("Model dictionary version " + getVersion()
+				+ " loaded from shard " + shard);
+	}
+
+	/**
+	 * Creates a dictionary which is only kept in memory, used by the
+	 * benchmark.
+	 *
+	 * @param initialNames
+	 *            names in order of their ids.
+	 */
+	public ModelDictionary(List<String> initialNames) {
+		this.context = null;
+		this.shard = null;
+		this.registrar = null;
+		for (String name : initialNames) {
+			add(name);
+		}
+	}
+
+	/**
+	 * Returns the id of the given name. If the name is not in the dictionary,
+	 * it is registered in background and -1 is returned.
+	 *
+	 * @param name
+	 *            parameter name
+	 * @return id of the name, -1 if not available yet.
+	 */
+	public int idOf(final String name) {
+		Integer id = ids.get(name);
+		if (id != null) {
+			return id;
+		}
+		if (shard == null) {
+			return add(name);
+		}
+		if (registering.add(name)) {
+			registrar.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						register(name);
+					} catch (CassandraException ce) {
+						LOG.error(ce);
+						LOG.info("Unable to register " + name
+								+ " in model dictionary, will retry on next use.");
+					} finally {
+						registering.remove(name);
+					}
+				}
+			});
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the name of the given id, reloading the dictionary if the id is
+	 * newer than the loaded version.
+	 *
+	 * @param id
+	 *            of the name
+	 * @return name of the id
+	 * @throws CassandraException
+	 *             if the id is unknown.
+	 */
+	public String nameOf(int id) throws CassandraException {
+		String[] current = names;
+		if (id >= current.length && shard != null) {
+			reload();
+			current = names;
+		}
+		if (id < 0 || id >= current.length || current[id] == null) {
+			throw new CassandraException("Parameter id " + id
+					+ " is not in model dictionary version " + current.length,
+					null);
+		}
+		return current[id];
+	}
+
+	/**
+	 * Registers the given name and waits for its id.
+	 *
+	 * @param name
+	 *            parameter name
+	 * @return id of the name.
+	 * @throws CassandraException
+	 *             if the name can't be registered.
+	 */
+	public int register(String name) throws CassandraException {
+		Integer id = ids.get(name);
+		if (id != null) {
+			return id;
+		}
+		if (shard == null) {
+			return add(name);
+		}
+		CassandraSession session = CassandraSession.open(context, shard);
+		try {
+			while (true) {
+				int next = names.length;
+				Row row = session.execute(
+						"INSERT INTO model_dictionary(dictionary, id, name) VALUES(?, ?, ?) IF NOT EXISTS",
+						DICTIONARY, next, name).one();
+				if (row.getBool("[applied]")) {
+					assign(next, name);
+					LOG.info("Parameter " + name
+							+ " registered in model dictionary as " + next);
+				} else {
+					// the id has been taken by another process, which is
+					// returned by the transaction.
+					assign(next, row.getString("name"));
+				}
+				id = ids.get(name);
+				if (id != null) {
+					return id;
+				}
+			}
+		} catch (RuntimeException re) {
+			throw new CassandraException(re);
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Stops registering the names in background.
+	 */
+	public void close() {
+		if (registrar != null) {
+			registrar.shutdown();
+		}
+	}
+
+	/**
+	 * @return no. of names in the dictionary.
+	 */
+	public int getVersion() {
+		return names.length;
+	}
+
+	/**
+	 * Loads the names added by other processes.
+	 *
+	 * @throws CassandraException
+	 *             if the dictionary can't be read.
+	 */
+	public void reload() throws CassandraException {
+		CassandraSession session = CassandraSession.open(context, shard);
+		try {
+			load(session);
+		} catch (RuntimeException re) {
+			throw new CassandraException(re);
+		} finally {
+			session.close();
+		}
+	}
+
+	private void load(CassandraSession session) {
+		for (Row row : session.execute(
+				"SELECT id, name FROM model_dictionary WHERE dictionary = ?",
+				DICTIONARY)) {
+			assign(row.getInt(0), row.getString(1));
+		}
+	}
+
+	/**
+	 * Appends the given name in memory.
+	 */
+	private synchronized int add(String name) {
+		Integer id = ids.get(name);
+		if (id != null) {
+			return id;
+		}
+		assign(names.length, name);
+		return names.length - 1;
+	}
+
+	/**
+	 * Assigns the given id to the given name in memory. If a name has several
+	 * ids, the lowest one is used for encoding.
+	 */
+	private synchronized void assign(int id, String name) {
+		if (id < names.length && names[id] != null) {
+			return;
+		}
+		String[] assigned = names;
+		if (id >= assigned.length) {
+			assigned = Arrays.copyOf(assigned, id + 1);
+		} else {
+			assigned = assigned.clone();
+		}
+		assigned[id] = name;
+		Integer existing = ids.get(name);
+		if (existing == null || existing > id) {
+			ids.put(name, id);
+		}
+		names = assigned;
+	}
+}
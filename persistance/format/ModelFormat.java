@@ -0,0 +1,191 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.format;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_DICTIONARY_SHARD;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_MODEL_COMPRESSION;
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_MODEL_FORMAT;
+
+import java.io.Closeable;
+import java.util.Map;
+
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+import com.airvana.loadtool.persistance.connections.CassandraConfig;
+import com.airvana.loadtool.persistance.connections.CassandraSessionManager;
+import com.airvana.loadtool.persistance.connections.PersistenceContext;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.utils.Bytes;
+
+/**
+ * Storage format of the models in {@code model} table.
+ *
+ * <p>
+ * By default a model is stored as {@code map<text, text>} in {@code modelobj}
+ * column. With {@code cassandra.model.format=blob} it is written to
+ * {@code modelblob} column encoded by {@link ModelCodec}, compressed with LZ4
+ * unless {@code cassandra.model.compression=none}. The column has to be added
+ * on every shard, or by {@code cassandra.schema.mode=create}.
+ *
+ * <pre>
+ * ALTER TABLE model ADD modelblob blob;
+ * </pre>
+ *
+ * Rows are read in either format, the blob being preferred, so the existing
+ * rows keep working and can be converted by {@link ModelFormatMigrator}.
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class ModelFormat implements Closeable {
+
+	private static final JobLogger LOG = JobLogger.getLogger(ModelFormat.class);
+
+	/**
+	 * column of the map format.
+	 */
+	public static final String MAP_COLUMN = "modelobj";
+
+	/**
+	 * column of the blob format.
+	 */
+	public static final String BLOB_COLUMN = "modelblob";
+
+	private final boolean blob;
+
+	private final boolean compress;
+
+	private final String dictionaryShard;
+
+	private volatile ModelCodec codec;
+
+	/**
+	 * dictionary of {@link #codec}, {@code null} till loaded.
+	 */
+	private ModelDictionary dictionary;
+
+	/**
+	 * context of the job whose sessions load the dictionary.
+	 */
+	private final PersistenceContext context;
+
+	/**
+	 * Restricting the initialization
+	 */
+	private ModelFormat(PersistenceContext context, CassandraConfig config) {
+		this.context = context;
+		blob = "blob".equalsIgnoreCase(config.getString(
+				CASSANDRA_MODEL_FORMAT, "map"));
+		compress = !"none".equalsIgnoreCase(config.getString(
+				CASSANDRA_MODEL_COMPRESSION, "lz4"));
+		dictionaryShard = config.getString(CASSANDRA_DICTIONARY_SHARD,
+				CassandraSessionManager.getShardNames(config).get(0));
+		if (blob) {
+			LOG.info("Models are written as "
+					+ (compress && ModelCodec.isLz4Available() ? "LZ4 compressed "
+							: "") + "blobs, dictionary on shard "
+					+ dictionaryShard);
+		}
+	}
+
+	/**
+	 * Returns the ModelFormat of the job, creating it from the persistence
+	 * config if not created.
+	 *
+	 * @return ModelFormat instance
+	 */
+	public static ModelFormat getModelFormat() {
+		PersistenceContext context = PersistenceContext.current();
+		synchronized (context) {
+			ModelFormat modelFormat = context.getComponent(ModelFormat.class);
+			if (modelFormat == null) {
+				modelFormat = new ModelFormat(context.getConfig());
+				context.putComponent(ModelFormat.class, modelFormat);
+			}
+			return modelFormat;
+		}
+	}
+
+	/**
+	 * @return true if the models are written as blobs.
+	 */
+	public boolean isBlob() {
+		return blob;
+	}
+
+	/**
+	 * @return codec of the blob format, loading the dictionary on first use.
+	 * @throws CassandraException
+	 *             if the dictionary can't be loaded.
+	 */
+	public ModelCodec getCodec() throws CassandraException {
+		if (codec == null) {
+			synchronized (this) {
+				if (codec == null) {
+					dictionary = new ModelDictionary(context, dictionaryShard);
+					codec = new ModelCodec(dictionary, compress);
+				}
+			}
+		}
+		return codec;
+	}
+
+	/**
+	 * Constructs and returns the CQL blob literal of the given model.
+	 *
+	 * @param model
+	 *            parameter values by name.
+	 * @return blob literal, e.g. {@code 0x4d11...}
+	 * @throws CassandraException
+	 *             if the dictionary can't be loaded.
+	 */
+	public String toBlobLiteral(Map<String, String> model)
+			throws CassandraException {
+		return Bytes.toHexString(getCodec().encode(model));
+	}
+
+	/**
+	 * @return column written in the configured format.
+	 */
+	public String getColumn() {
+		return blob ? BLOB_COLUMN : MAP_COLUMN;
+	}
+
+	/**
+	 * @return columns to be selected to read a model in either format.
+	 */
+	public String getSelectColumns() {
+		return blob ? MAP_COLUMN + ", " + BLOB_COLUMN : MAP_COLUMN;
+	}
+
+	/**
+	 * Reads the model of the given row in whichever format it is stored.
+	 *
+	 * @param row
+	 *            having {@code modelobj} and/or {@code modelblob} columns.
+	 * @return parameter values by name, empty if the row has no model.
+	 * @throws CassandraException
+	 *             if the blob can't be decoded.
+	 */
+	public Map<String, String> read(Row row) throws CassandraException {
+		ColumnDefinitions columns = row.getColumnDefinitions();
+		if (columns.contains(BLOB_COLUMN) && !row.isNull(BLOB_COLUMN)) {
+			return getCodec().decode(row.getBytes(BLOB_COLUMN));
+		}
+		return row.getMap(MAP_COLUMN, String.class, String.class);
+	}
+
+	/**
+	 * Stops the background registration of the dictionary. Called when the
+	 * job is shut down.
+	 */
+	@Override
+	public synchronized void close() {
+		if (dictionary != null) {
+			dictionary.close();
+		}
+	}
+}
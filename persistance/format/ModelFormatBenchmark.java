@@ -0,0 +1,165 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.format;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Compares the size and the encode/decode time of the map and blob model
+ * formats on generated TR-069 style models. No Cassandra is needed.
+ *
+ * <p>
+ * The map format is measured as {@code map<text, text>} serialized by the
+ * native protocol, which is what is sent and stored for {@code modelobj}. The
+ * blob format is measured with and without LZ4.
+ * </p>
+ *
+ * <pre>
+ * java com.airvana.loadtool.persistance.format.ModelFormatBenchmark [devices] [parameters per device]
+ * </pre>
+ *
+ * @author akballappagari
+ *
+ */
+public final class ModelFormatBenchmark {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private ModelFormatBenchmark() {
+	}
+
+	/**
+	 * Entry point of the benchmark.
+	 *
+	 * @param args
+	 *            no. of devices (1000) and parameters per device (200).
+	 * @throws CassandraException
+	 *             if a model does not decode back.
+	 */
+	public static void main(String[] args) throws CassandraException {
+		int devices = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int parameters = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		List<Map<String, String>> models = generate(devices, parameters,
+				new Random(42));
+		// the dictionary is warmed up as it would be after the first writes.
+		ModelDictionary dictionary = new ModelDictionary(
+				Collections.<String> emptyList());
+		for (String name : models.get(0).keySet()) {
+			dictionary.idOf(name);
+		}
+		System.out.println(devices + " devices, " + parameters
+				+ " parameters each");
+		System.out.println(String.format("%-12s %14s %14s %14s", "format",
+				"bytes/model", "encode us", "decode us"));
+		run("map", models, null);
+		run("blob", models, new ModelCodec(dictionary, false));
+		if (ModelCodec.isLz4Available()) {
+			run("blob+lz4", models, new ModelCodec(dictionary, true));
+		} else {
+			System.out.println("blob+lz4     lz4-java is not in class path");
+		}
+	}
+
+	/**
+	 * Measures the given format, after a warm up round.
+	 */
+	private static void run(String name, List<Map<String, String>> models,
+			ModelCodec codec) throws CassandraException {
+		List<ByteBuffer> encoded = Lists.newArrayListWithCapacity(models
+				.size());
+		long bytes = 0;
+		long encodeNanos = 0;
+		long decodeNanos = 0;
+		for (int round = 0; round < 2; round++) {
+			encoded.clear();
+			bytes = 0;
+			long start = System.nanoTime();
+			for (Map<String, String> model : models) {
+				ByteBuffer value = codec == null ? serializeMap(model)
+						: ByteBuffer.wrap(codec.encode(model));
+				bytes += value.remaining();
+				encoded.add(value);
+			}
+			encodeNanos = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < encoded.size(); i++) {
+				Map<String, String> decoded = codec == null ? deserializeMap(encoded
+						.get(i)) : codec.decode(encoded.get(i));
+				if (decoded.size() != models.get(i).size()) {
+					throw new CassandraException(name
+							+ " does not decode back model " + i, null);
+				}
+			}
+			decodeNanos = System.nanoTime() - start;
+		}
+		System.out.println(String.format("%-12s %14d %14.1f %14.1f", name,
+				bytes / models.size(), encodeNanos / 1000.0 / models.size(),
+				decodeNanos / 1000.0 / models.size()));
+	}
+
+	/**
+	 * Serializes the model as {@code map<text, text>} of the native protocol
+	 * v3.
+	 */
+	private static ByteBuffer serializeMap(Map<String, String> model) {
+		List<byte[]> elements = Lists.newArrayListWithCapacity(model.size() * 2);
+		int size = 4;
+		for (Map.Entry<String, String> entry : model.entrySet()) {
+			byte[] key = entry.getKey().getBytes(UTF8);
+			byte[] value = entry.getValue().getBytes(UTF8);
+			elements.add(key);
+			elements.add(value);
+			size += 8 + key.length + value.length;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putInt(model.size());
+		for (byte[] element : elements) {
+			buffer.putInt(element.length);
+			buffer.put(element);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static Map<String, String> deserializeMap(ByteBuffer serialized) {
+		ByteBuffer in = serialized.duplicate();
+		int size = in.getInt();
+		Map<String, String> model = Maps.newHashMapWithExpectedSize(size);
+		for (int i = 0; i < size; i++) {
+			model.put(readString(in), readString(in));
+		}
+		return model;
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = in.getInt();
+		String value = new String(in.array(), in.arrayOffset() + in.position(),
+				length, UTF8);
+		in.position(in.position() + length);
+		return value;
+	}
+
+	/**
+	 * Generates models sharing the parameter names, see
+	 * {@link SyntheticModels}.
+	 */
+	private static List<Map<String, String>> generate(int devices,
+			int parameters, Random random) {
+		List<Map<String, String>> models = Lists
+				.newArrayListWithCapacity(devices);
+		for (int device = 0; device < devices; device++) {
+			models.add(SyntheticModels.generate(device, parameters, random));
+		}
+		return models;
+	}
+}
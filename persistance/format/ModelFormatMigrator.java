@@ -0,0 +1,231 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.format;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+import com.airvana.loadtool.commons.CommonUtility;
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+import com.airvana.loadtool.persistance.connections.CassandraSession;
+import com.airvana.loadtool.persistance.connections.CassandraSessionManager;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Offline tool which converts the models stored in map format to the blob
+ * format of {@link ModelFormat} on every shard.
+ *
+ * <p>
+ * Every row having a {@code modelobj} and no {@code modelblob} is encoded,
+ * verified by decoding it back, and written as blob while its map is removed
+ * in the same statement. The parameter names are registered in the
+ * dictionary before encoding, so the migrated blobs never carry the names.
+ * The tool can be run while jobs are writing: a row already written as blob
+ * is skipped, and the write is conditional on the row still having no blob
+ * and the map read, so a model written by a job after it was read is never
+ * overwritten with the older one. Such a row is left as the job wrote it.
+ * </p>
+ *
+ * <pre>
+ * java com.airvana.loadtool.persistance.format.ModelFormatMigrator conf/persistence/cassandra.properties [--dry-run]
+ * </pre>
+ *
+ * @author akballappagari
+ *
+ */
+public final class ModelFormatMigrator {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(ModelFormatMigrator.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Page size used while scanning the shards.
+	 */
+	private static final int SCAN_FETCH_SIZE = 1000;
+
+	/**
+	 * Max. no. of writes in flight.
+	 */
+	private static final int MAX_IN_FLIGHT = 64;
+
+	private final ModelFormat format;
+
+	private final boolean dryRun;
+
+	private long mapBytes;
+
+	private long blobBytes;
+
+	/**
+	 * @param format
+	 *            providing the codec of the blobs.
+	 * @param dryRun
+	 *            if true, only counts and measures the models to be
+	 *            migrated.
+	 */
+	public ModelFormatMigrator(ModelFormat format, boolean dryRun) {
+		this.format = format;
+		this.dryRun = dryRun;
+	}
+
+	/**
+	 * Migrates the models of the given shard.
+	 *
+	 * @param shard
+	 *            to be migrated
+	 * @return no. of models migrated (or to be migrated in dry run).
+	 * @throws CassandraException
+	 *             if the shard is not available or a model can't be encoded.
+	 */
+	public long migrate(String shard) throws CassandraException {
+		ModelCodec codec = format.getCodec();
+		ModelDictionary dictionary = codec.getDictionary();
+		CassandraSession session = CassandraSession.open(shard);
+		long scanned = 0;
+		long migrated = 0;
+		long skipped = 0;
+		List<ResultSetFuture> inFlight = Lists.newArrayList();
+		try {
+			PreparedStatement update = session.prepare("UPDATE model SET "
+					+ ModelFormat.BLOB_COLUMN + " = ?, "
+					+ ModelFormat.MAP_COLUMN + " = null WHERE serialno = ? IF "
+					+ ModelFormat.BLOB_COLUMN + " = null AND "
+					+ ModelFormat.MAP_COLUMN + " = ?");
+			Statement scan = new SimpleStatement("SELECT serialno, "
+					+ ModelFormat.MAP_COLUMN + ", " + ModelFormat.BLOB_COLUMN
+					+ " FROM model").setFetchSize(SCAN_FETCH_SIZE);
+			for (Row row : session.execute(scan)) {
+				scanned++;
+				Map<String, String> model = row.getMap(ModelFormat.MAP_COLUMN,
+						String.class, String.class);
+				if (!row.isNull(ModelFormat.BLOB_COLUMN) || model.isEmpty()) {
+					continue;
+				}
+				for (String name : model.keySet()) {
+					dictionary.register(name);
+				}
+				byte[] blob = codec.encode(model);
+				if (!Maps.difference(model, codec.decode(ByteBuffer.wrap(blob)))
+						.areEqual()) {
+					throw new CassandraException("Model of "
+							+ row.getString(0)
+							+ " does not decode back to the same values", null);
+				}
+				mapBytes += sizeOf(model);
+				blobBytes += blob.length;
+				migrated++;
+				if (!dryRun) {
+					inFlight.add(session.executeAsync(update.bind(
+							ByteBuffer.wrap(blob), row.getString(0), model)));
+					if (inFlight.size() >= MAX_IN_FLIGHT) {
+						skipped += await(inFlight);
+					}
+				}
+			}
+			skipped += await(inFlight);
+			migrated -= skipped;
+		} catch (RuntimeException re) {
+			throw new CassandraException(re);
+		} finally {
+			session.close();
+		}
+		LOG.info("Shard " + shard + ": scanned " + scanned + " models, "
+				+ (dryRun ? "to be migrated: " : "migrated: ") + migrated
+				+ ", skipped as written meanwhile: " + skipped);
+		return migrated;
+	}
+
+	/**
+	 * @return bytes of the migrated models in map format, as sent by the
+	 *         native protocol.
+	 */
+	public long getMapBytes() {
+		return mapBytes;
+	}
+
+	/**
+	 * @return bytes of the migrated models in blob format.
+	 */
+	public long getBlobBytes() {
+		return blobBytes;
+	}
+
+	/**
+	 * @return size of the given model as {@code map<text, text>} in the native
+	 *         protocol.
+	 */
+	static long sizeOf(Map<String, String> model) {
+		long size = 4;
+		for (Map.Entry<String, String> entry : model.entrySet()) {
+			size += 8 + utf8Length(entry.getKey())
+					+ utf8Length(entry.getValue());
+		}
+		return size;
+	}
+
+	private static int utf8Length(String value) {
+		return value == null ? 0 : value.getBytes(UTF8).length;
+	}
+
+	/**
+	 * Waits for the given conditional writes.
+	 *
+	 * @return no. of writes not applied, as the row was written meanwhile.
+	 */
+	private static long await(List<ResultSetFuture> futures) {
+		long notApplied = 0;
+		for (ResultSetFuture future : futures) {
+			if (!future.getUninterruptibly().wasApplied()) {
+				notApplied++;
+			}
+		}
+		futures.clear();
+		return notApplied;
+	}
+
+	/**
+	 * Entry point of the tool.
+	 *
+	 * @param args
+	 *            persistence config file and optional --dry-run
+	 * @throws Exception
+	 *             if migration fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out
+					.println("Usage: ModelFormatMigrator <persistence config> [--dry-run]");
+			return;
+		}
+		Map<String, String> info = Maps.fromProperties(CommonUtility
+				.loadProperties(args[0]));
+		CassandraSessionManager.initSessionManager(info);
+		boolean dryRun = args.length > 1 && "--dry-run".equals(args[1]);
+		ModelFormatMigrator migrator = new ModelFormatMigrator(
+				ModelFormat.getModelFormat(), dryRun);
+		try {
+			long migrated = 0;
+			for (String shard : CassandraSessionManager.getShardNames()) {
+				migrated += migrator.migrate(shard);
+			}
+			LOG.info((dryRun ? "Models to be migrated: " : "Models migrated: ")
+					+ migrated + ", map format " + migrator.getMapBytes()
+					+ " bytes, blob format " + migrator.getBlobBytes()
+					+ " bytes");
+		} finally {
+			CassandraSessionManager.getSessionManager().shutdown();
+		}
+	}
+}
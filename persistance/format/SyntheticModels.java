@@ -0,0 +1,86 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.format;
+
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Generates TR-069 style models for the tools which need device models
+ * without a simulator, e.g. {@link ModelFormatBenchmark}. The models of
+ * every device share the parameter names, as the models of a real fleet do,
+ * and have a mix of integer, boolean and string values.
+ *
+ * @author akballappagari
+ *
+ */
+public final class SyntheticModels {
+
+	private static final String[] OBJECTS = {
+			"InternetGatewayDevice.DeviceInfo.",
+			"InternetGatewayDevice.ManagementServer.",
+			"InternetGatewayDevice.LANDevice.1.WLANConfiguration.",
+			"InternetGatewayDevice.WANDevice.1.WANConnectionDevice.1.WANIPConnection.",
+			"InternetGatewayDevice.Services.FAPService.1.CellConfig.LTE.RAN.RF.",
+			"InternetGatewayDevice.Services.FAPService.1.FAPControl.LTE.Gateway." };
+
+	private static final String[] PARAMETERS = { "Enable", "Status", "Name",
+			"MaxBitRate", "PeriodicInformInterval", "URL", "Username",
+			"SSID", "Channel", "ExternalIPAddress", "EARFCNDL", "PhyCellID",
+			"SoftwareVersion", "UpTime", "X_AIRVANA_Threshold" };
+
+	/**
+	 * Restricting the initialization
+	 */
+	private SyntheticModels() {
+	}
+
+	/**
+	 * @param i
+	 *            index of the parameter
+	 * @return name of the i-th parameter of every generated model.
+	 */
+	public static String parameterName(int i) {
+		return OBJECTS[i % OBJECTS.length] + (i / 64 + 1) + "."
+				+ PARAMETERS[i % PARAMETERS.length] + i;
+	}
+
+	/**
+	 * Generates the model of a device.
+	 *
+	 * @param device
+	 *            index of the device, used in the string values.
+	 * @param parameters
+	 *            no. of parameters of the model
+	 * @param random
+	 *            source of the values
+	 * @return generated model
+	 */
+	public static Map<String, String> generate(int device, int parameters,
+			Random random) {
+		Map<String, String> model = Maps.newHashMapWithExpectedSize(parameters);
+		for (int i = 0; i < parameters; i++) {
+			model.put(parameterName(i), value(device, i, random));
+		}
+		return model;
+	}
+
+	/**
+	 * @return a value for the i-th parameter of the given device.
+	 */
+	public static String value(int device, int i, Random random) {
+		switch (i % 4) {
+		case 0:
+			return Integer.toString(random.nextInt(100000));
+		case 1:
+			return random.nextBoolean() ? "true" : "false";
+		case 2:
+			return "10.0." + random.nextInt(256) + "." + random.nextInt(256);
+		default:
+			return "SN" + device + "-" + Long.toHexString(random.nextLong());
+		}
+	}
+}
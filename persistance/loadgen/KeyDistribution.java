@@ -0,0 +1,166 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.loadgen;
+
+import java.util.Random;
+
+/**
+ * Distribution of the devices picked by {@link LoadGenerator}.
+ *
+ * <ul>
+ * <li>{@code uniform}: every device equally.</li>
+ * <li>{@code zipfian[:theta]}: device i with a chance proportional to
+ * 1/(i+1)^theta, 0.99 by default, as a fleet where few devices inform most
+ * often.</li>
+ * <li>{@code hotset[:fraction[:chance]]}: the first {@code fraction} of the
+ * devices (0.2 by default) with the given {@code chance} (0.8 by default),
+ * the others uniformly.</li>
+ * </ul>
+ *
+ * @author akballappagari
+ *
+ */
+public abstract class KeyDistribution {
+
+	/**
+	 * no. of devices picked from.
+	 */
+	protected final int devices;
+
+	protected KeyDistribution(int devices) {
+		this.devices = devices;
+	}
+
+	/**
+	 * @param random
+	 *            source of the pick
+	 * @return index of the device, from 0 to devices - 1.
+	 */
+	public abstract int next(Random random);
+
+	/**
+	 * Creates the distribution of the given spec.
+	 *
+	 * @param spec
+	 *            see {@link KeyDistribution}
+	 * @param devices
+	 *            no. of devices picked from, at least 1.
+	 * @return distribution
+	 */
+	public static KeyDistribution parse(String spec, int devices) {
+		String[] parts = spec.split(":");
+		if ("uniform".equalsIgnoreCase(parts[0])) {
+			return new Uniform(devices);
+		} else if ("zipfian".equalsIgnoreCase(parts[0])) {
+			double theta = parts.length > 1 ? Double.parseDouble(parts[1])
+					: 0.99;
+			if (theta <= 0 || theta >= 1) {
+				throw new IllegalArgumentException(
+						"Zipfian theta should be between 0 and 1: " + theta);
+			}
+			return new Zipfian(devices, theta);
+		} else if ("hotset".equalsIgnoreCase(parts[0])) {
+			return new HotSet(devices, parts.length > 1 ? Double
+					.parseDouble(parts[1]) : 0.2, parts.length > 2 ? Double
+					.parseDouble(parts[2]) : 0.8);
+		}
+		throw new IllegalArgumentException("Unknown key distribution " + spec);
+	}
+
+	private static final class Uniform extends KeyDistribution {
+
+		Uniform(int devices) {
+			super(devices);
+		}
+
+		@Override
+		public int next(Random random) {
+			return random.nextInt(devices);
+		}
+
+		@Override
+		public String toString() {
+			return "uniform over " + devices;
+		}
+	}
+
+	/**
+	 * Zipfian by the method of Gray et al., "Quickly generating
+	 * billion-record synthetic databases", which needs no table of the
+	 * devices.
+	 */
+	private static final class Zipfian extends KeyDistribution {
+
+		private final double theta;
+
+		private final double alpha;
+
+		private final double zetan;
+
+		private final double eta;
+
+		Zipfian(int devices, double theta) {
+			super(devices);
+			this.theta = theta;
+			this.zetan = zeta(devices, theta);
+			this.alpha = 1.0 / (1.0 - theta);
+			this.eta = (1 - Math.pow(2.0 / devices, 1 - theta))
+					/ (1 - zeta(2, theta) / zetan);
+		}
+
+		private static double zeta(int n, double theta) {
+			double sum = 0;
+			for (int i = 1; i <= n; i++) {
+				sum += 1 / Math.pow(i, theta);
+			}
+			return sum;
+		}
+
+		@Override
+		public int next(Random random) {
+			double u = random.nextDouble();
+			double uz = u * zetan;
+			if (uz < 1.0) {
+				return 0;
+			}
+			if (uz < 1.0 + Math.pow(0.5, theta)) {
+				return Math.min(1, devices - 1);
+			}
+			return Math.min(devices - 1,
+					(int) (devices * Math.pow(eta * u - eta + 1, alpha)));
+		}
+
+		@Override
+		public String toString() {
+			return "zipfian(" + theta + ") over " + devices;
+		}
+	}
+
+	private static final class HotSet extends KeyDistribution {
+
+		private final int hot;
+
+		private final double chance;
+
+		HotSet(int devices, double fraction, double chance) {
+			super(devices);
+			this.hot = Math.max(1, Math.min(devices, (int) (devices * fraction)));
+			this.chance = chance;
+		}
+
+		@Override
+		public int next(Random random) {
+			if (hot == devices || random.nextDouble() < chance) {
+				return random.nextInt(hot);
+			}
+			return hot + random.nextInt(devices - hot);
+		}
+
+		@Override
+		public String toString() {
+			return "hotset(" + hot + " devices, " + chance + ") over "
+					+ devices;
+		}
+	}
+}
@@ -0,0 +1,400 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.loadgen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.airvana.loadtool.commons.CommonUtility;
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+import com.airvana.loadtool.persistance.connections.CassandraSessionManager;
+import com.airvana.loadtool.persistance.format.SyntheticModels;
+import com.airvana.loadtool.persistance.metrics.LatencyHistogram;
+import com.google.common.collect.Maps;
+
+/**
+ * Drives a {@link LoadTarget} with a mix of device operations at a target
+ * rate, and writes the latency percentiles of every operation to a results
+ * file. It measures the persistence alone, without a simulator.
+ *
+ * <p>
+ * The operations are scheduled as an open model: the i-th operation is due
+ * at {@code i / rate} seconds from the start whether or not the earlier ones
+ * are done, and its latency is measured from the time it was due. When the
+ * target stalls, the operations due meanwhile wait in the queue of the
+ * workers and their wait is part of their latency, so a stall is not hidden
+ * as it is by a closed loop which only sends after a response. The rate
+ * should be one the workers can sustain; the backlog is logged with the
+ * progress.
+ * </p>
+ *
+ * <p>
+ * Options, given as {@code key=value}:
+ * </p>
+ * <ul>
+ * <li>{@code mix}: weight of every operation,
+ * {@code insert=5,update=50,select=30,reset=5,exists=10} by default.</li>
+ * <li>{@code keys}: device distribution, see {@link KeyDistribution},
+ * {@code uniform} by default.</li>
+ * <li>{@code devices}: no. of devices (10000), {@code parameters}:
+ * parameters per model (200), see {@link SyntheticModels}.</li>
+ * <li>{@code rate}: operations per second (1000), {@code seconds}: duration
+ * (60), {@code threads}: workers (64).</li>
+ * <li>{@code preload}: writes every device before the run (true).</li>
+ * <li>{@code results}: results file ({@code loadgen-results.txt}).</li>
+ * </ul>
+ *
+ * <pre>
+ * java com.airvana.loadtool.persistance.loadgen.LoadGenerator conf/persistence/cassandra.properties|--local[=service us] [key=value]...
+ * </pre>
+ *
+ * @author akballappagari
+ *
+ */
+public final class LoadGenerator {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(LoadGenerator.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final long REPORT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	private static final double[] PERCENTILES = { 50, 75, 90, 95, 99, 99.5,
+			99.9, 99.95, 99.99, 99.999, 100 };
+
+	/**
+	 * Operations of the mix.
+	 */
+	public enum Operation {
+		INSERT, UPDATE, SELECT, RESET, EXISTS
+	}
+
+	private final LoadTarget target;
+
+	private final Map<String, String> options;
+
+	private final KeyDistribution keys;
+
+	private final Operation[] operations = Operation.values();
+
+	/**
+	 * cumulative weight of every operation.
+	 */
+	private final int[] mix = new int[operations.length];
+
+	private final int devices;
+
+	private final int parameters;
+
+	private final double rate;
+
+	private final long seconds;
+
+	private final int threads;
+
+	private final Map<Operation, LatencyHistogram> latencies = new EnumMap<Operation, LatencyHistogram>(
+			Operation.class);
+
+	private final Map<Operation, AtomicLong> errors = new EnumMap<Operation, AtomicLong>(
+			Operation.class);
+
+	private final AtomicLong completed = new AtomicLong();
+
+	private final ThreadLocal<Random> randoms = new ThreadLocal<Random>() {
+		@Override
+		protected Random initialValue() {
+			return new Random();
+		}
+	};
+
+	/**
+	 * @param target
+	 *            to be driven
+	 * @param options
+	 *            of the load, see {@link LoadGenerator}.
+	 */
+	public LoadGenerator(LoadTarget target, Map<String, String> options) {
+		this.target = target;
+		this.options = options;
+		devices = Math.max(1, Integer.parseInt(option("devices", "10000")));
+		parameters = Integer.parseInt(option("parameters", "200"));
+		rate = Double.parseDouble(option("rate", "1000"));
+		seconds = Long.parseLong(option("seconds", "60"));
+		threads = Math.max(1, Integer.parseInt(option("threads", "64")));
+		keys = KeyDistribution.parse(option("keys", "uniform"), devices);
+		Map<String, String> weights = Maps.newHashMap();
+		for (String weight : option("mix",
+				"insert=5,update=50,select=30,reset=5,exists=10").split(",")) {
+			String[] pair = weight.split("=");
+			weights.put(pair[0].trim().toUpperCase(), pair[1].trim());
+		}
+		int total = 0;
+		for (int i = 0; i < operations.length; i++) {
+			String weight = weights.remove(operations[i].name());
+			total += weight == null ? 0 : Integer.parseInt(weight);
+			mix[i] = total;
+			latencies.put(operations[i], new LatencyHistogram());
+			errors.put(operations[i], new AtomicLong());
+		}
+		if (!weights.isEmpty() || total <= 0 || rate <= 0) {
+			throw new IllegalArgumentException("Invalid mix "
+					+ option("mix", "") + " or rate " + rate);
+		}
+	}
+
+	/**
+	 * Runs the load and writes the results.
+	 *
+	 * @param results
+	 *            file to which the results are written.
+	 * @throws InterruptedException
+	 *             if interrupted while running.
+	 * @throws IOException
+	 *             if the results can't be written.
+	 */
+	public void run(File results) throws InterruptedException, IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			if (Boolean.parseBoolean(option("preload", "true"))) {
+				preload(executor);
+			}
+			LOG.info("Running " + option("mix", "default mix") + " on "
+					+ keys + " devices at " + rate + " ops/s for " + seconds
+					+ " s against " + target.describe());
+			Random random = new Random(42);
+			long start = System.nanoTime();
+			long end = start + TimeUnit.SECONDS.toNanos(seconds);
+			long reported = start;
+			long scheduled = 0;
+			while (true) {
+				long due = start + (long) (scheduled * 1e9 / rate);
+				if (due >= end) {
+					break;
+				}
+				long wait;
+				while ((wait = due - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(wait);
+				}
+				executor.execute(operation(pick(random), keys.next(random),
+						due));
+				scheduled++;
+				if (due - reported >= REPORT_NANOS) {
+					reported = due;
+					LOG.info("Completed " + completed.get() + " of "
+							+ scheduled + " operations, backlog "
+							+ (scheduled - completed.get()));
+				}
+			}
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+			write(results, scheduled, System.nanoTime() - start);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return latencies of the given operation.
+	 */
+	public LatencyHistogram getLatencies(Operation operation) {
+		return latencies.get(operation);
+	}
+
+	/**
+	 * Writes every device, so that the run reads and updates existing
+	 * models.
+	 */
+	private void preload(ExecutorService executor) throws InterruptedException {
+		long start = System.nanoTime();
+		final CountDownLatch done = new CountDownLatch(devices);
+		final AtomicLong failed = new AtomicLong();
+		for (int i = 0; i < devices; i++) {
+			final int device = i;
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						target.insert(serialno(device), SyntheticModels
+								.generate(device, parameters, randoms.get()));
+					} catch (CassandraException ce) {
+						failed.incrementAndGet();
+					} catch (RuntimeException re) {
+						failed.incrementAndGet();
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		}
+		done.await();
+		LOG.info("Preloaded " + devices + " devices (" + failed.get()
+				+ " failed) in " + (System.nanoTime() - start) / 1000000
+				+ " ms");
+	}
+
+	/**
+	 * @return operation performing the given operation on the given device,
+	 *         due at the given time.
+	 */
+	private Runnable operation(final Operation operation, final int device,
+			final long due) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				String serialno = serialno(device);
+				try {
+					switch (operation) {
+					case INSERT:
+						target.insert(serialno, SyntheticModels.generate(
+								device, parameters, randoms.get()));
+						break;
+					case UPDATE:
+						target.update(serialno, SyntheticModels.generate(
+								device, parameters, randoms.get()));
+						break;
+					case SELECT:
+						target.select(serialno);
+						break;
+					case RESET:
+						target.reset(serialno);
+						break;
+					default:
+						target.exists(serialno);
+					}
+					latencies.get(operation).record(System.nanoTime() - due);
+				} catch (CassandraException ce) {
+					errors.get(operation).incrementAndGet();
+				} catch (RuntimeException re) {
+					errors.get(operation).incrementAndGet();
+				} finally {
+					completed.incrementAndGet();
+				}
+			}
+		};
+	}
+
+	private Operation pick(Random random) {
+		int value = random.nextInt(mix[mix.length - 1]);
+		for (int i = 0; i < mix.length; i++) {
+			if (value < mix[i]) {
+				return operations[i];
+			}
+		}
+		return operations[operations.length - 1];
+	}
+
+	/**
+	 * Writes the summary and the percentile distribution of every operation
+	 * in micro seconds.
+	 */
+	private void write(File results, long scheduled, long elapsedNanos)
+			throws IOException {
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(
+				new FileOutputStream(results), UTF8));
+		try {
+			out.println("# target: " + target.describe());
+			out.println("# options: " + options);
+			out.println(String.format(
+					"# %d operations in %.1f s, %.1f ops/s achieved", scheduled,
+					elapsedNanos / 1e9, scheduled * 1e9 / elapsedNanos));
+			out.println(String.format(
+					"%-8s %10s %8s %10s %10s %10s %10s %10s %10s", "op",
+					"count", "errors", "mean us", "p50", "p99", "p99.9",
+					"p99.99", "max"));
+			for (Operation operation : operations) {
+				LatencyHistogram histogram = latencies.get(operation);
+				out.println(String.format(
+						"%-8s %10d %8d %10d %10d %10d %10d %10d %10d",
+						operation.name().toLowerCase(), histogram.getCount(),
+						errors.get(operation).get(), histogram.mean(),
+						histogram.percentile(50), histogram.percentile(99),
+						histogram.percentile(99.9),
+						histogram.percentile(99.99), histogram.getMax()));
+			}
+			for (Operation operation : operations) {
+				LatencyHistogram histogram = latencies.get(operation);
+				if (histogram.getCount() == 0) {
+					continue;
+				}
+				out.println();
+				out.println("# " + operation.name().toLowerCase()
+						+ " percentile distribution (us)");
+				for (double percentile : PERCENTILES) {
+					out.println(String.format("%10.3f %12d", percentile,
+							histogram.percentile(percentile)));
+				}
+			}
+		} finally {
+			out.close();
+		}
+		LOG.info("Results written to " + results);
+	}
+
+	private String option(String key, String defaultValue) {
+		String value = options.get(key);
+		return value == null ? defaultValue : value;
+	}
+
+	private static String serialno(int device) {
+		return "SN" + device;
+	}
+
+	/**
+	 * Entry point of the load generator.
+	 *
+	 * @param args
+	 *            persistence config file or --local[=service us], and the
+	 *            options, see {@link LoadGenerator}.
+	 * @throws Exception
+	 *             if the load can't be run.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out
+					.println("Usage: LoadGenerator <persistence config>|--local[=<service us>] [mix=insert=5,update=50,...] [keys=uniform|zipfian[:theta]|hotset[:fraction[:chance]]] [devices=N] [parameters=N] [rate=N] [seconds=N] [threads=N] [preload=true] [results=file]");
+			return;
+		}
+		Map<String, String> options = Maps.newLinkedHashMap();
+		for (int i = 1; i < args.length; i++) {
+			int split = args[i].indexOf('=');
+			if (split <= 0) {
+				System.out.println("Option should be key=value: " + args[i]);
+				return;
+			}
+			options.put(args[i].substring(0, split),
+					args[i].substring(split + 1));
+		}
+		LoadTarget target;
+		if (args[0].startsWith("--local")) {
+			target = new LocalTarget(args[0].startsWith("--local=") ? Long
+					.parseLong(args[0].substring("--local=".length())) : 0L);
+		} else {
+			CassandraSessionManager.initSessionManager(Maps
+					.fromProperties(CommonUtility.loadProperties(args[0])));
+			target = new PersistenceTarget();
+		}
+		try {
+			String results = options.get("results");
+			new LoadGenerator(target, options).run(new File(
+					results == null ? "loadgen-results.txt" : results));
+		} finally {
+			target.close();
+		}
+	}
+}
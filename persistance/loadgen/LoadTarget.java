@@ -0,0 +1,86 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.loadgen;
+
+import java.util.Map;
+
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+
+/**
+ * Persistence driven by {@link LoadGenerator}, i.e. {@link PersistenceTarget}
+ * for a cluster or {@link LocalTarget} for a run without Cassandra.
+ *
+ * @author akballappagari
+ *
+ */
+public interface LoadTarget {
+
+	/**
+	 * Writes the model of a new device.
+	 *
+	 * @param serialno
+	 *            of the device
+	 * @param model
+	 *            of the device
+	 * @throws CassandraException
+	 *             if the model can't be written.
+	 */
+	void insert(String serialno, Map<String, String> model)
+			throws CassandraException;
+
+	/**
+	 * Writes the model of an existing device.
+	 *
+	 * @param serialno
+	 *            of the device
+	 * @param model
+	 *            of the device
+	 * @throws CassandraException
+	 *             if the model can't be written.
+	 */
+	void update(String serialno, Map<String, String> model)
+			throws CassandraException;
+
+	/**
+	 * Reads the model of a device.
+	 *
+	 * @param serialno
+	 *            of the device
+	 * @return no. of parameters read.
+	 * @throws CassandraException
+	 *             if the model can't be read.
+	 */
+	int select(String serialno) throws CassandraException;
+
+	/**
+	 * Resets the model of a device.
+	 *
+	 * @param serialno
+	 *            of the device
+	 * @throws CassandraException
+	 *             if the model can't be reset.
+	 */
+	void reset(String serialno) throws CassandraException;
+
+	/**
+	 * Checks if a device has a model.
+	 *
+	 * @param serialno
+	 *            of the device
+	 * @return true if the device has a model.
+	 * @throws CassandraException
+	 *             if the check fails.
+	 */
+	boolean exists(String serialno) throws CassandraException;
+
+	/**
+	 * Releases the resources of the target.
+	 */
+	void close();
+
+	/**
+	 * @return description of the target for the results.
+	 */
+	String describe();
+}
@@ -0,0 +1,87 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.loadgen;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.common.collect.Maps;
+
+/**
+ * In memory {@link LoadTarget}, for trying a load without a cluster and for
+ * measuring the load generator itself. Every operation can be given a fixed
+ * service time to stand in for the round trip.
+ *
+ * @author akballappagari
+ *
+ */
+public final class LocalTarget implements LoadTarget {
+
+	private final ConcurrentMap<String, Map<String, String>> models = new ConcurrentHashMap<String, Map<String, String>>();
+
+	private final long serviceNanos;
+
+	/**
+	 * @param serviceMicros
+	 *            time spent by every operation in micro seconds, 0 for none.
+	 */
+	public LocalTarget(long serviceMicros) {
+		this.serviceNanos = TimeUnit.MICROSECONDS.toNanos(serviceMicros);
+	}
+
+	@Override
+	public void insert(String serialno, Map<String, String> model) {
+		serve();
+		models.put(serialno, Maps.newHashMap(model));
+	}
+
+	@Override
+	public void update(String serialno, Map<String, String> model) {
+		serve();
+		models.put(serialno, Maps.newHashMap(model));
+	}
+
+	@Override
+	public int select(String serialno) {
+		serve();
+		Map<String, String> model = models.get(serialno);
+		return model == null ? 0 : model.size();
+	}
+
+	@Override
+	public void reset(String serialno) {
+		serve();
+		models.remove(serialno);
+	}
+
+	@Override
+	public boolean exists(String serialno) {
+		serve();
+		return models.containsKey(serialno);
+	}
+
+	@Override
+	public void close() {
+		models.clear();
+	}
+
+	@Override
+	public String describe() {
+		return "local stand-in, service time "
+				+ TimeUnit.NANOSECONDS.toMicros(serviceNanos) + " us";
+	}
+
+	private void serve() {
+		if (serviceNanos > 0) {
+			long end = System.nanoTime() + serviceNanos;
+			long remaining;
+			while ((remaining = end - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(remaining);
+			}
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.loadgen;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+import com.airvana.loadtool.persistance.DeviceModelView;
+import com.airvana.loadtool.persistance.DevicePersistence;
+import com.airvana.loadtool.persistance.GracefulShutdown;
+import com.airvana.loadtool.persistance.connections.CassandraSessionManager;
+
+/**
+ * {@link LoadTarget} of the cluster of the persistence config, driven through
+ * the synchronous API of {@link DevicePersistence} as a job does.
+ *
+ * @author akballappagari
+ *
+ */
+public final class PersistenceTarget implements LoadTarget {
+
+	private final DevicePersistence persistence = new DevicePersistence();
+
+	@Override
+	public void insert(String serialno, Map<String, String> model)
+			throws CassandraException {
+		persistence.insert(serialno, DeviceModelView.of(model));
+	}
+
+	@Override
+	public void update(String serialno, Map<String, String> model)
+			throws CassandraException {
+		persistence.update(serialno, DeviceModelView.of(model));
+	}
+
+	@Override
+	public int select(String serialno) throws CassandraException {
+		return persistence.getDeviceModel(serialno).size();
+	}
+
+	@Override
+	public void reset(String serialno) throws CassandraException {
+		persistence.reset(serialno);
+	}
+
+	@Override
+	public boolean exists(String serialno) {
+		return persistence.isModelObjAvailable(serialno);
+	}
+
+	@Override
+	public void close() {
+		persistence.end();
+		// the writes pending in write-behind mode are part of the load.
+		GracefulShutdown.getGracefulShutdown().shutdown(30, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public String describe() {
+		return "cassandra shards " + CassandraSessionManager.getShardNames();
+	}
+}
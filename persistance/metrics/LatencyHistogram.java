@@ -0,0 +1,143 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of every latency recorded, in the layout of HdrHistogram: the
+ * values below 1024 micro seconds are counted exactly and the higher ones in
+ * buckets of 512 sub buckets per power of two, so that every percentile is
+ * within 0.2% of the recorded value. Latencies up to an hour are tracked,
+ * higher ones are counted as an hour.
+ *
+ * <p>
+ * Unlike {@link LatencyWindow}, no sample is dropped, so the percentiles are
+ * of the whole run. Recording a sample is lock free and costs two atomic
+ * increments.
+ * </p>
+ *
+ * <pre>
+ * LatencyHistogram histogram = new LatencyHistogram();
+ * histogram.record(System.nanoTime() - start);
+ * long p9999 = histogram.percentile(99.99);
+ * </pre>
+ *
+ * @author akballappagari
+ *
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 10;
+
+	private static final int HALF_SUB_BUCKET_BITS = SUB_BUCKET_BITS - 1;
+
+	/**
+	 * an hour in micro seconds.
+	 */
+	private static final long HIGHEST_TRACKABLE = 3600L * 1000L * 1000L;
+
+	private final AtomicLongArray counts = new AtomicLongArray(
+			index(HIGHEST_TRACKABLE) + 1);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records the given latency.
+	 *
+	 * @param latencyNanos
+	 *            latency of the operation in nano seconds.
+	 */
+	public void record(long latencyNanos) {
+		long micros = Math.min(HIGHEST_TRACKABLE,
+				Math.max(0L, latencyNanos / 1000L));
+		counts.incrementAndGet(index(micros));
+		count.incrementAndGet();
+		sum.addAndGet(micros);
+		long current;
+		while (micros > (current = max.get())
+				&& !max.compareAndSet(current, micros)) {
+			// retried till the max. is at least the recorded one.
+		}
+	}
+
+	/**
+	 * @return no. of samples recorded.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return highest latency recorded in micro seconds.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return mean latency in micro seconds, 0 if nothing is recorded.
+	 */
+	public long mean() {
+		long recorded = count.get();
+		return recorded == 0 ? 0L : sum.get() / recorded;
+	}
+
+	/**
+	 * Returns the given percentile in micro seconds, i.e. the highest value
+	 * of the bucket having it. Returns 0 if nothing is recorded.
+	 *
+	 * @param percentile
+	 *            between 0 and 100, e.g. 99.99
+	 * @return latency in micro seconds.
+	 */
+	public long percentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			total += counts.get(i);
+		}
+		if (total == 0) {
+			return 0L;
+		}
+		long rank = Math.max(1L,
+				(long) Math.ceil(Math.min(100.0, percentile) / 100.0 * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValue(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * @return index of the bucket of the given value.
+	 */
+	private static int index(long micros) {
+		int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+		if (magnitude < SUB_BUCKET_BITS) {
+			return (int) micros;
+		}
+		int shift = magnitude - HALF_SUB_BUCKET_BITS;
+		return (shift << HALF_SUB_BUCKET_BITS) + (int) (micros >>> shift);
+	}
+
+	/**
+	 * @return highest value counted in the bucket of the given index.
+	 */
+	private static long highestValue(int index) {
+		if (index < (1 << SUB_BUCKET_BITS)) {
+			return index;
+		}
+		int shift = (index >> HALF_SUB_BUCKET_BITS) - 1;
+		long sub = index - ((long) shift << HALF_SUB_BUCKET_BITS);
+		return ((sub + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size rolling window of latency samples. Only the latest
+ * {@code capacity} samples are retained, so percentiles always reflect the
+ * recent behavior of the cluster rather than the whole life time of the job.
+ *
+ * <p>
+ * Recording a sample is lock free and costs a single atomic increment, which
+ * makes it safe to call from the driver callback threads. Percentiles are
+ * computed on demand from a copy of the window and should therefore not be
+ * requested per operation.
+ * </p>
+ *
+ * <pre>
+ * LatencyWindow window = new LatencyWindow(1024);
+ * window.record(System.nanoTime() - start);
+ * long p999 = window.percentile(99.9);
+ * </pre>
+ *
+ * @author akballappagari
+ *
+ */
+public final class LatencyWindow {
+
+	/**
+	 * Latency samples in micro seconds.
+	 */
+	private final AtomicLongArray samples;
+
+	/**
+	 * Total no. of samples recorded so far. Also used as the write position.
+	 */
+	private final AtomicLong recorded = new AtomicLong();
+
+	/**
+	 * Creates a window retaining the latest {@code capacity} samples.
+	 *
+	 * @param capacity
+	 *            no. of samples to retain, should be positive.
+	 */
+	public LatencyWindow(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException(
+					"Window capacity should be positive: " + capacity);
+		}
+		this.samples = new AtomicLongArray(capacity);
+	}
+
+	/**
+	 * Records the given latency.
+	 *
+	 * @param latencyNanos
+	 *            latency of the operation in nano seconds.
+	 */
+	public void record(long latencyNanos) {
+		long position = recorded.getAndIncrement();
+		samples.set((int) (position % samples.length()),
+				Math.max(0L, latencyNanos / 1000L));
+	}
+
+	/**
+	 * @return total no. of samples recorded since creation.
+	 */
+	public long getRecordedCount() {
+		return recorded.get();
+	}
+
+	/**
+	 * @return no. of samples currently held in the window.
+	 */
+	public int size() {
+		return (int) Math.min(recorded.get(), samples.length());
+	}
+
+	/**
+	 * Returns the given percentile of the samples in the window in micro
+	 * seconds. Returns 0 if no samples are recorded yet.
+	 *
+	 * @param percentile
+	 *            between 0 and 100, e.g. 99.9
+	 * @return latency in micro seconds.
+	 */
+	public long percentile(double percentile) {
+		long[] sorted = snapshot();
+		if (sorted.length == 0) {
+			return 0L;
+		}
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	/**
+	 * Returns the mean of the samples in the window in micro seconds.
+	 *
+	 * @return mean latency in micro seconds.
+	 */
+	public long mean() {
+		long[] values = snapshot();
+		if (values.length == 0) {
+			return 0L;
+		}
+		long sum = 0L;
+		for (long value : values) {
+			sum += value;
+		}
+		return sum / values.length;
+	}
+
+	/**
+	 * @return copy of the samples currently held in the window.
+	 */
+	private long[] snapshot() {
+		int size = size();
+		long[] values = new long[size];
+		for (int i = 0; i < size; i++) {
+			values[i] = samples.get(i);
+		}
+		return values;
+	}
+}
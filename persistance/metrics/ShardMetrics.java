@@ -0,0 +1,154 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.airvana.loadtool.commons.JobLogger;
+
+/**
+ * Operation counts, errors and latencies of a single shard.
+ *
+ * <p>
+ * The metrics of the shards of a job are held by its shard router and
+ * registered in the platform MBean server as
+ * {@code com.airvana.loadtool.persistance:type=ShardMetrics,job=<job>,shard=<shard>}.
+ * </p>
+ *
+ * <pre>
+ * ShardMetrics metrics = router.metricsOf(&quot;east&quot;);
+ * metrics.record(System.nanoTime() - start, false);
+ * </pre>
+ *
+ * @author akballappagari
+ *
+ */
+public final class ShardMetrics implements ShardMetricsMBean {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(ShardMetrics.class);
+
+	private final String shard;
+
+	private final AtomicLong operations = new AtomicLong();
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private final LatencyWindow latencies = new LatencyWindow(1024);
+
+	/**
+	 * @param shard
+	 *            name of the shard
+	 */
+	public ShardMetrics(String shard) {
+		this.shard = shard;
+	}
+
+	/**
+	 * Records an operation executed on the shard.
+	 *
+	 * @param latencyNanos
+	 *            latency of the operation in nano seconds.
+	 * @param failed
+	 *            true if the operation has failed.
+	 */
+	public void record(long latencyNanos, boolean failed) {
+		operations.incrementAndGet();
+		if (failed) {
+			errors.incrementAndGet();
+		} else {
+			latencies.record(latencyNanos);
+		}
+	}
+
+	@Override
+	public long getOperations() {
+		return operations.get();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.get();
+	}
+
+	@Override
+	public long getLatencyP50Micros() {
+		return latencies.percentile(50);
+	}
+
+	@Override
+	public long getLatencyP99Micros() {
+		return latencies.percentile(99);
+	}
+
+	@Override
+	public String getSummary() {
+		return toString();
+	}
+
+	/**
+	 * @return latencies of the successful operations on the shard.
+	 */
+	public LatencyWindow getLatencies() {
+		return latencies;
+	}
+
+	/**
+	 * Registers these metrics in the platform MBean server, replacing the
+	 * ones registered earlier for the shard of the job.
+	 *
+	 * @param job
+	 *            name of the job, used in the JMX name.
+	 */
+	public void register(String job) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = objectName(job);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+		} catch (Exception e) {
+			LOG.error(e);
+			LOG.info("Unable to register the metrics of shard " + shard
+					+ " in JMX. Shards can't be watched at runtime.");
+		}
+	}
+
+	/**
+	 * Unregisters these metrics from the platform MBean server.
+	 *
+	 * @param job
+	 *            name of the job given to {@link #register(String)}.
+	 */
+	public void unregister(String job) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = objectName(job);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (Exception e) {
+			LOG.error(e);
+		}
+	}
+
+	private ObjectName objectName(String job) throws Exception {
+		return new ObjectName(
+				"com.airvana.loadtool.persistance:type=ShardMetrics,job="
+						+ ObjectName.quote(job) + ",shard="
+						+ ObjectName.quote(shard));
+	}
+
+	@Override
+	public String toString() {
+		return "Shard " + shard + ": operations=" + operations.get()
+				+ ", errors=" + errors.get() + ", p50=" + latencies.percentile(50)
+				+ "us, p99=" + latencies.percentile(99) + "us";
+	}
+}
@@ -0,0 +1,39 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.metrics;
+
+/**
+ * JMX interface of {@link ShardMetrics}, which reports the traffic of a
+ * shard, so that an unbalanced or failing shard can be found at runtime.
+ *
+ * @author akballappagari
+ *
+ */
+public interface ShardMetricsMBean {
+
+	/**
+	 * @return no. of operations executed on the shard.
+	 */
+	long getOperations();
+
+	/**
+	 * @return no. of failed operations on the shard.
+	 */
+	long getErrors();
+
+	/**
+	 * @return median of the recent latencies in micro seconds.
+	 */
+	long getLatencyP50Micros();
+
+	/**
+	 * @return 99th percentile of the recent latencies in micro seconds.
+	 */
+	long getLatencyP99Micros();
+
+	/**
+	 * @return one line summary of the shard.
+	 */
+	String getSummary();
+}
@@ -0,0 +1,402 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.snapshot;
+
+import static com.airvana.loadtool.persistance.connections.constants.CassandraInfoKeys.CASSANDRA_SNAPSHOT_CLOCK_SKEW;
+import static com.airvana.loadtool.persistance.snapshot.DeviceSnapshotWriter.HEADER_SIZE;
+import static com.airvana.loadtool.persistance.snapshot.DeviceSnapshotWriter.INDEX_ENTRY_SIZE;
+import static com.airvana.loadtool.persistance.snapshot.DeviceSnapshotWriter.MAGIC;
+import static com.airvana.loadtool.persistance.snapshot.DeviceSnapshotWriter.UTF8;
+import static com.airvana.loadtool.persistance.snapshot.DeviceSnapshotWriter.VERSION;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import com.airvana.loadtool.client.DeviceParameter;
+import com.airvana.loadtool.commons.JobLogger;
+import com.airvana.loadtool.commons.exceptions.CassandraException;
+import com.airvana.loadtool.persistance.DeviceModelView;
+import com.airvana.loadtool.persistance.DevicePersistence;
+import com.airvana.loadtool.persistance.ModelGenerations;
+import com.airvana.loadtool.persistance.connections.CassandraSessionManager;
+import com.airvana.loadtool.persistance.format.ModelFormat;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Device models loaded from a snapshot file written by
+ * {@link DeviceSnapshotWriter}, used to warm start a job without reading
+ * every model from Cassandra.
+ *
+ * <p>
+ * The file is memory mapped and its records are parsed and verified against
+ * their checksums by several threads in parallel. Afterwards
+ * {@link #reconcile(DevicePersistence, int)} reads again only the devices
+ * changed in Cassandra since the generation of the snapshot, as recorded by
+ * {@link com.airvana.loadtool.persistance.ModelChangeLog}.
+ * </p>
+ *
+ * <pre>
+ * DeviceSnapshot snapshot = DeviceSnapshot.load(file, 8);
+ * snapshot.reconcile(devicePersistence, 32);
+ * Map&lt;String, Map&lt;String, DeviceParameter&gt;&gt; models = snapshot.getModels();
+ * </pre>
+ *
+ * @author akballappagari
+ *
+ */
+public final class DeviceSnapshot {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(DeviceSnapshot.class);
+
+	/**
+	 * Max. bytes of records mapped and parsed by a thread at once.
+	 */
+	private static final long MAX_SLICE_BYTES = 256L << 20;
+
+	private final long generation;
+
+	private final ConcurrentMap<String, Map<String, DeviceParameter>> models;
+
+	private DeviceSnapshot(long generation,
+			ConcurrentMap<String, Map<String, DeviceParameter>> models) {
+		this.generation = generation;
+		this.models = models;
+	}
+
+	/**
+	 * Loads the given snapshot file.
+	 *
+	 * @param file
+	 *            snapshot file
+	 * @param threads
+	 *            no. of threads parsing the records.
+	 * @return loaded snapshot
+	 * @throws IOException
+	 *             if the file can't be read or is corrupted.
+	 */
+	public static DeviceSnapshot load(File file, int threads)
+			throws IOException {
+		long start = System.nanoTime();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException("Snapshot " + file + " is truncated");
+			}
+			ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+			byte[] headerBytes = new byte[HEADER_SIZE];
+			header.get(headerBytes);
+			header.rewind();
+			CRC32 crc = new CRC32();
+			crc.update(headerBytes, 0, HEADER_SIZE - 4);
+			int magic = header.getInt();
+			int version = header.getInt();
+			long generation = header.getLong();
+			int count = header.getInt();
+			header.getInt();
+			long indexOffset = header.getLong();
+			long fileLength = header.getLong();
+			int indexCrc = header.getInt();
+			int headerCrc = header.getInt();
+			if (magic != MAGIC || (int) crc.getValue() != headerCrc) {
+				throw new IOException(file + " is not a valid snapshot");
+			}
+			if (version != VERSION) {
+				throw new IOException("Snapshot " + file + " has version "
+						+ version + ", expected " + VERSION);
+			}
+			if (fileLength != channel.size()
+					|| indexOffset + (long) count * INDEX_ENTRY_SIZE != fileLength) {
+				throw new IOException("Snapshot " + file + " is truncated");
+			}
+			MappedByteBuffer index = channel.map(MapMode.READ_ONLY,
+					indexOffset, (long) count * INDEX_ENTRY_SIZE);
+			verifyIndex(file, index, indexCrc);
+
+			ConcurrentMap<String, Map<String, DeviceParameter>> models = new ConcurrentHashMap<String, Map<String, DeviceParameter>>(
+					Math.max(16, count * 4 / 3 + 1), 0.75f, Math.max(1,
+							threads));
+			load(file, channel, index, count, indexOffset - HEADER_SIZE,
+					Math.max(1, threads), models);
+			LOG.info("Snapshot of " + models.size() + " devices, generation "
+					+ generation + ", loaded from " + file + " in "
+					+ (System.nanoTime() - start) / 1000000 + " ms");
+			return new DeviceSnapshot(generation, models);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return time in milliseconds from which the changes are not guaranteed
+	 *         to be part of the snapshot.
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @return read only models per serialno, see {@link DeviceModelView}.
+	 */
+	public Map<String, Map<String, DeviceParameter>> getModels() {
+		return models;
+	}
+
+	/**
+	 * @return no. of devices in the snapshot.
+	 */
+	public int size() {
+		return models.size();
+	}
+
+	/**
+	 * Reads again the models of the devices changed since the generation of
+	 * the snapshot, less {@code cassandra.snapshot.clock.skew.ms} (5000). A
+	 * device whose model is not available any more is removed. If the changes
+	 * are not recorded, every model is read again.
+	 *
+	 * @param persistence
+	 *            used to read the models
+	 * @param threads
+	 *            no. of models read in parallel.
+	 * @return no. of devices reconciled.
+	 * @throws CassandraException
+	 *             if any exception occurs while cassandra operation.
+	 */
+	public int reconcile(final DevicePersistence persistence, int threads)
+			throws CassandraException {
+		long start = System.nanoTime();
+		long since = generation
+				- CassandraSessionManager.getPersistenceConfig().getLong(
+						CASSANDRA_SNAPSHOT_CLOCK_SKEW, 5000L);
+		if (ModelGenerations.getModelGenerations().getAdvancedMillis() >= since) {
+			LOG.info("Every model has been reset since the snapshot. So, reading all the models again.");
+			return reloadAll(persistence);
+		}
+		Set<String> changed;
+		try {
+			changed = persistence.getChangedSerialNosSince(since);
+		} catch (CassandraException ce) {
+			LOG.error(ce);
+			LOG.info("Changes since the snapshot are not available. So, reading all the models again.");
+			return reloadAll(persistence);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+				threads));
+		final AtomicInteger reconciled = new AtomicInteger();
+		final Iterator<String> serialnos = changed.iterator();
+		List<Future<Void>> futures = Lists.newArrayList();
+		try {
+			for (int i = 0; i < Math.max(1, threads); i++) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws CassandraException {
+						String serialno;
+						while ((serialno = next(serialnos)) != null) {
+							Map<String, DeviceParameter> model = persistence
+									.getDeviceModel(serialno);
+							if (model.isEmpty()) {
+								models.remove(serialno);
+							} else {
+								models.put(serialno, model);
+							}
+							reconciled.incrementAndGet();
+						}
+						return null;
+					}
+				}));
+			}
+			await(futures);
+		} finally {
+			executor.shutdownNow();
+		}
+		LOG.info("Reconciled " + reconciled.get()
+				+ " devices changed since the snapshot in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+		return reconciled.get();
+	}
+
+	/**
+	 * Replaces the models with all the models of every shard.
+	 */
+	private int reloadAll(DevicePersistence persistence)
+			throws CassandraException {
+		Map<String, Map<String, DeviceParameter>> reloaded = Maps.newHashMap();
+		ModelFormat format = ModelFormat.getModelFormat();
+		for (ResultSet set : persistence.simpleSelectOfAllShards()) {
+			for (Row row : set) {
+				if (persistence.isLive(row)) {
+					reloaded.put(row.getString("serialno"),
+							DeviceModelView.of(format.read(row)));
+				}
+			}
+		}
+		models.clear();
+		models.putAll(reloaded);
+		return reloaded.size();
+	}
+
+	private static String next(Iterator<String> serialnos) {
+		synchronized (serialnos) {
+			return serialnos.hasNext() ? serialnos.next() : null;
+		}
+	}
+
+	private static void await(List<Future<Void>> futures)
+			throws CassandraException {
+		try {
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new CassandraException(ie);
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof CassandraException) {
+				throw (CassandraException) ee.getCause();
+			}
+			throw new CassandraException(ee.getCause());
+		}
+	}
+
+	private static void verifyIndex(File file, ByteBuffer index, int indexCrc)
+			throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] chunk = new byte[1 << 16];
+		ByteBuffer view = index.duplicate();
+		while (view.hasRemaining()) {
+			int length = Math.min(chunk.length, view.remaining());
+			view.get(chunk, 0, length);
+			crc.update(chunk, 0, length);
+		}
+		if ((int) crc.getValue() != indexCrc) {
+			throw new IOException("Index of snapshot " + file
+					+ " is corrupted");
+		}
+	}
+
+	/**
+	 * Splits the records in slices and parses them in parallel.
+	 */
+	private static void load(final File file, final FileChannel channel,
+			final ByteBuffer index, int count, long dataBytes, int threads,
+			final ConcurrentMap<String, Map<String, DeviceParameter>> models)
+			throws IOException {
+		long sliceBytes = Math.max(1L,
+				Math.min(MAX_SLICE_BYTES, dataBytes / (threads * 4L) + 1));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Void>> futures = Lists.newArrayList();
+		try {
+			int first = 0;
+			while (first < count) {
+				long sliceStart = index.getLong(first * INDEX_ENTRY_SIZE);
+				int last = first;
+				while (last + 1 < count
+						&& index.getLong((last + 1) * INDEX_ENTRY_SIZE)
+								- sliceStart < sliceBytes) {
+					last++;
+				}
+				final int from = first;
+				final int to = last;
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						loadSlice(file, channel, index, from, to, models);
+						return null;
+					}
+				}));
+				first = last + 1;
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading snapshot "
+					+ file);
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof IOException) {
+				throw (IOException) ee.getCause();
+			}
+			throw new IOException("Unable to load snapshot " + file + ": "
+					+ ee.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Maps and parses the records {@code from} to {@code to} (inclusive).
+	 */
+	private static void loadSlice(File file, FileChannel channel,
+			ByteBuffer index, int from, int to,
+			Map<String, Map<String, DeviceParameter>> models)
+			throws IOException {
+		long sliceStart = index.getLong(from * INDEX_ENTRY_SIZE);
+		long sliceEnd = index.getLong(to * INDEX_ENTRY_SIZE)
+				+ index.getInt(to * INDEX_ENTRY_SIZE + 8);
+		MappedByteBuffer slice = channel.map(MapMode.READ_ONLY, sliceStart,
+				sliceEnd - sliceStart);
+		CRC32 crc = new CRC32();
+		byte[] record = new byte[1024];
+		for (int i = from; i <= to; i++) {
+			int entry = i * INDEX_ENTRY_SIZE;
+			int offset = (int) (index.getLong(entry) - sliceStart);
+			int length = index.getInt(entry + 8);
+			if (record.length < length) {
+				record = new byte[Math.max(length, record.length * 2)];
+			}
+			slice.position(offset);
+			slice.get(record, 0, length);
+			crc.reset();
+			crc.update(record, 0, length);
+			if ((int) crc.getValue() != index.getInt(entry + 12)) {
+				throw new IOException("Record " + i + " of snapshot " + file
+						+ " is corrupted");
+			}
+			ByteBuffer in = ByteBuffer.wrap(record, 0, length);
+			String serialno = readString(in);
+			int parameters = in.getInt();
+			String[] names = new String[parameters];
+			String[] values = new String[parameters];
+			for (int p = 0; p < parameters; p++) {
+				names[p] = readString(in);
+				values[p] = readString(in);
+			}
+			models.put(serialno, DeviceModelView.of(names, values, parameters));
+		}
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = in.getInt();
+		if (length < 0) {
+			return null;
+		}
+		String value = new String(in.array(), in.position(), length, UTF8);
+		in.position(in.position() + length);
+		return value;
+	}
+}
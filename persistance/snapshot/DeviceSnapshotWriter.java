@@ -0,0 +1,160 @@
+/**
+ *
+ */
+package com.airvana.loadtool.persistance.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import com.airvana.loadtool.client.DeviceParameter;
+import com.airvana.loadtool.commons.JobLogger;
+
+/**
+ * Writes the device models to a snapshot file, which is loaded by
+ * {@link DeviceSnapshot}.
+ *
+ * <p>
+ * The file has a header, the records of the devices sorted by serialno and an
+ * index of the records.
+ *
+ * <pre>
+ * header (48 bytes): magic, version, generation, count, reserved,
+ *                    index offset, file length, index CRC32, header CRC32
+ * record:            serialno, no. of parameters, (name, value)...
+ *                    every string is its length and UTF-8 bytes
+ * index entry:       record offset (8 bytes), record length, record CRC32
+ * </pre>
+ *
+ * The file is written to a temporary file and renamed once complete, so an
+ * earlier snapshot is never left half written.
+ * </p>
+ *
+ * @author akballappagari
+ *
+ */
+public final class DeviceSnapshotWriter {
+
+	private static final JobLogger LOG = JobLogger
+			.getLogger(DeviceSnapshotWriter.class);
+
+	static final int MAGIC = 0x44534e50;
+
+	static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 48;
+
+	static final int INDEX_ENTRY_SIZE = 16;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private DeviceSnapshotWriter() {
+	}
+
+	/**
+	 * Writes the given models to the given file.
+	 *
+	 * @param file
+	 *            snapshot file, replaced if exists.
+	 * @param generation
+	 *            time in milliseconds from which the models are not
+	 *            guaranteed to be part of the snapshot, usually the time at
+	 *            which the models started to be collected.
+	 * @param models
+	 *            models per serialno.
+	 * @throws IOException
+	 *             if the file can't be written.
+	 */
+	public static void write(File file, long generation,
+			Map<String, Map<String, DeviceParameter>> models)
+			throws IOException {
+		long start = System.nanoTime();
+		SortedMap<String, Map<String, DeviceParameter>> sorted = new TreeMap<String, Map<String, DeviceParameter>>(
+				models);
+		File tmp = new File(file.getPath() + ".tmp");
+		ByteArrayOutputStream index = new ByteArrayOutputStream(sorted.size()
+				* INDEX_ENTRY_SIZE);
+		DataOutputStream indexOut = new DataOutputStream(index);
+		ByteArrayOutputStream record = new ByteArrayOutputStream(1024);
+		DataOutputStream recordOut = new DataOutputStream(record);
+		CRC32 crc = new CRC32();
+		long offset = HEADER_SIZE;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp), 1 << 16));
+		try {
+			out.write(new byte[HEADER_SIZE]);
+			for (Map.Entry<String, Map<String, DeviceParameter>> device : sorted
+					.entrySet()) {
+				record.reset();
+				writeString(recordOut, device.getKey());
+				recordOut.writeInt(device.getValue().size());
+				for (Map.Entry<String, DeviceParameter> parameter : device
+						.getValue().entrySet()) {
+					writeString(recordOut, parameter.getKey());
+					writeString(recordOut, parameter.getValue()
+							.getStringValue());
+				}
+				recordOut.flush();
+				crc.reset();
+				crc.update(record.toByteArray(), 0, record.size());
+				record.writeTo(out);
+				indexOut.writeLong(offset);
+				indexOut.writeInt(record.size());
+				indexOut.writeInt((int) crc.getValue());
+				offset += record.size();
+			}
+			indexOut.flush();
+			index.writeTo(out);
+		} finally {
+			out.close();
+		}
+		crc.reset();
+		crc.update(index.toByteArray(), 0, index.size());
+		long indexCrc = crc.getValue();
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putLong(generation)
+					.putInt(sorted.size()).putInt(0).putLong(offset)
+					.putLong(offset + index.size()).putInt((int) indexCrc);
+			crc.reset();
+			crc.update(header.array(), 0, header.position());
+			header.putInt((int) crc.getValue());
+			raf.write(header.array());
+			raf.getChannel().force(true);
+		} finally {
+			raf.close();
+		}
+		if (!tmp.renameTo(file)) {
+			// renameTo does not replace an existing file on every platform.
+			if (!file.delete() || !tmp.renameTo(file)) {
+				throw new IOException("Unable to replace snapshot " + file);
+			}
+		}
+		LOG.info("Snapshot of " + sorted.size() + " devices, generation "
+				+ generation + ", written to " + file + " ("
+				+ file.length() + " bytes) in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+	private static void writeString(DataOutputStream out, String value)
+			throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+}